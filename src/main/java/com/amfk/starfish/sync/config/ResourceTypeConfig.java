@@ -0,0 +1,37 @@
+package com.amfk.starfish.sync.config;
+
+import com.amfk.starfish.sync.service.ResourceType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+
+/**
+ * Resource types synced by the resource sync job, in the order they appear in run results.
+ * A new type only needs a bean here and its resource.sync.&lt;name&gt;.ids property, or its
+ * resource.sync.&lt;name&gt;.range.types property to request the IDs of the number ranges stored for each CM.
+ */
+@Configuration
+public class ResourceTypeConfig {
+    
+    @Bean
+    @Order(1)
+    public ResourceType stationResourceType(@Value("${resource.sync.station.ids:1000,1001,1002}") String ids,
+                                            @Value("${resource.sync.station.range.types:}") String rangeTypes) {
+        return ResourceType.of("station", "Station", ids).withRangeTypes(rangeTypes);
+    }
+    
+    @Bean
+    @Order(2)
+    public ResourceType huntGroupResourceType(@Value("${resource.sync.huntgroup.ids:2000,2001,2002}") String ids,
+                                              @Value("${resource.sync.huntgroup.range.types:}") String rangeTypes) {
+        return ResourceType.of("huntgroup", "HuntGroup", ids).withDisplayName("Hunt group").withRangeTypes(rangeTypes);
+    }
+    
+    @Bean
+    @Order(3)
+    public ResourceType pickupGroupResourceType(@Value("${resource.sync.pickupgroup.ids:3000,3001,3002}") String ids,
+                                                @Value("${resource.sync.pickupgroup.range.types:}") String rangeTypes) {
+        return ResourceType.of("pickupgroup", "PickupGroup", ids).withDisplayName("Pickup group").withRangeTypes(rangeTypes);
+    }
+}
@@ -0,0 +1,40 @@
+package com.amfk.starfish.sync.config;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+/**
+ * Creates the sync service's own bookkeeping tables (see db/sync-schema.sql).
+ * Failures are logged rather than thrown so the application still starts when MySQL is unreachable.
+ */
+@Component
+public class SyncSchemaInitializer {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SyncSchemaInitializer.class);
+    
+    public static final String SCHEMA_LOCATION = "db/sync-schema.sql";
+    
+    private final DataSource dataSource;
+    
+    public SyncSchemaInitializer(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+    
+    @PostConstruct
+    public void initializeSchema() {
+        try {
+            ResourceDatabasePopulator populator = new ResourceDatabasePopulator(new ClassPathResource(SCHEMA_LOCATION));
+            populator.setContinueOnError(true);
+            populator.execute(dataSource);
+            logger.info("Sync bookkeeping tables initialized from {}", SCHEMA_LOCATION);
+        } catch (Exception e) {
+            logger.warn("Could not initialize sync bookkeeping tables: {}", e.getMessage());
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.amfk.starfish.sync.controller;
 
+import com.amfk.starfish.sync.dto.CmEntry;
+import com.amfk.starfish.sync.dto.NumberRange;
+import com.amfk.starfish.sync.dto.SiteDetail;
 import com.amfk.starfish.sync.service.MockApiService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import java.util.*;
 
@@ -9,6 +13,9 @@ import java.util.*;
 @RequestMapping("/ProvisioningWebService/sps/v1")
 public class MockApiController {
 
+    // Most resources one batch request may ask for, as IDs or as a range
+    static final int MAX_BATCH_RESOURCES = 1000;
+
     @Autowired
     private MockApiService mockApiService;
 
@@ -19,36 +26,38 @@ public class MockApiController {
         
         try {
             // Get data from service
-            List<Map<String, Object>> queryResults = mockApiService.getSiteDetails(SiteName);
+            List<SiteDetail> queryResults = mockApiService.getSiteDetails(SiteName);
             
             if (!queryResults.isEmpty()) {
                 // Group results by site and cm
                 Map<String, Map<String, Object>> siteGroups = new HashMap<>();
+                Map<String, List<Map<String, Object>>> rangeGroups = new HashMap<>();
                 
-                for (Map<String, Object> row : queryResults) {
-                    String site = (String) row.get("site");
-                    String cm = (String) row.get("cm");
-                    String key = site + "_" + cm;
-                    
-                    if (!siteGroups.containsKey(key)) {
-                        Map<String, Object> siteData = new HashMap<>();
-                        siteData.put("Site", site);
-                        siteData.put("CM", cm);
-                        siteData.put("Ranges", new ArrayList<Map<String, Object>>());
-                        siteGroups.put(key, siteData);
+                for (SiteDetail detail : queryResults) {
+                    for (CmEntry entry : detail.results()) {
+                        String key = entry.site() + "_" + entry.cm();
+                        
+                        if (!siteGroups.containsKey(key)) {
+                            Map<String, Object> siteData = new HashMap<>();
+                            siteData.put("Site", entry.site());
+                            siteData.put("CM", entry.cm());
+                            List<Map<String, Object>> ranges = new ArrayList<>();
+                            siteData.put("Ranges", ranges);
+                            siteGroups.put(key, siteData);
+                            rangeGroups.put(key, ranges);
+                        }
+                        
+                        // Add range data
+                        for (NumberRange numberRange : entry.ranges()) {
+                            Map<String, Object> range = new HashMap<>();
+                            range.put("Type", numberRange.type());
+                            range.put("Lowerbound", numberRange.lowerbound());
+                            range.put("Upperbound", numberRange.upperbound());
+                            range.put("Prefix", numberRange.prefix());
+                            range.put("AvailableExtensions", new ArrayList<String>());
+                            rangeGroups.get(key).add(range);
+                        }
                     }
-                    
-                    // Add range data
-                    Map<String, Object> range = new HashMap<>();
-                    range.put("Type", row.get("type"));
-                    range.put("Lowerbound", row.get("lowerbound"));
-                    range.put("Upperbound", row.get("upperbound"));
-                    range.put("Prefix", row.get("prefix"));
-                    range.put("AvailableExtensions", new ArrayList<String>());
-                    
-                    @SuppressWarnings("unchecked")
-                    List<Map<String, Object>> ranges = (List<Map<String, Object>>) siteGroups.get(key).get("Ranges");
-                    ranges.add(range);
                 }
                 
                 results.addAll(siteGroups.values());
@@ -73,4 +82,72 @@ public class MockApiController {
         response.put("Results", results);
         return response;
     }
+
+    @GetMapping("/resource/{resourceType}/{resourceId}")
+    public Map<String, Object> getResource(@PathVariable String resourceType, @PathVariable String resourceId,
+                                           @RequestParam String ServerName) {
+        return resourceAttributes(resourceType, resourceId, ServerName);
+    }
+
+    /**
+     * Returns many resources of one type and CM in one response. The request body holds the
+     * ServerName and either the ResourceIds or an inclusive numeric RangeFrom/RangeTo. Every
+     * requested ID gets an entry in Results with its Status and Attributes (or Message).
+     */
+    @PostMapping("/resource/{resourceType}/batch")
+    public ResponseEntity<Map<String, Object>> getResources(@PathVariable String resourceType,
+                                                            @RequestBody Map<String, Object> request) {
+        Object serverName = request.get("ServerName");
+        List<String> resourceIds;
+        try {
+            resourceIds = requestedIds(request);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("Message", e.getMessage()));
+        }
+        if (serverName == null || resourceIds.isEmpty() || resourceIds.size() > MAX_BATCH_RESOURCES) {
+            return ResponseEntity.badRequest().body(Map.of("Message",
+                "ServerName and 1 to " + MAX_BATCH_RESOURCES + " ResourceIds or a RangeFrom/RangeTo are required"));
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (String resourceId : resourceIds) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("ResourceId", resourceId);
+            result.put("Status", "success");
+            result.put("Attributes", resourceAttributes(resourceType, resourceId, serverName.toString()));
+            results.add(result);
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("Results", results);
+        return ResponseEntity.ok(response);
+    }
+
+    private static List<String> requestedIds(Map<String, Object> request) {
+        List<String> resourceIds = new ArrayList<>();
+        if (request.get("ResourceIds") instanceof List<?> ids) {
+            for (Object id : ids) {
+                resourceIds.add(String.valueOf(id));
+            }
+        } else if (request.get("RangeFrom") != null && request.get("RangeTo") != null) {
+            long from = Long.parseLong(request.get("RangeFrom").toString());
+            long to = Long.parseLong(request.get("RangeTo").toString());
+            if (to < from || to - from >= MAX_BATCH_RESOURCES) {
+                throw new IllegalArgumentException("Range " + from + "-" + to + " must hold 1 to " + MAX_BATCH_RESOURCES + " IDs");
+            }
+            for (long id = from; id <= to; id++) {
+                resourceIds.add(String.valueOf(id));
+            }
+        }
+        return resourceIds;
+    }
+
+    private static Map<String, Object> resourceAttributes(String resourceType, String resourceId, String serverName) {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("ResourceType", resourceType);
+        attributes.put("ResourceId", resourceId);
+        attributes.put("ServerName", serverName);
+        attributes.put("Name", resourceType + "-" + resourceId);
+        return attributes;
+    }
 }
@@ -0,0 +1,53 @@
+package com.amfk.starfish.sync.controller;
+
+import com.amfk.starfish.sync.dto.ResourceSnapshot;
+import com.amfk.starfish.sync.service.ResourceSnapshotStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves the resource payloads stored by the resource sync, so callers do not have to call the CMs
+ */
+@RestController
+@RequestMapping("/api/resources")
+public class ResourceSnapshotController {
+    
+    private static final int MAX_PAGE_SIZE = 1000;
+    
+    private final ResourceSnapshotStore resourceSnapshotStore;
+    
+    @Autowired
+    public ResourceSnapshotController(ResourceSnapshotStore resourceSnapshotStore) {
+        this.resourceSnapshotStore = resourceSnapshotStore;
+    }
+    
+    @GetMapping("/{resourceType}/{serverName}/{resourceId}")
+    public ResponseEntity<ResourceSnapshot> getResource(@PathVariable String resourceType, @PathVariable String serverName,
+                                                        @PathVariable String resourceId) {
+        return resourceSnapshotStore.find(resourceType, serverName, resourceId)
+            .map(ResponseEntity::ok)
+            .orElse(ResponseEntity.notFound().build());
+    }
+    
+    /**
+     * Lists the stored resources of a type and CM by resource ID; pass the returned next value as
+     * after to get the following page
+     */
+    @GetMapping("/{resourceType}/{serverName}")
+    public ResponseEntity<Map<String, Object>> listResources(@PathVariable String resourceType, @PathVariable String serverName,
+                                                             @RequestParam(required = false) String after,
+                                                             @RequestParam(defaultValue = "100") int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        List<ResourceSnapshot> snapshots = resourceSnapshotStore.list(resourceType, serverName, after, pageSize);
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("resources", snapshots);
+        response.put("next", snapshots.size() == pageSize ? snapshots.get(snapshots.size() - 1).resourceId() : null);
+        return ResponseEntity.ok(response);
+    }
+}
@@ -2,6 +2,7 @@ package com.amfk.starfish.sync.controller;
 
 import com.amfk.starfish.sync.service.SiteSyncService;
 import com.amfk.starfish.sync.service.MasterServiceClient;
+import com.amfk.starfish.sync.service.SiteTopologyCache;
 import com.amfk.starfish.sync.dto.SiteDto;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -19,14 +20,34 @@ public class SchedulerController {
     
     private final SiteSyncService siteSyncService;
     private final MasterServiceClient masterServiceClient;
+    private final SiteTopologyCache siteTopologyCache;
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     
     @Autowired
-    public SchedulerController(SiteSyncService siteSyncService, MasterServiceClient masterServiceClient) {
+    public SchedulerController(SiteSyncService siteSyncService, MasterServiceClient masterServiceClient,
+                               SiteTopologyCache siteTopologyCache) {
         this.siteSyncService = siteSyncService;
         this.masterServiceClient = masterServiceClient;
+        this.siteTopologyCache = siteTopologyCache;
     }
     
-    
-   
-} 
\ No newline at end of file
+    /**
+     * Drops cached CM names, e.g. after CMs were reassigned, so the next resource sync fetches them again
+     * @param cluster Cluster to drop; all clusters when omitted
+     * @return Cache statistics after the invalidation
+     */
+    @DeleteMapping("/topology-cache")
+    public ResponseEntity<Map<String, Object>> invalidateTopologyCache(@RequestParam(required = false) String cluster) {
+        if (cluster != null) {
+            siteTopologyCache.invalidate(cluster);
+        } else {
+            siteTopologyCache.invalidateAll();
+        }
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("invalidated", cluster != null ? cluster : "all");
+        response.put("stats", siteTopologyCache.getStats());
+        response.put("timestamp", LocalDateTime.now().format(formatter));
+        return ResponseEntity.ok(response);
+    }
+}
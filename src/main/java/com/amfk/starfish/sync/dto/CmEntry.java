@@ -0,0 +1,22 @@
+package com.amfk.starfish.sync.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * One Site/CM entry of a site-detail response
+ * @param site Site name (physical_pbx)
+ * @param cm CM name (remark)
+ * @param ranges Number ranges of the CM, never null
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record CmEntry(@JsonProperty("Site") String site,
+                      @JsonProperty("CM") String cm,
+                      @JsonProperty("Ranges") List<NumberRange> ranges) {
+                      
+    public CmEntry {
+        ranges = ranges != null ? ranges : List.of();
+    }
+}
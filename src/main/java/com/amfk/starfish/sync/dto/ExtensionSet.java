@@ -0,0 +1,398 @@
+package com.amfk.starfish.sync.dto;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Set of extensions stored as a bitset of offsets from a base number, normally the Lowerbound of the
+ * range the extensions belong to. One bit per number in the range replaces one String per extension.
+ * Extensions that are not plain numbers at or above the base (or do not match the zero-padded width
+ * of the base) are kept as Strings on the side, so no input is lost. So are numbers more than
+ * {@link #MAX_SPAN} above the base, which caps the bitset at 2 MB however far apart the extensions are.
+ *
+ * Encoding: a numeric extension is the int offset (value - base). Its text is the decimal value,
+ * left-padded with zeros to the width of the base when the base itself has a leading zero ("0100"
+ * gives width 4, so offset 50 is "0150"); otherwise it has no leading zeros. Any text that does not
+ * round-trip through this encoding ("150" against base "0100", "A12", "+49...") is irregular.
+ * {@link #offsetOf(String)}, {@link #containsOffset(int)}, {@link #addOffset(int)} and {@link Cursor}
+ * work on offsets directly, so callers can diff and batch extensions without creating Strings until
+ * a value is bound to a statement.
+ *
+ * Not thread-safe.
+ */
+public final class ExtensionSet implements Iterable<String> {
+    
+    // Longest digit string that always fits in a long
+    private static final int MAX_DIGITS = 18;
+    
+    /**
+     * Largest offset + 1 kept in the bitset (2^24 numbers, 2 MB); numbers further from the base are irregular
+     */
+    public static final int MAX_SPAN = 1 << 24;
+    
+    private final long base;
+    private final int width;
+    private final BitSet offsets;
+    private Set<String> irregular;
+    
+    private ExtensionSet(long base, int width, BitSet offsets) {
+        this.base = base;
+        this.width = width;
+        this.offsets = offsets;
+    }
+    
+    /**
+     * Empty set relative to a range's lower bound
+     * @param lowerbound Lowerbound of the range; if it is not a number the base is 0
+     * @return Empty set
+     */
+    public static ExtensionSet relativeTo(String lowerbound) {
+        String trimmed = lowerbound != null ? lowerbound.trim() : "";
+        if (trimmed.length() > MAX_DIGITS || !isDigits(trimmed)) {
+            return new ExtensionSet(0, 0, new BitSet());
+        }
+        int width = trimmed.length() > 1 && trimmed.charAt(0) == '0' ? trimmed.length() : 0;
+        return new ExtensionSet(Long.parseLong(trimmed), width, new BitSet());
+    }
+    
+    /**
+     * Set of the given extensions relative to a range's lower bound
+     * @param lowerbound Lowerbound of the range
+     * @param extensions Extensions; null and blank entries are skipped, the others trimmed
+     * @return New set
+     */
+    public static ExtensionSet of(String lowerbound, Collection<String> extensions) {
+        ExtensionSet set = relativeTo(lowerbound);
+        if (extensions != null) {
+            for (String extension : extensions) {
+                set.add(extension);
+            }
+        }
+        return set;
+    }
+    
+    /**
+     * Empty set with the same base and width as another set, so that set operations between the two
+     * stay on the bitsets
+     * @param other Set to copy the base from
+     * @return Empty set
+     */
+    public static ExtensionSet emptyLike(ExtensionSet other) {
+        return new ExtensionSet(other.base, other.width, new BitSet());
+    }
+    
+    /**
+     * Adds an extension
+     * @param extension Extension; null and blank values are ignored, others are trimmed
+     * @return true if the set did not contain the extension yet
+     */
+    public boolean add(String extension) {
+        if (extension == null) {
+            return false;
+        }
+        String trimmed = extension.trim();
+        if (trimmed.isEmpty()) {
+            return false;
+        }
+        
+        int offset = offsetOf(trimmed);
+        if (offset < 0) {
+            if (irregular == null) {
+                irregular = new TreeSet<>();
+            }
+            return irregular.add(trimmed);
+        }
+        return addOffset(offset);
+    }
+    
+    /**
+     * Adds a numeric extension by its offset from the base
+     * @param offset Offset below {@link #MAX_SPAN}, e.g. from {@link #offsetOf(String)} of a set with the same base
+     * @return true if the set did not contain the extension yet
+     */
+    public boolean addOffset(int offset) {
+        boolean present = offsets.get(offset);
+        offsets.set(offset);
+        return !present;
+    }
+    
+    /**
+     * @param offset Non-negative offset from the base
+     * @return true if the set contains the numeric extension at that offset
+     */
+    public boolean containsOffset(int offset) {
+        return offsets.get(offset);
+    }
+    
+    /**
+     * @param extension Trimmed extension
+     * @return true if the set contains the extension
+     */
+    public boolean contains(String extension) {
+        if (extension == null) {
+            return false;
+        }
+        int offset = offsetOf(extension);
+        if (offset >= 0) {
+            return offsets.get(offset);
+        }
+        return irregular != null && irregular.contains(extension);
+    }
+    
+    /**
+     * @return Number of extensions in the set
+     */
+    public int cardinality() {
+        return offsets.cardinality() + (irregular != null ? irregular.size() : 0);
+    }
+    
+    public boolean isEmpty() {
+        return offsets.isEmpty() && (irregular == null || irregular.isEmpty());
+    }
+    
+    /**
+     * Adds all extensions of another set. Bitsets with the same width are merged word by word when the
+     * other set's base is not below this one; otherwise extensions are added one at a time.
+     * @param other Set to add
+     */
+    public void addAll(ExtensionSet other) {
+        long shift = other.base - base;
+        if (other.width == width && shift >= 0 && shift + other.offsets.length() <= MAX_SPAN) {
+            if (shift == 0) {
+                offsets.or(other.offsets);
+            } else {
+                for (int bit = other.offsets.nextSetBit(0); bit >= 0; bit = other.offsets.nextSetBit(bit + 1)) {
+                    offsets.set(bit + (int) shift);
+                }
+            }
+            if (other.irregular != null) {
+                for (String extension : other.irregular) {
+                    add(extension);
+                }
+            }
+            return;
+        }
+        for (String extension : other) {
+            add(extension);
+        }
+    }
+    
+    /**
+     * Union of several sets, based on the lowest base among them so the bitsets can be merged directly.
+     * Extensions of sets whose base is more than {@link #MAX_SPAN} above it are kept as Strings.
+     * @param sets Sets to combine
+     * @return New set containing every extension of the given sets
+     */
+    public static ExtensionSet union(Collection<ExtensionSet> sets) {
+        ExtensionSet lowest = null;
+        for (ExtensionSet set : sets) {
+            if (lowest == null || set.base < lowest.base) {
+                lowest = set;
+            }
+        }
+        ExtensionSet union = lowest != null ? emptyLike(lowest) : relativeTo(null);
+        for (ExtensionSet set : sets) {
+            union.addAll(set);
+        }
+        return union;
+    }
+    
+    /**
+     * Extensions of this set that are not in the other set
+     * @param other Set to subtract
+     * @return New set with the same base as this one
+     */
+    public ExtensionSet difference(ExtensionSet other) {
+        ExtensionSet result = emptyLike(this);
+        if (other.base == base && other.width == width) {
+            result.offsets.or(offsets);
+            result.offsets.andNot(other.offsets);
+            if (irregular != null) {
+                for (String extension : irregular) {
+                    if (!other.contains(extension)) {
+                        result.add(extension);
+                    }
+                }
+            }
+            return result;
+        }
+        for (String extension : this) {
+            if (!other.contains(extension)) {
+                result.add(extension);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Iterates the numeric extensions in ascending order, then the others in natural order.
+     * Strings are created on the fly and not retained.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<>() {
+            private int nextBit = offsets.nextSetBit(0);
+            private final Iterator<String> rest = irregular != null ? irregular.iterator() : null;
+            
+            @Override
+            public boolean hasNext() {
+                return nextBit >= 0 || (rest != null && rest.hasNext());
+            }
+            
+            @Override
+            public String next() {
+                if (nextBit >= 0) {
+                    String extension = format(base + nextBit);
+                    nextBit = offsets.nextSetBit(nextBit + 1);
+                    return extension;
+                }
+                if (rest != null && rest.hasNext()) {
+                    return rest.next();
+                }
+                throw new NoSuchElementException();
+            }
+        };
+    }
+    
+    /**
+     * Encodes an extension relative to this set's base
+     * @param extension Trimmed extension
+     * @return Offset from the base, or -1 if the extension is irregular (including numbers
+     *         {@link #MAX_SPAN} or more above the base) and kept as a String
+     */
+    public int offsetOf(String extension) {
+        if (extension.length() > MAX_DIGITS || !isDigits(extension)) {
+            return -1;
+        }
+        if (width > 0 ? extension.length() != width : extension.length() > 1 && extension.charAt(0) == '0') {
+            return -1;
+        }
+        long offset = Long.parseLong(extension) - base;
+        return offset >= 0 && offset < MAX_SPAN ? (int) offset : -1;
+    }
+    
+    /**
+     * Decodes an offset of this set
+     * @param offset Non-negative offset from the base
+     * @return Extension text, zero-padded to the width of the base
+     */
+    public String formatOffset(int offset) {
+        return format(base + offset);
+    }
+    
+    /**
+     * @return Cursor over this set's extensions in iteration order, for taking them in chunks
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+    
+    private String format(long value) {
+        String digits = Long.toString(value);
+        if (digits.length() >= width) {
+            return digits;
+        }
+        return "0".repeat(width - digits.length()) + digits;
+    }
+    
+    private static boolean isDigits(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Takes the extensions of the set in chunks: numeric ones as offsets in an int array, then the
+     * irregular ones as Strings. The set must not change while a cursor is in use.
+     */
+    public final class Cursor {
+        private int nextBit = offsets.nextSetBit(0);
+        // Numeric extensions not taken yet, counted once so that taking a chunk stays proportional to its size
+        private int remaining = offsets.cardinality();
+        private final Iterator<String> rest = irregular != null ? irregular.iterator() : null;
+        
+        public boolean hasNext() {
+            return nextBit >= 0 || (rest != null && rest.hasNext());
+        }
+        
+        /**
+         * @param max Largest number of extensions to take
+         * @return Next chunk, empty when the cursor is exhausted
+         */
+        public Chunk next(int max) {
+            int[] chunkOffsets = new int[Math.max(0, Math.min(max, remaining))];
+            int count = 0;
+            while (nextBit >= 0 && count < chunkOffsets.length) {
+                chunkOffsets[count++] = nextBit;
+                nextBit = offsets.nextSetBit(nextBit + 1);
+            }
+            remaining -= count;
+            List<String> chunkIrregular = List.of();
+            if (count < max && rest != null && rest.hasNext()) {
+                chunkIrregular = new ArrayList<>();
+                while (rest.hasNext() && count + chunkIrregular.size() < max) {
+                    chunkIrregular.add(rest.next());
+                }
+            }
+            return new Chunk(ExtensionSet.this, chunkOffsets, count, chunkIrregular);
+        }
+    }
+    
+    /**
+     * Extensions taken from a {@link Cursor}, as a read-only list whose elements are formatted on
+     * each {@link #get(int)} and not retained
+     */
+    public static final class Chunk extends AbstractList<String> implements RandomAccess {
+        private final ExtensionSet owner;
+        private final int[] offsets;
+        private final int count;
+        private final List<String> irregular;
+        
+        private Chunk(ExtensionSet owner, int[] offsets, int count, List<String> irregular) {
+            this.owner = owner;
+            this.offsets = offsets;
+            this.count = count;
+            this.irregular = irregular;
+        }
+        
+        @Override
+        public int size() {
+            return count + irregular.size();
+        }
+        
+        /**
+         * @param index Position in the chunk, numeric extensions first
+         * @return Extension text
+         */
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return index < count ? owner.formatOffset(offsets[index]) : irregular.get(index - count);
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "ExtensionSet{" +
+                "base=" + base +
+                ", cardinality=" + cardinality() +
+                '}';
+    }
+}
@@ -0,0 +1,29 @@
+package com.amfk.starfish.sync.dto;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * One number range of a CM. Both spellings of the bounds seen from Mock API (LowerBound/Lowerbound,
+ * UpperBound/Upperbound) are declared as aliases, so they are resolved once when Jackson builds the
+ * deserializer instead of on every lookup. Numeric bounds are read as text.
+ * @param type Phone number type name (e.g., "internal", "external")
+ * @param lowerbound First number of the range
+ * @param upperbound Last number of the range
+ * @param prefix Dialing prefix, if any
+ * @param availableExtensions Extensions offered in the range, never null
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record NumberRange(@JsonProperty("Type") String type,
+                          @JsonProperty("Lowerbound") @JsonAlias("LowerBound") String lowerbound,
+                          @JsonProperty("Upperbound") @JsonAlias("UpperBound") String upperbound,
+                          @JsonProperty("Prefix") String prefix,
+                          @JsonProperty("AvailableExtensions") List<String> availableExtensions) {
+                          
+    public NumberRange {
+        availableExtensions = availableExtensions != null ? availableExtensions : List.of();
+    }
+}
@@ -0,0 +1,38 @@
+package com.amfk.starfish.sync.dto;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Outcome of one station, hunt group or pickup group resource call
+ * @param resourceType "station", "huntgroup" or "pickupgroup"
+ * @param resourceId Resource ID that was requested
+ * @param serverName CM the resource was requested from
+ * @param status "success" or "error"
+ * @param message Error message, null on success
+ * @param timestamp When the call completed
+ * @param attributes Resource payload as returned by Mock API, empty on error
+ */
+public record ResourceResult(String resourceType,
+                             String resourceId,
+                             String serverName,
+                             String status,
+                             String message,
+                             Date timestamp,
+                             Map<String, Object> attributes) {
+                             
+    public static final String SUCCESS = "success";
+    public static final String ERROR = "error";
+    
+    public static ResourceResult success(String resourceType, String resourceId, String serverName, Map<String, Object> attributes) {
+        return new ResourceResult(resourceType, resourceId, serverName, SUCCESS, null, new Date(), attributes);
+    }
+    
+    public static ResourceResult error(String resourceType, String resourceId, String serverName, String message) {
+        return new ResourceResult(resourceType, resourceId, serverName, ERROR, message, new Date(), Map.of());
+    }
+    
+    public boolean isSuccess() {
+        return SUCCESS.equals(status);
+    }
+}
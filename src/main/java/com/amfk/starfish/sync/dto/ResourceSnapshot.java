@@ -0,0 +1,21 @@
+package com.amfk.starfish.sync.dto;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Last stored payload of one station, hunt group or pickup group resource
+ * @param resourceType "station", "huntgroup" or "pickupgroup"
+ * @param serverName CM the resource was fetched from
+ * @param resourceId Resource ID
+ * @param attributes Resource payload as returned by Mock API
+ * @param contentHash SHA-256 of the canonical payload
+ * @param changedOn When the payload was last stored with a different hash
+ */
+public record ResourceSnapshot(String resourceType,
+                               String serverName,
+                               String resourceId,
+                               Map<String, Object> attributes,
+                               String contentHash,
+                               LocalDateTime changedOn) {
+}
@@ -0,0 +1,18 @@
+package com.amfk.starfish.sync.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * Mock API site-detail response, bound directly by Jackson. Unknown properties are ignored.
+ * @param results One entry per Site/CM, never null
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record SiteDetail(@JsonProperty("Results") List<CmEntry> results) {
+    
+    public SiteDetail {
+        results = results != null ? results : List.of();
+    }
+}
@@ -0,0 +1,90 @@
+package com.amfk.starfish.sync.dto;
+
+import java.util.List;
+
+/**
+ * Database write instructions for one Site/CM entry of a Mock API response.
+ * Produced by the transform step and consumed by the database writer.
+ */
+public class SiteWriteCommand {
+    
+    private final String siteName;
+    private final String cmName;
+    private final List<Range> ranges;
+    
+    public SiteWriteCommand(String siteName, String cmName, List<Range> ranges) {
+        this.siteName = siteName;
+        this.cmName = cmName;
+        this.ranges = ranges;
+    }
+    
+    public String getSiteName() {
+        return siteName;
+    }
+    
+    public String getCmName() {
+        return cmName;
+    }
+    
+    public List<Range> getRanges() {
+        return ranges;
+    }
+    
+    @Override
+    public String toString() {
+        return "SiteWriteCommand{" +
+                "siteName='" + siteName + '\'' +
+                ", cmName='" + cmName + '\'' +
+                ", ranges=" + ranges.size() +
+                '}';
+    }
+    
+    /**
+     * One number range with its available extensions. Fields may be null when missing upstream,
+     * except the extension set, which is empty when there are none.
+     */
+    public static class Range {
+        
+        private final String type;
+        private final String lowerbound;
+        private final String upperbound;
+        private final ExtensionSet availableExtensions;
+        
+        public Range(String type, String lowerbound, String upperbound, ExtensionSet availableExtensions) {
+            this.type = type;
+            this.lowerbound = lowerbound;
+            this.upperbound = upperbound;
+            this.availableExtensions = availableExtensions != null ? availableExtensions : ExtensionSet.relativeTo(lowerbound);
+        }
+        
+        public Range(String type, String lowerbound, String upperbound, List<String> availableExtensions) {
+            this(type, lowerbound, upperbound, ExtensionSet.of(lowerbound, availableExtensions));
+        }
+        
+        public String getType() {
+            return type;
+        }
+        
+        public String getLowerbound() {
+            return lowerbound;
+        }
+        
+        public String getUpperbound() {
+            return upperbound;
+        }
+        
+        public ExtensionSet getAvailableExtensions() {
+            return availableExtensions;
+        }
+        
+        @Override
+        public String toString() {
+            return "Range{" +
+                    "type='" + type + '\'' +
+                    ", lowerbound='" + lowerbound + '\'' +
+                    ", upperbound='" + upperbound + '\'' +
+                    ", availableExtensions=" + availableExtensions.cardinality() +
+                    '}';
+        }
+    }
+}
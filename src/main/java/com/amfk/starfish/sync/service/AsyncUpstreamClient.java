@@ -0,0 +1,256 @@
+package com.amfk.starfish.sync.service;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Non-blocking counterpart of the RestTemplate from RestClientConfig, used when upstream.http.mode
+ * is async. Requests are multiplexed over a few I/O reactor threads, so the number of calls in
+ * flight is bounded by connections and concurrency limits instead of caller threads. Responses are
+ * buffered and bound with the same Jackson defaults as RestTemplate; 4xx and 5xx responses and I/O
+ * errors fail the future with the exceptions RestTemplate would throw, so callers handle both
+ * modes alike. The client is started on first use.
+ */
+@Service
+public class AsyncUpstreamClient {
+    
+    private static final Logger logger = LoggerFactory.getLogger(AsyncUpstreamClient.class);
+    
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    
+    @Value("${rest.client.connection.timeout:30000}")
+    private int connectionTimeout = 30000;
+    
+    @Value("${rest.client.read.timeout:60000}")
+    private int readTimeout = 60000;
+    
+    // Connections to the upstream hosts; all CMs are reached through the same host, so this is also the per-route limit
+    @Value("${rest.client.async.max.connections:1000}")
+    private int maxConnections = 1000;
+    
+    @Value("${rest.client.async.io.threads:2}")
+    private int ioThreads = 2;
+    
+    private volatile CloseableHttpAsyncClient client;
+    
+    /**
+     * Sends a GET request
+     * @param url Request URL
+     * @param headers Request headers
+     * @return Completed with the response, or failed as described in the class comment
+     */
+    public CompletableFuture<Response> get(String url, HttpHeaders headers) {
+        return execute(SimpleRequestBuilder.get(url), headers, null);
+    }
+    
+    /**
+     * Sends a POST request with a JSON body
+     * @param url Request URL
+     * @param headers Request headers
+     * @param body Object serialized as the JSON request body
+     * @return Completed with the response, or failed as described in the class comment
+     */
+    public CompletableFuture<Response> post(String url, HttpHeaders headers, Object body) {
+        try {
+            return execute(SimpleRequestBuilder.post(url), headers, objectMapper.writeValueAsBytes(body));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Request body is not serializable", e));
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        CloseableHttpAsyncClient started = client;
+        if (started != null) {
+            started.close(CloseMode.GRACEFUL);
+        }
+    }
+    
+    private CompletableFuture<Response> execute(SimpleRequestBuilder builder, HttpHeaders headers, byte[] body) {
+        headers.forEach((name, values) -> {
+            if (body == null || !HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name)) {
+                values.forEach(value -> builder.addHeader(name, value));
+            }
+        });
+        if (body != null) {
+            builder.setBody(body, ContentType.APPLICATION_JSON);
+        }
+        SimpleHttpRequest request = builder.build();
+        String url = String.valueOf(builder.getUri());
+        
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        try {
+            client().execute(SimpleRequestProducer.create(request), SimpleResponseConsumer.create(), new FutureCallback<SimpleHttpResponse>() {
+                @Override
+                public void completed(SimpleHttpResponse response) {
+                    HttpStatusCode status = HttpStatusCode.valueOf(response.getCode());
+                    byte[] responseBody = response.getBodyBytes() != null ? response.getBodyBytes() : new byte[0];
+                    if (status.is4xxClientError()) {
+                        future.completeExceptionally(HttpClientErrorException.create(status, response.getReasonPhrase(),
+                            HttpHeaders.EMPTY, responseBody, StandardCharsets.UTF_8));
+                    } else if (status.is5xxServerError()) {
+                        future.completeExceptionally(HttpServerErrorException.create(status, response.getReasonPhrase(),
+                            HttpHeaders.EMPTY, responseBody, StandardCharsets.UTF_8));
+                    } else {
+                        future.complete(new Response(status, responseBody));
+                    }
+                }
+                
+                @Override
+                public void failed(Exception e) {
+                    future.completeExceptionally(new ResourceAccessException("I/O error on " + request.getMethod() + " request for \""
+                        + url + "\": " + e.getMessage(), e instanceof IOException io ? io : new IOException(e)));
+                }
+                
+                @Override
+                public void cancelled() {
+                    future.cancel(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+    
+    private CloseableHttpAsyncClient client() {
+        CloseableHttpAsyncClient started = client;
+        if (started == null) {
+            synchronized (this) {
+                started = client;
+                if (started == null) {
+                    started = HttpAsyncClients.custom()
+                        .setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+                            .setMaxConnTotal(maxConnections)
+                            .setMaxConnPerRoute(maxConnections)
+                            .setDefaultConnectionConfig(ConnectionConfig.custom()
+                                .setConnectTimeout(Timeout.ofMilliseconds(connectionTimeout))
+                                .setSocketTimeout(Timeout.ofMilliseconds(readTimeout))
+                                .build())
+                            .build())
+                        .setIOReactorConfig(IOReactorConfig.custom().setIoThreadCount(Math.max(1, ioThreads)).build())
+                        .setDefaultRequestConfig(RequestConfig.custom().setResponseTimeout(Timeout.ofMilliseconds(readTimeout)).build())
+                        .build();
+                    started.start();
+                    client = started;
+                    logger.info("Started async upstream HTTP client ({} I/O threads, {} connections)", ioThreads, maxConnections);
+                }
+            }
+        }
+        return started;
+    }
+    
+    /**
+     * Whether upstream.http.mode selects this client
+     * @param httpMode "blocking" or "async"
+     */
+    public static boolean isAsync(String httpMode) {
+        return "async".equalsIgnoreCase(httpMode);
+    }
+    
+    /**
+     * The exception a stage failed with, without the CompletionException wrapper
+     * @param error Failure passed to a completion stage, may be null
+     * @return The original exception, null if error is null
+     */
+    public static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+    
+    /**
+     * Waits for a response, rethrowing failures as RestTemplate would have thrown them
+     * @param future Future returned by {@link #get} or {@link #post}
+     * @return The response
+     */
+    public static Response join(CompletableFuture<Response> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            throw cause instanceof RuntimeException runtime ? runtime : e;
+        }
+    }
+    
+    /**
+     * A buffered 2xx or 3xx response
+     * @param status Response status
+     * @param body Response body, empty if there was none
+     */
+    public record Response(HttpStatusCode status, byte[] body) {
+    }
+    
+    /**
+     * Binds a response body the way RestTemplate's JSON converter would
+     * @param response Response to read
+     * @param type Target type, e.g. a class or a parameterized type
+     * @return Bound body, null if the body is empty
+     */
+    public <T> T read(Response response, Type type) {
+        if (response.body().length == 0) {
+            return null;
+        }
+        try {
+            JavaType javaType = objectMapper.getTypeFactory().constructType(type);
+            return objectMapper.readValue(response.body(), javaType);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read response body: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Binds a JSON object response body to a map
+     * @param response Response to read
+     * @return Bound body, null if the body is empty
+     */
+    public Map<String, Object> readMap(Response response) {
+        return read(response, objectMapper.getTypeFactory().constructMapType(Map.class, String.class, Object.class));
+    }
+    
+    /**
+     * Binds a JSON array response body to a list of maps
+     * @param response Response to read
+     * @return Bound body, null if the body is empty
+     */
+    public List<Map<String, Object>> readList(Response response) {
+        return read(response, objectMapper.getTypeFactory().constructCollectionType(List.class,
+            objectMapper.getTypeFactory().constructMapType(Map.class, String.class, Object.class)));
+    }
+}
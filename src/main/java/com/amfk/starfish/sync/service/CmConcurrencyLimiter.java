@@ -0,0 +1,316 @@
+package com.amfk.starfish.sync.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the Mock API calls in flight per upstream (a CM for resource calls, a cluster for site
+ * calls) with a limit that adapts to how the upstream copes (AIMD):
+ * <ul>
+ *   <li>a call that fails with an overload signal (5xx, 429, timeout or I/O error) cuts the limit by the backoff ratio</li>
+ *   <li>a call slower than the latency tolerance times the upstream's baseline RTT cuts it by 10%</li>
+ *   <li>any other call grows it by 1/limit, about one per limit's worth of calls, while the limit is in use</li>
+ * </ul>
+ * The baseline RTT is the fastest call of the previous window of samples, so it follows slow drifts.
+ * A caller waits for a free slot of its upstream up to the acquire timeout, blocking or, with
+ * {@link #acquireAsync}, without holding a thread. Limits, calls in flight
+ * and RTTs are exported per upstream.
+ */
+@Service
+public class CmConcurrencyLimiter {
+    
+    private static final Logger logger = LoggerFactory.getLogger(CmConcurrencyLimiter.class);
+    
+    // Samples per baseline RTT window
+    private static final int RTT_WINDOW = 100;
+    
+    private final MeterRegistry meterRegistry;
+    private final Map<String, UpstreamLimit> limits = new ConcurrentHashMap<>();
+    
+    @Value("${upstream.limiter.enabled:true}")
+    private boolean enabled = true;
+    
+    @Value("${upstream.limiter.initial.limit:8}")
+    private int initialLimit = 8;
+    
+    @Value("${upstream.limiter.min.limit:1}")
+    private int minLimit = 1;
+    
+    @Value("${upstream.limiter.max.limit:64}")
+    private int maxLimit = 64;
+    
+    // A call slower than this multiple of the baseline RTT counts as a latency signal
+    @Value("${upstream.limiter.latency.tolerance:2.0}")
+    private double latencyTolerance = 2.0;
+    
+    // Factor applied to the limit after an overload error
+    @Value("${upstream.limiter.backoff.ratio:0.5}")
+    private double backoffRatio = 0.5;
+    
+    @Value("${upstream.limiter.acquire.timeout.ms:30000}")
+    private long acquireTimeoutMs = 30000;
+    
+    public CmConcurrencyLimiter(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+    
+    /**
+     * Waits for a free slot of an upstream
+     * @param upstream CM name (ServerName) or cluster name
+     * @return Permit to release with the outcome of the call
+     * @throws LimitExceededException if no slot was freed within the acquire timeout
+     */
+    public Permit acquire(String upstream) throws InterruptedException {
+        CompletableFuture<Permit> permit = acquireAsync(upstream);
+        try {
+            return permit.get();
+        } catch (InterruptedException e) {
+            if (!permit.cancel(false) && !permit.isCompletedExceptionally()) {
+                permit.join().releaseUnused();
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        }
+    }
+    
+    /**
+     * Requests a slot of an upstream without blocking; slots are handed out in request order
+     * @param upstream CM name (ServerName) or cluster name
+     * @return Completed with the permit once a slot is free, or with a {@link LimitExceededException}
+     *         after the acquire timeout. The future completes on the thread that freed the slot.
+     */
+    public CompletableFuture<Permit> acquireAsync(String upstream) {
+        if (!enabled) {
+            return CompletableFuture.completedFuture(new Permit(null));
+        }
+        return limits.computeIfAbsent(upstream, this::newLimit).acquire(acquireTimeoutMs);
+    }
+    
+    /**
+     * Current limit of an upstream, for logs and tests
+     * @return Calls allowed in flight, the initial limit for an upstream not called yet
+     */
+    public int getLimit(String upstream) {
+        UpstreamLimit limit = limits.get(upstream);
+        return limit != null ? limit.currentLimit() : initialLimit;
+    }
+    
+    private static boolean isOverload(HttpStatusCode status) {
+        return status.is5xxServerError() || status.value() == HttpStatus.TOO_MANY_REQUESTS.value();
+    }
+    
+    private UpstreamLimit newLimit(String upstream) {
+        UpstreamLimit limit = new UpstreamLimit(upstream, Timer.builder("upstream.call.rtt")
+            .tag("upstream", upstream)
+            .description("Round trip time of Mock API calls per CM or cluster")
+            .register(meterRegistry));
+        Gauge.builder("upstream.concurrency.limit", limit, UpstreamLimit::currentLimit)
+            .tag("upstream", upstream)
+            .description("Adaptive limit of Mock API calls in flight per CM or cluster")
+            .register(meterRegistry);
+        Gauge.builder("upstream.concurrency.inflight", limit, UpstreamLimit::inFlight)
+            .tag("upstream", upstream)
+            .description("Mock API calls in flight per CM or cluster")
+            .register(meterRegistry);
+        Gauge.builder("upstream.rtt.baseline", limit, UpstreamLimit::baselineMs)
+            .tag("upstream", upstream)
+            .description("Fastest Mock API call of the last window per CM or cluster, in ms")
+            .register(meterRegistry);
+        return limit;
+    }
+    
+    /**
+     * Slot of one call. Release it exactly once, after the call.
+     */
+    public final class Permit {
+        private final UpstreamLimit limit;
+        private final long start = System.nanoTime();
+        private boolean released;
+        
+        private Permit(UpstreamLimit limit) {
+            this.limit = limit;
+        }
+        
+        /**
+         * The call completed, also with a client error such as 404
+         */
+        public void success() {
+            release(System.nanoTime() - start, false);
+        }
+        
+        /**
+         * Releases the slot with the outcome of a call that got a response
+         * @param status Response status; 5xx and 429 count as overload
+         */
+        public void complete(HttpStatusCode status) {
+            release(System.nanoTime() - start, isOverload(status));
+        }
+        
+        /**
+         * Releases the slot with the outcome of a call that threw
+         * @param e Exception of the call; server errors, 429 and I/O errors count as overload
+         */
+        public void fail(Throwable e) {
+            boolean overloaded = e instanceof ResourceAccessException || e instanceof HttpServerErrorException
+                || (e instanceof HttpStatusCodeException statusException && isOverload(statusException.getStatusCode()));
+            release(System.nanoTime() - start, overloaded);
+        }
+        
+        void release(long rttNanos, boolean overloaded) {
+            if (released || limit == null) {
+                return;
+            }
+            released = true;
+            limit.release(rttNanos, overloaded);
+        }
+        
+        private void releaseUnused() {
+            if (released || limit == null) {
+                return;
+            }
+            released = true;
+            limit.releaseUnused();
+        }
+    }
+    
+    /**
+     * Thrown when a call waited longer than the acquire timeout for a slot of its upstream
+     */
+    public static class LimitExceededException extends RuntimeException {
+        public LimitExceededException(String message) {
+            super(message);
+        }
+    }
+    
+    private final class UpstreamLimit {
+        private final String upstream;
+        private final Timer rttTimer;
+        private final Queue<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+        
+        private double limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        private int inFlight;
+        private long baselineRttNanos;
+        private long windowMinRttNanos = Long.MAX_VALUE;
+        private int windowSamples;
+        
+        private UpstreamLimit(String upstream, Timer rttTimer) {
+            this.upstream = upstream;
+            this.rttTimer = rttTimer;
+        }
+        
+        private CompletableFuture<Permit> acquire(long timeoutMs) {
+            CompletableFuture<Permit> waiter = new CompletableFuture<>();
+            synchronized (this) {
+                waiters.add(waiter);
+            }
+            grant();
+            if (!waiter.isDone()) {
+                CompletableFuture.delayedExecutor(timeoutMs, TimeUnit.MILLISECONDS).execute(() -> waiter.completeExceptionally(
+                    new LimitExceededException("No free call slot for " + upstream + " within " + timeoutMs + " ms (limit "
+                        + currentLimit() + ")")));
+            }
+            return waiter;
+        }
+        
+        /**
+         * Hands free slots to waiters; completed outside the lock so the callers' next stages do not run under it
+         */
+        private void grant() {
+            List<CompletableFuture<Permit>> granted = new ArrayList<>();
+            synchronized (this) {
+                while (inFlight < currentLimit() && !waiters.isEmpty()) {
+                    CompletableFuture<Permit> waiter = waiters.poll();
+                    if (!waiter.isDone()) {
+                        inFlight++;
+                        granted.add(waiter);
+                    }
+                }
+            }
+            for (CompletableFuture<Permit> waiter : granted) {
+                // timed out or cancelled since it was taken from the queue
+                if (!waiter.complete(new Permit(this))) {
+                    releaseUnused();
+                }
+            }
+        }
+        
+        private void releaseUnused() {
+            synchronized (this) {
+                inFlight--;
+            }
+            grant();
+        }
+        
+        private void release(long rttNanos, boolean overloaded) {
+            synchronized (this) {
+                rttTimer.record(rttNanos, TimeUnit.NANOSECONDS);
+                int before = currentLimit();
+                boolean saturated = inFlight * 2 >= limit;
+                inFlight--;
+                
+                if (overloaded) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                } else if (baselineRttNanos > 0 && rttNanos > baselineRttNanos * latencyTolerance) {
+                    limit = Math.max(minLimit, limit * 0.9);
+                } else if (saturated) {
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                }
+                sampleRtt(rttNanos, overloaded);
+                
+                if (currentLimit() < before) {
+                    logger.debug("Concurrency limit of {} lowered to {} ({}, rtt {} ms)", upstream, currentLimit(),
+                        overloaded ? "overload error" : "slow call", TimeUnit.NANOSECONDS.toMillis(rttNanos));
+                }
+            }
+            grant();
+        }
+        
+        private void sampleRtt(long rttNanos, boolean overloaded) {
+            if (overloaded) {
+                return;
+            }
+            if (baselineRttNanos == 0) {
+                baselineRttNanos = rttNanos;
+            }
+            windowMinRttNanos = Math.min(windowMinRttNanos, rttNanos);
+            if (++windowSamples >= RTT_WINDOW) {
+                baselineRttNanos = windowMinRttNanos;
+                windowMinRttNanos = Long.MAX_VALUE;
+                windowSamples = 0;
+            }
+        }
+        
+        private synchronized int currentLimit() {
+            return (int) limit;
+        }
+        
+        private synchronized int inFlight() {
+            return inFlight;
+        }
+        
+        private synchronized double baselineMs() {
+            return baselineRttNanos / 1_000_000.0;
+        }
+    }
+}
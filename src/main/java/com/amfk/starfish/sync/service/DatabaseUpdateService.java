@@ -1,15 +1,26 @@
 package com.amfk.starfish.sync.service;
 
+import com.amfk.starfish.sync.dto.CmEntry;
+import com.amfk.starfish.sync.dto.ExtensionSet;
+import com.amfk.starfish.sync.dto.NumberRange;
+import com.amfk.starfish.sync.dto.SiteDetail;
+import com.amfk.starfish.sync.dto.SiteWriteCommand;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
 
 @Service
 public class DatabaseUpdateService {
@@ -20,24 +31,60 @@ public class DatabaseUpdateService {
     @Autowired
     private JdbcTemplate jdbcTemplate;
     
+    @Autowired
+    private PbxBatchWriter pbxBatchWriter;
+    
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+    
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
+    @Autowired
+    private StaleRowReconciler staleRowReconciler;
+    
+    @Autowired
+    private SiteDetailStreamParser siteDetailStreamParser;
+    
+    @Autowired
+    private ReservedBulkLoader reservedBulkLoader;
+    
+    @Autowired
+    private RowWriteStats rowWriteStats;
+    
+    // Reserved extensions written per transaction; larger sets commit in several chunks
+    @Value("${site.sync.write.commit.chunk.size:5000}")
+    private int commitChunkSize = 5000;
+    
+    // Entries with at least this many reserved extensions are merged through the staging table; 0 = never
+    @Value("${site.sync.write.bulk.threshold:100000}")
+    private int bulkThreshold = 100000;
+    
+    // Batched upserts need the unique keys from db/pbx-upsert-keys.sql; false keeps the row-by-row writes
+    @Value("${site.sync.write.batch.enabled:false}")
+    private boolean batchWriteEnabled;
+    
     /**
      * Updates database tables based on Mock API response
      * @param mockApiResponse The response from Mock API containing site details
+     * @return true if every record was written without errors, false if some were skipped after an error
      */
-    public void updateDatabaseFromMockApi(List<Map<String, Object>> mockApiResponse) {
+    public boolean updateDatabaseFromMockApi(List<SiteDetail> mockApiResponse) {
         if (mockApiResponse == null || mockApiResponse.isEmpty()) {
             logger.warn("No Mock API response data to process");
-            return;
+            return true;
         }
         
         logger.info("Starting database update from Mock API response");
         
         try {
-            for (Map<String, Object> siteData : mockApiResponse) {
-                processSiteData(siteData);
+            boolean complete = true;
+            for (SiteWriteCommand command : toWriteCommands(mockApiResponse)) {
+                complete &= applyWriteCommand(command);
             }
             
             logger.info("Successfully completed database update from Mock API response");
+            return complete;
             
         } catch (Exception e) {
             logger.error("Error updating database from Mock API response: {}", e.getMessage(), e);
@@ -46,64 +93,387 @@ public class DatabaseUpdateService {
     }
     
     /**
-     * Processes individual site data from Mock API response
+     * Updates database tables from a Mock API response body read as a token stream. Each Site/CM entry
+     * is written as soon as it has been parsed, so only one entry is held in memory at a time.
+     * @param body Response body, not closed by this method
+     * @return true if every record was written without errors, false if some were skipped after an error
+     */
+    public boolean updateDatabaseFromStream(InputStream body) {
+        return updateDatabaseFromStream(body, command -> { });
+    }
+    
+    /**
+     * {@link #updateDatabaseFromStream(InputStream)} that also shows each entry to a consumer before it is
+     * written, e.g. to collect the CM names of the response
+     * @param body Response body, not closed by this method
+     * @param onParsed Receives each write command in response order
+     * @return true if every record was written without errors, false if some were skipped after an error
+     */
+    public boolean updateDatabaseFromStream(InputStream body, Consumer<SiteWriteCommand> onParsed) {
+        logger.info("Starting streaming database update from Mock API response");
+        
+        try {
+            boolean[] complete = {true};
+            int written = siteDetailStreamParser.parse(body, command -> {
+                onParsed.accept(command);
+                complete[0] &= applyWriteCommand(command);
+            });
+            
+            logger.info("Successfully completed streaming database update from Mock API response ({} entries)", written);
+            return complete[0];
+            
+        } catch (IOException e) {
+            logger.error("Error reading Mock API response stream: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to update database from Mock API response", e);
+        }
+    }
+    
+    /**
+     * Transforms a Mock API response body into write commands without binding the whole response first.
+     * Each command is handed on as soon as it has been parsed. Does not touch the database.
+     * @param body Response body, not closed by this method
+     * @param consumer Receives each write command in response order
+     * @return Number of commands emitted
+     */
+    public int toWriteCommands(InputStream body, Consumer<SiteWriteCommand> consumer) throws IOException {
+        return siteDetailStreamParser.parse(body, consumer);
+    }
+    
+    /**
+     * Transforms a Mock API response into write commands, one per Site/CM entry.
+     * Does not touch the database.
+     * @param mockApiResponse The response from Mock API containing site details
+     * @return Write commands in response order
+     */
+    public List<SiteWriteCommand> toWriteCommands(List<SiteDetail> mockApiResponse) {
+        List<SiteWriteCommand> commands = new ArrayList<>();
+        if (mockApiResponse == null) {
+            return commands;
+        }
+        
+        for (SiteDetail siteData : mockApiResponse) {
+            collectWriteCommands(siteData, commands);
+        }
+        return commands;
+    }
+    
+    /**
+     * Collects write commands from individual site data of a Mock API response
      * @param siteData Single site data from Mock API
+     * @param commands Commands collected so far
+     */
+    private void collectWriteCommands(SiteDetail siteData, List<SiteWriteCommand> commands) {
+        if (siteData.results().isEmpty()) {
+            logger.warn("No 'Results' found in site data, skipping this record");
+            return;
+        }
+        
+        for (CmEntry result : siteData.results()) {
+            if (result.site() == null || result.site().isEmpty()) {
+                logger.warn("Site name is null or empty, skipping this record");
+                continue;
+            }
+            
+            commands.add(new SiteWriteCommand(result.site(), result.cm(), toRanges(result.ranges())));
+        }
+    }
+    
+    /**
+     * Converts the Ranges of a Mock API result
+     * @param ranges Ranges bound from the Mock API response
+     * @return Ranges with nullable fields
      */
-    private void processSiteData(Map<String, Object> siteData) {
+    private List<SiteWriteCommand.Range> toRanges(List<NumberRange> ranges) {
+        List<SiteWriteCommand.Range> converted = new ArrayList<>(ranges.size());
+        for (NumberRange range : ranges) {
+            converted.add(new SiteWriteCommand.Range(range.type(), range.lowerbound(), range.upperbound(),
+                range.availableExtensions()));
+        }
+        return converted;
+    }
+    
+    /**
+     * Writes one Site/CM entry to pbx_system, pbx_number_range and pbx_number_reserved as one unit of work.
+     * Only rows that are missing or whose business columns changed are written; the entry's presence is
+     * recorded once in sync_pbx_system_seen. pbx_system, the ranges and the first chunk of reserved
+     * extensions commit together; a failure rolls all of them back. Further chunks of a large reserved
+     * extension set commit separately so that no transaction holds its locks for too long. Stale rows of
+     * the entry are reconciled last, in their own transaction. Entries with at least bulk.threshold
+     * reserved extensions take {@link #writeBulk} instead.
+     * @param command Write command produced by {@link #toWriteCommands(List)}
+     * @return true if the entry was written without errors
+     */
+    public boolean applyWriteCommand(SiteWriteCommand command) {
+        String siteName = command.getSiteName();
+        String cmName = command.getCmName();
+        logger.info("Processing site: {} with CM: {}", siteName, cmName);
+        
+        SiteTransactions transactions = new SiteTransactions();
+        boolean complete = false;
         try {
-            Object resultsObj = siteData.get("Results");
-            if (resultsObj == null) {
-                logger.warn("No 'Results' field found in site data, skipping this record");
-                return;
+            ExtensionSet incoming = reservedExtensions(command.getRanges());
+            if (bulkThreshold > 0 && incoming.cardinality() >= bulkThreshold) {
+                complete = writeBulk(command, incoming, transactions);
+                return complete;
             }
             
-            if (!(resultsObj instanceof List)) {
-                logger.warn("'Results' field is not a List, skipping this record");
-                return;
+            ReservedChunks reserved = transactions.execute(status -> {
+                boolean written = batchWriteEnabled
+                    ? writeSystemAndRangesBatched(command)
+                    : writeSystemAndRangesRowByRow(command);
+                ReservedChunks chunks = written ? prepareReservedChunks(siteName, cmName, incoming) : null;
+                if (chunks == null) {
+                    status.setRollbackOnly();
+                    return null;
+                }
+                pbxBatchWriter.markSeen(List.of(chunks.systemId), chunks.currentTime);
+                chunks.writeNext();
+                return chunks;
+            });
+            if (reserved == null) {
+                return false;
             }
             
-            List<Map<String, Object>> results = (List<Map<String, Object>>) resultsObj;
+            while (reserved.hasNext()) {
+                transactions.execute(status -> {
+                    reserved.writeNext();
+                    return null;
+                });
+            }
+            reserved.recordCounts(siteName);
             
-            for (Map<String, Object> result : results) {
-                String siteName = getStringValue(result, "Site");
-                String cmName = getStringValue(result, "CM");
-                
-                if (siteName == null || siteName.isEmpty()) {
-                    logger.warn("Site name is null or empty, skipping this record");
-                    continue;
-                }
-                
-                logger.info("Processing site: {} with CM: {}", siteName, cmName);
-          
-                updatePbxSystemFromMockApi(siteName, cmName);
-                List<Map<String, Object>> ranges = getListValue(result, "Ranges");
-                if (ranges != null && !ranges.isEmpty()) {
-                    updatePbxNumberRanges(siteName, cmName, ranges);
-                    updatePbxNumberReserved(siteName, cmName, ranges);
-                }
+            if (staleRowReconciler.isEnabled()) {
+                transactions.execute(status -> {
+                    reconcileStaleRows(command, reserved);
+                    return null;
+                });
             }
+            complete = true;
+            return true;
             
         } catch (Exception e) {
             logger.error("Error processing site data: {}", e.getMessage(), e);
+            return false;
+            
+        } finally {
+            // A rolled back insert must not leave its pbx_system id behind in the cache
+            if (!complete) {
+                referenceDataCache.invalidatePbxSystem(siteName, cmName);
+            }
+            logger.info("Site: {} with CM: {} {} after {} commits and {} rollbacks ({} ms in transactions, longest {} ms)",
+                siteName, cmName, complete ? "written" : "not written", transactions.commits, transactions.rollbacks,
+                transactions.totalNanos / 1_000_000, transactions.longestNanos / 1_000_000);
+        }
+    }
+    
+    /**
+     * Converts a write command into the rows handed to {@link PbxWriteBehindBuffer}. Phone number types
+     * are resolved here; ranges with missing required fields are skipped.
+     * @param command Write command produced by {@link #toWriteCommands(List)}
+     * @return Rows of the entry
+     */
+    public PbxWriteBehindBuffer.EntryRows toEntryRows(SiteWriteCommand command) {
+        return new PbxWriteBehindBuffer.EntryRows(command.getSiteName(), command.getCmName(),
+            toRangeRows(command.getRanges()), reservedExtensions(command.getRanges()));
+    }
+    
+    /**
+     * Bulk variant of {@link #applyWriteCommand} for entries with very large reserved extension sets.
+     * pbx_system and the ranges commit first as usual. The extensions are then staged by
+     * {@link ReservedBulkLoader} and merged into pbx_number_reserved in one transaction of set-based
+     * statements, without reading the stored extensions into memory.
+     * @param command Write command produced by {@link #toWriteCommands(List)}
+     * @param incoming AvailableExtensions of all ranges
+     * @param transactions Transactions of the entry
+     * @return true if the entry was written without errors
+     */
+    private boolean writeBulk(SiteWriteCommand command, ExtensionSet incoming, SiteTransactions transactions) {
+        String siteName = command.getSiteName();
+        String cmName = command.getCmName();
+        String currentTime = LocalDateTime.now().format(formatter);
+        Integer systemId = transactions.execute(status -> {
+            boolean written = batchWriteEnabled
+                ? writeSystemAndRangesBatched(command)
+                : writeSystemAndRangesRowByRow(command);
+            Integer id = written ? referenceDataCache.getPbxSystemId(siteName, cmName) : null;
+            if (id == null) {
+                status.setRollbackOnly();
+            } else {
+                pbxBatchWriter.markSeen(List.of(id), currentTime);
+            }
+            return id;
+        });
+        if (systemId == null) {
+            return false;
+        }
+        
+        String loadId = reservedBulkLoader.stage(incoming);
+        try {
+            int stored = reservedBulkLoader.countReserved(systemId);
+            PbxBatchWriter.ReservedCounts counts = transactions.execute(status ->
+                reservedBulkLoader.merge(systemId, loadId, incoming.cardinality(), currentTime));
+            rowWriteStats.record(counts.added(), counts.kept());
+            logger.info("Successfully merged {} reserved extensions for site: {} through staging (Added: {}, Kept: {})",
+                incoming.cardinality(), siteName, counts.added(), counts.kept());
+                
+            if (staleRowReconciler.isEnabled()) {
+                transactions.execute(status -> {
+                    reconcileStaleRanges(command, systemId);
+                    StaleRowReconciler.ReconcileResult extensions = staleRowReconciler.reconcileStagedReserved(systemId,
+                        stored, incoming.cardinality(), loadId);
+                    logReconcileResult("pbx_number_reserved", siteName, extensions);
+                    return null;
+                });
+            }
+            return true;
+        } finally {
+            reservedBulkLoader.discard(loadId);
         }
     }
     
     /**
-     * Updates pbx_system table with site information from Mock API
+     * Removes ranges and reserved extensions of the entry that are no longer in the Mock API response
+     * @param command Write command that was just written
+     * @param reserved Reserved extension writes of the entry, including the stale extensions
+     */
+    private void reconcileStaleRows(SiteWriteCommand command, ReservedChunks reserved) {
+        reconcileStaleRanges(command, reserved.systemId);
+        
+        PbxBatchWriter.ReservedDiff diff = reserved.diff;
+        StaleRowReconciler.ReconcileResult extensions = staleRowReconciler.reconcileReserved(reserved.systemId,
+            diff.stored(), reserved.incoming, diff.stale());
+        logReconcileResult("pbx_number_reserved", command.getSiteName(), extensions);
+    }
+    
+    private void reconcileStaleRanges(SiteWriteCommand command, int systemId) {
+        String siteName = command.getSiteName();
+        List<PbxBatchWriter.RangeRow> rows = toRangeRows(command.getRanges());
+        
+        // A range that could not be parsed cannot be matched, so its stored row must not look stale
+        if (rows.size() == command.getRanges().size()) {
+            StaleRowReconciler.ReconcileResult ranges = staleRowReconciler.reconcileRanges(systemId, rows);
+            logReconcileResult("pbx_number_range", siteName, ranges);
+        } else {
+            logger.warn("Skipping range reconciliation for site: {}, {} ranges have missing fields",
+                siteName, command.getRanges().size() - rows.size());
+        }
+    }
+    
+    private void logReconcileResult(String table, String siteName, StaleRowReconciler.ReconcileResult result) {
+        rowWriteStats.record(result.deleted(), 0);
+        if (result.stale() > 0) {
+            logger.info("Reconciled {} for site: {} (Stale: {}, Deleted: {}, Blocked: {})",
+                table, siteName, result.stale(), result.deleted(), result.blocked());
+        }
+    }
+    
+    /**
+     * Writes pbx_system and pbx_number_range with the legacy row-by-row statements
+     * @param command Write command produced by {@link #toWriteCommands(List)}
+     * @return true if both were written without errors
+     */
+    private boolean writeSystemAndRangesRowByRow(SiteWriteCommand command) {
+        boolean complete = updatePbxSystemFromMockApi(command.getSiteName(), command.getCmName());
+        if (!command.getRanges().isEmpty()) {
+            complete &= updatePbxNumberRanges(command.getSiteName(), command.getCmName(), command.getRanges());
+        }
+        return complete;
+    }
+    
+    /**
+     * Writes pbx_system if it is missing or changed, and the missing ranges of the entry in a single batch
+     * @param command Write command produced by {@link #toWriteCommands(List)}
+     * @return true if both were written without errors
+     */
+    private boolean writeSystemAndRangesBatched(SiteWriteCommand command) {
+        String siteName = command.getSiteName();
+        String cmName = command.getCmName();
+        String currentTime = LocalDateTime.now().format(formatter);
+        
+        Integer systemId;
+        try {
+            PbxBatchWriter.RowChange change = pbxBatchWriter.writePbxSystem(siteName, cmName, currentTime);
+            if (change == PbxBatchWriter.RowChange.INSERTED) {
+                referenceDataCache.invalidatePbxSystem(siteName, cmName);
+            }
+            rowWriteStats.record(change == PbxBatchWriter.RowChange.UNCHANGED ? 0 : 1,
+                change == PbxBatchWriter.RowChange.UNCHANGED ? 1 : 0);
+            systemId = referenceDataCache.getPbxSystemId(siteName, cmName);
+        } catch (Exception e) {
+            logger.error("Error updating pbx_system table for site {}: {}", siteName, e.getMessage(), e);
+            return false;
+        }
+        if (systemId == null) {
+            logger.warn("No pbx_system record found for site: {}, CM: {}, skipping range updates", siteName, cmName);
+            return false;
+        }
+        
+        List<SiteWriteCommand.Range> ranges = command.getRanges();
+        if (ranges.isEmpty()) {
+            return true;
+        }
+        
+        try {
+            List<PbxBatchWriter.RangeRow> rows = toRangeRows(ranges);
+            PbxBatchWriter.RangeCounts counts = pbxBatchWriter.writeNumberRanges(systemId, rows, currentTime);
+            rowWriteStats.record(counts.inserted() + counts.unreported(), counts.unchanged());
+            // Every business column of a range is part of its key, so batched ranges are never updated;
+            // inserts the driver did not report (rewritten batches) are counted as inserted
+            logger.info("Successfully processed {} ranges for site: {} (Updated: {}, Inserted: {}, Unchanged: {})",
+                rows.size(), siteName, 0, counts.inserted() + counts.unreported(), counts.unchanged());
+            return true;
+        } catch (Exception e) {
+            logger.error("Error updating pbx_number_range table for site {}: {}", siteName, e.getMessage(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * Resolves the phone number type of each range, skipping ranges with missing required fields
+     * @param ranges Ranges from the write command
+     * @return Rows ready for {@link PbxBatchWriter#writeNumberRanges}
+     */
+    private List<PbxBatchWriter.RangeRow> toRangeRows(List<SiteWriteCommand.Range> ranges) {
+        List<PbxBatchWriter.RangeRow> rows = new ArrayList<>(ranges.size());
+        for (SiteWriteCommand.Range range : ranges) {
+            String type = range.getType();
+            if (type == null || range.getLowerbound() == null || range.getUpperbound() == null) {
+                logger.warn("Skipping range with missing required fields: {}", range);
+                continue;
+            }
+            
+            Integer phoneNumberTypeId = getPhoneNumberTypeId(type);
+            if (phoneNumberTypeId == null) {
+                logger.warn("No phone_number_type found for type: {}, using default", type);
+                phoneNumberTypeId = 1; // Default to ID 1 if not found
+            }
+            rows.add(new PbxBatchWriter.RangeRow(range.getLowerbound(), range.getUpperbound(), phoneNumberTypeId));
+        }
+        return rows;
+    }
+    
+    /**
+     * Updates pbx_system table with site information from Mock API. An existing row is only updated
+     * when its aem_pbx differs.
      * @param siteName Site name from Mock API
      * @param cmName CM name from Mock API
+     * @return true if the record was written without errors
      */
-    private void updatePbxSystemFromMockApi(String siteName, String cmName) {
+    private boolean updatePbxSystemFromMockApi(String siteName, String cmName) {
         try {
-            String checkSql = "SELECT COUNT(*) FROM pbx_system WHERE physical_pbx = ? AND remark = ?";
-            int count = jdbcTemplate.queryForObject(checkSql, Integer.class, siteName, cmName);
+            String checkSql = "SELECT aem_pbx FROM pbx_system WHERE physical_pbx = ? AND remark = ?";
+            List<String> stored = jdbcTemplate.queryForList(checkSql, String.class, siteName, cmName);
             
             String currentTime = LocalDateTime.now().format(formatter);
             
-            if (count > 0) {
+            if (!stored.isEmpty() && siteName.equals(stored.get(0))) {
+                rowWriteStats.record(0, 1);
+                logger.debug("pbx_system record for site: {} with CM: {} is unchanged", siteName, cmName);
+            } else if (!stored.isEmpty()) {
                 String updateSql = "UPDATE pbx_system SET aem_pbx = ?, log_updated_by = ?, log_updated_on = ? WHERE physical_pbx = ? AND remark = ?";
                 int updated = jdbcTemplate.update(updateSql, siteName, "system", currentTime, siteName, cmName);
                 
+                rowWriteStats.record(updated, 0);
                 if (updated > 0) {
                     logger.info("Updated pbx_system record for site: {} with CM: {}, aem_pbx: {}", siteName, cmName, siteName);
                 } else {
@@ -113,64 +483,52 @@ public class DatabaseUpdateService {
                 String insertSql = "INSERT INTO pbx_system (physical_pbx, remark, aem_pbx, id_pbx_cluster, log_created_by, log_created_on, log_updated_by, log_updated_on) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
                 int inserted = jdbcTemplate.update(insertSql, siteName, cmName, siteName, 1, "system", currentTime, "system", currentTime);
                 
+                rowWriteStats.record(inserted, 0);
                 if (inserted > 0) {
+                    referenceDataCache.invalidatePbxSystem(siteName, cmName);
                     logger.info("Inserted new pbx_system record for site: {} with CM: {}, aem_pbx: {}", siteName, cmName, siteName);
                 } else {
                     logger.warn("No pbx_system record was inserted for site: {}", siteName);
                 }
             }
+            return true;
             
         } catch (Exception e) {
             logger.error("Error updating pbx_system table for site {}: {}", siteName, e.getMessage(), e);
+            return false;
         }
     }
     
     /**
-     * Safely extracts string value from Map
-     * @param map The map containing the data
-     * @param key The key to extract
-     * @return String value or null if not found
-     */
-    private String getStringValue(Map<String, Object> map, String key) {
-        Object value = map.get(key);
-        return value != null ? value.toString() : null;
-    }
-    
-    /**
-     * Updates pbx_number_range table with range information from Mock API
+     * Inserts the ranges from Mock API that are not in pbx_number_range yet; stored ranges are left unchanged
      * @param siteName Site name from Mock API
      * @param cmName CM name from Mock API
-     * @param ranges List of ranges from Mock API response
+     * @param ranges Ranges from the write command
+     * @return true if every range was written without errors
      */
-    private void updatePbxNumberRanges(String siteName, String cmName, List<Map<String, Object>> ranges) {
+    private boolean updatePbxNumberRanges(String siteName, String cmName, List<SiteWriteCommand.Range> ranges) {
         try {
             // Get pbx_system ID for this site
-            String getSystemIdSql = "SELECT id FROM pbx_system WHERE physical_pbx = ? AND remark = ?";
-            Integer systemId = jdbcTemplate.queryForObject(getSystemIdSql, Integer.class, siteName, cmName);
+            Integer systemId = referenceDataCache.getPbxSystemId(siteName, cmName);
             
             if (systemId == null) {
                 logger.warn("No pbx_system record found for site: {}, CM: {}, skipping range updates", siteName, cmName);
-                return;
+                return false;
             }
             
             logger.info("Processing {} ranges for site: {} (system ID: {})", ranges.size(), siteName, systemId);
             
             String currentTime = LocalDateTime.now().format(formatter);
             int processedCount = 0;
-            int updatedCount = 0;
+            int unchangedCount = 0;
             int insertedCount = 0;
+            boolean complete = true;
             
-            for (Map<String, Object> range : ranges) {
+            for (SiteWriteCommand.Range range : ranges) {
                 try {
-                    String type = getStringValue(range, "Type");
-                    String lowerbound = getStringValue(range, "LowerBound");
-                    if (lowerbound == null) {
-                        lowerbound = getStringValue(range, "Lowerbound");
-                    }
-                    String upperbound = getStringValue(range, "UpperBound");
-                    if (upperbound == null) {
-                        upperbound = getStringValue(range, "Upperbound");
-                    }
+                    String type = range.getType();
+                    String lowerbound = range.getLowerbound();
+                    String upperbound = range.getUpperbound();
                     
                     if (type == null || lowerbound == null || upperbound == null) {
                         logger.warn("Skipping range with missing required fields: {}", range);
@@ -189,15 +547,8 @@ public class DatabaseUpdateService {
                     int count = jdbcTemplate.queryForObject(checkSql, Integer.class, systemId, lowerbound, upperbound, phoneNumberTypeId);
                     
                     if (count > 0) {
-                        // Update existing range
-                        String updateSql = "UPDATE pbx_number_range SET log_updated_by = ?, log_updated_on = ? WHERE id_pbx_system = ? AND range_from = ? AND range_to = ? AND phone_number_type = ?";
-                        int updated = jdbcTemplate.update(updateSql, "system", currentTime, systemId, lowerbound, upperbound, phoneNumberTypeId);
-                        
-                        if (updated > 0) {
-                            updatedCount++;
-                            logger.info("Updated range: {} - {} (type: {}) for system ID: {}", 
-                                lowerbound, upperbound, type, systemId);
-                        }
+                        // Every business column is part of the lookup, so an existing range is unchanged
+                        unchangedCount++;
                     } else {
                         // Insert new range
                         String insertSql = "INSERT INTO pbx_number_range (id_pbx_system, range_from, range_to, phone_number_type, id_pbx_cluster, log_created_by, log_created_on, log_updated_by, log_updated_on) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
@@ -214,91 +565,54 @@ public class DatabaseUpdateService {
                     
                 } catch (Exception e) {
                     logger.error("Error processing range for site {}: {}", siteName, e.getMessage(), e);
+                    complete = false;
                 }
             }
             
-            logger.info("Successfully processed {} ranges for site: {} (Updated: {}, Inserted: {})", 
-                processedCount, siteName, updatedCount, insertedCount);
+            rowWriteStats.record(insertedCount, unchangedCount);
+            logger.info("Successfully processed {} ranges for site: {} (Inserted: {}, Unchanged: {})", 
+                processedCount, siteName, insertedCount, unchangedCount);
+            return complete;
             
         } catch (Exception e) {
             logger.error("Error updating pbx_number_range table for site {}: {}", siteName, e.getMessage(), e);
+            return false;
         }
     }
     
     /**
-     * Updates pbx_number_reserved table with extension information from Mock API
+     * Diffs the AvailableExtensions of all ranges against the pbx_number_reserved rows of the entry
      * @param siteName Site name from Mock API
      * @param cmName CM name from Mock API
-     * @param ranges List of ranges from Mock API response
+     * @param extensions AvailableExtensions of all ranges
+     * @return Reserved extension writes split into commit chunks, or null if the pbx_system row is missing
      */
-    private void updatePbxNumberReserved(String siteName, String cmName, List<Map<String, Object>> ranges) {
-        try {
-            // Get pbx_system ID for this site
-            String getSystemIdSql = "SELECT id FROM pbx_system WHERE physical_pbx = ? AND remark = ?";
-            Integer systemId = jdbcTemplate.queryForObject(getSystemIdSql, Integer.class, siteName, cmName);
-            
-            if (systemId == null) {
-                logger.warn("No pbx_system record found for site: {}, CM: {}, skipping reserved extensions updates", siteName, cmName);
-                return;
-            }
-            
-            logger.info("Processing reserved extensions for site: {} (system ID: {})", siteName, systemId);
-            
-            String currentTime = LocalDateTime.now().format(formatter);
-            int processedCount = 0;
-            int updatedCount = 0;
-            int insertedCount = 0;
-            
-            for (Map<String, Object> range : ranges) {
-                try {
-                    // Get AvailableExtensions from each range
-                    List<String> availableExtensions = getStringListValue(range, "AvailableExtensions");
-                    
-                    if (availableExtensions != null && !availableExtensions.isEmpty()) {
-                        for (String extension : availableExtensions) {
-                            if (extension != null && !extension.trim().isEmpty()) {
-                                String trimmedExtension = extension.trim();
-                                
-                                // Check if reserved extension already exists
-                                String checkSql = "SELECT COUNT(*) FROM pbx_number_reserved WHERE pbx_system_id = ? AND extensions = ?";
-                                int count = jdbcTemplate.queryForObject(checkSql, Integer.class, systemId, trimmedExtension);
-                                
-                                if (count > 0) {
-                                    // Update existing reserved extension
-                                    String updateSql = "UPDATE pbx_number_reserved SET reserve_start_time = ?, reserve_end_time = ? WHERE pbx_system_id = ? AND extensions = ?";
-                                    int updated = jdbcTemplate.update(updateSql, currentTime, currentTime, systemId, trimmedExtension);
-                                    
-                                    if (updated > 0) {
-                                        updatedCount++;
-                                        logger.debug("Updated reserved extension: {} for system ID: {}", trimmedExtension, systemId);
-                                    }
-                                } else {
-                                    // Insert new reserved extension
-                                    String insertSql = "INSERT INTO pbx_number_reserved (pbx_system_id, extensions, reserve_start_time, reserve_end_time) VALUES (?, ?, ?, ?)";
-                                    int inserted = jdbcTemplate.update(insertSql, systemId, trimmedExtension, currentTime, currentTime);
-                                    
-                                    if (inserted > 0) {
-                                        insertedCount++;
-                                        logger.debug("Inserted reserved extension: {} for system ID: {}", trimmedExtension, systemId);
-                                    }
-                                }
-                                
-                                processedCount++;
-                            }
-                        }
-                    }
-                    
-                } catch (Exception e) {
-                    logger.error("Error processing reserved extensions for range in site {}: {}", siteName, e.getMessage(), e);
-                }
-            }
-            
-            logger.info("Successfully processed {} reserved extensions for site: {} (Updated: {}, Inserted: {})", 
-                processedCount, siteName, updatedCount, insertedCount);
-            
-        } catch (Exception e) {
-            logger.error("Error updating pbx_number_reserved table for site {}: {}", siteName, e.getMessage(), e);
+    private ReservedChunks prepareReservedChunks(String siteName, String cmName, ExtensionSet extensions) {
+        // Get pbx_system ID for this site
+        Integer systemId = referenceDataCache.getPbxSystemId(siteName, cmName);
+        if (systemId == null) {
+            logger.warn("No pbx_system record found for site: {}, CM: {}, skipping reserved extensions updates", siteName, cmName);
+            return null;
         }
+        
+        // With nothing incoming the stored rows only matter to reconciliation
+        PbxBatchWriter.ReservedDiff diff = extensions.isEmpty() && !staleRowReconciler.isEnabled()
+            ? PbxBatchWriter.ReservedDiff.empty(extensions)
+            : pbxBatchWriter.diffReservedExtensions(systemId, extensions);
+        return new ReservedChunks(systemId, diff, extensions.cardinality());
+    }
+    
+    /**
+     * AvailableExtensions of all ranges of an entry
+     * @param ranges Ranges from the write command
+     * @return New set holding the union
+     */
+    private static ExtensionSet reservedExtensions(List<SiteWriteCommand.Range> ranges) {
+        List<ExtensionSet> rangeExtensions = new ArrayList<>(ranges.size());
+        for (SiteWriteCommand.Range range : ranges) {
+            rangeExtensions.add(range.getAvailableExtensions());
+        }
+        return ExtensionSet.union(rangeExtensions);
     }
     
     /**
@@ -308,18 +622,7 @@ public class DatabaseUpdateService {
      */
     private Integer getPhoneNumberTypeId(String typeName) {
         try {
-            String sql = "SELECT id FROM pbx_phone_number_type WHERE name = ?";
-            try {
-                Integer id = jdbcTemplate.queryForObject(sql, Integer.class, typeName);
-                logger.debug("Found phone_number_type ID: {} for type: {}", id, typeName);
-                return id;
-            } catch (Exception e) {
-                logger.debug("Exact match failed for type: {}, trying case-insensitive match", typeName);
-                String sqlCaseInsensitive = "SELECT id FROM pbx_phone_number_type WHERE LOWER(name) = LOWER(?)";
-                Integer id = jdbcTemplate.queryForObject(sqlCaseInsensitive, Integer.class, typeName);
-                logger.debug("Found phone_number_type ID: {} for type: {} (case-insensitive match)", id, typeName);
-                return id;
-            }
+            return referenceDataCache.getPhoneNumberTypeId(typeName);
         } catch (Exception e) {
             logger.warn("Error getting phone_number_type ID for type: '{}'. Error: {}", typeName, e.getMessage());
             return null;
@@ -327,46 +630,75 @@ public class DatabaseUpdateService {
     }
     
     /**
-     * Safely extracts list value from Map
-     * @param map The map containing the data
-     * @param key The key to extract
-     * @return List value or null if not found
+     * Runs the transactions of one Site/CM entry and keeps count of commits and time spent
      */
-    @SuppressWarnings("unchecked")
-    private List<Map<String, Object>> getListValue(Map<String, Object> map, String key) {
-        Object value = map.get(key);
-        if (value instanceof List) {
-            return (List<Map<String, Object>>) value;
+    private final class SiteTransactions {
+        private int commits;
+        private int rollbacks;
+        private long totalNanos;
+        private long longestNanos;
+        
+        private <T> T execute(TransactionCallback<T> callback) {
+            long start = System.nanoTime();
+            boolean[] rollbackOnly = {true};
+            try {
+                T result = transactionTemplate.execute(status -> {
+                    T value = callback.doInTransaction(status);
+                    rollbackOnly[0] = status.isRollbackOnly();
+                    return value;
+                });
+                if (rollbackOnly[0]) {
+                    rollbacks++;
+                } else {
+                    commits++;
+                }
+                return result;
+            } catch (RuntimeException e) {
+                rollbacks++;
+                throw e;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                totalNanos += elapsed;
+                longestNanos = Math.max(longestNanos, elapsed);
+            }
         }
-        return null;
     }
     
     /**
-     * Safely extracts string list value from Map
-     * @param map The map containing the data
-     * @param key The key to extract
-     * @return List of strings or null if not found
+     * Reserved extension inserts of one Site/CM entry, written chunk by chunk. Chunks hold extension
+     * offsets; Strings are only created as each statement is bound. Kept extensions are not written.
      */
-    @SuppressWarnings("unchecked")
-    private List<String> getStringListValue(Map<String, Object> map, String key) {
-        Object value = map.get(key);
-        if (value instanceof List) {
-            return (List<String>) value;
+    private final class ReservedChunks {
+        private final int systemId;
+        private final PbxBatchWriter.ReservedDiff diff;
+        private final int incoming;
+        private final ExtensionSet.Cursor added;
+        private final String currentTime = LocalDateTime.now().format(formatter);
+        
+        private ReservedChunks(int systemId, PbxBatchWriter.ReservedDiff diff, int incoming) {
+            this.systemId = systemId;
+            this.diff = diff;
+            this.incoming = incoming;
+            this.added = diff.added().cursor();
         }
-        return null;
-    }
-    
-    /**
-     * Safely extracts integer value from Map
-     * @param map The map containing the data
-     * @param key The key to extract
-     * @return Integer value or null if not found
-     */
-    private Integer getIntegerValue(Map<String, Object> map, String key) {
-        Object value = map.get(key);
-        if (value instanceof Number) {
-            return ((Number) value).intValue();
+        
+        private boolean hasNext() {
+            return added.hasNext();
+        }
+        
+        private void writeNext() {
+            ExtensionSet.Chunk chunk = added.next(Math.max(1, commitChunkSize));
+            pbxBatchWriter.insertReservedExtensions(systemId, chunk, currentTime);
+        }
+        
+        private void recordCounts(String siteName) {
+            int addedCount = diff.added().cardinality();
+            int keptCount = diff.kept().cardinality();
+            rowWriteStats.record(addedCount, keptCount);
+            if (incoming > 0) {
+                logger.info("Successfully processed {} reserved extensions for site: {} (Added: {}, Kept: {})",
+                    incoming, siteName, addedCount, keptCount);
+            }
         }
-        return null;
     }
 }
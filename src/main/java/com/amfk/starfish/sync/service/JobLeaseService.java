@@ -0,0 +1,189 @@
+package com.amfk.starfish.sync.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mutual exclusion for scheduled jobs. Locally a job never overlaps with its own previous run;
+ * across instances it runs only on the holder of its row in sync_job_lease. The holder renews
+ * the lease from a heartbeat thread while the job runs, so if the holder dies the lease expires
+ * and another instance takes over on its next trigger. A run that finishes records its period,
+ * so replicas whose trigger falls into the same period skip it instead of running the job again;
+ * a run that fails leaves the period open. Lease expiry and periods are computed with the
+ * database clock, so the replicas' clocks need not agree.
+ */
+@Service
+public class JobLeaseService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(JobLeaseService.class);
+    
+    // Number of the current period in the database clock; the period length is bound as parameter
+    private static final String CURRENT_PERIOD =
+        "FLOOR(TIMESTAMPDIFF(SECOND, TIMESTAMP '1970-01-01 00:00:00', CURRENT_TIMESTAMP) / ?)";
+        
+    private final JdbcTemplate jdbcTemplate;
+    private final String instanceId;
+    private final Map<String, AtomicBoolean> localRuns = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService heartbeatExecutor;
+    
+    @Value("${sync.lease.enabled:true}")
+    private boolean leaseEnabled;
+    
+    @Value("${sync.lease.duration.seconds:120}")
+    private long leaseSeconds;
+    
+    @Value("${sync.lease.heartbeat.seconds:30}")
+    private long heartbeatSeconds;
+    
+    @Value("${sync.lease.period.seconds:86400}")
+    private long periodSeconds = 86400;
+    
+    public JobLeaseService(JdbcTemplate jdbcTemplate, SyncInstanceIdentity syncInstanceIdentity) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.instanceId = syncInstanceIdentity.getInstanceId();
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("job-lease-heartbeat-");
+        threadFactory.setDaemon(true);
+        this.heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+    
+    /**
+     * Runs a job if it is not already running on this instance, this instance holds the
+     * cluster-wide lease for it and no instance has completed it in the current period yet
+     * @param jobName Name of the job
+     * @param job The job
+     * @return true if the job ran, false if it was skipped
+     */
+    public boolean runExclusively(String jobName, Runnable job) {
+        return run(jobName, job, leaseEnabled);
+    }
+    
+    /**
+     * Runs a job if it is not already running on this instance, without the cluster-wide lease.
+     * For jobs that split their work across instances themselves (sharded site sync).
+     * @param jobName Name of the job
+     * @param job The job
+     * @return true if the job ran, false if it was skipped
+     */
+    public boolean runLocallyExclusive(String jobName, Runnable job) {
+        return run(jobName, job, false);
+    }
+    
+    private boolean run(String jobName, Runnable job, boolean clusterWide) {
+        AtomicBoolean running = localRuns.computeIfAbsent(jobName, name -> new AtomicBoolean());
+        if (!running.compareAndSet(false, true)) {
+            logger.warn("Job {} is still running on this instance, skipping overlapping run", jobName);
+            return false;
+        }
+        
+        ScheduledFuture<?> heartbeat = null;
+        boolean completed = false;
+        try {
+            if (clusterWide) {
+                if (!tryAcquire(jobName)) {
+                    return false;
+                }
+                heartbeat = heartbeatExecutor.scheduleAtFixedRate(() -> renew(jobName),
+                    heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+            }
+            
+            job.run();
+            completed = true;
+            return true;
+            
+        } finally {
+            if (heartbeat != null) {
+                heartbeat.cancel(false);
+                release(jobName, completed);
+            }
+            running.set(false);
+        }
+    }
+    
+    /**
+     * Takes the lease if it is free, expired or already held by this instance, unless the job
+     * has already completed in the current period
+     * @param jobName Name of the job
+     * @return true if this instance now holds the lease
+     */
+    boolean tryAcquire(String jobName) {
+        try {
+            long period = Math.max(1, periodSeconds);
+            jdbcTemplate.update("INSERT IGNORE INTO sync_job_lease (job_name) VALUES (?)", jobName);
+            int acquired = jdbcTemplate.update(
+                "UPDATE sync_job_lease SET owner_id = ?, lease_until = TIMESTAMPADD(SECOND, ?, CURRENT_TIMESTAMP), " +
+                "heartbeat_on = CURRENT_TIMESTAMP, run_period = " + CURRENT_PERIOD + " " +
+                "WHERE job_name = ? AND (owner_id IS NULL OR owner_id = ? OR lease_until < CURRENT_TIMESTAMP) " +
+                "AND (completed_period IS NULL OR completed_period < " + CURRENT_PERIOD + ")",
+                instanceId, leaseSeconds, period, jobName, instanceId, period);
+                
+            if (acquired == 1) {
+                logger.info("Instance {} acquired lease for job {}", instanceId, jobName);
+                return true;
+            }
+            
+            Map<String, Object> holder = jdbcTemplate.queryForMap(
+                "SELECT owner_id, lease_until, completed_on FROM sync_job_lease WHERE job_name = ?", jobName);
+            if (holder.get("owner_id") == null) {
+                logger.info("Job {} already completed in the current period at {}, skipping on instance {}",
+                    jobName, holder.get("completed_on"), instanceId);
+            } else {
+                logger.info("Job {} is held by instance {} until {}, skipping on instance {}",
+                    jobName, holder.get("owner_id"), holder.get("lease_until"), instanceId);
+            }
+            return false;
+            
+        } catch (Exception e) {
+            // Without the lease table exclusivity cannot be guaranteed, so the run is skipped
+            logger.warn("Could not acquire lease for job {}, skipping run: {}", jobName, e.getMessage());
+            return false;
+        }
+    }
+    
+    private void renew(String jobName) {
+        try {
+            int renewed = jdbcTemplate.update(
+                "UPDATE sync_job_lease SET lease_until = TIMESTAMPADD(SECOND, ?, CURRENT_TIMESTAMP), " +
+                "heartbeat_on = CURRENT_TIMESTAMP WHERE job_name = ? AND owner_id = ?",
+                leaseSeconds, jobName, instanceId);
+            if (renewed == 0) {
+                logger.error("Instance {} lost the lease for job {} while it is still running", instanceId, jobName);
+            }
+        } catch (Exception e) {
+            logger.warn("Could not renew lease for job {}: {}", jobName, e.getMessage());
+        }
+    }
+    
+    /**
+     * Gives the lease up; a completed run also marks its period as done
+     */
+    private void release(String jobName, boolean completed) {
+        try {
+            jdbcTemplate.update(completed
+                    ? "UPDATE sync_job_lease SET owner_id = NULL, lease_until = NULL, completed_period = run_period, " +
+                      "completed_on = CURRENT_TIMESTAMP WHERE job_name = ? AND owner_id = ?"
+                    : "UPDATE sync_job_lease SET owner_id = NULL, lease_until = NULL WHERE job_name = ? AND owner_id = ?",
+                jobName, instanceId);
+            logger.info("Instance {} released lease for job {}", instanceId, jobName);
+        } catch (Exception e) {
+            logger.warn("Could not release lease for job {}, it expires on its own: {}", jobName, e.getMessage());
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        heartbeatExecutor.shutdownNow();
+    }
+}
@@ -26,6 +26,7 @@ public class MasterServiceClient {
     private static final Logger logger = LoggerFactory.getLogger(MasterServiceClient.class);
     
     private final RestTemplate restTemplate;
+    private final AsyncUpstreamClient asyncUpstreamClient;
     
     @Value("${master.service.base.url}")
     private String baseUrl;
@@ -35,10 +36,15 @@ public class MasterServiceClient {
     
     @Value("${master.service.timeout:30000}")
     private int timeout;
-
     
-    public MasterServiceClient(RestTemplate restTemplate) {
+    // blocking: RestTemplate; async: AsyncUpstreamClient (getSites still waits for the response)
+    @Value("${upstream.http.mode:blocking}")
+    private String httpMode = "blocking";
+    
+    
+    public MasterServiceClient(RestTemplate restTemplate, AsyncUpstreamClient asyncUpstreamClient) {
         this.restTemplate = restTemplate;
+        this.asyncUpstreamClient = asyncUpstreamClient;
     }
     
     @Retryable(
@@ -53,12 +59,19 @@ public class MasterServiceClient {
             HttpHeaders headers = createHeaders();
             HttpEntity<String> entity = new HttpEntity<>(headers);
             
-            ResponseEntity<List<Map<String, Object>>> response = restTemplate.exchange(
-                url,
-                HttpMethod.GET,
-                entity,
-                new ParameterizedTypeReference<List<Map<String, Object>>>() {}
-            );
+            ResponseEntity<List<Map<String, Object>>> response;
+            if (AsyncUpstreamClient.isAsync(httpMode)) {
+                // failures are rethrown unwrapped, so the retry and the handlers below see the same exceptions
+                AsyncUpstreamClient.Response asyncResponse = AsyncUpstreamClient.join(asyncUpstreamClient.get(url, headers));
+                response = new ResponseEntity<>(asyncUpstreamClient.readList(asyncResponse), asyncResponse.status());
+            } else {
+                response = restTemplate.exchange(
+                    url,
+                    HttpMethod.GET,
+                    entity,
+                    new ParameterizedTypeReference<List<Map<String, Object>>>() {}
+                );
+            }
             
             if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
                 logger.info("Successfully fetched {} sites from Master Service", response.getBody().size());
@@ -75,7 +88,7 @@ public class MasterServiceClient {
                 List<SiteDto> sites = response.getBody().stream()
                     .map(this::convertToSiteDto)
                     .toList();
-                
+                    
                 return sites;
             } else {
                 logger.warn("Master Service returned non-success status: {}", response.getStatusCode());
@@ -96,7 +109,7 @@ public class MasterServiceClient {
             throw new RuntimeException("Failed to fetch sites from Master Service", e);
         }
     }
-
+    
     
     private SiteDto convertToSiteDto(Map<String, Object> siteMap) {
         SiteDto siteDto = new SiteDto();
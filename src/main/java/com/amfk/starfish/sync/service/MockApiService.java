@@ -1,5 +1,6 @@
 package com.amfk.starfish.sync.service;
 
+import com.amfk.starfish.sync.dto.SiteDetail;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
@@ -10,7 +11,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class MockApiService {
@@ -18,6 +19,10 @@ public class MockApiService {
     @Autowired
     private RestTemplate restTemplate;
     
+    // Site calls are limited per cluster, the upstream that serves them
+    @Autowired
+    private CmConcurrencyLimiter cmConcurrencyLimiter;
+    
     @Value("${mock.api.base.url}")
     private String mockApiBaseUrl;
     
@@ -27,8 +32,24 @@ public class MockApiService {
     @Value("${mock.api.password:avaya123}")
     private String mockApiPassword;
     
-    public List<Map<String, Object>> getSiteDetails(String clusterName) {
+    @Autowired
+    private AsyncUpstreamClient asyncUpstreamClient;
+    
+    // blocking: site calls through RestTemplate; async: through AsyncUpstreamClient (the spooled call stays blocking)
+    @Value("${upstream.http.mode:blocking}")
+    private String httpMode = "blocking";
+    
+    /**
+     * Fetches site details, bound to typed records by Jackson
+     * @param clusterName Cluster name used as SiteName
+     * @return The response as a single element list, or an empty list if the call failed
+     */
+    public List<SiteDetail> getSiteDetails(String clusterName) {
+        if (AsyncUpstreamClient.isAsync(httpMode)) {
+            return getSiteDetailsAsync(clusterName).join();
+        }
         String url = mockApiBaseUrl + "/ProvisioningWebService/sps/v1/site?SiteName=" + clusterName;
+        CmConcurrencyLimiter.Permit permit = null;
         
         try {
             HttpHeaders headers = createHeaders();
@@ -37,12 +58,14 @@ public class MockApiService {
             System.out.println("MockApiService: Calling Mock API for cluster: '" + clusterName + "'");
             System.out.println("MockApiService: URL: " + url);
             
-            ResponseEntity<Map> response = restTemplate.exchange(
+            permit = cmConcurrencyLimiter.acquire(clusterName);
+            ResponseEntity<SiteDetail> response = restTemplate.exchange(
                 url,
                 HttpMethod.GET,
                 entity,
-                Map.class
+                SiteDetail.class
             );
+            permit.complete(response.getStatusCode());
             
             if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
                 System.out.println("MockApiService: Successfully fetched data from Mock API for cluster: '" + clusterName + "'");
@@ -52,12 +75,100 @@ public class MockApiService {
                 return List.of();
             }
             
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return List.of();
         } catch (Exception e) {
+            if (permit != null) {
+                permit.fail(e);
+            }
             System.out.println("MockApiService: Error calling Mock API for cluster '" + clusterName + "': " + e.getMessage());
             return List.of();
         }
     }
     
+    /**
+     * Fetches site details without holding a thread while waiting for the call slot and the response
+     * (in blocking mode the call is made on the calling thread)
+     * @param clusterName Cluster name used as SiteName
+     * @return Completed with the response as a single element list, or an empty list if the call failed
+     */
+    public CompletableFuture<List<SiteDetail>> getSiteDetailsAsync(String clusterName) {
+        if (!AsyncUpstreamClient.isAsync(httpMode)) {
+            return CompletableFuture.completedFuture(getSiteDetails(clusterName));
+        }
+        String url = mockApiBaseUrl + "/ProvisioningWebService/sps/v1/site?SiteName=" + clusterName;
+        System.out.println("MockApiService: Calling Mock API asynchronously for cluster: '" + clusterName + "'");
+        
+        return cmConcurrencyLimiter.acquireAsync(clusterName)
+            .thenCompose(permit -> asyncUpstreamClient.get(url, createHeaders()).whenComplete((response, error) -> {
+                if (error != null) {
+                    permit.fail(AsyncUpstreamClient.unwrap(error));
+                } else {
+                    permit.complete(response.status());
+                }
+            }))
+            // binding can take a while for large sites, so it is kept off the I/O threads
+            .thenApplyAsync(response -> {
+                SiteDetail body = asyncUpstreamClient.read(response, SiteDetail.class);
+                return body != null ? List.of(body) : List.<SiteDetail>of();
+            })
+            .exceptionally(error -> {
+                System.out.println("MockApiService: Error calling Mock API for cluster '" + clusterName + "': "
+                    + AsyncUpstreamClient.unwrap(error).getMessage());
+                return List.of();
+            });
+    }
+    
+    /**
+     * Fetches site details without materializing them: the response body is copied to a temporary
+     * file as it arrives, to be read with {@link SiteDetailStreamParser}
+     * @param clusterName Cluster name used as SiteName
+     * @return Spooled response owned by the caller, or null if the call failed
+     */
+    public SpooledResponse spoolSiteDetails(String clusterName) {
+        String url = mockApiBaseUrl + "/ProvisioningWebService/sps/v1/site?SiteName=" + clusterName;
+        CmConcurrencyLimiter.Permit permit = null;
+        
+        try {
+            HttpHeaders headers = createHeaders();
+            
+            System.out.println("MockApiService: Streaming Mock API response for cluster: '" + clusterName + "'");
+            System.out.println("MockApiService: URL: " + url);
+            
+            // the slot is held until the body is spooled; error statuses are thrown before the extractor runs
+            permit = cmConcurrencyLimiter.acquire(clusterName);
+            SpooledResponse spooled = restTemplate.execute(
+                url,
+                HttpMethod.GET,
+                request -> request.getHeaders().putAll(headers),
+                response -> {
+                    if (!response.getStatusCode().is2xxSuccessful()) {
+                        System.out.println("MockApiService: Mock API returned non-success status: " + response.getStatusCode());
+                        return null;
+                    }
+                    return SpooledResponse.copyOf(response.getBody());
+                }
+            );
+            permit.success();
+            
+            if (spooled != null) {
+                System.out.println("MockApiService: Spooled " + spooled.getSize() + " bytes from Mock API for cluster: '" + clusterName + "'");
+            }
+            return spooled;
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            if (permit != null) {
+                permit.fail(e);
+            }
+            System.out.println("MockApiService: Error calling Mock API for cluster '" + clusterName + "': " + e.getMessage());
+            return null;
+        }
+    }
+    
     public void checkAvailableClusters() {
         System.out.println("=== MOCK API CLUSTER TESTING ===");
         System.out.println("Mock API Base URL: " + mockApiBaseUrl);
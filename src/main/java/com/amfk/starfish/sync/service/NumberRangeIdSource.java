@@ -0,0 +1,163 @@
+package com.amfk.starfish.sync.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Enumerates the resource IDs of a CM from the number ranges the site sync stored in
+ * pbx_number_range. Ranges are read a page at a time (keyset paging on range_from, range_to) and cut
+ * into chunks of consecutive IDs; a chunk is a view that formats its IDs on access, so neither the
+ * ranges nor the IDs of a CM are ever held in memory as a whole.
+ */
+@Service
+public class NumberRangeIdSource {
+    
+    private static final Logger logger = LoggerFactory.getLogger(NumberRangeIdSource.class);
+    
+    private final JdbcTemplate jdbcTemplate;
+    
+    // Distinct ranges read per query
+    @Value("${resource.sync.range.page.size:500}")
+    private int pageSize = 500;
+    
+    // Ranges holding more IDs than this are skipped, they are most likely not resource numbers
+    @Value("${resource.sync.range.max.ids:100000}")
+    private long maxIdsPerRange = 100000;
+    
+    public NumberRangeIdSource(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+    
+    /**
+     * Lazily pages through the distinct numeric ranges of a CM, across all pbx_system rows with the
+     * CM as remark, and cuts them into chunks
+     * @param cmName CM name (pbx_system.remark)
+     * @param rangeTypes pbx_phone_number_type names to include, compared case-insensitively
+     * @param chunkSize Most IDs per chunk
+     * @return Chunks of IDs in range order; the next page of ranges is read when the previous one is used up
+     */
+    public Stream<List<String>> chunks(String cmName, List<String> rangeTypes, int chunkSize) {
+        return StreamSupport.stream(new ChunkSpliterator(cmName, rangeTypes, Math.max(1, chunkSize)), false);
+    }
+    
+    private List<String[]> readPage(String cmName, List<String> rangeTypes, String[] after) {
+        List<Object> args = new ArrayList<>();
+        args.add(cmName);
+        for (String rangeType : rangeTypes) {
+            args.add(rangeType.toLowerCase(Locale.ROOT));
+        }
+        String sql = "SELECT DISTINCT r.range_from, r.range_to FROM pbx_number_range r " +
+            "JOIN pbx_system s ON s.id = r.id_pbx_system JOIN pbx_phone_number_type t ON t.id = r.phone_number_type " +
+            "WHERE s.remark = ? AND r.range_from IS NOT NULL AND r.range_to IS NOT NULL AND LOWER(t.name) IN (" + String.join(", ", Collections.nCopies(rangeTypes.size(), "?")) + ")";
+        if (after != null) {
+            sql += " AND (r.range_from > ? OR (r.range_from = ? AND r.range_to > ?))";
+            args.add(after[0]);
+            args.add(after[0]);
+            args.add(after[1]);
+        }
+        sql += " ORDER BY r.range_from, r.range_to LIMIT ?";
+        args.add(Math.max(1, pageSize));
+        return jdbcTemplate.query(sql, (rs, rowNum) -> new String[] {rs.getString(1), rs.getString(2)}, args.toArray());
+    }
+    
+    /**
+     * Consecutive IDs first..first+size-1, zero-padded to the width of the range's lower bound
+     */
+    private static List<String> idView(long first, int size, int width) {
+        return new AbstractList<>() {
+            @Override
+            public String get(int index) {
+                if (index < 0 || index >= size) {
+                    throw new IndexOutOfBoundsException(index);
+                }
+                String id = Long.toString(first + index);
+                return id.length() >= width ? id : "0".repeat(width - id.length()) + id;
+            }
+            
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+    
+    private final class ChunkSpliterator extends Spliterators.AbstractSpliterator<List<String>> {
+        private final String cmName;
+        private final List<String> rangeTypes;
+        private final int chunkSize;
+        
+        private List<String[]> page = List.of();
+        private int pageIndex;
+        private String[] lastRange;
+        private boolean lastPage;
+        
+        // Unused part of the current range
+        private long next;
+        private long last = -1;
+        private int width;
+        
+        private ChunkSpliterator(String cmName, List<String> rangeTypes, int chunkSize) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.cmName = cmName;
+            this.rangeTypes = rangeTypes;
+            this.chunkSize = chunkSize;
+        }
+        
+        @Override
+        public boolean tryAdvance(Consumer<? super List<String>> action) {
+            while (next > last) {
+                if (!nextRange()) {
+                    return false;
+                }
+            }
+            int size = (int) Math.min(chunkSize, last - next + 1);
+            action.accept(idView(next, size, width));
+            next += size;
+            return true;
+        }
+        
+        private boolean nextRange() {
+            if (pageIndex == page.size()) {
+                if (lastPage || rangeTypes.isEmpty()) {
+                    return false;
+                }
+                page = readPage(cmName, rangeTypes, lastRange);
+                pageIndex = 0;
+                lastPage = page.size() < Math.max(1, pageSize);
+                if (page.isEmpty()) {
+                    return false;
+                }
+            }
+            String[] range = page.get(pageIndex++);
+            lastRange = range;
+            try {
+                long from = Long.parseLong(range[0].trim());
+                long to = Long.parseLong(range[1].trim());
+                if (from < 0 || to < from || to - from >= maxIdsPerRange) {
+                    logger.warn("Skipping number range {}-{} of CM {}: not a range of 1 to {} IDs", range[0], range[1], cmName, maxIdsPerRange);
+                    return true;
+                }
+                next = from;
+                last = to;
+                width = range[0].trim().length();
+            } catch (NumberFormatException e) {
+                logger.debug("Skipping non-numeric number range {}-{} of CM {}", range[0], range[1], cmName);
+            }
+            return true;
+        }
+    }
+}
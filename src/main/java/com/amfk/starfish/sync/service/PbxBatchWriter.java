@@ -0,0 +1,320 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.ExtensionSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Writes pbx_system, pbx_number_range and pbx_number_reserved rows of a Site/CM entry. The incoming
+ * values are compared against what is stored first and only rows that are missing or whose business
+ * columns changed are written, so an unchanged entry costs reads only: a pbx_system row is updated only
+ * when aem_pbx differs, ranges are inserted when their key is missing, and reserved extensions that are
+ * already stored are left as they are. Missing rows are inserted with MySQL upserts
+ * (INSERT ... ON DUPLICATE KEY UPDATE) so a row inserted concurrently does not fail the entry. That a
+ * pbx_system was present in a run is kept in sync_pbx_system_seen, one row per system, instead of in
+ * the log and reservation columns of every row.
+ *
+ * Requires the unique keys from db/pbx-upsert-keys.sql; without them every upsert inserts a new row.
+ * The keys are applied by hand, not at startup, so the batched writes stay off until
+ * site.sync.write.batch.enabled (or the write-behind buffer) is switched on for a database that has them.
+ */
+@Service
+public class PbxBatchWriter {
+    
+    private static final Logger logger = LoggerFactory.getLogger(PbxBatchWriter.class);
+    
+    private static final String UPSERT_SYSTEM_SQL =
+        "INSERT INTO pbx_system (physical_pbx, remark, aem_pbx, id_pbx_cluster, log_created_by, log_created_on, log_updated_by, log_updated_on) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?) " +
+        "ON DUPLICATE KEY UPDATE aem_pbx = VALUES(aem_pbx), log_updated_by = VALUES(log_updated_by), log_updated_on = VALUES(log_updated_on)";
+        
+    private static final String UPDATE_SYSTEM_SQL =
+        "UPDATE pbx_system SET aem_pbx = ?, log_updated_by = ?, log_updated_on = ? WHERE physical_pbx = ? AND remark = ?";
+        
+    private static final String UPSERT_RANGE_SQL =
+        "INSERT INTO pbx_number_range (id_pbx_system, range_from, range_to, phone_number_type, id_pbx_cluster, log_created_by, log_created_on, log_updated_by, log_updated_on) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+        "ON DUPLICATE KEY UPDATE log_updated_by = VALUES(log_updated_by), log_updated_on = VALUES(log_updated_on)";
+        
+    private static final String INSERT_RESERVED_SQL =
+        "INSERT INTO pbx_number_reserved (pbx_system_id, extensions, reserve_start_time, reserve_end_time) VALUES (?, ?, ?, ?)";
+        
+    private static final String MARK_SEEN_SQL =
+        "INSERT INTO sync_pbx_system_seen (pbx_system_id, last_seen_on) VALUES (?, ?) " +
+        "ON DUPLICATE KEY UPDATE last_seen_on = VALUES(last_seen_on)";
+        
+    private final JdbcTemplate jdbcTemplate;
+    
+    // Statements per JDBC batch when writing reserved extensions
+    @Value("${site.sync.write.batch.size:1000}")
+    private int batchSize = 1000;
+    
+    public PbxBatchWriter(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+    
+    /**
+     * Inserts the pbx_system row of a Site/CM entry, or updates it if its aem_pbx differs
+     * @param siteName Site name from Mock API
+     * @param cmName CM name from Mock API
+     * @param currentTime Timestamp written to the log columns
+     * @return Whether the row was inserted, updated or left unchanged
+     */
+    public RowChange writePbxSystem(String siteName, String cmName, String currentTime) {
+        List<String> stored = jdbcTemplate.queryForList("SELECT aem_pbx FROM pbx_system WHERE physical_pbx = ? AND remark = ?",
+            String.class, siteName, cmName);
+        RowChange change = stored.isEmpty() ? RowChange.INSERTED
+            : Objects.equals(stored.get(0), siteName) ? RowChange.UNCHANGED : RowChange.UPDATED;
+            
+        if (change == RowChange.INSERTED) {
+            jdbcTemplate.update(UPSERT_SYSTEM_SQL, siteName, cmName, siteName, 1, "system", currentTime, "system", currentTime);
+            logger.info("Inserted new pbx_system record for site: {} with CM: {}, aem_pbx: {}", siteName, cmName, siteName);
+        } else if (change == RowChange.UPDATED) {
+            jdbcTemplate.update(UPDATE_SYSTEM_SQL, siteName, "system", currentTime, siteName, cmName);
+            logger.info("Updated pbx_system record for site: {} with CM: {}, aem_pbx: {}", siteName, cmName, siteName);
+        }
+        return change;
+    }
+    
+    /**
+     * {@link #writePbxSystem} for several Site/CM entries: the stored rows are read with one query per
+     * batch of entries, and the inserts and updates go out as one JDBC batch each
+     * @param rows Site/CM entries
+     * @param currentTime Timestamp written to the log columns
+     * @return Outcome per entry, in the order of rows
+     */
+    public List<RowChange> writePbxSystems(List<SystemRow> rows, String currentTime) {
+        Map<SystemRow, String> stored = new HashMap<>();
+        int perQuery = Math.max(1, batchSize);
+        for (int from = 0; from < rows.size(); from += perQuery) {
+            List<SystemRow> slice = rows.subList(from, Math.min(rows.size(), from + perQuery));
+            String sql = "SELECT physical_pbx, remark, aem_pbx FROM pbx_system WHERE "
+                + String.join(" OR ", Collections.nCopies(slice.size(), "(physical_pbx = ? AND remark = ?)"));
+            Object[] args = new Object[2 * slice.size()];
+            for (int i = 0; i < slice.size(); i++) {
+                args[2 * i] = slice.get(i).siteName();
+                args[2 * i + 1] = slice.get(i).cmName();
+            }
+            jdbcTemplate.query(sql, rs -> {
+                stored.put(new SystemRow(rs.getString(1), rs.getString(2)), rs.getString(3));
+            }, args);
+        }
+        
+        List<RowChange> changes = new ArrayList<>(rows.size());
+        List<Object[]> inserts = new ArrayList<>();
+        List<Object[]> updates = new ArrayList<>();
+        for (SystemRow row : rows) {
+            if (!stored.containsKey(row)) {
+                changes.add(RowChange.INSERTED);
+                inserts.add(new Object[] {row.siteName(), row.cmName(), row.siteName(), 1, "system", currentTime, "system", currentTime});
+            } else if (!Objects.equals(stored.get(row), row.siteName())) {
+                changes.add(RowChange.UPDATED);
+                updates.add(new Object[] {row.siteName(), "system", currentTime, row.siteName(), row.cmName()});
+            } else {
+                changes.add(RowChange.UNCHANGED);
+            }
+        }
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPSERT_SYSTEM_SQL, inserts);
+        }
+        if (!updates.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPDATE_SYSTEM_SQL, updates);
+        }
+        return changes;
+    }
+    
+    /**
+     * Inserts the ranges of one pbx_system row that are not stored yet, in a single batch. Every
+     * business column of a range is part of its key, so a stored range never needs an update.
+     * @param systemId ID of the pbx_system row
+     * @param rows Ranges with resolved phone number types
+     * @param currentTime Timestamp written to the log columns
+     * @return Inserted and unchanged counts
+     */
+    public RangeCounts writeNumberRanges(int systemId, List<RangeRow> rows, String currentTime) {
+        if (rows.isEmpty()) {
+            return new RangeCounts(0, 0, 0);
+        }
+        
+        Set<RangeRow> stored = new HashSet<>(jdbcTemplate.query(
+            "SELECT range_from, range_to, phone_number_type FROM pbx_number_range WHERE id_pbx_system = ?",
+            (rs, rowNum) -> new RangeRow(rs.getString(1), rs.getString(2), rs.getInt(3)), systemId));
+        List<Object[]> batchArgs = new ArrayList<>();
+        for (RangeRow row : new LinkedHashSet<>(rows)) {
+            if (!stored.contains(row)) {
+                batchArgs.add(new Object[] {systemId, row.rangeFrom(), row.rangeTo(), row.phoneNumberType(), 1,
+                    "system", currentTime, "system", currentTime});
+            }
+        }
+        
+        int unchanged = rows.size() - batchArgs.size();
+        if (batchArgs.isEmpty()) {
+            return new RangeCounts(0, unchanged, 0);
+        }
+        int unreported = 0;
+        for (int affected : jdbcTemplate.batchUpdate(UPSERT_RANGE_SQL, batchArgs)) {
+            if (affected == Statement.SUCCESS_NO_INFO) {
+                unreported++;
+            }
+        }
+        return new RangeCounts(batchArgs.size() - unreported, unchanged, unreported);
+    }
+    
+    /**
+     * Brings the reserved extensions of one pbx_system row up to date with the incoming set.
+     * Same as {@link #diffReservedExtensions} followed by {@link #insertReservedExtensions}.
+     * @param systemId ID of the pbx_system row
+     * @param incoming AvailableExtensions of all ranges
+     * @param currentTime Timestamp written to the reservation columns of added rows
+     * @return Added and kept counts
+     */
+    public ReservedCounts syncReservedExtensions(int systemId, ExtensionSet incoming, String currentTime) {
+        ReservedDiff diff = diffReservedExtensions(systemId, incoming);
+        insertReservedExtensions(systemId, diff.added().cursor().next(Integer.MAX_VALUE), currentTime);
+        return new ReservedCounts(diff.added().cardinality(), diff.kept().cardinality());
+    }
+    
+    /**
+     * Streams the stored reserved extensions of one pbx_system row once and splits them against the
+     * incoming set: extensions to insert, extensions already stored, and stored extensions that are no
+     * longer offered. All three are bitsets like the incoming set. Each stored value is encoded once
+     * against the incoming set's base; only values outside that encoding are compared as Strings.
+     * @param systemId ID of the pbx_system row
+     * @param incoming AvailableExtensions of all ranges
+     * @return Extensions to add, to keep and stale ones
+     */
+    public ReservedDiff diffReservedExtensions(int systemId, ExtensionSet incoming) {
+        ExtensionSet kept = ExtensionSet.emptyLike(incoming);
+        ExtensionSet stale = ExtensionSet.emptyLike(incoming);
+        int[] stored = {0};
+        jdbcTemplate.query("SELECT extensions FROM pbx_number_reserved WHERE pbx_system_id = ?", rs -> {
+            String extension = rs.getString(1);
+            stored[0]++;
+            if (extension == null) {
+                return;
+            }
+            int offset = incoming.offsetOf(extension);
+            if (offset >= 0) {
+                if (incoming.containsOffset(offset)) {
+                    kept.addOffset(offset);
+                } else {
+                    stale.addOffset(offset);
+                }
+            } else if (incoming.contains(extension)) {
+                kept.add(extension);
+            } else {
+                stale.add(extension);
+            }
+        }, systemId);
+        return new ReservedDiff(incoming.difference(kept), kept, stale, stored[0]);
+    }
+    
+    /**
+     * Inserts the added extensions in batches. Given an {@link ExtensionSet.Chunk}, each extension's
+     * text is only created as its statement is bound. Extensions are bound as text because the column
+     * is a VARCHAR where leading zeros matter; a numeric parameter would make MySQL convert every stored
+     * value before comparing and skip the index.
+     * @param systemId ID of the pbx_system row
+     * @param added Extensions to insert
+     * @param currentTime Timestamp written to the reservation columns
+     */
+    public void insertReservedExtensions(int systemId, List<String> added, String currentTime) {
+        if (added.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT_RESERVED_SQL, added, batchSize, (ps, extension) -> {
+            ps.setInt(1, systemId);
+            ps.setString(2, extension);
+            ps.setString(3, currentTime);
+            ps.setString(4, currentTime);
+        });
+    }
+    
+    /**
+     * Records that the pbx_system rows were present in the Mock API response, one row per system
+     * @param systemIds IDs of the pbx_system rows
+     * @param currentTime Timestamp written to last_seen_on
+     */
+    public void markSeen(Collection<Integer> systemIds, String currentTime) {
+        if (systemIds.isEmpty()) {
+            return;
+        }
+        List<Object[]> batchArgs = new ArrayList<>(systemIds.size());
+        for (Integer systemId : systemIds) {
+            batchArgs.add(new Object[] {systemId, currentTime});
+        }
+        jdbcTemplate.batchUpdate(MARK_SEEN_SQL, batchArgs);
+    }
+    
+    /**
+     * One pbx_system row to write
+     * @param siteName Site name (physical_pbx and aem_pbx)
+     * @param cmName CM name (remark)
+     */
+    public record SystemRow(String siteName, String cmName) {
+    }
+    
+    /**
+     * One pbx_number_range row to write
+     * @param rangeFrom Lower bound of the range
+     * @param rangeTo Upper bound of the range
+     * @param phoneNumberType ID from pbx_phone_number_type
+     */
+    public record RangeRow(String rangeFrom, String rangeTo, int phoneNumberType) {
+    }
+    
+    /**
+     * What a change-aware write did to a stored row
+     */
+    public enum RowChange {
+        INSERTED,
+        UPDATED,
+        UNCHANGED
+    }
+    
+    /**
+     * Outcome of a range write
+     * @param inserted Ranges inserted because their key was not stored yet
+     * @param unchanged Ranges already stored, not written
+     * @param unreported Inserts whose outcome the driver did not report (rewritten batches)
+     */
+    public record RangeCounts(int inserted, int unchanged, int unreported) {
+    }
+    
+    /**
+     * Reserved extensions of one pbx_system row split by what has to be written
+     * @param added Extensions not stored yet
+     * @param kept Extensions already stored
+     * @param stale Stored extensions that are not incoming
+     * @param stored Number of rows stored before the write
+     */
+    public record ReservedDiff(ExtensionSet added, ExtensionSet kept, ExtensionSet stale, int stored) {
+        
+        static ReservedDiff empty(ExtensionSet incoming) {
+            return new ReservedDiff(incoming, incoming, ExtensionSet.emptyLike(incoming), 0);
+        }
+    }
+    
+    /**
+     * Outcome of a reserved extension sync
+     * @param added Extensions inserted because they were not stored yet
+     * @param kept Incoming extensions that were already stored, not written
+     */
+    public record ReservedCounts(int added, int kept) {
+    }
+}
@@ -0,0 +1,431 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.ExtensionSet;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind buffer between the site sync and MySQL. Callers hand over the pbx_system,
+ * pbx_number_range and pbx_number_reserved rows of a Site/CM entry and continue; a dedicated writer
+ * thread flushes everything buffered once enough rows are waiting or the oldest of them has waited
+ * for the flush interval. Rows with the same key are coalesced while they wait: one pbx_system row
+ * per Site/CM entry, one pbx_number_range row per bounds and type, one pbx_number_reserved row per
+ * extension.
+ *
+ * Memory is bounded by a row capacity that counts buffered and in-flight rows, and submitting blocks
+ * while it is reached, so a slow database throttles the callers instead of filling the heap. Each
+ * flush is one transaction of {@link PbxBatchWriter} writes, which skip rows that are already stored
+ * unchanged (requires db/pbx-upsert-keys.sql).
+ * Unlike {@link DatabaseUpdateService#applyWriteCommand}, stale rows are not reconciled and large
+ * reserved sets are not split into several commits. Rows still buffered at shutdown are flushed
+ * before the bean is destroyed.
+ */
+@Service
+public class PbxWriteBehindBuffer {
+    
+    private static final Logger logger = LoggerFactory.getLogger(PbxWriteBehindBuffer.class);
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    
+    private final PbxBatchWriter pbxBatchWriter;
+    private final ReferenceDataCache referenceDataCache;
+    private final TransactionTemplate transactionTemplate;
+    private final RowWriteStats rowWriteStats;
+    
+    // Buffered plus in-flight rows at most; larger entries are only admitted into an empty buffer
+    @Value("${site.sync.write.behind.capacity.rows:200000}")
+    private int capacityRows = 200000;
+    
+    @Value("${site.sync.write.behind.flush.rows:20000}")
+    private int flushRows = 20000;
+    
+    @Value("${site.sync.write.behind.flush.interval.ms:500}")
+    private long flushIntervalMs = 500;
+    
+    @Value("${site.sync.write.behind.shutdown.timeout.ms:30000}")
+    private long shutdownTimeoutMs = 30000;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition flushDue = lock.newCondition();
+    
+    // Guarded by lock
+    private Batch pending = new Batch();
+    private Batch inFlight;
+    private int bufferedRows;
+    private boolean flushRequested;
+    private boolean closed;
+    private Thread writer;
+    
+    private final Timer flushSucceeded;
+    private final Timer flushFailed;
+    private final DistributionSummary batchRows;
+    private final Counter coalescedRows;
+    
+    public PbxWriteBehindBuffer(PbxBatchWriter pbxBatchWriter,
+                                ReferenceDataCache referenceDataCache,
+                                TransactionTemplate transactionTemplate,
+                                RowWriteStats rowWriteStats,
+                                MeterRegistry meterRegistry) {
+        this.pbxBatchWriter = pbxBatchWriter;
+        this.referenceDataCache = referenceDataCache;
+        this.transactionTemplate = transactionTemplate;
+        this.rowWriteStats = rowWriteStats;
+        
+        this.flushSucceeded = flushTimer(meterRegistry, "success");
+        this.flushFailed = flushTimer(meterRegistry, "failure");
+        this.batchRows = DistributionSummary.builder("site.sync.write.behind.batch.rows")
+            .description("Buffered rows per write-behind flush")
+            .register(meterRegistry);
+        this.coalescedRows = Counter.builder("site.sync.write.behind.coalesced.rows")
+            .description("Submitted rows merged into a row with the same key that was still buffered")
+            .register(meterRegistry);
+        Gauge.builder("site.sync.write.behind.buffered.rows", this, PbxWriteBehindBuffer::getBufferedRows)
+            .description("Rows waiting in the write-behind buffer or being flushed")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Buffers the rows of one Site/CM entry, blocking while the buffer is full. All rows of the entry
+     * are written by the same flush. The buffer takes ownership of the entry's reserved set.
+     * @param entry Rows of the entry
+     * @return Completes with true once the flush containing the rows has committed, false if it was
+     *         rolled back; completed on the writer thread. Fails with an IllegalStateException if the
+     *         writer thread stopped (e.g. was interrupted at shutdown) before the rows were written.
+     */
+    public CompletableFuture<Boolean> submit(EntryRows entry) throws InterruptedException {
+        int rows = entry.rowCount();
+        lock.lockInterruptibly();
+        try {
+            while (!closed && bufferedRows > 0 && bufferedRows + rows > capacityRows) {
+                notFull.await();
+            }
+            if (closed) {
+                throw new IllegalStateException("Write-behind buffer is closed");
+            }
+            startWriter();
+            
+            if (pending.isEmpty()) {
+                pending.firstRowNanos = System.nanoTime();
+            }
+            int added = pending.merge(entry);
+            bufferedRows += added;
+            coalescedRows.increment(rows - added);
+            flushDue.signal();
+            return pending.written;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Flushes everything submitted so far without waiting for a threshold, and waits until it is written
+     */
+    public void flush() throws InterruptedException {
+        Batch last;
+        lock.lockInterruptibly();
+        try {
+            last = pending.isEmpty() ? inFlight : pending;
+            if (last == null) {
+                return;
+            }
+            flushRequested = true;
+            flushDue.signal();
+        } finally {
+            lock.unlock();
+        }
+        
+        // Batches are flushed in order, so the last one finishing means all earlier ones have
+        try {
+            last.written.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Write-behind flush failed", e.getCause());
+        }
+    }
+    
+    /**
+     * Stops accepting rows and flushes the buffered ones, waiting up to the shutdown timeout
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        Thread thread;
+        lock.lock();
+        try {
+            closed = true;
+            thread = writer;
+            flushDue.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (thread == null) {
+            return;
+        }
+        
+        thread.join(shutdownTimeoutMs);
+        if (thread.isAlive()) {
+            logger.warn("Write-behind buffer not flushed within {} ms, abandoning {} rows", shutdownTimeoutMs, getBufferedRows());
+            thread.interrupt();
+        }
+    }
+    
+    /**
+     * @return Rows waiting to be flushed or being flushed
+     */
+    public int getBufferedRows() {
+        lock.lock();
+        try {
+            return bufferedRows;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void startWriter() {
+        if (writer == null) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("pbx-write-behind-");
+            threadFactory.setDaemon(true);
+            writer = threadFactory.newThread(this::writeLoop);
+            writer.start();
+        }
+    }
+    
+    private void writeLoop() {
+        try {
+            while (true) {
+                Batch batch;
+                lock.lock();
+                try {
+                    while (!isFlushDue()) {
+                        if (closed && pending.isEmpty()) {
+                            return;
+                        }
+                        if (pending.isEmpty()) {
+                            flushDue.await();
+                        } else {
+                            flushDue.awaitNanos(pending.firstRowNanos + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs) - System.nanoTime());
+                        }
+                    }
+                    batch = pending;
+                    pending = new Batch();
+                    inFlight = batch;
+                    flushRequested = false;
+                } finally {
+                    lock.unlock();
+                }
+                
+                boolean written = write(batch);
+                lock.lock();
+                try {
+                    bufferedRows -= batch.rows;
+                    inFlight = null;
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                batch.written.complete(written);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            abandon();
+        }
+    }
+    
+    /**
+     * Fails the batches the writer thread leaves behind when it stops, so no caller waits on them
+     * forever. A later submit starts a new writer unless the buffer is closed.
+     */
+    private void abandon() {
+        List<Batch> abandoned = new ArrayList<>(2);
+        lock.lock();
+        try {
+            if (inFlight != null) {
+                abandoned.add(inFlight);
+                bufferedRows -= inFlight.rows;
+                inFlight = null;
+            }
+            abandoned.add(pending);
+            bufferedRows -= pending.rows;
+            pending = new Batch();
+            writer = null;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Batch batch : abandoned) {
+            if (batch.written.completeExceptionally(new IllegalStateException("Write-behind writer stopped before "
+                + batch.rows + " rows were flushed")) && batch.rows > 0) {
+                logger.warn("Write-behind writer stopped, {} rows of {} Site/CM entries not written", batch.rows, batch.entries.size());
+            }
+        }
+    }
+    
+    /**
+     * Whether the pending batch has to be flushed now; called with the lock held
+     */
+    private boolean isFlushDue() {
+        if (pending.isEmpty()) {
+            return false;
+        }
+        return closed || flushRequested || pending.rows >= flushRows
+            || System.nanoTime() - pending.firstRowNanos >= TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+    }
+    
+    /**
+     * Writes one batch in a single transaction
+     * @return true if the transaction committed
+     */
+    private boolean write(Batch batch) {
+        long start = System.nanoTime();
+        List<PbxBatchWriter.SystemRow> systems = new ArrayList<>(batch.entries.keySet());
+        try {
+            transactionTemplate.executeWithoutResult(status -> writeRows(batch, systems));
+            flushSucceeded.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            batchRows.record(batch.rows);
+            logger.info("Flushed {} buffered rows of {} Site/CM entries in {} ms",
+                batch.rows, systems.size(), (System.nanoTime() - start) / 1_000_000);
+            return true;
+            
+        } catch (Exception e) {
+            flushFailed.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            logger.error("Write-behind flush of {} rows for {} Site/CM entries rolled back: {}",
+                batch.rows, systems.size(), e.getMessage(), e);
+            // Rolled back inserts must not leave their pbx_system ids behind in the cache
+            for (PbxBatchWriter.SystemRow system : systems) {
+                referenceDataCache.invalidatePbxSystem(system.siteName(), system.cmName());
+            }
+            return false;
+        }
+    }
+    
+    private void writeRows(Batch batch, List<PbxBatchWriter.SystemRow> systems) {
+        String currentTime = LocalDateTime.now().format(formatter);
+        List<PbxBatchWriter.RowChange> changes = pbxBatchWriter.writePbxSystems(systems, currentTime);
+        int unchangedSystems = 0;
+        for (int i = 0; i < changes.size(); i++) {
+            if (changes.get(i) == PbxBatchWriter.RowChange.INSERTED) {
+                referenceDataCache.invalidatePbxSystem(systems.get(i).siteName(), systems.get(i).cmName());
+            } else if (changes.get(i) == PbxBatchWriter.RowChange.UNCHANGED) {
+                unchangedSystems++;
+            }
+        }
+        rowWriteStats.record(changes.size() - unchangedSystems, unchangedSystems);
+        
+        List<Integer> systemIds = new ArrayList<>(systems.size());
+        for (Map.Entry<PbxBatchWriter.SystemRow, PendingEntry> entry : batch.entries.entrySet()) {
+            PbxBatchWriter.SystemRow system = entry.getKey();
+            Integer systemId = referenceDataCache.getPbxSystemId(system.siteName(), system.cmName());
+            if (systemId == null) {
+                throw new IllegalStateException("No pbx_system record found for site: " + system.siteName() + ", CM: " + system.cmName());
+            }
+            systemIds.add(systemId);
+            PendingEntry rows = entry.getValue();
+            if (!rows.ranges.isEmpty()) {
+                PbxBatchWriter.RangeCounts ranges = pbxBatchWriter.writeNumberRanges(systemId, new ArrayList<>(rows.ranges), currentTime);
+                rowWriteStats.record(ranges.inserted() + ranges.unreported(), ranges.unchanged());
+            }
+            if (!rows.reserved.isEmpty()) {
+                PbxBatchWriter.ReservedCounts reserved = pbxBatchWriter.syncReservedExtensions(systemId, rows.reserved, currentTime);
+                rowWriteStats.record(reserved.added(), reserved.kept());
+            }
+        }
+        pbxBatchWriter.markSeen(systemIds, currentTime);
+    }
+    
+    private static Timer flushTimer(MeterRegistry meterRegistry, String result) {
+        return Timer.builder("site.sync.write.behind.flush")
+            .tag("result", result)
+            .description("Time to write one write-behind batch, by whether its transaction committed")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Rows of one Site/CM entry
+     * @param siteName Site name from Mock API
+     * @param cmName CM name from Mock API
+     * @param ranges pbx_number_range rows with resolved phone number types
+     * @param reserved Extensions for pbx_number_reserved
+     */
+    public record EntryRows(String siteName, String cmName, List<PbxBatchWriter.RangeRow> ranges, ExtensionSet reserved) {
+        
+        int rowCount() {
+            return 1 + ranges.size() + reserved.cardinality();
+        }
+    }
+    
+    /**
+     * Rows of one Site/CM entry coalesced by key
+     */
+    private static final class PendingEntry {
+        private final Set<PbxBatchWriter.RangeRow> ranges;
+        private ExtensionSet reserved;
+        
+        private PendingEntry(EntryRows entry) {
+            this.ranges = new LinkedHashSet<>(entry.ranges());
+            this.reserved = entry.reserved();
+        }
+        
+        private int rows() {
+            return 1 + ranges.size() + reserved.cardinality();
+        }
+    }
+    
+    /**
+     * Rows flushed together, completing one future for all entries they belong to
+     */
+    private static final class Batch {
+        private final Map<PbxBatchWriter.SystemRow, PendingEntry> entries = new LinkedHashMap<>();
+        private final CompletableFuture<Boolean> written = new CompletableFuture<>();
+        private long firstRowNanos;
+        private int rows;
+        
+        private boolean isEmpty() {
+            return entries.isEmpty();
+        }
+        
+        /**
+         * @return Rows the entry added after coalescing
+         */
+        private int merge(EntryRows entry) {
+            PbxBatchWriter.SystemRow key = new PbxBatchWriter.SystemRow(entry.siteName(), entry.cmName());
+            PendingEntry existing = entries.get(key);
+            int added;
+            if (existing == null) {
+                PendingEntry created = new PendingEntry(entry);
+                entries.put(key, created);
+                added = created.rows();
+            } else {
+                int before = existing.rows();
+                existing.ranges.addAll(entry.ranges());
+                existing.reserved = ExtensionSet.union(List.of(existing.reserved, entry.reserved()));
+                added = existing.rows() - before;
+            }
+            rows += added;
+            return added;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.amfk.starfish.sync.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process cache of reference ids looked up for every site write: pbx_phone_number_type ids by
+ * type name and pbx_system ids by site and CM. Both are preloaded at startup and filled on misses.
+ * Type names are matched exactly first and then case-insensitively, like the database fallback.
+ * The pbx_system cache is bounded (least recently used entries are evicted) and must be invalidated
+ * by whoever inserts or removes pbx_system rows.
+ */
+@Service
+public class ReferenceDataCache {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ReferenceDataCache.class);
+    
+    private static final String PHONE_NUMBER_TYPE = "phone-number-type";
+    private static final String PBX_SYSTEM = "pbx-system";
+    
+    private final JdbcTemplate jdbcTemplate;
+    private final int maxPbxSystems;
+    
+    private final Map<String, Integer> phoneNumberTypes = new ConcurrentHashMap<>();
+    private final Map<String, Integer> phoneNumberTypesLowerCase = new ConcurrentHashMap<>();
+    private final Map<String, Integer> pbxSystems;
+    
+    private final Counter phoneNumberTypeHits;
+    private final Counter phoneNumberTypeMisses;
+    private final Counter pbxSystemHits;
+    private final Counter pbxSystemMisses;
+    
+    public ReferenceDataCache(JdbcTemplate jdbcTemplate,
+                              MeterRegistry meterRegistry,
+                              @Value("${sync.reference.cache.max.pbx.systems:10000}") int maxPbxSystems) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.maxPbxSystems = maxPbxSystems;
+        this.pbxSystems = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > ReferenceDataCache.this.maxPbxSystems;
+            }
+        };
+        
+        this.phoneNumberTypeHits = counter(meterRegistry, PHONE_NUMBER_TYPE, "hit");
+        this.phoneNumberTypeMisses = counter(meterRegistry, PHONE_NUMBER_TYPE, "miss");
+        this.pbxSystemHits = counter(meterRegistry, PBX_SYSTEM, "hit");
+        this.pbxSystemMisses = counter(meterRegistry, PBX_SYSTEM, "miss");
+    }
+    
+    /**
+     * Loads all phone number types and up to the size bound of pbx_system ids.
+     * Failures are logged so the application still starts when MySQL is unreachable.
+     */
+    @PostConstruct
+    public void preload() {
+        try {
+            jdbcTemplate.query("SELECT id, name FROM pbx_phone_number_type", rs -> {
+                putPhoneNumberType(rs.getString("name"), rs.getInt("id"));
+            });
+            
+            jdbcTemplate.query("SELECT id, physical_pbx, remark FROM pbx_system ORDER BY id DESC LIMIT ?", rs -> {
+                putPbxSystem(rs.getString("physical_pbx"), rs.getString("remark"), rs.getInt("id"));
+            }, maxPbxSystems);
+            
+            logger.info("Preloaded reference data: {} phone number types, {} pbx_system ids",
+                phoneNumberTypes.size(), pbxSystemCount());
+        } catch (Exception e) {
+            logger.warn("Could not preload reference data, it is loaded on demand: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Gets the pbx_phone_number_type ID of a type name, exact match first, then case-insensitive
+     * @param typeName Type name from Mock API (e.g., "internal", "external")
+     * @return Phone number type ID or null if not found
+     */
+    public Integer getPhoneNumberTypeId(String typeName) {
+        if (typeName == null) {
+            return null;
+        }
+        
+        Integer id = phoneNumberTypes.get(typeName);
+        if (id == null) {
+            id = phoneNumberTypesLowerCase.get(typeName.toLowerCase(Locale.ROOT));
+        }
+        if (id != null) {
+            phoneNumberTypeHits.increment();
+            return id;
+        }
+        
+        phoneNumberTypeMisses.increment();
+        id = queryForId("SELECT id FROM pbx_phone_number_type WHERE name = ?", typeName);
+        if (id == null) {
+            id = queryForId("SELECT id FROM pbx_phone_number_type WHERE LOWER(name) = LOWER(?)", typeName);
+        }
+        if (id != null) {
+            putPhoneNumberType(typeName, id);
+        }
+        return id;
+    }
+    
+    /**
+     * Gets the ID of the pbx_system row of a Site/CM entry
+     * @param siteName Site name (physical_pbx)
+     * @param cmName CM name (remark)
+     * @return pbx_system ID or null if there is no such row
+     */
+    public Integer getPbxSystemId(String siteName, String cmName) {
+        String key = pbxSystemKey(siteName, cmName);
+        Integer id;
+        synchronized (pbxSystems) {
+            id = pbxSystems.get(key);
+        }
+        if (id != null) {
+            pbxSystemHits.increment();
+            return id;
+        }
+        
+        pbxSystemMisses.increment();
+        id = queryForId("SELECT id FROM pbx_system WHERE physical_pbx = ? AND remark = ?", siteName, cmName);
+        if (id != null) {
+            putPbxSystem(siteName, cmName, id);
+        }
+        return id;
+    }
+    
+    /**
+     * Drops the cached ID of a Site/CM entry, e.g. after its pbx_system row was inserted or deleted
+     * @param siteName Site name (physical_pbx)
+     * @param cmName CM name (remark)
+     */
+    public void invalidatePbxSystem(String siteName, String cmName) {
+        synchronized (pbxSystems) {
+            pbxSystems.remove(pbxSystemKey(siteName, cmName));
+        }
+    }
+    
+    /**
+     * Drops all cached ids; they are reloaded on demand
+     */
+    public void invalidateAll() {
+        phoneNumberTypes.clear();
+        phoneNumberTypesLowerCase.clear();
+        synchronized (pbxSystems) {
+            pbxSystems.clear();
+        }
+    }
+    
+    /**
+     * Hit and miss counts per cache since startup
+     * @return Cache name to "hit"/"miss" counts
+     */
+    public Map<String, Map<String, Long>> getStats() {
+        return Map.of(
+            PHONE_NUMBER_TYPE, Map.of("hit", (long) phoneNumberTypeHits.count(), "miss", (long) phoneNumberTypeMisses.count()),
+            PBX_SYSTEM, Map.of("hit", (long) pbxSystemHits.count(), "miss", (long) pbxSystemMisses.count()));
+    }
+    
+    int pbxSystemCount() {
+        synchronized (pbxSystems) {
+            return pbxSystems.size();
+        }
+    }
+    
+    private void putPhoneNumberType(String name, int id) {
+        phoneNumberTypes.putIfAbsent(name, id);
+        phoneNumberTypesLowerCase.putIfAbsent(name.toLowerCase(Locale.ROOT), id);
+    }
+    
+    private void putPbxSystem(String siteName, String cmName, int id) {
+        synchronized (pbxSystems) {
+            pbxSystems.put(pbxSystemKey(siteName, cmName), id);
+        }
+    }
+    
+    private Integer queryForId(String sql, Object... args) {
+        List<Integer> ids = jdbcTemplate.queryForList(sql, Integer.class, args);
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+    
+    private static String pbxSystemKey(String siteName, String cmName) {
+        return siteName + "\u0000" + cmName;
+    }
+    
+    private static Counter counter(MeterRegistry meterRegistry, String cache, String result) {
+        return Counter.builder("sync.reference.cache.requests")
+            .tag("cache", cache)
+            .tag("result", result)
+            .description("Reference data lookups served from the cache (hit) or the database (miss)")
+            .register(meterRegistry);
+    }
+}
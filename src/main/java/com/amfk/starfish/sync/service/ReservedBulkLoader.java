@@ -0,0 +1,105 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.ExtensionSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.UUID;
+
+/**
+ * Bulk path for very large reserved extension sets. The incoming extensions are staged in
+ * sync_reserved_staging under a load id with multi-row INSERT statements, then merged into
+ * pbx_number_reserved by one INSERT ... SELECT of the extensions not stored yet, so the stored
+ * extensions are never read into memory and the statement count does not grow with the set. Staging rows are written
+ * outside the merge transaction; they are private to their load id and removed by {@link #discard}.
+ */
+@Service
+public class ReservedBulkLoader {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ReservedBulkLoader.class);
+    
+    private static final String INSERT_STAGED_SQL =
+        "INSERT INTO pbx_number_reserved (pbx_system_id, extensions, reserve_start_time, reserve_end_time) " +
+        "SELECT ?, s.extensions, ?, ? FROM sync_reserved_staging s WHERE s.load_id = ? AND NOT EXISTS " +
+        "(SELECT 1 FROM pbx_number_reserved r WHERE r.pbx_system_id = ? AND r.extensions = s.extensions)";
+        
+    private final JdbcTemplate jdbcTemplate;
+    
+    // Rows per multi-row INSERT into the staging table
+    @Value("${site.sync.write.bulk.rows.per.statement:1000}")
+    private int rowsPerStatement = 1000;
+    
+    public ReservedBulkLoader(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+    
+    /**
+     * Writes the extensions to the staging table under a new load id
+     * @param extensions Incoming extensions of one pbx_system
+     * @return Load id, to be passed to {@link #discard} once the staged rows are no longer needed
+     */
+    public String stage(ExtensionSet extensions) {
+        String loadId = UUID.randomUUID().toString();
+        int perStatement = Math.max(1, rowsPerStatement);
+        String fullSql = insertStagingSql(perStatement);
+        try {
+            ExtensionSet.Cursor cursor = extensions.cursor();
+            while (cursor.hasNext()) {
+                ExtensionSet.Chunk chunk = cursor.next(perStatement);
+                String sql = chunk.size() == perStatement ? fullSql : insertStagingSql(chunk.size());
+                jdbcTemplate.update(sql, ps -> {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        ps.setString(2 * i + 1, loadId);
+                        ps.setString(2 * i + 2, chunk.get(i));
+                    }
+                });
+            }
+            return loadId;
+        } catch (RuntimeException e) {
+            discard(loadId);
+            throw e;
+        }
+    }
+    
+    /**
+     * Number of reserved extensions stored for a pbx_system
+     * @param systemId ID of the pbx_system row
+     * @return Row count
+     */
+    public int countReserved(int systemId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM pbx_number_reserved WHERE pbx_system_id = ?", Integer.class, systemId);
+    }
+    
+    /**
+     * Inserts the staged extensions that are not stored yet; stored ones are left unchanged
+     * @param systemId ID of the pbx_system row
+     * @param loadId Load id returned by {@link #stage}
+     * @param incoming Number of staged extensions
+     * @param currentTime Timestamp written to the reservation columns of added rows
+     * @return Added and kept counts
+     */
+    public PbxBatchWriter.ReservedCounts merge(int systemId, String loadId, int incoming, String currentTime) {
+        int added = jdbcTemplate.update(INSERT_STAGED_SQL, systemId, currentTime, currentTime, loadId, systemId);
+        return new PbxBatchWriter.ReservedCounts(added, incoming - added);
+    }
+    
+    /**
+     * Deletes the staged rows of a load
+     * @param loadId Load id returned by {@link #stage}
+     */
+    public void discard(String loadId) {
+        try {
+            jdbcTemplate.update("DELETE FROM sync_reserved_staging WHERE load_id = ?", loadId);
+        } catch (Exception e) {
+            logger.warn("Could not delete staged reserved extensions of load {}: {}", loadId, e.getMessage());
+        }
+    }
+    
+    private static String insertStagingSql(int rows) {
+        return "INSERT INTO sync_reserved_staging (load_id, extensions) VALUES " + String.join(", ", Collections.nCopies(rows, "(?, ?)"));
+    }
+}
@@ -1,6 +1,9 @@
 package com.amfk.starfish.sync.service;
 
+import com.amfk.starfish.sync.dto.ResourceResult;
 import com.amfk.starfish.sync.dto.SiteDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -8,14 +11,25 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestTemplate;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 @Service
 public class ResourceApiService {
@@ -30,7 +44,38 @@ public class ResourceApiService {
     private MasterServiceClient masterServiceClient;
     
     @Autowired
-    private MockApiService mockApiService;
+    private SiteTopologyCache siteTopologyCache;
+    
+    @Autowired
+    private SyncCheckpointService syncCheckpointService;
+    
+    @Autowired
+    private JobLeaseService jobLeaseService;
+    
+    @Autowired
+    private ResourceSnapshotStore resourceSnapshotStore;
+    
+    @Autowired
+    private NumberRangeIdSource numberRangeIdSource;
+    
+    @Autowired
+    private CmConcurrencyLimiter cmConcurrencyLimiter;
+    
+    @Autowired
+    private AsyncUpstreamClient asyncUpstreamClient;
+    
+    // blocking: one worker thread per call through RestTemplate; async: calls through AsyncUpstreamClient
+    @Value("${upstream.http.mode:blocking}")
+    private String httpMode = "blocking";
+    
+    // Work items (single or batch requests) submitted or issued and not yet stored at once; bounds how
+    // far ID enumeration runs ahead of the calls
+    @Value("${resource.sync.max.pending:256}")
+    private int maxPending = 256;
+    
+    // Store the payloads of fetched resources in sync_resource_snapshot
+    @Value("${resource.snapshot.enabled:true}")
+    private boolean snapshotEnabled = true;
     
     @Value("${mock.api.base.url}")
     private String mockApiBaseUrl;
@@ -44,97 +89,361 @@ public class ResourceApiService {
     @Value("${resource.sync.enabled:true}")
     private boolean resourceSyncEnabled;
     
-    // Default resource IDs and server names for scheduled sync
-    @Value("${resource.sync.station.ids:1000,1001,1002}")
-    private String stationIds;
+    // Registered resource types, see ResourceTypeConfig
+    @Autowired
+    private List<ResourceType> resourceTypes;
     
-    @Value("${resource.sync.huntgroup.ids:2000,2001,2002}")
-    private String huntGroupIds;
+    @Autowired
+    private MeterRegistry meterRegistry;
     
-    @Value("${resource.sync.pickupgroup.ids:3000,3001,3002}")
-    private String pickupGroupIds;
+    // Resource requests in flight at once; also bounds the concurrent site-detail fetches of topology discovery
+    @Value("${resource.sync.parallelism:8}")
+    private int parallelism = 8;
+    
+    // Resource IDs per batch request; 0 uses one call per resource
+    @Value("${resource.sync.batch.size:200}")
+    private int batchSize = 200;
+    
+    // Cleared when the server has no batch endpoint; resources are then fetched one call at a time
+    private volatile boolean batchSupported = true;
+    
+    // Built on first use, after the credentials are injected
+    private volatile HttpHeaders headers;
     
     @Value("${resource.sync.server.names:CM1,CM2}")
     private String serverNames;
     
+    static final String RESOURCE_SYNC_JOB = "resource-sync";
+    
     private static final long STATION_SYNC_INTERVAL_MS = 86400000; 
     private static final long HUNTGROUP_SYNC_INTERVAL_MS = 86400000;   
     private static final long PICKUPGROUP_SYNC_INTERVAL_MS = 86400000;
     
-    public Map<String, Object> getStationResource(String resourceId, String serverName) {
-        String url = mockApiBaseUrl + "/ProvisioningWebService/sps/v1/resource/station/" + resourceId + "?ServerName=" + serverName;
-        return callResourceApi(url, "station", resourceId, serverName);
+    public ResourceResult getStationResource(String resourceId, String serverName) {
+        return getResource("station", resourceId, serverName);
+    }
+    
+    public ResourceResult getHuntGroupResource(String resourceId, String serverName) {
+        return getResource("huntgroup", resourceId, serverName);
+    }
+    
+    public ResourceResult getPickupGroupResource(String resourceId, String serverName) {
+        return getResource("pickupgroup", resourceId, serverName);
+    }
+    
+    /**
+     * Fetches one resource of any type from the Mock API
+     * @param resourceType Path segment of the resource endpoint, see {@link ResourceType#name()}
+     * @param resourceId Resource ID
+     * @param serverName CM to request the resource from
+     * @return Outcome of the call
+     */
+    public ResourceResult getResource(String resourceType, String resourceId, String serverName) {
+        if (AsyncUpstreamClient.isAsync(httpMode)) {
+            return getResourceAsync(resourceType, resourceId, serverName).join();
+        }
+        String url = mockApiBaseUrl + "/ProvisioningWebService/sps/v1/resource/" + resourceType + "/" + resourceId + "?ServerName=" + serverName;
+        return callResourceApi(url, resourceType, resourceId, serverName);
+    }
+    
+    /**
+     * Fetches many resources of one type from one CM through the batch endpoint, in requests of at
+     * most resource.sync.batch.size IDs. Falls back to one call per resource when batching is
+     * disabled or the server has no batch endpoint.
+     * @param resourceType Path segment of the resource endpoint, see {@link ResourceType#name()}
+     * @param resourceIds Resource IDs
+     * @param serverName CM to request the resources from
+     * @return Outcome per resource, in the order of the IDs
+     */
+    public List<ResourceResult> getResources(String resourceType, List<String> resourceIds, String serverName) {
+        if (AsyncUpstreamClient.isAsync(httpMode)) {
+            return getResourcesAsync(resourceType, resourceIds, serverName).join();
+        }
+        List<ResourceResult> results = new ArrayList<>(resourceIds.size());
+        int chunkSize = Math.max(1, batchSize);
+        for (int from = 0; from < resourceIds.size(); from += chunkSize) {
+            List<String> chunk = resourceIds.subList(from, Math.min(from + chunkSize, resourceIds.size()));
+            List<ResourceResult> batch = batchSize > 0 && batchSupported ? callBatchApi(resourceType, chunk, serverName) : null;
+            if (batch == null) {
+                batch = new ArrayList<>(chunk.size());
+                for (String resourceId : chunk) {
+                    batch.add(getResource(resourceType, resourceId, serverName));
+                }
+            }
+            results.addAll(batch);
+        }
+        return results;
+    }
+    
+    /**
+     * Fetches one resource without holding a thread while waiting for the call slot and the response
+     * (in blocking mode the call is made on the calling thread)
+     * @return Completed with the outcome of the call; never completes exceptionally
+     */
+    public CompletableFuture<ResourceResult> getResourceAsync(String resourceType, String resourceId, String serverName) {
+        if (!AsyncUpstreamClient.isAsync(httpMode)) {
+            return CompletableFuture.completedFuture(getResource(resourceType, resourceId, serverName));
+        }
+        String url = mockApiBaseUrl + "/ProvisioningWebService/sps/v1/resource/" + resourceType + "/" + resourceId + "?ServerName=" + serverName;
+        return cmConcurrencyLimiter.acquireAsync(serverName)
+            .thenCompose(permit -> asyncUpstreamClient.get(url, headers()).whenComplete((response, error) -> {
+                if (error != null) {
+                    permit.fail(AsyncUpstreamClient.unwrap(error));
+                } else {
+                    permit.complete(response.status());
+                }
+            }))
+            .thenApply(response -> resourceResult(resourceType, resourceId, serverName, response.status(),
+                asyncUpstreamClient.readMap(response)))
+            .exceptionally(error -> {
+                String message = AsyncUpstreamClient.unwrap(error).getMessage();
+                System.out.println("ResourceApiService: Error calling Mock API for " + resourceType + " resource: " + message);
+                return ResourceResult.error(resourceType, resourceId, serverName, message);
+            });
     }
     
-    public Map<String, Object> getHuntGroupResource(String resourceId, String serverName) {
-        String url = mockApiBaseUrl + "/ProvisioningWebService/sps/v1/resource/huntgroup/" + resourceId + "?ServerName=" + serverName;
-        return callResourceApi(url, "huntgroup", resourceId, serverName);
+    /**
+     * Non-blocking form of {@link #getResources}: all chunks are requested at once, each waiting for a
+     * call slot of the CM (in blocking mode the calls are made on the calling thread)
+     * @return Completed with the outcome per resource, in the order of the IDs; never completes exceptionally
+     */
+    public CompletableFuture<List<ResourceResult>> getResourcesAsync(String resourceType, List<String> resourceIds, String serverName) {
+        if (!AsyncUpstreamClient.isAsync(httpMode)) {
+            return CompletableFuture.completedFuture(getResources(resourceType, resourceIds, serverName));
+        }
+        List<CompletableFuture<List<ResourceResult>>> chunks = new ArrayList<>();
+        int chunkSize = Math.max(1, batchSize);
+        for (int from = 0; from < resourceIds.size(); from += chunkSize) {
+            List<String> chunk = resourceIds.subList(from, Math.min(from + chunkSize, resourceIds.size()));
+            CompletableFuture<List<ResourceResult>> batch = batchSize > 0 && batchSupported
+                ? callBatchApiAsync(resourceType, chunk, serverName)
+                : CompletableFuture.completedFuture(null);
+            chunks.add(batch.thenCompose(results -> results != null
+                ? CompletableFuture.completedFuture(results)
+                : getEachAsync(resourceType, chunk, serverName)));
+        }
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<ResourceResult> results = new ArrayList<>(resourceIds.size());
+            for (CompletableFuture<List<ResourceResult>> chunk : chunks) {
+                results.addAll(chunk.join());
+            }
+            return results;
+        });
     }
     
-    public Map<String, Object> getPickupGroupResource(String resourceId, String serverName) {
-        String url = mockApiBaseUrl + "/ProvisioningWebService/sps/v1/resource/pickupgroup/" + resourceId + "?ServerName=" + serverName;
-        return callResourceApi(url, "pickupgroup", resourceId, serverName);
+    private CompletableFuture<List<ResourceResult>> getEachAsync(String resourceType, List<String> resourceIds, String serverName) {
+        List<CompletableFuture<ResourceResult>> calls = new ArrayList<>(resourceIds.size());
+        for (String resourceId : resourceIds) {
+            calls.add(getResourceAsync(resourceType, resourceId, serverName));
+        }
+        return CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0]))
+            .thenApply(done -> calls.stream().map(CompletableFuture::join).toList());
     }
     
-    private Map<String, Object> callResourceApi(String url, String resourceType, String resourceId, String serverName) {
+    private ResourceResult callResourceApi(String url, String resourceType, String resourceId, String serverName) {
+        CmConcurrencyLimiter.Permit permit = null;
         try {
-            HttpHeaders headers = createHeaders();
-            HttpEntity<String> entity = new HttpEntity<>(headers);
+            HttpEntity<String> entity = new HttpEntity<>(headers());
             
             System.out.println("ResourceApiService: Calling Mock API for " + resourceType + " resource");
             System.out.println("ResourceApiService: URL: " + url);
             System.out.println("ResourceApiService: Resource ID: " + resourceId + ", Server: " + serverName);
             
+            permit = cmConcurrencyLimiter.acquire(serverName);
             ResponseEntity<Map> response = restTemplate.exchange(
                 url,
                 HttpMethod.GET,
                 entity,
                 Map.class
             );
+            permit.complete(response.getStatusCode());
+            return resourceResult(resourceType, resourceId, serverName, response.getStatusCode(), response.getBody());
             
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                System.out.println("ResourceApiService: Successfully fetched " + resourceType + " resource data");
-
-                Map<String, Object> result = new HashMap<>(response.getBody());
-                result.put("resourceType", resourceType);
-                result.put("resourceId", resourceId);
-                result.put("serverName", serverName);
-                result.put("status", "success");
-                result.put("timestamp", new Date());
-                
-                return result;
-            } else {
-                System.out.println("ResourceApiService: Mock API returned non-success status: " + response.getStatusCode());
-                return createErrorResponse(resourceType, resourceId, serverName, "API returned status: " + response.getStatusCode());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResourceResult.error(resourceType, resourceId, serverName, "Interrupted while waiting for a call slot");
+        } catch (Exception e) {
+            if (permit != null) {
+                permit.fail(e);
             }
+            System.out.println("ResourceApiService: Error calling Mock API for " + resourceType + " resource: " + e.getMessage());
+            return ResourceResult.error(resourceType, resourceId, serverName, e.getMessage());
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static ResourceResult resourceResult(String resourceType, String resourceId, String serverName,
+                                                 HttpStatusCode status, Map<?, ?> body) {
+        if (status.is2xxSuccessful() && body != null) {
+            System.out.println("ResourceApiService: Successfully fetched " + resourceType + " resource data");
             
+            return ResourceResult.success(resourceType, resourceId, serverName, (Map<String, Object>) body);
+        } else {
+            System.out.println("ResourceApiService: Mock API returned non-success status: " + status);
+            return ResourceResult.error(resourceType, resourceId, serverName, "API returned status: " + status);
+        }
+    }
+    
+    /**
+     * POSTs one chunk of IDs to the batch endpoint
+     * @return Outcome per resource, or null if the server has no batch endpoint
+     */
+    private List<ResourceResult> callBatchApi(String resourceType, List<String> resourceIds, String serverName) {
+        String url = mockApiBaseUrl + "/ProvisioningWebService/sps/v1/resource/" + resourceType + "/batch";
+        CmConcurrencyLimiter.Permit permit = null;
+        try {
+            logger.debug("Fetching {} {} resources from {} in one batch request", resourceIds.size(), resourceType, serverName);
+            permit = cmConcurrencyLimiter.acquire(serverName);
+            ResponseEntity<Map> response = restTemplate.exchange(
+                url,
+                HttpMethod.POST,
+                new HttpEntity<>(batchRequest(resourceIds, serverName), headers()),
+                Map.class
+            );
+            permit.complete(response.getStatusCode());
+            return batchResults(resourceType, resourceIds, serverName, response.getStatusCode(), response.getBody());
+            
+        } catch (HttpClientErrorException.NotFound | HttpClientErrorException.MethodNotAllowed
+                 | HttpServerErrorException.NotImplemented e) {
+            // a missing endpoint says nothing about the CM's load
+            permit.success();
+            disableBatch(e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return batchError(resourceType, resourceIds, serverName, "Interrupted while waiting for a call slot");
         } catch (Exception e) {
-            System.out.println("ResourceApiService: Error calling Mock API for " + resourceType + " resource: " + e.getMessage());
-            return createErrorResponse(resourceType, resourceId, serverName, e.getMessage());
+            if (permit != null) {
+                permit.fail(e);
+            }
+            logger.warn("Batch request for {} {} resources on {} failed: {}", resourceIds.size(), resourceType, serverName, e.getMessage());
+            return batchError(resourceType, resourceIds, serverName, e.getMessage());
         }
     }
     
-    private Map<String, Object> createErrorResponse(String resourceType, String resourceId, String serverName, String errorMessage) {
-        Map<String, Object> response = new HashMap<>();
-        response.put("resourceType", resourceType);
-        response.put("resourceId", resourceId);
-        response.put("serverName", serverName);
-        response.put("status", "error");
-        response.put("message", errorMessage);
-        response.put("timestamp", new Date());
-        return response;
+    /**
+     * Non-blocking form of {@link #callBatchApi}
+     * @return Completed with the outcome per resource, or with null if the server has no batch endpoint
+     */
+    private CompletableFuture<List<ResourceResult>> callBatchApiAsync(String resourceType, List<String> resourceIds, String serverName) {
+        String url = mockApiBaseUrl + "/ProvisioningWebService/sps/v1/resource/" + resourceType + "/batch";
+        logger.debug("Fetching {} {} resources from {} in one batch request", resourceIds.size(), resourceType, serverName);
+        return cmConcurrencyLimiter.acquireAsync(serverName)
+            .thenCompose(permit -> asyncUpstreamClient.post(url, headers(), batchRequest(resourceIds, serverName))
+                .handle((response, error) -> {
+                    Throwable cause = AsyncUpstreamClient.unwrap(error);
+                    if (cause == null) {
+                        permit.complete(response.status());
+                        return batchResults(resourceType, resourceIds, serverName, response.status(), asyncUpstreamClient.readMap(response));
+                    }
+                    if (cause instanceof HttpClientErrorException.NotFound || cause instanceof HttpClientErrorException.MethodNotAllowed
+                        || cause instanceof HttpServerErrorException.NotImplemented) {
+                        permit.success();
+                        disableBatch((HttpStatusCodeException) cause);
+                        return null;
+                    }
+                    permit.fail(cause);
+                    logger.warn("Batch request for {} {} resources on {} failed: {}", resourceIds.size(), resourceType, serverName, cause.getMessage());
+                    return batchError(resourceType, resourceIds, serverName, cause.getMessage());
+                }))
+            .exceptionally(error -> batchError(resourceType, resourceIds, serverName, AsyncUpstreamClient.unwrap(error).getMessage()));
     }
     
-    private HttpHeaders createHeaders() {
-        HttpHeaders headers = new HttpHeaders();
-        headers.set("Content-Type", "application/json");
-        headers.set("Accept", "application/json");
-        
-        String credentials = mockApiUsername + ":" + mockApiPassword;
-        String encodedCredentials = java.util.Base64.getEncoder().encodeToString(credentials.getBytes());
-        headers.set("Authorization", "Basic " + encodedCredentials);
+    private void disableBatch(HttpStatusCodeException e) {
+        if (batchSupported) {
+            batchSupported = false;
+            logger.warn("Resource batch API not available ({}), falling back to one call per resource", e.getStatusCode());
+        }
+    }
+    
+    /**
+     * Maps a batch response to one outcome per requested ID
+     */
+    @SuppressWarnings("unchecked")
+    private static List<ResourceResult> batchResults(String resourceType, List<String> resourceIds, String serverName,
+                                                     HttpStatusCode status, Map<?, ?> body) {
+        if (!status.is2xxSuccessful() || body == null || !(body.get("Results") instanceof List<?> entries)) {
+            return batchError(resourceType, resourceIds, serverName, "Batch API returned status: " + status);
+        }
         
-        return headers;
+        Map<String, Map<String, Object>> byId = new HashMap<>();
+        for (Object entry : entries) {
+            if (entry instanceof Map<?, ?> result && result.get("ResourceId") != null) {
+                byId.put(result.get("ResourceId").toString(), (Map<String, Object>) result);
+            }
+        }
+        List<ResourceResult> results = new ArrayList<>(resourceIds.size());
+        for (String resourceId : resourceIds) {
+            Map<String, Object> result = byId.get(resourceId);
+            if (result == null) {
+                results.add(ResourceResult.error(resourceType, resourceId, serverName, "Not returned by batch API"));
+            } else if (ResourceResult.SUCCESS.equals(result.get("Status"))) {
+                Object attributes = result.get("Attributes");
+                results.add(ResourceResult.success(resourceType, resourceId, serverName,
+                    attributes instanceof Map<?, ?> map ? (Map<String, Object>) map : Map.of()));
+            } else {
+                results.add(ResourceResult.error(resourceType, resourceId, serverName, String.valueOf(result.get("Message"))));
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Request body of the batch endpoint; a run of consecutive numeric IDs is sent as a range
+     */
+    private static Map<String, Object> batchRequest(List<String> resourceIds, String serverName) {
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("ServerName", serverName);
+        if (isConsecutive(resourceIds)) {
+            request.put("RangeFrom", resourceIds.get(0));
+            request.put("RangeTo", resourceIds.get(resourceIds.size() - 1));
+        } else {
+            request.put("ResourceIds", resourceIds);
+        }
+        return request;
+    }
+    
+    private static boolean isConsecutive(List<String> resourceIds) {
+        if (resourceIds.size() < 2) {
+            return false;
+        }
+        try {
+            long first = Long.parseLong(resourceIds.get(0));
+            for (int i = 0; i < resourceIds.size(); i++) {
+                // "0100" would come back as "100", so only canonical numbers qualify
+                if (!String.valueOf(first + i).equals(resourceIds.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+    
+    private static List<ResourceResult> batchError(String resourceType, List<String> resourceIds, String serverName, String message) {
+        List<ResourceResult> results = new ArrayList<>(resourceIds.size());
+        for (String resourceId : resourceIds) {
+            results.add(ResourceResult.error(resourceType, resourceId, serverName, message));
+        }
+        return results;
+    }
+    
+    private HttpHeaders headers() {
+        HttpHeaders cached = headers;
+        if (cached == null) {
+            HttpHeaders created = new HttpHeaders();
+            created.set("Content-Type", "application/json");
+            created.set("Accept", "application/json");
+            
+            String credentials = mockApiUsername + ":" + mockApiPassword;
+            String encodedCredentials = java.util.Base64.getEncoder().encodeToString(credentials.getBytes());
+            created.set("Authorization", "Basic " + encodedCredentials);
+            
+            cached = HttpHeaders.readOnlyHttpHeaders(created);
+            headers = cached;
+        }
+        return cached;
     }
     
     /**
@@ -152,408 +461,355 @@ public class ResourceApiService {
         logger.info("Starting scheduled resource sync job at: {}", currentTime);
         
         try {
-            String result = syncAllResources();
-            logger.info("Completed scheduled resource sync job at: {} with result: {}", currentTime, result);
+            boolean ran = jobLeaseService.runExclusively(RESOURCE_SYNC_JOB, () -> {
+                String result = syncAllResources();
+                logger.info("Completed scheduled resource sync job at: {} with result: {}", currentTime, result);
+            });
+            if (!ran) {
+                logger.info("Skipped scheduled resource sync job at: {} (already running here or on another instance)", currentTime);
+            }
         } catch (Exception e) {
             logger.error("Scheduled resource sync job failed at {}: {}", currentTime, e.getMessage(), e);
         }
     }
     
     /**
-     * Sync all resources (station, hunt group, pickup group) for all sites
-     * This method fetches sites once and then syncs all resource types
+     * Sync all registered resource types for all sites. Progress is checkpointed per CM, so an
+     * interrupted run resumes with the CMs it had not finished.
      */
     public String syncAllResources() {
-        logger.info("Starting complete resource synchronization for all resource types");
-        
-        int stationSuccessCount = 0;
-        int stationFailureCount = 0;
-        int huntGroupSuccessCount = 0;
-        int huntGroupFailureCount = 0;
-        int pickupGroupSuccessCount = 0;
-        int pickupGroupFailureCount = 0;
+        return syncResources(resourceTypes, true);
+    }
+    
+    /**
+     * Sync all station resources
+     */
+    public String syncStationResources() {
+        return syncResources(List.of(resourceType("station")), false);
+    }
+    
+    /**
+     * Sync all hunt group resources
+     */
+    public String syncHuntGroupResources() {
+        return syncResources(List.of(resourceType("huntgroup")), false);
+    }
+    
+    /**
+     * Sync all pickup group resources
+     */
+    public String syncPickupGroupResources() {
+        return syncResources(List.of(resourceType("pickupgroup")), false);
+    }
+    
+    /**
+     * Syncs the given resource types for every CM. The site to CM topology is discovered once per run
+     * through {@link SiteTopologyCache}, then one work item per CM, resource type and batch of resource IDs is fanned out to a bounded worker pool.
+     * Results are tallied per type on the calling thread as each CM's items complete.
+     * @param types Resource types to sync
+     * @param checkpointed true to resume and checkpoint the run per CM under the resource sync job
+     * @return Run result with success and failure counts per type
+     */
+    private String syncResources(List<ResourceType> types, boolean checkpointed) {
+        String name = checkpointed ? "All resource" : types.get(0).displayName() + " resource";
+        // a failed run of all types has always been reported as the complete resource sync
+        String failedName = checkpointed ? "Complete resource" : name;
+        logger.info("Starting {} synchronization for {} resource types", name, types.size());
         
+        ResourceTally tally = new ResourceTally(types);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism), new CustomizableThreadFactory("resource-sync-"));
         try {
-            // Step 1: Fetch all sites from Master Service (ONLY ONCE)
-            logger.info("Fetching sites from Master Service for all resource types");
+            // Step 1: Fetch all sites from Master Service (once per run)
             List<SiteDto> sites = masterServiceClient.getSites();
-            
             if (sites == null || sites.isEmpty()) {
-                logger.warn("No sites found from Master Service, skipping all resource sync");
-                return "All resource sync skipped - No sites available";
+                logger.warn("No sites found from Master Service, skipping {} sync", name);
+                return name + " sync skipped - No sites available";
             }
             
-            logger.info("Found {} sites, fetching CM details and syncing all resource types", sites.size());
+            // Step 2: Discover the CMs of every site (once per run)
+            logger.info("Found {} sites, fetching CM details from Mock API", sites.size());
+            List<CmTarget> cms = discoverCms(sites, executor);
             
-            // Step 2: For each site, get CM details and sync all resource types
-            for (SiteDto site : sites) {
-                try {
-                    String clusterName = site.getSiteName();
-                    logger.info("Processing site: {} for all resource types", clusterName);
-                    
-                    // Get site details from Mock API
-                    List<Map<String, Object>> mockResponse = mockApiService.getSiteDetails(clusterName);
-                    
-                    if (mockResponse != null && !mockResponse.isEmpty()) {
-                        // Extract CM names from Mock API response
-                        for (Map<String, Object> siteData : mockResponse) {
-                            Object resultsObj = siteData.get("Results");
-                            if (resultsObj instanceof List) {
-                                List<Map<String, Object>> results = (List<Map<String, Object>>) resultsObj;
-                                
-                                for (Map<String, Object> result : results) {
-                                    String cmName = result.get("CM") != null ? result.get("CM").toString() : null;
-                                    
-                                    if (cmName != null && !cmName.trim().isEmpty()) {
-                                        logger.info("Found CM: {} for site: {}, syncing all resource types", cmName, clusterName);
-                                        
-                                        // Step 3a: Sync STATION resources for this CM
-                                        logger.debug("Syncing station resources for CM: {}", cmName);
-                                        List<String> stationIdList = Arrays.asList(stationIds.split(","));
-                                        for (String resourceId : stationIdList) {
-                                            try {
-                                                Map<String, Object> apiResult = getStationResource(resourceId.trim(), cmName);
-                                                if ("success".equals(apiResult.get("status"))) {
-                                                    stationSuccessCount++;
-                                                    logger.debug("Successfully synced station resource: {} on CM: {}", resourceId, cmName);
-                                                } else {
-                                                    stationFailureCount++;
-                                                    logger.warn("Failed to sync station resource: {} on CM: {} - {}", 
-                                                        resourceId, cmName, apiResult.get("message"));
-                                                }
-                                            } catch (Exception e) {
-                                                stationFailureCount++;
-                                                logger.error("Error syncing station resource: {} on CM: {} - {}", 
-                                                    resourceId, cmName, e.getMessage());
-                                            }
-                                        }
-                                        
-                                        // Step 3b: Sync HUNT GROUP resources for this CM
-                                        logger.debug("Syncing hunt group resources for CM: {}", cmName);
-                                        List<String> huntGroupIdList = Arrays.asList(huntGroupIds.split(","));
-                                        for (String resourceId : huntGroupIdList) {
-                                            try {
-                                                Map<String, Object> apiResult = getHuntGroupResource(resourceId.trim(), cmName);
-                                                if ("success".equals(apiResult.get("status"))) {
-                                                    huntGroupSuccessCount++;
-                                                    logger.debug("Successfully synced hunt group resource: {} on CM: {}", resourceId, cmName);
-                                                } else {
-                                                    huntGroupFailureCount++;
-                                                    logger.warn("Failed to sync hunt group resource: {} on CM: {} - {}", 
-                                                        resourceId, cmName, apiResult.get("message"));
-                                                }
-                                            } catch (Exception e) {
-                                                huntGroupFailureCount++;
-                                                logger.error("Error syncing hunt group resource: {} on CM: {} - {}", 
-                                                    resourceId, cmName, e.getMessage());
-                                            }
-                                        }
-                                        
-                                        // Step 3c: Sync PICKUP GROUP resources for this CM
-                                        logger.debug("Syncing pickup group resources for CM: {}", cmName);
-                                        List<String> pickupGroupIdList = Arrays.asList(pickupGroupIds.split(","));
-                                        for (String resourceId : pickupGroupIdList) {
-                                            try {
-                                                Map<String, Object> apiResult = getPickupGroupResource(resourceId.trim(), cmName);
-                                                if ("success".equals(apiResult.get("status"))) {
-                                                    pickupGroupSuccessCount++;
-                                                    logger.debug("Successfully synced pickup group resource: {} on CM: {}", resourceId, cmName);
-                                                } else {
-                                                    pickupGroupFailureCount++;
-                                                    logger.warn("Failed to sync pickup group resource: {} on CM: {} - {}", 
-                                                        resourceId, cmName, apiResult.get("message"));
-                                                }
-                                            } catch (Exception e) {
-                                                pickupGroupFailureCount++;
-                                                logger.error("Error syncing pickup group resource: {} on CM: {} - {}", 
-                                                    resourceId, cmName, e.getMessage());
-                                            }
-                                        }
-                                        
-                                        logger.info("Completed all resource types for CM: {} (Station: {}/{}, HuntGroup: {}/{}, PickupGroup: {}/{})", 
-                                            cmName, stationSuccessCount, stationFailureCount, 
-                                            huntGroupSuccessCount, huntGroupFailureCount,
-                                            pickupGroupSuccessCount, pickupGroupFailureCount);
-                                    }
-                                }
-                            }
-                        }
-                    } else {
-                        logger.warn("No Mock API response for site: {}", clusterName);
-                    }
-                    
-                } catch (Exception e) {
-                    logger.error("Error processing site {}: {}", site.getSiteName(), e.getMessage(), e);
+            // Resume an interrupted run: CMs finished by the earlier attempt are skipped
+            SyncRun run = checkpointed ? syncCheckpointService.startOrResume(RESOURCE_SYNC_JOB) : null;
+            if (run != null) {
+                List<CmTarget> pending = cms.stream().filter(cm -> !run.isCompleted(cm.key())).toList();
+                tally.resumedSkipped = cms.size() - pending.size();
+                if (tally.resumedSkipped > 0) {
+                    logger.info("{} CMs already completed in run {}, skipping", tally.resumedSkipped, run.getRunId());
                 }
+                cms = pending;
             }
             
+            // Step 3: Fetch every resource of every type for every CM
+            logger.info("Syncing {} resource types for {} CMs", types.size(), cms.size());
+            fetchResources(cms, types, executor, tally, run);
+            
+            if (run != null) {
+                syncCheckpointService.complete(run);
+            }
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("{} synchronization interrupted", name);
+            return failedName + " sync failed: interrupted";
         } catch (Exception e) {
-            logger.error("Error during complete resource synchronization: {}", e.getMessage(), e);
-            return "Complete resource sync failed: " + e.getMessage();
+            logger.error("Error during {} synchronization: {}", name, e.getMessage(), e);
+            return failedName + " sync failed: " + e.getMessage();
+        } finally {
+            executor.shutdownNow();
         }
         
-        String result = String.format(
-            "All resources sync completed. Station (Success: %d, Failed: %d), HuntGroup (Success: %d, Failed: %d), PickupGroup (Success: %d, Failed: %d)",
-            stationSuccessCount, stationFailureCount,
-            huntGroupSuccessCount, huntGroupFailureCount,
-            pickupGroupSuccessCount, pickupGroupFailureCount
-        );
+        String result = checkpointed
+            ? String.format("All resources sync completed. %s, Resumed CMs (already done): %d", tally.format(), tally.resumedSkipped)
+            : String.format("%s sync completed. Success: %d, Failed: %d", name, tally.success(types.get(0)), tally.failed(types.get(0)));
         logger.info(result);
         return result;
     }
     
     /**
-     * Sync all station resources
+     * Looks up the CMs of all sites in parallel through the topology cache, so only sites whose CM
+     * names are not cached cost a site-detail call. Sites are looked up by cluster name, the key the
+     * site sync seeds the cache with.
+     * @param sites Sites from Master Service
+     * @param executor Worker pool of the run
+     * @return Distinct CMs in site order
      */
-    public String syncStationResources() {
-        logger.info("Starting station resource synchronization");
-        
-        int successCount = 0;
-        int failureCount = 0;
+    private List<CmTarget> discoverCms(List<SiteDto> sites, ExecutorService executor) throws InterruptedException {
+        List<Future<List<String>>> cmNames = new ArrayList<>(sites.size());
+        for (SiteDto site : sites) {
+            cmNames.add(executor.submit(() -> siteTopologyCache.getCmNames(clusterName(site))));
+        }
         
-        try {
-            // Step 1: Fetch all sites from Master Service
-            logger.info("Fetching sites from Master Service for station resource sync");
-            List<SiteDto> sites = masterServiceClient.getSites();
-            
-            if (sites == null || sites.isEmpty()) {
-                logger.warn("No sites found from Master Service, skipping station resource sync");
-                return "Station resource sync skipped - No sites available";
+        Set<CmTarget> cms = new LinkedHashSet<>();
+        for (int i = 0; i < sites.size(); i++) {
+            String clusterName = clusterName(sites.get(i));
+            try {
+                List<String> names = cmNames.get(i).get();
+                if (names.isEmpty()) {
+                    logger.warn("No CMs found in Mock API response for site: {}", clusterName);
+                    continue;
+                }
+                for (String cmName : names) {
+                    logger.debug("Found CM: {} for site: {}", cmName, clusterName);
+                    cms.add(new CmTarget(clusterName, cmName));
+                }
+            } catch (ExecutionException e) {
+                logger.error("Error processing site {}: {}", clusterName, e.getCause().getMessage(), e.getCause());
             }
-            
-            logger.info("Found {} sites, fetching CM details from Mock API", sites.size());
-            
-            // Step 2: For each site, get CM details from Mock API
-            for (SiteDto site : sites) {
-                try {
-                    String clusterName = site.getSiteName();
-                    logger.debug("Processing site: {}", clusterName);
-                    
-                    // Get site details from Mock API
-                    List<Map<String, Object>> mockResponse = mockApiService.getSiteDetails(clusterName);
-                    
-                    if (mockResponse != null && !mockResponse.isEmpty()) {
-                        // Extract CM names from Mock API response
-                        for (Map<String, Object> siteData : mockResponse) {
-                            Object resultsObj = siteData.get("Results");
-                            if (resultsObj instanceof List) {
-                                List<Map<String, Object>> results = (List<Map<String, Object>>) resultsObj;
-                                
-                                for (Map<String, Object> result : results) {
-                                    String cmName = result.get("CM") != null ? result.get("CM").toString() : null;
-                                    
-                                    if (cmName != null && !cmName.trim().isEmpty()) {
-                                        logger.debug("Found CM: {} for site: {}", cmName, clusterName);
-                                        
-                                        // Step 3: Sync station resources for this CM
-                                        List<String> stationIdList = Arrays.asList(stationIds.split(","));
-                                        for (String resourceId : stationIdList) {
-                                            try {
-                                                Map<String, Object> apiResult = getStationResource(resourceId.trim(), cmName);
-                                                if ("success".equals(apiResult.get("status"))) {
-                                                    successCount++;
-                                                    logger.debug("Successfully synced station resource: {} on CM: {}", resourceId, cmName);
-                                                } else {
-                                                    failureCount++;
-                                                    logger.warn("Failed to sync station resource: {} on CM: {} - {}", 
-                                                        resourceId, cmName, apiResult.get("message"));
-                                                }
-                                            } catch (Exception e) {
-                                                failureCount++;
-                                                logger.error("Error syncing station resource: {} on CM: {} - {}", 
-                                                    resourceId, cmName, e.getMessage());
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
+        }
+        return new ArrayList<>(cms);
+    }
+    
+    /**
+     * Submits one work item per CM, resource type and batch of resource IDs (one ID per item when
+     * batching is off or unsupported), then tallies them CM by CM and checkpoints each CM once all
+     * of its items are done. At most resource.sync.max.pending items are outstanding at a time, so the
+     * ID chunks (and the number range pages behind them) are only read as fast as items complete.
+     * In async mode the calls are issued without occupying the workers, which only store the results.
+     */
+    private void fetchResources(List<CmTarget> cms, List<ResourceType> types, ExecutorService executor,
+                                ResourceTally tally, SyncRun run) throws InterruptedException {
+        int chunkSize = batchSize > 0 && batchSupported ? batchSize : 1;
+        boolean async = AsyncUpstreamClient.isAsync(httpMode);
+        Semaphore pending = new Semaphore(Math.max(1, maxPending));
+        Map<CmTarget, List<Future<ChunkOutcome>>> items = new LinkedHashMap<>();
+        for (CmTarget cm : cms) {
+            List<Future<ChunkOutcome>> cmItems = new ArrayList<>();
+            for (ResourceType type : types) {
+                Iterator<List<String>> chunks = idChunks(type, cm.cmName(), chunkSize);
+                while (chunks.hasNext()) {
+                    List<String> chunk = chunks.next();
+                    pending.acquire();
+                    if (async) {
+                        cmItems.add(getResourcesAsync(type.name(), chunk, cm.cmName())
+                            .thenApplyAsync(apiResults -> outcome(type, record(type, apiResults, cm.cmName())), executor)
+                            .whenComplete((outcome, error) -> pending.release()));
                     } else {
-                        logger.warn("No Mock API response for site: {}", clusterName);
+                        cmItems.add(executor.submit(() -> {
+                            try {
+                                return fetchResources(type, chunk, cm.cmName());
+                            } finally {
+                                pending.release();
+                            }
+                        }));
                     }
-                    
-                } catch (Exception e) {
-                    logger.error("Error processing site {}: {}", site.getSiteName(), e.getMessage(), e);
                 }
             }
-            
-        } catch (Exception e) {
-            logger.error("Error during station resource synchronization: {}", e.getMessage(), e);
-            return "Station resource sync failed: " + e.getMessage();
+            items.put(cm, cmItems);
         }
         
-        String result = String.format("Station resource sync completed. Success: %d, Failed: %d", successCount, failureCount);
-        logger.info(result);
-        return result;
+        for (Map.Entry<CmTarget, List<Future<ChunkOutcome>>> entry : items.entrySet()) {
+            CmTarget cm = entry.getKey();
+            int failures = 0;
+            for (Future<ChunkOutcome> item : entry.getValue()) {
+                try {
+                    ChunkOutcome outcome = item.get();
+                    tally.record(outcome.typeName(), outcome.succeeded(), outcome.failed());
+                    failures += outcome.failed();
+                } catch (ExecutionException e) {
+                    // fetchChunk handles its own exceptions; only errors end up here
+                    throw new IllegalStateException("Resource fetch failed for CM: " + cm.cmName(), e.getCause());
+                }
+            }
+            logger.info("Completed all resource types for CM: {} of site: {} ({})", cm.cmName(), cm.clusterName(), tally.format());
+            if (run != null) {
+                syncCheckpointService.markItem(run, cm.key(), failures == 0 ? "SUCCESS" : "FAILED");
+            }
+        }
     }
     
     /**
-     * Sync all hunt group resources
+     * Cluster name a site's CMs are listed under in the Mock API, falling back to the site name
      */
-    public String syncHuntGroupResources() {
-        logger.info("Starting hunt group resource synchronization");
-        
-        int successCount = 0;
-        int failureCount = 0;
-        
+    private static String clusterName(SiteDto site) {
+        return site.getClusterName() != null ? site.getClusterName() : site.getSiteName();
+    }
+    
+    /**
+     * Cuts the resource IDs of a type for one CM into chunks: the configured IDs, or the IDs of the
+     * CM's stored number ranges, read page by page as the chunks are consumed
+     */
+    private Iterator<List<String>> idChunks(ResourceType type, String cmName, int chunkSize) {
+        if (type.enumeratesRanges()) {
+            return numberRangeIdSource.chunks(cmName, type.rangeTypes(), chunkSize).iterator();
+        }
+        List<String> resourceIds = type.resourceIds();
+        List<List<String>> chunks = new ArrayList<>();
+        for (int from = 0; from < resourceIds.size(); from += chunkSize) {
+            chunks.add(resourceIds.subList(from, Math.min(from + chunkSize, resourceIds.size())));
+        }
+        return chunks.iterator();
+    }
+    
+    /**
+     * Fetches and stores one chunk of resources; only the counts are handed back, so the payloads
+     * can be collected while the rest of the run is still in flight
+     */
+    private ChunkOutcome fetchResources(ResourceType type, List<String> resourceIds, String cmName) {
+        return outcome(type, fetchChunk(type, resourceIds, cmName));
+    }
+    
+    private static ChunkOutcome outcome(ResourceType type, List<ResourceResult> apiResults) {
+        int succeeded = 0;
+        for (ResourceResult apiResult : apiResults) {
+            succeeded += apiResult.isSuccess() ? 1 : 0;
+        }
+        return new ChunkOutcome(type.name(), succeeded, apiResults.size() - succeeded);
+    }
+    
+    private List<ResourceResult> fetchChunk(ResourceType type, List<String> resourceIds, String cmName) {
         try {
-            // Step 1: Fetch all sites from Master Service
-            logger.info("Fetching sites from Master Service for hunt group resource sync");
-            List<SiteDto> sites = masterServiceClient.getSites();
-            
-            if (sites == null || sites.isEmpty()) {
-                logger.warn("No sites found from Master Service, skipping hunt group resource sync");
-                return "Hunt group resource sync skipped - No sites available";
-            }
-            
-            logger.info("Found {} sites, fetching CM details from Mock API", sites.size());
-            
-            // Step 2: For each site, get CM details from Mock API
-            for (SiteDto site : sites) {
-                try {
-                    String clusterName = site.getSiteName();
-                    logger.debug("Processing site: {}", clusterName);
-                    
-                    // Get site details from Mock API
-                    List<Map<String, Object>> mockResponse = mockApiService.getSiteDetails(clusterName);
-                    
-                    if (mockResponse != null && !mockResponse.isEmpty()) {
-                        // Extract CM names from Mock API response
-                        for (Map<String, Object> siteData : mockResponse) {
-                            Object resultsObj = siteData.get("Results");
-                            if (resultsObj instanceof List) {
-                                List<Map<String, Object>> results = (List<Map<String, Object>>) resultsObj;
-                                
-                                for (Map<String, Object> result : results) {
-                                    String cmName = result.get("CM") != null ? result.get("CM").toString() : null;
-                                    
-                                    if (cmName != null && !cmName.trim().isEmpty()) {
-                                        logger.debug("Found CM: {} for site: {}", cmName, clusterName);
-                                        
-                                        // Step 3: Sync hunt group resources for this CM
-                                        List<String> huntGroupIdList = Arrays.asList(huntGroupIds.split(","));
-                                        for (String resourceId : huntGroupIdList) {
-                                            try {
-                                                Map<String, Object> apiResult = getHuntGroupResource(resourceId.trim(), cmName);
-                                                if ("success".equals(apiResult.get("status"))) {
-                                                    successCount++;
-                                                    logger.debug("Successfully synced hunt group resource: {} on CM: {}", resourceId, cmName);
-                                                } else {
-                                                    failureCount++;
-                                                    logger.warn("Failed to sync hunt group resource: {} on CM: {} - {}", 
-                                                        resourceId, cmName, apiResult.get("message"));
-                                                }
-                                            } catch (Exception e) {
-                                                failureCount++;
-                                                logger.error("Error syncing hunt group resource: {} on CM: {} - {}", 
-                                                    resourceId, cmName, e.getMessage());
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    } else {
-                        logger.warn("No Mock API response for site: {}", clusterName);
-                    }
-                    
-                } catch (Exception e) {
-                    logger.error("Error processing site {}: {}", site.getSiteName(), e.getMessage(), e);
-                }
+            return record(type, getResources(type.name(), resourceIds, cmName), cmName);
+        } catch (Exception e) {
+            logger.error("Error syncing {} resources: {} on CM: {} - {}", type.label(), resourceIds, cmName, e.getMessage());
+            return batchError(type.name(), resourceIds, cmName, e.getMessage());
+        }
+    }
+    
+    /**
+     * Logs the outcome of fetched resources and stores their payloads
+     */
+    private List<ResourceResult> record(ResourceType type, List<ResourceResult> apiResults, String cmName) {
+        for (ResourceResult apiResult : apiResults) {
+            if (apiResult.isSuccess()) {
+                logger.debug("Successfully synced {} resource: {} on CM: {}", type.label(), apiResult.resourceId(), cmName);
+            } else {
+                logger.warn("Failed to sync {} resource: {} on CM: {} - {}", type.label(), apiResult.resourceId(), cmName, apiResult.message());
             }
-            
+        }
+        storeSnapshots(type, apiResults, cmName);
+        return apiResults;
+    }
+    
+    /**
+     * Stores the fetched payloads; a failed write is logged and does not fail the resources, which
+     * keep their previous snapshot until the next run
+     */
+    private void storeSnapshots(ResourceType type, List<ResourceResult> apiResults, String cmName) {
+        if (!snapshotEnabled) {
+            return;
+        }
+        try {
+            int written = resourceSnapshotStore.save(apiResults);
+            logger.debug("Stored {} changed {} snapshots of {} fetched on CM: {}", written, type.label(), apiResults.size(), cmName);
         } catch (Exception e) {
-            logger.error("Error during hunt group resource synchronization: {}", e.getMessage(), e);
-            return "Hunt group resource sync failed: " + e.getMessage();
+            logger.warn("Could not store {} snapshots on CM: {} - {}", type.label(), cmName, e.getMessage());
         }
-        
-        String result = String.format("Hunt group resource sync completed. Success: %d, Failed: %d", successCount, failureCount);
-        logger.info(result);
-        return result;
+    }
+    
+    private ResourceType resourceType(String name) {
+        for (ResourceType type : resourceTypes) {
+            if (type.name().equals(name)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Resource type not registered: " + name);
     }
     
     /**
-     * Sync all pickup group resources
+     * Result counts of one chunk of resources
      */
-    public String syncPickupGroupResources() {
-        logger.info("Starting pickup group resource synchronization");
+    private record ChunkOutcome(String typeName, int succeeded, int failed) {
+    }
+    
+    /**
+     * A CM found during topology discovery
+     * @param clusterName Site the CM was listed under
+     * @param cmName CM name, used as ServerName of resource calls
+     */
+    private record CmTarget(String clusterName, String cmName) {
         
-        int successCount = 0;
-        int failureCount = 0;
+        String key() {
+            return clusterName + "/" + cmName;
+        }
+    }
+    
+    /**
+     * Success and failure counts per resource type, mirrored to the resource.sync.requests counters.
+     * Only used on the thread running the sync.
+     */
+    private final class ResourceTally {
+        private final Map<String, ResourceType> types = new LinkedHashMap<>();
+        private final Map<String, int[]> counts = new HashMap<>();
+        private int resumedSkipped;
         
-        try {
-            // Step 1: Fetch all sites from Master Service
-            logger.info("Fetching sites from Master Service for pickup group resource sync");
-            List<SiteDto> sites = masterServiceClient.getSites();
-            
-            if (sites == null || sites.isEmpty()) {
-                logger.warn("No sites found from Master Service, skipping pickup group resource sync");
-                return "Pickup group resource sync skipped - No sites available";
-            }
-            
-            logger.info("Found {} sites, fetching CM details from Mock API", sites.size());
-            
-            // Step 2: For each site, get CM details from Mock API
-            for (SiteDto site : sites) {
-                try {
-                    String clusterName = site.getSiteName();
-                    logger.debug("Processing site: {}", clusterName);
-                    
-                    // Get site details from Mock API
-                    List<Map<String, Object>> mockResponse = mockApiService.getSiteDetails(clusterName);
-                    
-                    if (mockResponse != null && !mockResponse.isEmpty()) {
-                        // Extract CM names from Mock API response
-                        for (Map<String, Object> siteData : mockResponse) {
-                            Object resultsObj = siteData.get("Results");
-                            if (resultsObj instanceof List) {
-                                List<Map<String, Object>> results = (List<Map<String, Object>>) resultsObj;
-                                
-                                for (Map<String, Object> result : results) {
-                                    String cmName = result.get("CM") != null ? result.get("CM").toString() : null;
-                                    
-                                    if (cmName != null && !cmName.trim().isEmpty()) {
-                                        logger.debug("Found CM: {} for site: {}", cmName, clusterName);
-                                        
-                                        // Step 3: Sync pickup group resources for this CM
-                                        List<String> pickupGroupIdList = Arrays.asList(pickupGroupIds.split(","));
-                                        for (String resourceId : pickupGroupIdList) {
-                                            try {
-                                                Map<String, Object> apiResult = getPickupGroupResource(resourceId.trim(), cmName);
-                                                if ("success".equals(apiResult.get("status"))) {
-                                                    successCount++;
-                                                    logger.debug("Successfully synced pickup group resource: {} on CM: {}", resourceId, cmName);
-                                                } else {
-                                                    failureCount++;
-                                                    logger.warn("Failed to sync pickup group resource: {} on CM: {} - {}", 
-                                                        resourceId, cmName, apiResult.get("message"));
-                                                }
-                                            } catch (Exception e) {
-                                                failureCount++;
-                                                logger.error("Error syncing pickup group resource: {} on CM: {} - {}", 
-                                                    resourceId, cmName, e.getMessage());
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    } else {
-                        logger.warn("No Mock API response for site: {}", clusterName);
-                    }
-                    
-                } catch (Exception e) {
-                    logger.error("Error processing site {}: {}", site.getSiteName(), e.getMessage(), e);
-                }
+        private ResourceTally(List<ResourceType> types) {
+            for (ResourceType type : types) {
+                this.types.put(type.name(), type);
+                counts.put(type.name(), new int[2]);
             }
-            
-        } catch (Exception e) {
-            logger.error("Error during pickup group resource synchronization: {}", e.getMessage(), e);
-            return "Pickup group resource sync failed: " + e.getMessage();
         }
         
-        String result = String.format("Pickup group resource sync completed. Success: %d, Failed: %d", successCount, failureCount);
-        logger.info(result);
-        return result;
+        private void record(String typeName, int succeeded, int failed) {
+            counts.get(typeName)[0] += succeeded;
+            counts.get(typeName)[1] += failed;
+            counter(typeName, "success").increment(succeeded);
+            counter(typeName, "failure").increment(failed);
+        }
+        
+        private Counter counter(String typeName, String result) {
+            return Counter.builder("resource.sync.requests")
+                .tag("type", typeName)
+                .tag("result", result)
+                .description("Resources fetched by the resource sync, by type and outcome")
+                .register(meterRegistry);
+        }
+        
+        private int success(ResourceType type) {
+            return counts.get(type.name())[0];
+        }
+        
+        private int failed(ResourceType type) {
+            return counts.get(type.name())[1];
+        }
+        
+        private String format() {
+            StringJoiner joiner = new StringJoiner(", ");
+            for (ResourceType type : types.values()) {
+                joiner.add(String.format("%s (Success: %d, Failed: %d)", type.label(), success(type), failed(type)));
+            }
+            return joiner.toString();
+        }
     }
 }
@@ -0,0 +1,179 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.ResourceResult;
+import com.amfk.starfish.sync.dto.ResourceSnapshot;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Stores the payload of every successfully fetched resource in sync_resource_snapshot so that
+ * downstream callers can read resources from MySQL instead of calling the CMs. Each payload is
+ * hashed in canonical form (map keys sorted); stored hashes are read with one query per batch and
+ * only new or changed payloads are written, as JDBC batches.
+ */
+@Service
+public class ResourceSnapshotStore {
+    
+    private static final String UPSERT_SQL =
+        "INSERT INTO sync_resource_snapshot (resource_type, server_name, resource_id, payload, content_hash, changed_on) " +
+        "VALUES (?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE payload = VALUES(payload), " +
+        "content_hash = VALUES(content_hash), changed_on = VALUES(changed_on)";
+        
+    private static final String SELECT_COLUMNS =
+        "SELECT resource_type, server_name, resource_id, payload, content_hash, changed_on FROM sync_resource_snapshot ";
+        
+    // Sorted map keys make the serialized payload, and so its hash, independent of the response's key order
+    private static final ObjectMapper canonicalMapper = new ObjectMapper()
+        .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+        
+    private final JdbcTemplate jdbcTemplate;
+    private final Counter written;
+    private final Counter unchanged;
+    
+    // Resource IDs per hash lookup and per write batch
+    @Value("${resource.snapshot.batch.size:500}")
+    private int batchSize = 500;
+    
+    public ResourceSnapshotStore(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.written = counter(meterRegistry, "written");
+        this.unchanged = counter(meterRegistry, "unchanged");
+    }
+    
+    /**
+     * Stores the payloads of the successful results whose hash differs from the stored one
+     * @param results Resource results of any types and CMs; failed results are ignored
+     * @return Number of snapshots written (inserted or changed)
+     */
+    public int save(List<ResourceResult> results) {
+        Map<String, List<ResourceResult>> byTypeAndServer = new LinkedHashMap<>();
+        for (ResourceResult result : results) {
+            if (result.isSuccess()) {
+                byTypeAndServer.computeIfAbsent(result.resourceType() + "\n" + result.serverName(), key -> new ArrayList<>()).add(result);
+            }
+        }
+        
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        int writtenRows = 0;
+        int perBatch = Math.max(1, batchSize);
+        for (List<ResourceResult> group : byTypeAndServer.values()) {
+            for (int from = 0; from < group.size(); from += perBatch) {
+                writtenRows += saveBatch(group.subList(from, Math.min(group.size(), from + perBatch)), now);
+            }
+        }
+        return writtenRows;
+    }
+    
+    /**
+     * Reads the stored snapshot of one resource
+     * @return The snapshot, empty if the resource was never fetched successfully
+     */
+    public Optional<ResourceSnapshot> find(String resourceType, String serverName, String resourceId) {
+        List<ResourceSnapshot> rows = jdbcTemplate.query(SELECT_COLUMNS +
+            "WHERE resource_type = ? AND server_name = ? AND resource_id = ?", snapshotMapper(), resourceType, serverName, resourceId);
+        return rows.stream().findFirst();
+    }
+    
+    /**
+     * Reads one page of the stored snapshots of a type and CM, ordered by resource ID
+     * @param afterResourceId Last resource ID of the previous page, null for the first page
+     * @param limit Page size
+     * @return Snapshots with a resource ID greater than afterResourceId
+     */
+    public List<ResourceSnapshot> list(String resourceType, String serverName, String afterResourceId, int limit) {
+        return jdbcTemplate.query(SELECT_COLUMNS +
+            "WHERE resource_type = ? AND server_name = ? AND resource_id > ? ORDER BY resource_id LIMIT ?",
+            snapshotMapper(), resourceType, serverName, afterResourceId != null ? afterResourceId : "", limit);
+    }
+    
+    private int saveBatch(List<ResourceResult> batch, Timestamp now) {
+        ResourceResult first = batch.get(0);
+        Map<String, String> storedHashes = new HashMap<>();
+        List<Object> args = new ArrayList<>(batch.size() + 2);
+        args.add(first.resourceType());
+        args.add(first.serverName());
+        for (ResourceResult result : batch) {
+            args.add(result.resourceId());
+        }
+        jdbcTemplate.query("SELECT resource_id, content_hash FROM sync_resource_snapshot WHERE resource_type = ? AND server_name = ? " +
+            "AND resource_id IN (" + String.join(", ", Collections.nCopies(batch.size(), "?")) + ")",
+            rs -> {
+                storedHashes.put(rs.getString(1), rs.getString(2));
+            }, args.toArray());
+            
+        List<Object[]> upserts = new ArrayList<>();
+        for (ResourceResult result : batch) {
+            String payload = canonicalJson(result.attributes());
+            String contentHash = sha256(payload);
+            if (!contentHash.equals(storedHashes.get(result.resourceId()))) {
+                upserts.add(new Object[] {result.resourceType(), result.serverName(), result.resourceId(), payload, contentHash, now});
+            }
+        }
+        if (!upserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPSERT_SQL, upserts);
+        }
+        written.increment(upserts.size());
+        unchanged.increment(batch.size() - upserts.size());
+        return upserts.size();
+    }
+    
+    private static RowMapper<ResourceSnapshot> snapshotMapper() {
+        return (rs, rowNum) -> new ResourceSnapshot(rs.getString("resource_type"), rs.getString("server_name"),
+            rs.getString("resource_id"), readPayload(rs.getString("payload")), rs.getString("content_hash"),
+            rs.getTimestamp("changed_on").toLocalDateTime());
+    }
+    
+    private static String canonicalJson(Map<String, Object> attributes) {
+        try {
+            return canonicalMapper.writeValueAsString(attributes);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize resource payload", e);
+        }
+    }
+    
+    private static Map<String, Object> readPayload(String payload) {
+        try {
+            return canonicalMapper.readValue(payload, new TypeReference<Map<String, Object>>() { });
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to read stored resource payload", e);
+        }
+    }
+    
+    private static String sha256(String payload) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(payload.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    private static Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("resource.snapshot.rows")
+            .tag("result", result)
+            .description("Resource snapshots written, or skipped because their content hash was unchanged")
+            .register(meterRegistry);
+    }
+}
@@ -0,0 +1,70 @@
+package com.amfk.starfish.sync.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A kind of provisioning resource synced for every CM. Registered as a bean (see
+ * {@link com.amfk.starfish.sync.config.ResourceTypeConfig}); {@link ResourceApiService} syncs all
+ * registered types in one run.
+ * @param name Path segment of the Mock API resource endpoint, e.g. "station"
+ * @param label Name of the type's counts in the all-types run result and logs, e.g. "HuntGroup"
+ * @param displayName Name in the result of a run of this type alone, e.g. "Hunt group"
+ * @param resourceIds Resource IDs requested from every CM, used when rangeTypes is empty
+ * @param rangeTypes pbx_phone_number_type names whose stored pbx_number_range rows of a CM list the
+ *                   resource IDs to request from it, see {@link NumberRangeIdSource}
+ */
+public record ResourceType(String name, String label, String displayName, List<String> resourceIds, List<String> rangeTypes) {
+    
+    public ResourceType {
+        resourceIds = List.copyOf(resourceIds);
+        rangeTypes = List.copyOf(rangeTypes);
+    }
+    
+    public ResourceType(String name, String label, List<String> resourceIds) {
+        this(name, label, label, resourceIds, List.of());
+    }
+    
+    /**
+     * Creates a resource type from a comma-separated ID list; blanks around IDs and empty entries are dropped
+     * @param name Path segment of the Mock API resource endpoint
+     * @param label Name used in logs and run results
+     * @param resourceIds Comma-separated resource IDs, as configured
+     * @return Resource type with the parsed IDs
+     */
+    public static ResourceType of(String name, String label, String resourceIds) {
+        return new ResourceType(name, label, split(resourceIds));
+    }
+    
+    /**
+     * Copy that enumerates its IDs from the stored number ranges of each CM instead of the configured list
+     * @param rangeTypes Comma-separated phone number type names, e.g. "internal"; empty keeps the configured list
+     * @return Resource type with the parsed range types
+     */
+    public ResourceType withRangeTypes(String rangeTypes) {
+        return new ResourceType(name, label, displayName, resourceIds, split(rangeTypes));
+    }
+    
+    /**
+     * Copy with a display name other than the label
+     * @param displayName Name in the result of a run of this type alone, e.g. "Hunt group"
+     * @return Resource type with the display name
+     */
+    public ResourceType withDisplayName(String displayName) {
+        return new ResourceType(name, label, displayName, resourceIds, rangeTypes);
+    }
+    
+    public boolean enumeratesRanges() {
+        return !rangeTypes.isEmpty();
+    }
+    
+    private static List<String> split(String commaSeparated) {
+        List<String> values = new ArrayList<>();
+        for (String value : commaSeparated.split(",")) {
+            if (!value.isBlank()) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+}
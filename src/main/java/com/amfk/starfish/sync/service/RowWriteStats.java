@@ -0,0 +1,53 @@
+package com.amfk.starfish.sync.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the pbx_* rows the site sync wrote and the rows it compared against the stored values and
+ * left alone because no business column had changed. Rows are counted as their statements are
+ * issued, so a rolled back write still counts. The counters only grow; the difference between two
+ * {@link #snapshot}s taken around a run is that run's share.
+ */
+@Component
+public class RowWriteStats {
+    
+    private final LongAdder written = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
+    
+    /**
+     * Adds the outcome of one write step
+     * @param writtenRows Rows inserted, updated or deleted
+     * @param unchangedRows Rows already stored with the incoming values, not written
+     */
+    public void record(int writtenRows, int unchangedRows) {
+        written.add(writtenRows);
+        unchanged.add(unchangedRows);
+    }
+    
+    public Snapshot snapshot() {
+        return new Snapshot(written.sum(), unchanged.sum());
+    }
+    
+    /**
+     * Counter values at one point in time
+     * @param written Rows inserted, updated or deleted
+     * @param unchanged Rows whose write was skipped
+     */
+    public record Snapshot(long written, long unchanged) {
+        
+        public Snapshot since(Snapshot earlier) {
+            return new Snapshot(written - earlier.written, unchanged - earlier.unchanged);
+        }
+        
+        /**
+         * Share of the rows a rewrite-everything writer would have written that were skipped
+         * @return Percentage between 0 and 100, 0 when nothing was compared
+         */
+        public double skippedPercent() {
+            long total = written + unchanged;
+            return total == 0 ? 0 : 100.0 * unchanged / total;
+        }
+    }
+}
@@ -17,19 +17,26 @@ public class ScheduledTaskService {
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     
     private final SiteSyncService siteSyncService;
+    private final JobLeaseService jobLeaseService;
+    private final SitePartitionService sitePartitionService;
     private static final long SCHEDULE_INTERVAL_MS = 86400000; // 24 hours
     
     @Value("${site.sync.enabled:true}")
     private boolean siteSyncEnabled;
     
     @Autowired
-    public ScheduledTaskService(SiteSyncService siteSyncService) {
+    public ScheduledTaskService(SiteSyncService siteSyncService,
+                                JobLeaseService jobLeaseService,
+                                SitePartitionService sitePartitionService) {
         this.siteSyncService = siteSyncService;
+        this.jobLeaseService = jobLeaseService;
+        this.sitePartitionService = sitePartitionService;
     }
     
 
     
-    @Scheduled(fixedRate = SCHEDULE_INTERVAL_MS)
+    // The first run waits for a heartbeat round so that sharded replicas started together share the partitions
+    @Scheduled(fixedRate = SCHEDULE_INTERVAL_MS, initialDelayString = "${site.sync.initial.delay.ms:60000}")
     public void scheduledSiteSync() {
         if (!siteSyncEnabled) {
             logger.debug("Site sync is disabled, skipping scheduled execution");
@@ -40,9 +47,18 @@ public class ScheduledTaskService {
         logger.info("Starting scheduled site sync job at: {}", currentTime);
         
         try {
-            // Execute the site synchronization process
-            String result = siteSyncService.syncSites();
-            logger.info("Completed scheduled site sync job at: {} with result: {}", currentTime, result);
+            // Execute the site synchronization process. When sharded, every instance syncs its own
+            // partitions, so only overlap with this instance's previous run is prevented.
+            Runnable siteSync = () -> {
+                String result = siteSyncService.syncSites();
+                logger.info("Completed scheduled site sync job at: {} with result: {}", currentTime, result);
+            };
+            boolean ran = sitePartitionService.isShardEnabled()
+                ? jobLeaseService.runLocallyExclusive(SiteSyncService.SITE_SYNC_JOB, siteSync)
+                : jobLeaseService.runExclusively(SiteSyncService.SITE_SYNC_JOB, siteSync);
+            if (!ran) {
+                logger.info("Skipped scheduled site sync job at: {} (already running here or on another instance)", currentTime);
+            }
         } catch (Exception e) {
             logger.error("Scheduled site sync job failed at {}: {}", currentTime, e.getMessage(), e);
         }
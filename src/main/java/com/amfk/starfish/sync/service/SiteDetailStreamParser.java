@@ -0,0 +1,195 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.ExtensionSet;
+import com.amfk.starfish.sync.dto.SiteDetail;
+import com.amfk.starfish.sync.dto.SiteWriteCommand;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.json.JsonReadFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads a Mock API site-detail response from the Jackson token stream and emits one write command
+ * per Results entry as soon as that entry has been read, so no more than one Site/CM entry is held
+ * in memory. AvailableExtensions go straight into an {@link ExtensionSet}. Accepts the same field
+ * names and aliases as the {@link SiteDetail} binding; unknown fields are skipped.
+ */
+@Component
+public class SiteDetailStreamParser {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SiteDetailStreamParser.class);
+    
+    // Same leniency as spring.jackson.parser.*
+    private static final JsonFactory jsonFactory = JsonFactory.builder()
+            .enable(JsonReadFeature.ALLOW_NON_NUMERIC_NUMBERS)
+            .enable(JsonReadFeature.ALLOW_TRAILING_COMMA)
+            .build();
+            
+    /**
+     * Parses a response body, either one object with a Results array or an array of such objects
+     * @param body Response body, not closed by this method
+     * @param consumer Receives each write command in response order
+     * @return Number of commands emitted
+     */
+    public int parse(InputStream body, Consumer<SiteWriteCommand> consumer) throws IOException {
+        int emitted = 0;
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    emitted += parseSiteData(parser, consumer);
+                }
+            } else if (token == JsonToken.START_OBJECT) {
+                emitted += parseSiteData(parser, consumer);
+            } else if (token != null) {
+                logger.warn("Unexpected Mock API response, expected an object but found {}", token);
+            }
+        }
+        return emitted;
+    }
+    
+    /**
+     * Parses one site data object; the parser is positioned on its START_OBJECT
+     */
+    private int parseSiteData(JsonParser parser, Consumer<SiteWriteCommand> consumer) throws IOException {
+        int emitted = 0;
+        boolean resultsFound = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("Results".equals(field) && value == JsonToken.START_ARRAY) {
+                resultsFound = true;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.currentToken() != JsonToken.START_OBJECT) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    SiteWriteCommand command = parseResult(parser);
+                    if (command != null) {
+                        consumer.accept(command);
+                        emitted++;
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (!resultsFound) {
+            logger.warn("No 'Results' array found in site data, skipping this record");
+        }
+        return emitted;
+    }
+    
+    /**
+     * Parses one Results entry; the parser is positioned on its START_OBJECT
+     * @return Write command, or null if the entry has no site name
+     */
+    private SiteWriteCommand parseResult(JsonParser parser) throws IOException {
+        String siteName = null;
+        String cmName = null;
+        List<SiteWriteCommand.Range> ranges = List.of();
+        
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "Site" -> siteName = scalarText(parser);
+                case "CM" -> cmName = scalarText(parser);
+                case "Ranges" -> {
+                    if (value == JsonToken.START_ARRAY) {
+                        ranges = parseRanges(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        
+        if (siteName == null || siteName.isEmpty()) {
+            logger.warn("Site name is null or empty, skipping this record");
+            return null;
+        }
+        return new SiteWriteCommand(siteName, cmName, ranges);
+    }
+    
+    private List<SiteWriteCommand.Range> parseRanges(JsonParser parser) throws IOException {
+        List<SiteWriteCommand.Range> ranges = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() == JsonToken.START_OBJECT) {
+                ranges.add(parseRange(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return ranges;
+    }
+    
+    private SiteWriteCommand.Range parseRange(JsonParser parser) throws IOException {
+        String type = null;
+        String lowerbound = null;
+        String upperbound = null;
+        ExtensionSet extensions = null;
+        // Extensions listed before the lower bound wait here until the set's base is known
+        List<String> earlyExtensions = null;
+        
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "Type" -> type = scalarText(parser);
+                case "Lowerbound", "LowerBound" -> lowerbound = scalarText(parser);
+                case "Upperbound", "UpperBound" -> upperbound = scalarText(parser);
+                case "AvailableExtensions" -> {
+                    if (value != JsonToken.START_ARRAY) {
+                        parser.skipChildren();
+                        break;
+                    }
+                    if (lowerbound != null && extensions == null) {
+                        extensions = ExtensionSet.relativeTo(lowerbound);
+                    }
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        String extension = scalarText(parser);
+                        if (extensions != null) {
+                            extensions.add(extension);
+                        } else {
+                            if (earlyExtensions == null) {
+                                earlyExtensions = new ArrayList<>();
+                            }
+                            earlyExtensions.add(extension);
+                        }
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        
+        if (extensions == null) {
+            extensions = ExtensionSet.of(lowerbound, earlyExtensions);
+        } else if (earlyExtensions != null) {
+            earlyExtensions.forEach(extensions::add);
+        }
+        return new SiteWriteCommand.Range(type, lowerbound, upperbound, extensions);
+    }
+    
+    /**
+     * Text of a scalar value, null for JSON null; nested values are skipped and read as null
+     */
+    private static String scalarText(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        return token == JsonToken.VALUE_NULL ? null : parser.getText();
+    }
+}
@@ -0,0 +1,110 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.SiteDetail;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes and stores a content fingerprint of each cluster's Mock API response so that
+ * clusters whose payload has not changed since the last successful write can skip the DB phase.
+ */
+@Service
+public class SiteFingerprintService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SiteFingerprintService.class);
+    
+    // Records serialize in declaration order, so the property order of the response does not change the hash
+    private static final ObjectMapper canonicalMapper = new ObjectMapper();
+    
+    private final JdbcTemplate jdbcTemplate;
+    
+    // A stored fingerprint older than this is ignored so every cluster is rewritten periodically
+    @Value("${site.sync.delta.max.age.hours:168}")
+    private long maxAgeHours;
+    
+    public SiteFingerprintService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+    
+    /**
+     * Computes a stable SHA-256 fingerprint of a normalized Mock API response
+     * @param mockApiResponse The response from Mock API containing site details
+     * @return Hex encoded hash
+     */
+    public String fingerprint(List<SiteDetail> mockApiResponse) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] canonicalJson = canonicalMapper.writeValueAsBytes(mockApiResponse);
+            return HexFormat.of().formatHex(digest.digest(canonicalJson));
+        } catch (NoSuchAlgorithmException | com.fasterxml.jackson.core.JsonProcessingException e) {
+            throw new IllegalStateException("Failed to fingerprint Mock API response", e);
+        }
+    }
+    
+    /**
+     * Checks whether the last successful write for a cluster used the same payload
+     * @param clusterName Cluster name used to call Mock API
+     * @param contentHash Fingerprint of the current response
+     * @return true if the stored fingerprint matches and is not older than the max age
+     */
+    public boolean isUnchanged(String clusterName, String contentHash) {
+        try {
+            Map<String, Object> row = jdbcTemplate.queryForMap(
+                "SELECT content_hash, updated_on FROM sync_cluster_fingerprint WHERE cluster_name = ?", clusterName);
+            
+            Timestamp updatedOn = (Timestamp) row.get("updated_on");
+            if (updatedOn == null || updatedOn.toLocalDateTime().isBefore(LocalDateTime.now().minusHours(maxAgeHours))) {
+                logger.debug("Stored fingerprint for cluster {} is older than {} hours, forcing full write", clusterName, maxAgeHours);
+                return false;
+            }
+            return contentHash.equals(row.get("content_hash"));
+            
+        } catch (EmptyResultDataAccessException e) {
+            return false;
+        } catch (Exception e) {
+            logger.warn("Could not read fingerprint for cluster {}, forcing full write: {}", clusterName, e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Stores the fingerprint of a response after it was written to the database successfully
+     * @param clusterName Cluster name used to call Mock API
+     * @param contentHash Fingerprint of the written response
+     */
+    public void recordFingerprint(String clusterName, String contentHash) {
+        try {
+            jdbcTemplate.update(
+                "INSERT INTO sync_cluster_fingerprint (cluster_name, content_hash, updated_on) VALUES (?, ?, ?) " +
+                "ON DUPLICATE KEY UPDATE content_hash = VALUES(content_hash), updated_on = VALUES(updated_on)",
+                clusterName, contentHash, Timestamp.valueOf(LocalDateTime.now()));
+        } catch (Exception e) {
+            logger.warn("Could not store fingerprint for cluster {}: {}", clusterName, e.getMessage());
+        }
+    }
+    
+    /**
+     * Removes the stored fingerprint so the next run writes the cluster in full
+     * @param clusterName Cluster name used to call Mock API
+     */
+    public void invalidate(String clusterName) {
+        try {
+            jdbcTemplate.update("DELETE FROM sync_cluster_fingerprint WHERE cluster_name = ?", clusterName);
+        } catch (Exception e) {
+            logger.warn("Could not invalidate fingerprint for cluster {}: {}", clusterName, e.getMessage());
+        }
+    }
+}
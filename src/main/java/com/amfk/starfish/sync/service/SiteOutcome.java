@@ -0,0 +1,10 @@
+package com.amfk.starfish.sync.service;
+
+/**
+ * Result of syncing one site. UNCHANGED sites were skipped by delta sync and count as successful.
+ */
+enum SiteOutcome {
+    SUCCESS,
+    UNCHANGED,
+    FAILED
+}
@@ -0,0 +1,269 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.SiteDto;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Splits the site list across service replicas. Every site maps to one of a fixed number of
+ * partitions by a stable hash of clusterId/siteId, and replicas claim partitions through
+ * sync_site_partition in the shared database. Each replica aims for an equal share of the
+ * partitions held by live instances (heartbeat in sync_instance); partitions of an instance that
+ * stops heartbeating are free to claim once their lease expires. While a site sync runs on this
+ * instance its surplus partitions are kept until the run ends, and the run re-checks the lease of
+ * a site's partition right before syncing it.
+ */
+@Service
+public class SitePartitionService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SitePartitionService.class);
+    
+    private final JdbcTemplate jdbcTemplate;
+    private final String instanceId;
+    
+    @Value("${site.sync.shard.enabled:false}")
+    private boolean shardEnabled;
+    
+    @Value("${site.sync.shard.partitions:16}")
+    private int partitionCount;
+    
+    // Lease length for claimed partitions and heartbeat expiry for instances
+    @Value("${site.sync.shard.lease.seconds:90}")
+    private long leaseSeconds;
+    
+    private volatile Set<Integer> ownedPartitions = Set.of();
+    
+    // Site sync runs in progress on this instance; surplus partitions are only given back between runs
+    private final AtomicInteger activeSyncs = new AtomicInteger();
+    
+    public SitePartitionService(JdbcTemplate jdbcTemplate, SyncInstanceIdentity syncInstanceIdentity) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.instanceId = syncInstanceIdentity.getInstanceId();
+    }
+    
+    public boolean isShardEnabled() {
+        return shardEnabled;
+    }
+    
+    /**
+     * Stable partition of a site, identical on every instance
+     * @param site Site from Master Service API
+     * @param partitions Number of partitions
+     * @return Partition between 0 and partitions - 1
+     */
+    public static int partitionOf(SiteDto site, int partitions) {
+        String key = nullToEmpty(site.getClusterId()) + "/" + nullToEmpty(site.getSiteId());
+        CRC32 crc = new CRC32();
+        crc.update(key.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % partitions);
+    }
+    
+    /**
+     * Partition of a site with the configured number of partitions
+     * @param site Site from Master Service API
+     * @return Partition between 0 and site.sync.shard.partitions - 1
+     */
+    public int partitionIdOf(SiteDto site) {
+        return partitionOf(site, partitionCount);
+    }
+    
+    /**
+     * Checkpoint item under which a sync run records that a partition is done
+     * @param partitionId Partition
+     * @return Item key that cannot clash with a site key
+     */
+    public static String partitionKey(int partitionId) {
+        return "partition:" + partitionId;
+    }
+    
+    /**
+     * Refreshes this instance's partition claims and returns the sites it is responsible for
+     * @param sites All sites from Master Service API
+     * @return Sites in partitions owned by this instance, or all sites if sharding is disabled
+     */
+    public List<SiteDto> selectOwnedSites(List<SiteDto> sites) {
+        if (!shardEnabled) {
+            return sites;
+        }
+        
+        Set<Integer> owned = rebalance();
+        List<SiteDto> selected = new ArrayList<>();
+        for (SiteDto site : sites) {
+            if (owned.contains(partitionOf(site, partitionCount))) {
+                selected.add(site);
+            }
+        }
+        
+        logger.info("Instance {} owns partitions {} of {}: {} of {} sites selected",
+            instanceId, owned, partitionCount, selected.size(), sites.size());
+        return selected;
+    }
+    
+    /**
+     * Re-checks right before a site is synced that this instance still holds an unexpired lease on
+     * the site's partition, e.g. after a missed heartbeat let another instance claim it
+     * @param site Site from Master Service API
+     * @return true if the site may be synced here; always true if sharding is disabled
+     */
+    public boolean ownsSite(SiteDto site) {
+        if (!shardEnabled) {
+            return true;
+        }
+        
+        int partitionId = partitionIdOf(site);
+        try {
+            Integer held = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM sync_site_partition WHERE partition_id = ? AND owner_id = ? AND lease_until > CURRENT_TIMESTAMP",
+                Integer.class, partitionId, instanceId);
+            return held != null && held > 0;
+        } catch (Exception e) {
+            logger.warn("Could not re-check partition {} for instance {}, relying on the last rebalance: {}",
+                partitionId, instanceId, e.getMessage());
+            return ownedPartitions.contains(partitionId);
+        }
+    }
+    
+    /**
+     * Marks the start of a site sync run on this instance. Until {@link #endSync} rebalancing
+     * renews and claims partitions but gives none back, so the run keeps the sites it selected.
+     */
+    public void beginSync() {
+        activeSyncs.incrementAndGet();
+    }
+    
+    /**
+     * Marks the end of a site sync run started with {@link #beginSync}
+     */
+    public void endSync() {
+        activeSyncs.decrementAndGet();
+    }
+    
+    /**
+     * Keeps this instance's heartbeat and partition leases alive between sync runs. The first round
+     * runs at startup so that other replicas count this instance before their first site sync.
+     */
+    @Scheduled(fixedDelayString = "${site.sync.shard.heartbeat.ms:30000}")
+    public void heartbeat() {
+        if (shardEnabled) {
+            rebalance();
+        }
+    }
+    
+    /**
+     * Renews this instance's heartbeat and leases, then claims or releases partitions until it
+     * holds its fair share: ceil(partitions / live instances). Lease and heartbeat times come from
+     * the database clock, so clock skew between replicas cannot let two of them hold a partition.
+     * @return Partitions owned after rebalancing
+     */
+    public synchronized Set<Integer> rebalance() {
+        try {
+            ensurePartitionRows();
+            jdbcTemplate.update(
+                "INSERT INTO sync_instance (instance_id, heartbeat_on) VALUES (?, CURRENT_TIMESTAMP) " +
+                "ON DUPLICATE KEY UPDATE heartbeat_on = CURRENT_TIMESTAMP",
+                instanceId);
+                
+            Integer liveInstances = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM sync_instance WHERE heartbeat_on > TIMESTAMPADD(SECOND, ?, CURRENT_TIMESTAMP)",
+                Integer.class, -leaseSeconds);
+            int fairShare = (partitionCount + Math.max(1, liveInstances) - 1) / Math.max(1, liveInstances);
+            
+            jdbcTemplate.update(
+                "UPDATE sync_site_partition SET lease_until = TIMESTAMPADD(SECOND, ?, CURRENT_TIMESTAMP) " +
+                "WHERE owner_id = ? AND partition_id < ?",
+                leaseSeconds, instanceId, partitionCount);
+            TreeSet<Integer> owned = new TreeSet<>(jdbcTemplate.queryForList(
+                "SELECT partition_id FROM sync_site_partition WHERE owner_id = ? AND partition_id < ?",
+                Integer.class, instanceId, partitionCount));
+                
+            // Give back the surplus so newly joined instances can claim it, once no sync run is using it
+            while (owned.size() > fairShare && activeSyncs.get() == 0) {
+                Integer surplus = owned.pollLast();
+                jdbcTemplate.update(
+                    "UPDATE sync_site_partition SET owner_id = NULL, lease_until = NULL WHERE partition_id = ? AND owner_id = ?",
+                    surplus, instanceId);
+            }
+            
+            // Claim free or expired partitions; the conditional UPDATE makes each claim atomic
+            if (owned.size() < fairShare) {
+                List<Integer> claimable = jdbcTemplate.queryForList(
+                    "SELECT partition_id FROM sync_site_partition WHERE partition_id < ? " +
+                    "AND (owner_id IS NULL OR lease_until < CURRENT_TIMESTAMP) ORDER BY partition_id",
+                    Integer.class, partitionCount);
+                for (Integer partitionId : claimable) {
+                    if (owned.size() >= fairShare) {
+                        break;
+                    }
+                    int claimed = jdbcTemplate.update(
+                        "UPDATE sync_site_partition SET owner_id = ?, lease_until = TIMESTAMPADD(SECOND, ?, CURRENT_TIMESTAMP) " +
+                        "WHERE partition_id = ? AND (owner_id IS NULL OR lease_until < CURRENT_TIMESTAMP)",
+                        instanceId, leaseSeconds, partitionId);
+                    if (claimed == 1) {
+                        owned.add(partitionId);
+                    }
+                }
+            }
+            
+            ownedPartitions = Set.copyOf(owned);
+            logger.debug("Instance {} holds {} partitions (fair share {}, live instances {})",
+                instanceId, owned.size(), fairShare, liveInstances);
+                
+        } catch (Exception e) {
+            logger.warn("Could not rebalance site partitions for instance {}, keeping {}: {}",
+                instanceId, ownedPartitions, e.getMessage());
+        }
+        return ownedPartitions;
+    }
+    
+    public Set<Integer> getOwnedPartitions() {
+        return ownedPartitions;
+    }
+    
+    /**
+     * Releases this instance's partitions and heartbeat on shutdown so others can take over
+     * without waiting for the lease to expire
+     */
+    @PreDestroy
+    public void release() {
+        if (!shardEnabled) {
+            return;
+        }
+        
+        try {
+            jdbcTemplate.update("UPDATE sync_site_partition SET owner_id = NULL, lease_until = NULL WHERE owner_id = ?", instanceId);
+            jdbcTemplate.update("DELETE FROM sync_instance WHERE instance_id = ?", instanceId);
+            ownedPartitions = Set.of();
+            logger.info("Instance {} released its site partitions", instanceId);
+        } catch (Exception e) {
+            logger.warn("Could not release site partitions for instance {}: {}", instanceId, e.getMessage());
+        }
+    }
+    
+    private void ensurePartitionRows() {
+        Integer existing = jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM sync_site_partition WHERE partition_id < ?", Integer.class, partitionCount);
+        if (existing != null && existing >= partitionCount) {
+            return;
+        }
+        for (int partitionId = 0; partitionId < partitionCount; partitionId++) {
+            jdbcTemplate.update("INSERT IGNORE INTO sync_site_partition (partition_id) VALUES (?)", partitionId);
+        }
+    }
+    
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
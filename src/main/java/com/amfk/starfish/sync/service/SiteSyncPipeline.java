@@ -0,0 +1,458 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.SiteDetail;
+import com.amfk.starfish.sync.dto.SiteDto;
+import com.amfk.starfish.sync.dto.SiteWriteCommand;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Site sync as three stages connected by bounded queues:
+ * fetch (Mock API) -> transform (site details to write commands) -> write (JDBC).
+ * Each stage has its own worker count. Workers block when the next queue is full,
+ * so a slow database throttles fetching instead of buffering responses on the heap.
+ * In streaming mode fetched responses wait in temporary files and are parsed as token streams.
+ * The write queue holds single Site/CM commands, handed over as they are parsed, so a large
+ * response is never held in memory as a whole. A site's outcome is reported once all of its
+ * commands are written. With write-behind enabled the write stage hands rows to
+ * {@link PbxWriteBehindBuffer} and a command counts as written once the flush holding its rows
+ * has finished.
+ */
+@Service
+public class SiteSyncPipeline {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SiteSyncPipeline.class);
+    
+    private static final FetchedSite END_OF_FETCH = new FetchedSite(null, null, null);
+    private static final WriteItem END_OF_TRANSFORM = new WriteItem(null, null);
+    
+    private final MockApiService mockApiService;
+    private final DatabaseUpdateService databaseUpdateService;
+    private final SiteFingerprintService siteFingerprintService;
+    private final PbxWriteBehindBuffer writeBehindBuffer;
+    private final SiteTopologyCache siteTopologyCache;
+    
+    @Value("${site.sync.pipeline.fetch.workers:8}")
+    private int fetchWorkers;
+    
+    @Value("${site.sync.pipeline.transform.workers:2}")
+    private int transformWorkers;
+    
+    @Value("${site.sync.pipeline.write.workers:4}")
+    private int writeWorkers;
+    
+    @Value("${site.sync.pipeline.queue.capacity:16}")
+    private int queueCapacity;
+    
+    // Write stage submits to the write-behind buffer instead of writing each site itself
+    @Value("${site.sync.write.behind.enabled:false}")
+    private boolean writeBehindEnabled;
+    
+    // Queues of the run in progress, read by the queue-depth gauges
+    private volatile BlockingQueue<FetchedSite> fetchedQueue;
+    private volatile BlockingQueue<WriteItem> writeQueue;
+    private final AtomicInteger peakFetchedDepth = new AtomicInteger();
+    private final AtomicInteger peakWriteDepth = new AtomicInteger();
+    
+    public SiteSyncPipeline(MockApiService mockApiService,
+                            DatabaseUpdateService databaseUpdateService,
+                            SiteFingerprintService siteFingerprintService,
+                            PbxWriteBehindBuffer writeBehindBuffer,
+                            SiteTopologyCache siteTopologyCache,
+                            MeterRegistry meterRegistry) {
+        this.mockApiService = mockApiService;
+        this.databaseUpdateService = databaseUpdateService;
+        this.siteFingerprintService = siteFingerprintService;
+        this.writeBehindBuffer = writeBehindBuffer;
+        this.siteTopologyCache = siteTopologyCache;
+        
+        Gauge.builder("site.sync.pipeline.queue.depth", this, pipeline -> depth(pipeline.fetchedQueue))
+            .tag("queue", "fetched")
+            .description("Fetched site responses waiting for the transform stage")
+            .register(meterRegistry);
+        Gauge.builder("site.sync.pipeline.queue.depth", this, pipeline -> depth(pipeline.writeQueue))
+            .tag("queue", "write")
+            .description("Write commands waiting for the database writer stage")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Runs all sites through the fetch, transform and write stages
+     * @param sites Sites from Master Service API
+     * @param deltaEnabled Whether unchanged clusters skip the write stage
+     * @param streaming Whether responses are spooled to disk and parsed as token streams
+     * @param stillOwned Checked right before a site is fetched; sites it rejects are left out without an outcome
+     * @param onSiteDone Called from the worker thread as soon as a site has its outcome
+     * @return One outcome per synced site, in completion order
+     */
+    public List<SiteOutcome> run(List<SiteDto> sites, boolean deltaEnabled, boolean streaming, Predicate<SiteDto> stillOwned,
+                                 BiConsumer<SiteDto, SiteOutcome> onSiteDone) throws InterruptedException {
+        BlockingQueue<SiteDto> input = new ArrayBlockingQueue<>(Math.max(1, sites.size()), false, sites);
+        fetchedQueue = new ArrayBlockingQueue<>(queueCapacity);
+        writeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        peakFetchedDepth.set(0);
+        peakWriteDepth.set(0);
+        Queue<SiteOutcome> collected = new ConcurrentLinkedQueue<>();
+        Queue<CompletableFuture<Void>> siteWrites = new ConcurrentLinkedQueue<>();
+        BiConsumer<SiteDto, SiteOutcome> outcomes = (site, outcome) -> {
+            collected.add(outcome);
+            onSiteDone.accept(site, outcome);
+        };
+        
+        logger.info("Starting site sync pipeline for {} sites (fetch: {}, transform: {}, write: {}, queue capacity: {})",
+            sites.size(), fetchWorkers, transformWorkers, writeWorkers, queueCapacity);
+            
+        ExecutorService fetchExecutor = Executors.newFixedThreadPool(fetchWorkers, new CustomizableThreadFactory("site-fetch-"));
+        ExecutorService transformExecutor = Executors.newFixedThreadPool(transformWorkers, new CustomizableThreadFactory("site-transform-"));
+        ExecutorService writeExecutor = Executors.newFixedThreadPool(writeWorkers, new CustomizableThreadFactory("site-write-"));
+        
+        try {
+            List<Future<?>> fetchers = submit(fetchExecutor, fetchWorkers, () -> fetchLoop(input, streaming, stillOwned, outcomes));
+            List<Future<?>> transformers = submit(transformExecutor, transformWorkers, () -> transformLoop(deltaEnabled, outcomes, siteWrites));
+            List<Future<?>> writers = submit(writeExecutor, writeWorkers, () -> writeLoop(outcomes));
+            
+            // Shut the stages down in order: each one drains before the next sees its end markers
+            awaitAll(fetchers);
+            for (int i = 0; i < transformWorkers; i++) {
+                fetchedQueue.put(END_OF_FETCH);
+            }
+            awaitAll(transformers);
+            for (int i = 0; i < writeWorkers; i++) {
+                writeQueue.put(END_OF_TRANSFORM);
+            }
+            awaitAll(writers);
+            if (writeBehindEnabled) {
+                writeBehindBuffer.flush();
+                CompletableFuture.allOf(siteWrites.toArray(CompletableFuture[]::new)).join();
+            }
+            
+        } finally {
+            fetchExecutor.shutdownNow();
+            transformExecutor.shutdownNow();
+            writeExecutor.shutdownNow();
+            discardSpooled(fetchedQueue);
+        }
+        
+        logger.info("Site sync pipeline finished. Peak queue depth - fetched: {}, write: {}",
+            peakFetchedDepth.get(), peakWriteDepth.get());
+        return new ArrayList<>(collected);
+    }
+    
+    /**
+     * Current number of items waiting between stages
+     * @return Queue name to depth
+     */
+    public Map<String, Integer> getQueueDepths() {
+        return Map.of("fetched", depth(fetchedQueue), "write", depth(writeQueue));
+    }
+    
+    private void fetchLoop(BlockingQueue<SiteDto> input, boolean streaming, Predicate<SiteDto> stillOwned,
+                           BiConsumer<SiteDto, SiteOutcome> outcomes) {
+        SiteDto site;
+        while ((site = input.poll()) != null) {
+            if (!stillOwned.test(site)) {
+                continue;
+            }
+            String clusterName = site.getClusterName() != null ? site.getClusterName() : "Unknown";
+            SpooledResponse spooled = null;
+            try {
+                FetchedSite fetched;
+                if (streaming) {
+                    spooled = mockApiService.spoolSiteDetails(clusterName);
+                    fetched = spooled != null && !spooled.isEmpty() ? new FetchedSite(site, null, spooled) : null;
+                } else {
+                    List<SiteDetail> mockResponse = mockApiService.getSiteDetails(clusterName);
+                    fetched = mockResponse != null && !mockResponse.isEmpty() ? new FetchedSite(site, mockResponse, null) : null;
+                }
+                if (fetched == null) {
+                    logger.warn("No Mock API data found for site: {} ({})", site.getSiteName(), site.getSiteId());
+                    outcomes.accept(site, SiteOutcome.FAILED);
+                    closeQuietly(spooled);
+                    continue;
+                }
+                fetchedQueue.put(fetched);
+                peakFetchedDepth.accumulateAndGet(fetchedQueue.size(), Math::max);
+                
+            } catch (InterruptedException e) {
+                closeQuietly(spooled);
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                closeQuietly(spooled);
+                logger.error("Error fetching site {}: {}", site.getSiteName(), e.getMessage(), e);
+                outcomes.accept(site, SiteOutcome.FAILED);
+            }
+        }
+    }
+    
+    private void transformLoop(boolean deltaEnabled, BiConsumer<SiteDto, SiteOutcome> outcomes,
+                               Queue<CompletableFuture<Void>> siteWrites) {
+        try {
+            FetchedSite fetched;
+            while ((fetched = fetchedQueue.take()) != END_OF_FETCH) {
+                String clusterName = fetched.site().getClusterName();
+                SiteWrite write = null;
+                try {
+                    String contentHash = null;
+                    if (deltaEnabled) {
+                        contentHash = fetched.spooled() != null
+                            ? fetched.spooled().getContentHash()
+                            : siteFingerprintService.fingerprint(fetched.response());
+                        if (siteFingerprintService.isUnchanged(clusterName, contentHash)) {
+                            logger.info("Mock API data unchanged for site: {} (cluster: {}), skipping database update",
+                                fetched.site().getSiteName(), clusterName);
+                            rememberUnchangedTopology(clusterName, fetched);
+                            outcomes.accept(fetched.site(), SiteOutcome.UNCHANGED);
+                            continue;
+                        }
+                    }
+                    write = new SiteWrite(fetched.site(), contentHash);
+                    siteWrites.add(write.done);
+                    SiteWrite site = write;
+                    Set<String> cmNames = new LinkedHashSet<>();
+                    toWriteCommands(fetched, command -> {
+                        cmNames.add(command.getCmName());
+                        enqueue(site, command);
+                    });
+                    // Seeds the topology cache, so the resource sync does not fetch the same site details again
+                    siteTopologyCache.remember(clusterName, cmNames);
+                    
+                } catch (Exception e) {
+                    logger.error("Error transforming Mock API data for site {}: {}", fetched.site().getSiteName(), e.getMessage(), e);
+                    if (write != null) {
+                        write.failed = true;
+                    } else {
+                        outcomes.accept(fetched.site(), SiteOutcome.FAILED);
+                    }
+                } finally {
+                    closeQuietly(fetched.spooled());
+                    if (write != null) {
+                        release(write, outcomes);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void writeLoop(BiConsumer<SiteDto, SiteOutcome> outcomes) {
+        try {
+            WriteItem item;
+            while ((item = writeQueue.take()) != END_OF_TRANSFORM) {
+                if (writeBehindEnabled) {
+                    submitToBuffer(item, outcomes);
+                    continue;
+                }
+                
+                SiteWrite write = item.write();
+                try {
+                    if (!databaseUpdateService.applyWriteCommand(item.command())) {
+                        write.complete = false;
+                    }
+                } catch (Exception e) {
+                    logger.error("Failed to update database for site {}: {}", write.site.getSiteName(), e.getMessage(), e);
+                    write.failed = true;
+                } finally {
+                    release(write, outcomes);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Hands the rows of one command to the write-behind buffer. The command is released on the
+     * buffer's writer thread once the flush holding its rows has finished. A command the buffer
+     * rejects fails its site; the write stage goes on with the next command.
+     * @throws InterruptedException Only when the write stage itself is interrupted
+     */
+    private void submitToBuffer(WriteItem item, BiConsumer<SiteDto, SiteOutcome> outcomes) throws InterruptedException {
+        SiteWrite write = item.write();
+        CompletableFuture<Boolean> flush;
+        try {
+            flush = writeBehindBuffer.submit(databaseUpdateService.toEntryRows(item.command()));
+        } catch (InterruptedException e) {
+            logger.error("Failed to update database for site {}: interrupted", write.site.getSiteName());
+            write.failed = true;
+            release(write, outcomes);
+            throw e;
+        } catch (RuntimeException e) {
+            logger.error("Failed to update database for site {}: {}", write.site.getSiteName(), e.getMessage(), e);
+            write.failed = true;
+            release(write, outcomes);
+            return;
+        }
+        flush.whenComplete((committed, error) -> {
+            if (error != null) {
+                logger.error("Failed to update database for site {}: {}", write.site.getSiteName(), error.getMessage());
+                write.failed = true;
+            } else if (!committed) {
+                logger.error("Failed to update database for site {}: write-behind flush rolled back", write.site.getSiteName());
+                write.failed = true;
+            }
+            release(write, outcomes);
+        });
+    }
+    
+    /**
+     * Seeds the topology cache for a cluster whose response is unchanged and therefore not written.
+     * Cached names are kept as they are; otherwise the CM names are read from the response.
+     */
+    private void rememberUnchangedTopology(String clusterName, FetchedSite fetched) throws IOException {
+        if (siteTopologyCache.touch(clusterName)) {
+            return;
+        }
+        if (fetched.spooled() == null) {
+            siteTopologyCache.remember(clusterName, fetched.response());
+            return;
+        }
+        Set<String> cmNames = new LinkedHashSet<>();
+        toWriteCommands(fetched, command -> cmNames.add(command.getCmName()));
+        siteTopologyCache.remember(clusterName, cmNames);
+    }
+    
+    /**
+     * Queues one command for the write stage, blocking while the queue is full
+     */
+    private void enqueue(SiteWrite write, SiteWriteCommand command) {
+        write.outstanding.incrementAndGet();
+        try {
+            writeQueue.put(new WriteItem(write, command));
+        } catch (InterruptedException e) {
+            write.outstanding.decrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing write commands", e);
+        }
+        peakWriteDepth.accumulateAndGet(writeQueue.size(), Math::max);
+    }
+    
+    /**
+     * Marks one command (or the end of parsing) of a site as done. The last one reports the
+     * site's outcome and, for a fully written payload, records its fingerprint.
+     */
+    private void release(SiteWrite write, BiConsumer<SiteDto, SiteOutcome> outcomes) {
+        if (write.outstanding.decrementAndGet() > 0) {
+            return;
+        }
+        String siteName = write.site.getSiteName();
+        try {
+            if (write.failed) {
+                outcomes.accept(write.site, SiteOutcome.FAILED);
+                return;
+            }
+            logger.info("Successfully updated database for site: {}", siteName);
+            
+            // Only a fully written payload may be skipped next time
+            if (write.contentHash != null && write.complete) {
+                siteFingerprintService.recordFingerprint(write.site.getClusterName(), write.contentHash);
+            }
+            outcomes.accept(write.site, SiteOutcome.SUCCESS);
+            
+        } catch (RuntimeException e) {
+            logger.error("Failed to record the outcome of site {}: {}", siteName, e.getMessage(), e);
+        } finally {
+            write.done.complete(null);
+        }
+    }
+    
+    private void toWriteCommands(FetchedSite fetched, Consumer<SiteWriteCommand> consumer) throws IOException {
+        if (fetched.spooled() == null) {
+            databaseUpdateService.toWriteCommands(fetched.response()).forEach(consumer);
+            return;
+        }
+        try (InputStream body = fetched.spooled().open()) {
+            databaseUpdateService.toWriteCommands(body, consumer);
+        }
+    }
+    
+    /**
+     * Deletes the temporary files of responses left in the queue when a run is aborted
+     */
+    private static void discardSpooled(BlockingQueue<FetchedSite> queue) {
+        FetchedSite fetched;
+        while ((fetched = queue.poll()) != null) {
+            closeQuietly(fetched.spooled());
+        }
+    }
+    
+    private static void closeQuietly(SpooledResponse spooled) {
+        if (spooled != null) {
+            spooled.close();
+        }
+    }
+    
+    private static List<Future<?>> submit(ExecutorService executor, int workers, Runnable loop) {
+        List<Future<?>> futures = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            futures.add(executor.submit(loop));
+        }
+        return futures;
+    }
+    
+    private static void awaitAll(List<Future<?>> futures) throws InterruptedException {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                logger.error("Site sync pipeline worker failed: {}", e.getCause().getMessage(), e.getCause());
+            }
+        }
+    }
+    
+    private static int depth(BlockingQueue<?> queue) {
+        return queue != null ? queue.size() : 0;
+    }
+    
+    // Exactly one of response and spooled is set, depending on the fetch mode
+    private record FetchedSite(SiteDto site, List<SiteDetail> response, SpooledResponse spooled) {
+    }
+    
+    private record WriteItem(SiteWrite write, SiteWriteCommand command) {
+    }
+    
+    /**
+     * Write progress of one site; outstanding counts its queued commands plus one for the
+     * transform stage until parsing has ended
+     */
+    private static final class SiteWrite {
+        private final SiteDto site;
+        private final String contentHash;
+        private final AtomicInteger outstanding = new AtomicInteger(1);
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private volatile boolean complete = true;
+        private volatile boolean failed;
+        
+        private SiteWrite(SiteDto site, String contentHash) {
+            this.site = site;
+            this.contentHash = contentHash;
+        }
+    }
+}
@@ -1,15 +1,29 @@
 package com.amfk.starfish.sync.service;
 
+import com.amfk.starfish.sync.dto.SiteDetail;
 import com.amfk.starfish.sync.dto.SiteDto;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 
 @Service
 public class SiteSyncService {
@@ -17,22 +31,63 @@ public class SiteSyncService {
     private static final Logger logger = LoggerFactory.getLogger(SiteSyncService.class);
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     
+    static final String SITE_SYNC_JOB = "site-sync";
+    
     private final MasterServiceClient masterServiceClient;
     private final MockApiService mockApiService;
     private final DatabaseUpdateService databaseUpdateService;
+    private final SiteFingerprintService siteFingerprintService;
+    private final SiteSyncPipeline siteSyncPipeline;
+    private final SyncCheckpointService syncCheckpointService;
+    private final SitePartitionService sitePartitionService;
+    private final RowWriteStats rowWriteStats;
+    private final SiteTopologyCache siteTopologyCache;
+    
+    // sequential = one site at a time (legacy), parallel = bounded worker pool,
+    // pipeline = separate fetch/transform/write stages (see SiteSyncPipeline)
+    @Value("${site.sync.mode:sequential}")
+    private String syncMode;
+    
+    @Value("${site.sync.parallelism:8}")
+    private int parallelism;
+    
+    // Pause between sites in sequential mode only; parallel mode is throttled by the pool size
+    @Value("${site.sync.delay.ms:100}")
+    private long siteDelayMs;
+    
+    // Skip the DB phase for clusters whose Mock API response is unchanged since the last write
+    @Value("${site.sync.delta.enabled:false}")
+    private boolean deltaEnabled;
+    
+    // Spool Mock API responses to disk and parse them as a token stream instead of binding them whole
+    @Value("${site.sync.fetch.streaming:false}")
+    private boolean streamingFetch;
     
     @Autowired
     public SiteSyncService(MasterServiceClient masterServiceClient,
                           MockApiService mockApiService,
-                          DatabaseUpdateService databaseUpdateService) {
+                          DatabaseUpdateService databaseUpdateService,
+                          SiteFingerprintService siteFingerprintService,
+                          SiteSyncPipeline siteSyncPipeline,
+                          SyncCheckpointService syncCheckpointService,
+                          SitePartitionService sitePartitionService,
+                          RowWriteStats rowWriteStats,
+                          SiteTopologyCache siteTopologyCache) {
         this.masterServiceClient = masterServiceClient;
         this.mockApiService = mockApiService;
         this.databaseUpdateService = databaseUpdateService;
+        this.siteFingerprintService = siteFingerprintService;
+        this.siteSyncPipeline = siteSyncPipeline;
+        this.syncCheckpointService = syncCheckpointService;
+        this.sitePartitionService = sitePartitionService;
+        this.rowWriteStats = rowWriteStats;
+        this.siteTopologyCache = siteTopologyCache;
     }
     
     public String syncSites() {
         logger.info("Starting site sync job");
         
+        boolean sharded = sitePartitionService.isShardEnabled();
         try {
             // Step 1: Fetch sites from Master Service API
             logger.info("Step 1: Fetching sites from Master Service API");
@@ -45,69 +100,306 @@ public class SiteSyncService {
             
             logger.info("Retrieved {} sites from Master Service API", sites.size());
             
+            // With sharding enabled, only the sites in partitions claimed by this instance are synced.
+            // The run needs every partition that has sites; the partitions are kept until it ends.
+            Set<String> requiredPartitions = new TreeSet<>();
+            Set<Integer> ownedPartitions = Set.of();
+            if (sharded) {
+                for (SiteDto site : sites) {
+                    requiredPartitions.add(SitePartitionService.partitionKey(sitePartitionService.partitionIdOf(site)));
+                }
+                sitePartitionService.beginSync();
+                sites = sitePartitionService.selectOwnedSites(sites);
+                ownedPartitions = sitePartitionService.getOwnedPartitions();
+                if (sites.isEmpty()) {
+                    logger.warn("No sites in the partitions owned by this instance");
+                    return "Site sync completed - no sites in partitions owned by this instance";
+                }
+            }
+            
             // Check what clusters are available in the database
             mockApiService.checkAvailableClusters();
             
+            // Resume an interrupted run: sites finished by the earlier attempt are skipped
+            SyncRun run = syncCheckpointService.startOrResume(SITE_SYNC_JOB);
+            List<SiteDto> pendingSites = sites;
+            if (run.isResumed()) {
+                pendingSites = sites.stream().filter(site -> !run.isCompleted(siteKey(site))).toList();
+                logger.info("Resuming site sync run {}: {} of {} sites already completed",
+                    run.getRunId(), sites.size() - pendingSites.size(), sites.size());
+            }
+            
+            // A site whose partition lease was lost is left to the new owner, and so is its partition
+            Set<Integer> lostPartitions = ConcurrentHashMap.newKeySet();
+            Predicate<SiteDto> stillOwned = site -> {
+                if (sitePartitionService.ownsSite(site)) {
+                    return true;
+                }
+                lostPartitions.add(sitePartitionService.partitionIdOf(site));
+                logger.warn("Partition of site {} is no longer held by this instance, leaving the site to its new owner",
+                    site.getSiteName());
+                return false;
+            };
+            
             // Step 2: For each site, call Mock API using cluster name
-            logger.info("Step 2: Calling Mock API for each site");
-            int processedCount = 0;
-            int successCount = 0;
-            int failureCount = 0;
+            long startTime = System.currentTimeMillis();
+            RowWriteStats.Snapshot rowsBefore = rowWriteStats.snapshot();
+            SyncTally tally;
+            if ("pipeline".equalsIgnoreCase(syncMode)) {
+                logger.info("Step 2: Running sites through the fetch/transform/write pipeline");
+                tally = new SyncTally();
+                List<SiteOutcome> outcomes = siteSyncPipeline.run(pendingSites, deltaEnabled, streamingFetch, stillOwned,
+                    (site, outcome) -> syncCheckpointService.markItem(run, siteKey(site), outcome.name()));
+                for (SiteOutcome outcome : outcomes) {
+                    tally.record(outcome);
+                }
+            } else if ("parallel".equalsIgnoreCase(syncMode)) {
+                logger.info("Step 2: Calling Mock API for each site (parallel, {} workers)", parallelism);
+                tally = syncSitesInParallel(pendingSites, run, stillOwned);
+            } else {
+                logger.info("Step 2: Calling Mock API for each site");
+                tally = syncSitesSequentially(pendingSites, run, stillOwned);
+            }
+            tally.resumedSkipped = sites.size() - pendingSites.size();
+            long elapsedMs = System.currentTimeMillis() - startTime;
+            RowWriteStats.Snapshot rows = rowWriteStats.snapshot().since(rowsBefore);
             
-            for (SiteDto site : sites) {
-                try {
-                    String siteName = site.getSiteName() != null ? site.getSiteName() : "Unknown";
-                    String siteId = site.getSiteId() != null ? site.getSiteId() : "Unknown";
-                    String clusterName = site.getClusterName() != null ? site.getClusterName() : "Unknown";
-                    
-                    logger.info("Processing site: {} ({}) with cluster: {}", siteName, siteId, clusterName);
-                    
-                    // Call Mock API for site details using cluster name
-                    List<Map<String, Object>> mockResponse = mockApiService.getSiteDetails(clusterName);
-                    
-                    if (mockResponse != null && !mockResponse.isEmpty()) {
-                        logger.info("Successfully retrieved Mock API data for site: {} - Response: {}", 
-                            siteName, mockResponse);
-                        
-                        // Step 3: Update database with Mock API response
-                        logger.info("Step 3: Updating database with Mock API response for site: {}", siteName);
-                        try {
-                            databaseUpdateService.updateDatabaseFromMockApi(mockResponse);
-                            logger.info("Successfully updated database for site: {}", siteName);
-                            successCount++;
-                        } catch (Exception dbException) {
-                            logger.error("Failed to update database for site {}: {}", siteName, dbException.getMessage(), dbException);
-                            failureCount++;
-                        }
-                        
-                    } else {
-                        logger.warn("No Mock API data found for site: {} ({})", siteName, siteId);
-                        failureCount++;
+            // A sharded run is shared by all instances and completes once the last partition is done
+            if (sharded) {
+                for (Integer partitionId : ownedPartitions) {
+                    if (!lostPartitions.contains(partitionId)) {
+                        syncCheckpointService.markItem(run, SitePartitionService.partitionKey(partitionId), SiteOutcome.SUCCESS.name());
                     }
-                    
-                    processedCount++;
-                    
-                    // Add small delay to avoid overwhelming the database
-                    Thread.sleep(100);
-                    
-                } catch (Exception e) {
-                    logger.error("Error processing site: {}", e.getMessage(), e);
-                    failureCount++;
-                    processedCount++;
                 }
             }
+            if (!sharded || syncCheckpointService.allCompleted(run, requiredPartitions)) {
+                syncCheckpointService.complete(run);
+            } else {
+                logger.info("Site sync run {} stays open until the partitions of the other instances are done", run.getRunId());
+            }
             
-            logger.info("Processed {} sites from Master Service API with Mock API calls and database updates", processedCount);
-            
-            String result = String.format("Site sync completed successfully. Processed: %d, Success: %d, Failed: %d (Mock API calls + DB updates)", 
-                processedCount, successCount, failureCount);
-            
+            logger.info("Processed {} sites from Master Service API with Mock API calls and database updates in {} ms", 
+                tally.processed, elapsedMs);
+                
+            String result = String.format("Site sync completed successfully. Processed: %d, Success: %d, Failed: %d, Unchanged (DB skipped): %d, Resumed (already done): %d, Rows written: %d, Rows unchanged (write skipped): %d (%.1f%%) (Mock API calls + DB updates)", 
+                tally.processed, tally.success, tally.failed, tally.unchanged, tally.resumedSkipped,
+                rows.written(), rows.unchanged(), rows.skippedPercent());
+                
             logger.info(result);
             return result;
             
         } catch (Exception e) {
             logger.error("Site sync job failed: {}", e.getMessage(), e);
             throw new RuntimeException("Site sync job failed", e);
+        } finally {
+            if (sharded) {
+                sitePartitionService.endSync();
+            }
+        }
+    }
+    
+    /**
+     * Processes sites one at a time on the calling thread
+     * @param sites Sites from Master Service API
+     * @param run Checkpointed run the outcomes are recorded in
+     * @param stillOwned Checked right before each site; sites it rejects are skipped
+     * @return Aggregated counts
+     */
+    private SyncTally syncSitesSequentially(List<SiteDto> sites, SyncRun run, Predicate<SiteDto> stillOwned)
+            throws InterruptedException {
+        SyncTally tally = new SyncTally();
+        for (SiteDto site : sites) {
+            if (!stillOwned.test(site)) {
+                continue;
+            }
+            tally.record(processAndCheckpoint(site, run));
+            
+            // Add small delay to avoid overwhelming the database
+            if (siteDelayMs > 0) {
+                Thread.sleep(siteDelayMs);
+            }
+        }
+        return tally;
+    }
+    
+    /**
+     * Processes sites independently on a bounded worker pool. Counts are tallied on the
+     * calling thread from the completed futures, so workers share no mutable state.
+     * @param sites Sites from Master Service API
+     * @param run Checkpointed run the outcomes are recorded in
+     * @param stillOwned Checked right before each site; sites it rejects are skipped
+     * @return Aggregated counts
+     */
+    private SyncTally syncSitesInParallel(List<SiteDto> sites, SyncRun run, Predicate<SiteDto> stillOwned)
+            throws InterruptedException {
+        int workers = Math.max(1, Math.min(parallelism, sites.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(workers, new CustomizableThreadFactory("site-sync-"));
+        
+        try {
+            List<Future<SiteOutcome>> futures = new ArrayList<>(sites.size());
+            for (SiteDto site : sites) {
+                futures.add(executor.submit(() -> stillOwned.test(site) ? processAndCheckpoint(site, run) : null));
+            }
+            
+            SyncTally tally = new SyncTally();
+            for (Future<SiteOutcome> future : futures) {
+                try {
+                    SiteOutcome outcome = future.get();
+                    if (outcome != null) {
+                        tally.record(outcome);
+                    }
+                } catch (ExecutionException e) {
+                    logger.error("Error processing site: {}", e.getCause().getMessage(), e.getCause());
+                    tally.record(SiteOutcome.FAILED);
+                }
+            }
+            return tally;
+            
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private SiteOutcome processAndCheckpoint(SiteDto site, SyncRun run) {
+        SiteOutcome outcome = processSite(site);
+        syncCheckpointService.markItem(run, siteKey(site), outcome.name());
+        return outcome;
+    }
+    
+    /**
+     * Key under which a site's progress is checkpointed
+     * @param site Site from Master Service API
+     * @return Site ID, or cluster name when the site has no ID
+     */
+    static String siteKey(SiteDto site) {
+        return site.getSiteId() != null ? site.getSiteId() : String.valueOf(site.getClusterName());
+    }
+    
+    /**
+     * Fetches Mock API details for one site and writes them to the database
+     * @param site Site from Master Service API
+     * @return Outcome of the site
+     */
+    private SiteOutcome processSite(SiteDto site) {
+        try {
+            String siteName = site.getSiteName() != null ? site.getSiteName() : "Unknown";
+            String siteId = site.getSiteId() != null ? site.getSiteId() : "Unknown";
+            String clusterName = site.getClusterName() != null ? site.getClusterName() : "Unknown";
+            
+            logger.info("Processing site: {} ({}) with cluster: {}", siteName, siteId, clusterName);
+            
+            if (streamingFetch) {
+                return processSiteStreaming(siteName, siteId, clusterName);
+            }
+            
+            // Call Mock API for site details using cluster name
+            List<SiteDetail> mockResponse = mockApiService.getSiteDetails(clusterName);
+            
+            if (mockResponse == null || mockResponse.isEmpty()) {
+                logger.warn("No Mock API data found for site: {} ({})", siteName, siteId);
+                return SiteOutcome.FAILED;
+            }
+            
+            logger.info("Successfully retrieved Mock API data for site: {} - Response: {}", 
+                siteName, mockResponse);
+            siteTopologyCache.remember(clusterName, mockResponse);
+            
+            String contentHash = null;
+            if (deltaEnabled) {
+                contentHash = siteFingerprintService.fingerprint(mockResponse);
+                if (siteFingerprintService.isUnchanged(clusterName, contentHash)) {
+                    logger.info("Mock API data unchanged for site: {} (cluster: {}), skipping database update", siteName, clusterName);
+                    return SiteOutcome.UNCHANGED;
+                }
+            }
+            
+            // Step 3: Update database with Mock API response
+            logger.info("Step 3: Updating database with Mock API response for site: {}", siteName);
+            try {
+                boolean complete = databaseUpdateService.updateDatabaseFromMockApi(mockResponse);
+                logger.info("Successfully updated database for site: {}", siteName);
+                
+                // Only a fully written payload may be skipped next time
+                if (contentHash != null && complete) {
+                    siteFingerprintService.recordFingerprint(clusterName, contentHash);
+                }
+                return SiteOutcome.SUCCESS;
+            } catch (Exception dbException) {
+                logger.error("Failed to update database for site {}: {}", siteName, dbException.getMessage(), dbException);
+                return SiteOutcome.FAILED;
+            }
+            
+        } catch (Exception e) {
+            logger.error("Error processing site: {}", e.getMessage(), e);
+            return SiteOutcome.FAILED;
+        }
+    }
+    
+    /**
+     * Streaming variant of {@link #processSite}: the response is spooled to a temporary file and its
+     * entries are written one at a time as they are parsed. The delta fingerprint is the hash of the
+     * raw response bytes.
+     * @return Outcome of the site
+     */
+    private SiteOutcome processSiteStreaming(String siteName, String siteId, String clusterName) throws IOException {
+        try (SpooledResponse response = mockApiService.spoolSiteDetails(clusterName)) {
+            if (response == null || response.isEmpty()) {
+                logger.warn("No Mock API data found for site: {} ({})", siteName, siteId);
+                return SiteOutcome.FAILED;
+            }
+            
+            logger.info("Successfully retrieved Mock API data for site: {} - {} bytes", siteName, response.getSize());
+            
+            if (deltaEnabled && siteFingerprintService.isUnchanged(clusterName, response.getContentHash())) {
+                logger.info("Mock API data unchanged for site: {} (cluster: {}), skipping database update", siteName, clusterName);
+                // The response is not written, so its CM names are read separately unless they are cached
+                if (!siteTopologyCache.touch(clusterName)) {
+                    Set<String> cmNames = new LinkedHashSet<>();
+                    try (InputStream body = response.open()) {
+                        databaseUpdateService.toWriteCommands(body, command -> cmNames.add(command.getCmName()));
+                    }
+                    siteTopologyCache.remember(clusterName, cmNames);
+                }
+                return SiteOutcome.UNCHANGED;
+            }
+            
+            logger.info("Step 3: Updating database with Mock API response for site: {}", siteName);
+            try (InputStream body = response.open()) {
+                Set<String> cmNames = new LinkedHashSet<>();
+                boolean complete = databaseUpdateService.updateDatabaseFromStream(body, command -> cmNames.add(command.getCmName()));
+                siteTopologyCache.remember(clusterName, cmNames);
+                logger.info("Successfully updated database for site: {}", siteName);
+                
+                // Only a fully written payload may be skipped next time
+                if (deltaEnabled && complete) {
+                    siteFingerprintService.recordFingerprint(clusterName, response.getContentHash());
+                }
+                return SiteOutcome.SUCCESS;
+            } catch (Exception dbException) {
+                logger.error("Failed to update database for site {}: {}", siteName, dbException.getMessage(), dbException);
+                return SiteOutcome.FAILED;
+            }
+        }
+    }
+    
+    // Unchanged sites count as successful and are also reported separately
+    private static final class SyncTally {
+        private int processed;
+        private int success;
+        private int failed;
+        private int unchanged;
+        private int resumedSkipped;
+        
+        private void record(SiteOutcome outcome) {
+            processed++;
+            switch (outcome) {
+                case SUCCESS -> success++;
+                case UNCHANGED -> {
+                    success++;
+                    unchanged++;
+                }
+                case FAILED -> failed++;
+            }
         }
     }
     
@@ -0,0 +1,268 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.CmEntry;
+import com.amfk.starfish.sync.dto.SiteDetail;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared cache of the CM names of each cluster, as listed by the Mock API site-detail response.
+ * Entries are fresh for the TTL, which by default outlasts the daily sync interval, so the names
+ * the site sync seeds are still fresh for the next resource sync. After that, for the stale window,
+ * the cached names are still returned while one background load refreshes them. Older entries are
+ * loaded again on the calling thread. Concurrent loads of the same cluster are collapsed into one.
+ * Empty responses are not cached: a failed call cannot be told apart from a cluster without CMs.
+ * A failed refresh leaves the stale entry in place until it expires.
+ *
+ * The cache is bounded (least recently used clusters are evicted). The site sync seeds it from the
+ * responses it fetches anyway. Cached names can be dropped with {@link #invalidate} and {@link #invalidateAll}.
+ */
+@Service
+public class SiteTopologyCache {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SiteTopologyCache.class);
+    
+    private final MockApiService mockApiService;
+    private final long ttlNanos;
+    private final long staleNanos;
+    private final int maxClusters;
+    
+    private final Map<String, Entry> entries;
+    private final Map<String, CompletableFuture<List<String>>> loading = new ConcurrentHashMap<>();
+    private final ExecutorService refreshExecutor;
+    
+    private final Counter hits;
+    private final Counter staleHits;
+    private final Counter misses;
+    private final Timer loadTimer;
+    
+    public SiteTopologyCache(MockApiService mockApiService,
+                             MeterRegistry meterRegistry,
+                             @Value("${sync.topology.cache.ttl.seconds:90000}") long ttlSeconds,
+                             @Value("${sync.topology.cache.stale.seconds:86400}") long staleSeconds,
+                             @Value("${sync.topology.cache.max.clusters:10000}") int maxClusters) {
+        this.mockApiService = mockApiService;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.staleNanos = TimeUnit.SECONDS.toNanos(staleSeconds);
+        this.maxClusters = maxClusters;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > SiteTopologyCache.this.maxClusters;
+            }
+        };
+        
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("topology-refresh-");
+        threadFactory.setDaemon(true);
+        this.refreshExecutor = Executors.newFixedThreadPool(2, threadFactory);
+        
+        this.hits = counter(meterRegistry, "hit");
+        this.staleHits = counter(meterRegistry, "stale");
+        this.misses = counter(meterRegistry, "miss");
+        this.loadTimer = Timer.builder("sync.topology.cache.load")
+            .description("Time to load the CM names of one cluster from the Mock API")
+            .register(meterRegistry);
+        Gauge.builder("sync.topology.cache.size", this, SiteTopologyCache::size)
+            .description("Clusters whose CM names are cached")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Gets the CM names of a cluster, from the cache when possible
+     * @param clusterName Cluster name used as SiteName
+     * @return Distinct CM names in response order, empty if the cluster has none or the call failed
+     */
+    public List<String> getCmNames(String clusterName) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(clusterName);
+        }
+        
+        long age = entry != null ? System.nanoTime() - entry.loadedAt() : Long.MAX_VALUE;
+        if (age < ttlNanos) {
+            hits.increment();
+            return entry.cmNames();
+        }
+        if (age - ttlNanos < staleNanos) {
+            staleHits.increment();
+            refreshInBackground(clusterName);
+            return entry.cmNames();
+        }
+        
+        misses.increment();
+        CompletableFuture<List<String>> created = new CompletableFuture<>();
+        CompletableFuture<List<String>> inFlight = loading.putIfAbsent(clusterName, created);
+        if (inFlight != null) {
+            return inFlight.join();
+        }
+        load(clusterName, created);
+        return created.join();
+    }
+    
+    /**
+     * Caches the CM names of a response that was fetched for another purpose, e.g. by the site sync
+     * @param clusterName Cluster name the response was fetched for
+     * @param response Site-detail response
+     */
+    public void remember(String clusterName, List<SiteDetail> response) {
+        put(clusterName, cmNames(response));
+    }
+    
+    /**
+     * Caches CM names that are already known, e.g. from parsed write commands
+     * @param clusterName Cluster name the names were fetched for
+     * @param cmNames CM names of the cluster
+     */
+    public void remember(String clusterName, Collection<String> cmNames) {
+        put(clusterName, distinctNonBlank(cmNames));
+    }
+    
+    /**
+     * Marks the cached CM names of a cluster as freshly loaded, e.g. when the site sync finds the
+     * cluster's response unchanged
+     * @param clusterName Cluster name used as SiteName
+     * @return false if no CM names of the cluster are cached
+     */
+    public boolean touch(String clusterName) {
+        synchronized (entries) {
+            Entry entry = entries.get(clusterName);
+            if (entry == null) {
+                return false;
+            }
+            entries.put(clusterName, new Entry(entry.cmNames(), System.nanoTime()));
+            return true;
+        }
+    }
+    
+    /**
+     * Drops the cached CM names of a cluster, e.g. after its CMs were reassigned
+     * @param clusterName Cluster name used as SiteName
+     */
+    public void invalidate(String clusterName) {
+        synchronized (entries) {
+            entries.remove(clusterName);
+        }
+    }
+    
+    /**
+     * Drops all cached CM names; they are loaded again on demand
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+    
+    /**
+     * Hit, stale hit and miss counts since startup
+     * @return "hit"/"stale"/"miss" counts and the number of cached clusters
+     */
+    public Map<String, Long> getStats() {
+        return Map.of("hit", (long) hits.count(), "stale", (long) staleHits.count(), "miss", (long) misses.count(),
+            "size", (long) size());
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+    
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+    
+    private void refreshInBackground(String clusterName) {
+        CompletableFuture<List<String>> created = new CompletableFuture<>();
+        if (loading.putIfAbsent(clusterName, created) == null) {
+            try {
+                refreshExecutor.execute(() -> load(clusterName, created));
+            } catch (RuntimeException e) {
+                loading.remove(clusterName, created);
+                created.complete(List.of());
+                logger.debug("Could not schedule topology refresh for cluster {}: {}", clusterName, e.getMessage());
+            }
+        }
+    }
+    
+    private void load(String clusterName, CompletableFuture<List<String>> future) {
+        long start = System.nanoTime();
+        try {
+            List<String> cmNames = cmNames(mockApiService.getSiteDetails(clusterName));
+            put(clusterName, cmNames);
+            future.complete(cmNames);
+        } catch (RuntimeException e) {
+            logger.warn("Could not load CM names for cluster {}: {}", clusterName, e.getMessage());
+            future.completeExceptionally(e);
+        } finally {
+            loadTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            loading.remove(clusterName, future);
+        }
+    }
+    
+    private void put(String clusterName, List<String> cmNames) {
+        if (cmNames.isEmpty()) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(clusterName, new Entry(cmNames, System.nanoTime()));
+        }
+    }
+    
+    private static List<String> cmNames(List<SiteDetail> response) {
+        List<String> names = new ArrayList<>();
+        if (response != null) {
+            for (SiteDetail siteData : response) {
+                for (CmEntry result : siteData.results()) {
+                    names.add(result.cm());
+                }
+            }
+        }
+        return distinctNonBlank(names);
+    }
+    
+    private static List<String> distinctNonBlank(Collection<String> names) {
+        Set<String> distinct = new LinkedHashSet<>();
+        for (String name : names) {
+            if (name != null && !name.trim().isEmpty()) {
+                distinct.add(name);
+            }
+        }
+        return List.copyOf(distinct);
+    }
+    
+    private static Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("sync.topology.cache.requests")
+            .tag("result", result)
+            .description("CM name lookups served fresh (hit), stale while refreshing (stale) or loaded (miss)")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * CM names of one cluster and when they were loaded
+     */
+    private record Entry(List<String> cmNames, long loadedAt) {
+    }
+}
@@ -0,0 +1,89 @@
+package com.amfk.starfish.sync.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Mock API response body copied to a temporary file, with the SHA-256 of its bytes computed on the way.
+ * Keeps large responses off the heap between fetching and parsing, and gives the delta check a
+ * fingerprint before anything is parsed. Closing deletes the file.
+ */
+public final class SpooledResponse implements AutoCloseable {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SpooledResponse.class);
+    
+    private final Path file;
+    private final long size;
+    private final String contentHash;
+    
+    private SpooledResponse(Path file, long size, String contentHash) {
+        this.file = file;
+        this.size = size;
+        this.contentHash = contentHash;
+    }
+    
+    /**
+     * Copies a response body to a new temporary file
+     * @param body Response body, read to the end but not closed
+     * @return Spooled response owning the file
+     */
+    public static SpooledResponse copyOf(InputStream body) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        
+        Path file = Files.createTempFile("site-details-", ".json");
+        try {
+            long size = Files.copy(new DigestInputStream(body, digest), file, StandardCopyOption.REPLACE_EXISTING);
+            return new SpooledResponse(file, size, HexFormat.of().formatHex(digest.digest()));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+    
+    /**
+     * @return New buffered stream over the spooled body, to be closed by the caller
+     */
+    public InputStream open() throws IOException {
+        return new BufferedInputStream(Files.newInputStream(file));
+    }
+    
+    /**
+     * @return Hex encoded SHA-256 of the raw response bytes
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+    
+    public long getSize() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Could not delete spooled response {}: {}", file, e.getMessage());
+        }
+    }
+}
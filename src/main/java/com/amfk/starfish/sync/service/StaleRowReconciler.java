@@ -0,0 +1,182 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.ExtensionSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes pbx_number_range and pbx_number_reserved rows of a pbx_system that were not in the latest
+ * Mock API response for it. Stale rows are found by diffing the stored rows against the response and
+ * deleted with bulk DELETE ... IN statements. Reserved extensions merged through
+ * {@link ReservedBulkLoader} are instead compared with their staging rows inside the database.
+ *
+ * A safety threshold blocks the deletion when the response looks suspiciously empty: nothing at all
+ * while rows are stored, or more than max.delete.ratio of the stored rows going away at once.
+ */
+@Service
+public class StaleRowReconciler {
+    
+    private static final Logger logger = LoggerFactory.getLogger(StaleRowReconciler.class);
+    
+    public static final String MODE_OFF = "off";
+    public static final String MODE_REPORT = "report";
+    public static final String MODE_DELETE = "delete";
+    
+    private final JdbcTemplate jdbcTemplate;
+    
+    // off = no reconciliation, report = log stale rows only, delete = remove them
+    @Value("${site.sync.reconcile.mode:off}")
+    private String mode = MODE_OFF;
+    
+    // Largest share of a pbx_system's stored rows that may be deleted in one run
+    @Value("${site.sync.reconcile.max.delete.ratio:0.5}")
+    private double maxDeleteRatio = 0.5;
+    
+    // The ratio check only applies from this many stale rows, so small tables can still shrink
+    @Value("${site.sync.reconcile.min.rows.for.ratio:20}")
+    private int minRowsForRatio = 20;
+    
+    // Values per DELETE ... IN statement
+    @Value("${site.sync.write.batch.size:1000}")
+    private int batchSize = 1000;
+    
+    public StaleRowReconciler(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+    
+    public boolean isEnabled() {
+        return MODE_REPORT.equalsIgnoreCase(mode) || MODE_DELETE.equalsIgnoreCase(mode);
+    }
+    
+    /**
+     * Reconciles the ranges of one pbx_system with the ranges seen in the response
+     * @param systemId ID of the pbx_system row
+     * @param seen Ranges of the response with resolved phone number types
+     * @return Stale and deleted counts
+     */
+    public ReconcileResult reconcileRanges(int systemId, List<PbxBatchWriter.RangeRow> seen) {
+        Set<PbxBatchWriter.RangeRow> seenRows = new HashSet<>(seen);
+        List<Integer> staleIds = new ArrayList<>();
+        int[] stored = {0};
+        jdbcTemplate.query("SELECT id, range_from, range_to, phone_number_type FROM pbx_number_range WHERE id_pbx_system = ?", rs -> {
+            stored[0]++;
+            PbxBatchWriter.RangeRow row = new PbxBatchWriter.RangeRow(
+                rs.getString("range_from"), rs.getString("range_to"), rs.getInt("phone_number_type"));
+            if (!seenRows.contains(row)) {
+                staleIds.add(rs.getInt("id"));
+            }
+        }, systemId);
+        
+        ReconcileResult result = check("pbx_number_range", systemId, stored[0], seen.size(), staleIds.size());
+        if (result.blocked() || staleIds.isEmpty() || !MODE_DELETE.equalsIgnoreCase(mode)) {
+            return result;
+        }
+        int deleted = deleteIn("DELETE FROM pbx_number_range WHERE id_pbx_system = ? AND id IN ", systemId, staleIds);
+        return new ReconcileResult(result.stale(), deleted, false);
+    }
+    
+    /**
+     * Reconciles the reserved extensions of one pbx_system
+     * @param systemId ID of the pbx_system row
+     * @param storedCount Number of reserved extensions stored before this run
+     * @param incomingCount Number of extensions in the response
+     * @param stale Stored extensions that are not in the response
+     * @return Stale and deleted counts
+     */
+    public ReconcileResult reconcileReserved(int systemId, int storedCount, int incomingCount, ExtensionSet stale) {
+        ReconcileResult result = check("pbx_number_reserved", systemId, storedCount, incomingCount, stale.cardinality());
+        if (result.blocked() || stale.isEmpty() || !MODE_DELETE.equalsIgnoreCase(mode)) {
+            return result;
+        }
+        
+        int deleted = 0;
+        List<String> chunk = new ArrayList<>(batchSize);
+        for (String extension : stale) {
+            chunk.add(extension);
+            if (chunk.size() == batchSize) {
+                deleted += deleteIn("DELETE FROM pbx_number_reserved WHERE pbx_system_id = ? AND extensions IN ", systemId, chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            deleted += deleteIn("DELETE FROM pbx_number_reserved WHERE pbx_system_id = ? AND extensions IN ", systemId, chunk);
+        }
+        return new ReconcileResult(result.stale(), deleted, false);
+    }
+    
+    /**
+     * Reconciles the reserved extensions of one pbx_system against extensions staged by
+     * {@link ReservedBulkLoader}, counting and deleting with set-based statements
+     * @param systemId ID of the pbx_system row
+     * @param storedCount Number of reserved extensions stored before this run
+     * @param incomingCount Number of staged extensions
+     * @param loadId Load id of the staged extensions
+     * @return Stale and deleted counts
+     */
+    public ReconcileResult reconcileStagedReserved(int systemId, int storedCount, int incomingCount, String loadId) {
+        String notStaged = "FROM pbx_number_reserved WHERE pbx_system_id = ? AND NOT EXISTS " +
+            "(SELECT 1 FROM sync_reserved_staging s WHERE s.load_id = ? AND s.extensions = pbx_number_reserved.extensions)";
+        int staleCount = jdbcTemplate.queryForObject("SELECT COUNT(*) " + notStaged, Integer.class, systemId, loadId);
+        
+        ReconcileResult result = check("pbx_number_reserved", systemId, storedCount, incomingCount, staleCount);
+        if (result.blocked() || staleCount == 0 || !MODE_DELETE.equalsIgnoreCase(mode)) {
+            return result;
+        }
+        int deleted = jdbcTemplate.update("DELETE " + notStaged, systemId, loadId);
+        return new ReconcileResult(result.stale(), deleted, false);
+    }
+    
+    /**
+     * Applies the safety threshold and logs what would be removed
+     */
+    private ReconcileResult check(String table, int systemId, int storedCount, int incomingCount, int staleCount) {
+        if (staleCount == 0) {
+            return new ReconcileResult(0, 0, false);
+        }
+        
+        boolean emptyResponse = incomingCount == 0;
+        boolean overRatio = staleCount >= minRowsForRatio && staleCount > storedCount * maxDeleteRatio;
+        if (emptyResponse || overRatio) {
+            logger.warn("Blocked removal of {} of {} {} rows for system ID: {} ({} rows in response), threshold is {}% of stored rows",
+                staleCount, storedCount, table, systemId, incomingCount, Math.round(maxDeleteRatio * 100));
+            return new ReconcileResult(staleCount, 0, true);
+        }
+        
+        logger.info("Found {} stale {} rows of {} for system ID: {}{}", staleCount, table, storedCount, systemId,
+            MODE_DELETE.equalsIgnoreCase(mode) ? ", deleting" : " (report only)");
+        return new ReconcileResult(staleCount, 0, false);
+    }
+    
+    private int deleteIn(String sqlPrefix, int systemId, List<?> values) {
+        int deleted = 0;
+        for (int from = 0; from < values.size(); from += batchSize) {
+            List<?> chunk = values.subList(from, Math.min(from + batchSize, values.size()));
+            String sql = sqlPrefix + "(" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            Object[] args = new Object[chunk.size() + 1];
+            args[0] = systemId;
+            for (int i = 0; i < chunk.size(); i++) {
+                args[i + 1] = chunk.get(i);
+            }
+            deleted += jdbcTemplate.update(sql, args);
+        }
+        return deleted;
+    }
+    
+    /**
+     * Outcome of reconciling one table for one pbx_system
+     * @param stale Stored rows not in the response
+     * @param deleted Rows deleted
+     * @param blocked Whether the safety threshold prevented the deletion
+     */
+    public record ReconcileResult(int stale, int deleted, boolean blocked) {
+    }
+}
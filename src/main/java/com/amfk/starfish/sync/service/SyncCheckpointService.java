@@ -0,0 +1,197 @@
+package com.amfk.starfish.sync.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Persists sync run progress in sync_run / sync_run_item so that a run interrupted by a restart
+ * resumes with the remaining sites or CMs instead of starting over.
+ *
+ * Staleness policy: an unfinished run is resumed only if it started less than
+ * sync.checkpoint.max.age.hours ago. Older runs are marked ABANDONED and a full run is started,
+ * so the next regular daily run never inherits yesterday's progress.
+ *
+ * A RUNNING run holds its job name in sync_run.active_job, which is unique. Replicas that start
+ * a run at the same moment therefore all end up in the one run whose insert succeeded.
+ */
+@Service
+public class SyncCheckpointService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SyncCheckpointService.class);
+    
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_ABANDONED = "ABANDONED";
+    
+    private final JdbcTemplate jdbcTemplate;
+    
+    @Value("${sync.checkpoint.enabled:true}")
+    private boolean checkpointEnabled;
+    
+    @Value("${sync.checkpoint.max.age.hours:20}")
+    private long maxAgeHours;
+    
+    public SyncCheckpointService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+    
+    /**
+     * Resumes the latest unfinished run of a job if it is still fresh, otherwise starts a new one
+     * @param jobName Name of the sync job (e.g. "site-sync")
+     * @return Run handle; not persistent if checkpointing is disabled or the database is unavailable
+     */
+    public SyncRun startOrResume(String jobName) {
+        if (!checkpointEnabled) {
+            return untracked(jobName);
+        }
+        
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            List<Map<String, Object>> unfinished = jdbcTemplate.queryForList(
+                "SELECT run_id, started_on FROM sync_run WHERE job_name = ? AND status = ? ORDER BY started_on DESC",
+                jobName, STATUS_RUNNING);
+                
+            for (Map<String, Object> row : unfinished) {
+                String runId = (String) row.get("run_id");
+                LocalDateTime startedOn = ((Timestamp) row.get("started_on")).toLocalDateTime();
+                
+                if (startedOn.isAfter(now.minusHours(maxAgeHours))) {
+                    return resume(runId, jobName, startedOn);
+                }
+                
+                logger.info("Checkpoint of {} run {} started at {} is older than {} hours, forcing a full run",
+                    jobName, runId, startedOn, maxAgeHours);
+                updateStatus(runId, STATUS_ABANDONED);
+            }
+            
+            String runId = UUID.randomUUID().toString();
+            Timestamp timestamp = Timestamp.valueOf(now);
+            int inserted = jdbcTemplate.update(
+                "INSERT IGNORE INTO sync_run (run_id, job_name, status, started_on, updated_on, active_job) VALUES (?, ?, ?, ?, ?, ?)",
+                runId, jobName, STATUS_RUNNING, timestamp, timestamp, jobName);
+            if (inserted == 0) {
+                // another instance started a run of this job in the meantime; join it
+                Map<String, Object> active = jdbcTemplate.queryForMap(
+                    "SELECT run_id, started_on FROM sync_run WHERE active_job = ?", jobName);
+                return resume((String) active.get("run_id"), jobName, ((Timestamp) active.get("started_on")).toLocalDateTime());
+            }
+            logger.info("Started {} run {}", jobName, runId);
+            return new SyncRun(runId, jobName, Set.of(), false, true);
+            
+        } catch (Exception e) {
+            logger.warn("Checkpoint store unavailable, running {} without checkpoints: {}", jobName, e.getMessage());
+            return untracked(jobName);
+        }
+    }
+    
+    /**
+     * Records the outcome of one site or CM. Safe to call from worker threads.
+     * @param run Run handle
+     * @param itemKey Key of the site or CM
+     * @param outcome Outcome name (SUCCESS, UNCHANGED, FAILED)
+     */
+    public void markItem(SyncRun run, String itemKey, String outcome) {
+        if (!run.isPersistent()) {
+            return;
+        }
+        
+        try {
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            jdbcTemplate.update(
+                "INSERT INTO sync_run_item (run_id, item_key, outcome, finished_on) VALUES (?, ?, ?, ?) " +
+                "ON DUPLICATE KEY UPDATE outcome = VALUES(outcome), finished_on = VALUES(finished_on)",
+                run.getRunId(), itemKey, outcome, now);
+            jdbcTemplate.update("UPDATE sync_run SET updated_on = ? WHERE run_id = ?", now, run.getRunId());
+        } catch (Exception e) {
+            logger.warn("Could not checkpoint item {} of run {}: {}", itemKey, run.getRunId(), e.getMessage());
+        }
+    }
+    
+    /**
+     * Checks whether all of the given items have finished in a run, e.g. the partitions synced
+     * by other instances
+     * @param run Run handle
+     * @param itemKeys Keys of the items
+     * @return true if every item finished with SUCCESS or UNCHANGED; always true for an untracked run
+     */
+    public boolean allCompleted(SyncRun run, Set<String> itemKeys) {
+        if (!run.isPersistent() || itemKeys.isEmpty()) {
+            return true;
+        }
+        
+        try {
+            List<Object> args = new ArrayList<>(itemKeys.size() + 1);
+            args.add(run.getRunId());
+            args.addAll(itemKeys);
+            Integer completed = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM sync_run_item WHERE run_id = ? AND outcome IN ('SUCCESS', 'UNCHANGED') AND item_key IN (" +
+                String.join(", ", Collections.nCopies(itemKeys.size(), "?")) + ")",
+                Integer.class, args.toArray());
+            return completed != null && completed >= itemKeys.size();
+        } catch (Exception e) {
+            logger.warn("Could not check items of run {}: {}", run.getRunId(), e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Marks a run as completed so that the next run starts from the beginning
+     * @param run Run handle
+     */
+    public void complete(SyncRun run) {
+        if (!run.isPersistent()) {
+            return;
+        }
+        
+        try {
+            updateStatus(run.getRunId(), STATUS_COMPLETED);
+            logger.info("Completed {} run {}", run.getJobName(), run.getRunId());
+        } catch (Exception e) {
+            logger.warn("Could not mark run {} as completed: {}", run.getRunId(), e.getMessage());
+        }
+    }
+    
+    private SyncRun resume(String runId, String jobName, LocalDateTime startedOn) {
+        Set<String> completedItems = loadCompletedItems(runId);
+        touch(runId);
+        logger.info("Resuming {} run {} started at {} ({} items already completed)",
+            jobName, runId, startedOn, completedItems.size());
+        return new SyncRun(runId, jobName, completedItems, true, true);
+    }
+    
+    private Set<String> loadCompletedItems(String runId) {
+        // FAILED items are not loaded and are therefore retried on resume
+        List<String> itemKeys = jdbcTemplate.queryForList(
+            "SELECT item_key FROM sync_run_item WHERE run_id = ? AND outcome IN ('SUCCESS', 'UNCHANGED')",
+            String.class, runId);
+        return new HashSet<>(itemKeys);
+    }
+    
+    private void touch(String runId) {
+        jdbcTemplate.update("UPDATE sync_run SET updated_on = ? WHERE run_id = ?",
+            Timestamp.valueOf(LocalDateTime.now()), runId);
+    }
+    
+    private void updateStatus(String runId, String status) {
+        // only RUNNING runs hold the job's active_job slot
+        jdbcTemplate.update("UPDATE sync_run SET status = ?, active_job = NULL, updated_on = ? WHERE run_id = ?",
+            status, Timestamp.valueOf(LocalDateTime.now()), runId);
+    }
+    
+    private static SyncRun untracked(String jobName) {
+        return new SyncRun(UUID.randomUUID().toString(), jobName, Set.of(), false, false);
+    }
+}
@@ -0,0 +1,37 @@
+package com.amfk.starfish.sync.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.util.UUID;
+
+/**
+ * Identifies this service instance in the shared coordination tables.
+ * Uses sync.instance.id when set, otherwise the host name plus a random suffix.
+ */
+@Component
+public class SyncInstanceIdentity {
+    
+    private final String instanceId;
+    
+    public SyncInstanceIdentity(@Value("${sync.instance.id:}") String configuredId) {
+        if (configuredId != null && !configuredId.isBlank()) {
+            this.instanceId = configuredId.trim();
+        } else {
+            this.instanceId = hostName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        }
+    }
+    
+    public String getInstanceId() {
+        return instanceId;
+    }
+    
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "unknown-host";
+        }
+    }
+}
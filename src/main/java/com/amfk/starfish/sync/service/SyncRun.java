@@ -0,0 +1,62 @@
+package com.amfk.starfish.sync.service;
+
+import java.util.Set;
+
+/**
+ * Handle of a checkpointed sync run. Items listed in the completed set were finished by an
+ * earlier attempt of the same run and are skipped when the run is resumed.
+ */
+public class SyncRun {
+    
+    private final String runId;
+    private final String jobName;
+    private final Set<String> completedItems;
+    private final boolean resumed;
+    private final boolean persistent;
+    
+    SyncRun(String runId, String jobName, Set<String> completedItems, boolean resumed, boolean persistent) {
+        this.runId = runId;
+        this.jobName = jobName;
+        this.completedItems = completedItems;
+        this.resumed = resumed;
+        this.persistent = persistent;
+    }
+    
+    public String getRunId() {
+        return runId;
+    }
+    
+    public String getJobName() {
+        return jobName;
+    }
+    
+    public boolean isResumed() {
+        return resumed;
+    }
+    
+    /**
+     * @return false when the checkpoint store was unavailable and progress is not being recorded
+     */
+    public boolean isPersistent() {
+        return persistent;
+    }
+    
+    public boolean isCompleted(String itemKey) {
+        return completedItems.contains(itemKey);
+    }
+    
+    public int getCompletedCount() {
+        return completedItems.size();
+    }
+    
+    @Override
+    public String toString() {
+        return "SyncRun{" +
+                "runId='" + runId + '\'' +
+                ", jobName='" + jobName + '\'' +
+                ", completedItems=" + completedItems.size() +
+                ", resumed=" + resumed +
+                ", persistent=" + persistent +
+                '}';
+    }
+}
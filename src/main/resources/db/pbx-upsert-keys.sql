@@ -0,0 +1,10 @@
+-- Unique keys required by the batched upsert writer (site.sync.write.batch.enabled=true).
+-- The pbx_* tables are managed outside this service, so this script is applied by hand, not at startup.
+-- Remove duplicate rows first; each statement fails if the table still contains duplicates.
+
+CREATE UNIQUE INDEX uk_pbx_system_site_cm ON pbx_system (physical_pbx, remark);
+
+CREATE UNIQUE INDEX uk_pbx_number_range_bounds ON pbx_number_range (id_pbx_system, range_from, range_to, phone_number_type);
+
+-- Not unique: lookup index for stale extension deletes and the bulk staging merge (site.sync.write.bulk.threshold).
+CREATE INDEX idx_pbx_number_reserved_system_ext ON pbx_number_reserved (pbx_system_id, extensions);
@@ -0,0 +1,93 @@
+-- Bookkeeping tables owned by the sync service (the pbx_* tables are managed elsewhere).
+-- Statements must stay valid for both MySQL and H2 in MySQL mode.
+
+-- Fingerprint of the last Mock API response written for each cluster (delta sync)
+CREATE TABLE IF NOT EXISTS sync_cluster_fingerprint (
+    cluster_name VARCHAR(255) NOT NULL,
+    content_hash CHAR(64) NOT NULL,
+    updated_on TIMESTAMP NOT NULL,
+    PRIMARY KEY (cluster_name)
+);
+
+-- Checkpointed sync runs: one row per run, one item row per finished site or CM.
+-- active_job is the job name while the run is RUNNING and NULL afterwards, so a job has one active run
+CREATE TABLE IF NOT EXISTS sync_run (
+    run_id VARCHAR(36) NOT NULL,
+    job_name VARCHAR(64) NOT NULL,
+    status VARCHAR(16) NOT NULL,
+    started_on TIMESTAMP NOT NULL,
+    updated_on TIMESTAMP NOT NULL,
+    active_job VARCHAR(64) NULL,
+    PRIMARY KEY (run_id),
+    CONSTRAINT uk_sync_run_active_job UNIQUE (active_job)
+);
+
+CREATE TABLE IF NOT EXISTS sync_run_item (
+    run_id VARCHAR(36) NOT NULL,
+    item_key VARCHAR(255) NOT NULL,
+    outcome VARCHAR(16) NOT NULL,
+    finished_on TIMESTAMP NOT NULL,
+    PRIMARY KEY (run_id, item_key)
+);
+
+-- Sharded site sync: live service instances and the site partitions they have claimed
+CREATE TABLE IF NOT EXISTS sync_instance (
+    instance_id VARCHAR(128) NOT NULL,
+    heartbeat_on TIMESTAMP NOT NULL,
+    PRIMARY KEY (instance_id)
+);
+
+CREATE TABLE IF NOT EXISTS sync_site_partition (
+    partition_id INT NOT NULL,
+    owner_id VARCHAR(128) NULL,
+    lease_until TIMESTAMP NULL,
+    PRIMARY KEY (partition_id)
+);
+
+-- Cluster-wide lease per scheduled job so each run executes on one instance only, once per period
+-- (periods are counted in the database clock; run_period is the period of the run holding the lease)
+CREATE TABLE IF NOT EXISTS sync_job_lease (
+    job_name VARCHAR(64) NOT NULL,
+    owner_id VARCHAR(128) NULL,
+    lease_until TIMESTAMP NULL,
+    heartbeat_on TIMESTAMP NULL,
+    run_period BIGINT NULL,
+    completed_period BIGINT NULL,
+    completed_on TIMESTAMP NULL,
+    PRIMARY KEY (job_name)
+);
+
+-- Columns added after the first release; on tables that already have them these fail and are skipped
+ALTER TABLE sync_job_lease ADD COLUMN run_period BIGINT NULL;
+ALTER TABLE sync_job_lease ADD COLUMN completed_period BIGINT NULL;
+ALTER TABLE sync_job_lease ADD COLUMN completed_on TIMESTAMP NULL;
+ALTER TABLE sync_run ADD COLUMN active_job VARCHAR(64) NULL;
+ALTER TABLE sync_run ADD CONSTRAINT uk_sync_run_active_job UNIQUE (active_job);
+
+-- Bulk mode for very large reserved extension sets: incoming extensions staged per load, merged
+-- into pbx_number_reserved with set-based statements and deleted afterwards
+CREATE TABLE IF NOT EXISTS sync_reserved_staging (
+    load_id VARCHAR(36) NOT NULL,
+    extensions VARCHAR(32) NOT NULL,
+    PRIMARY KEY (load_id, extensions)
+);
+
+-- Last run in which each pbx_system was present in a Mock API response. Kept here, one row per
+-- system, so that unchanged pbx_* rows do not have their log and reservation columns rewritten
+CREATE TABLE IF NOT EXISTS sync_pbx_system_seen (
+    pbx_system_id INT NOT NULL,
+    last_seen_on TIMESTAMP NOT NULL,
+    PRIMARY KEY (pbx_system_id)
+);
+
+-- Last payload fetched for each resource by the resource sync, one row per type, CM and resource ID.
+-- Rows are only rewritten when content_hash changes; changed_on is when that last happened
+CREATE TABLE IF NOT EXISTS sync_resource_snapshot (
+    resource_type VARCHAR(64) NOT NULL,
+    server_name VARCHAR(255) NOT NULL,
+    resource_id VARCHAR(64) NOT NULL,
+    payload TEXT NOT NULL,
+    content_hash CHAR(64) NOT NULL,
+    changed_on TIMESTAMP NOT NULL,
+    PRIMARY KEY (resource_type, server_name, resource_id)
+);
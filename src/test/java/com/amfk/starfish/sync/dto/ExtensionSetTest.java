@@ -0,0 +1,188 @@
+package com.amfk.starfish.sync.dto;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExtensionSetTest {
+
+	private static final int SYNTHETIC_RANGE = 1_200_000;
+	private static final long SYNTHETIC_LOWERBOUND = 4_900_000L;
+
+	@Test
+	void keepsEveryExtensionIncludingIrregularOnes() {
+		ExtensionSet set = ExtensionSet.of("1000", List.of("1000", " 1005 ", "1005", "", "999", "A12", "01002"));
+
+		assertThat(set.cardinality()).isEqualTo(5);
+		assertThat(set).containsExactly("1000", "1005", "01002", "999", "A12");
+		assertThat(set.contains("1005")).isTrue();
+		assertThat(set.contains("1001")).isFalse();
+	}
+
+	@Test
+	void preservesZeroPaddedExtensions() {
+		ExtensionSet set = ExtensionSet.of("0100", List.of("0100", "0150", "150"));
+
+		assertThat(set).containsExactly("0100", "0150", "150");
+		assertThat(set.contains("0150")).isTrue();
+		assertThat(set.contains("150")).isTrue();
+	}
+
+	@Test
+	void unionAndDifferenceAcrossBases() {
+		ExtensionSet low = ExtensionSet.of("1000", List.of("1001", "1002"));
+		ExtensionSet high = ExtensionSet.of("5000", List.of("5001", "1002", "X1"));
+
+		ExtensionSet union = ExtensionSet.union(List.of(high, low));
+		assertThat(union).containsExactly("1001", "1002", "5001", "X1");
+
+		assertThat(union.difference(low)).containsExactly("5001", "X1");
+		assertThat(high.difference(union)).isEmpty();
+	}
+
+	@Test
+	void distantBasesDoNotInflateTheBitset() {
+		ExtensionSet lowBase = ExtensionSet.of("0", List.of("5", "900000002"));
+		ExtensionSet highBase = ExtensionSet.of("900000000", List.of("900000001"));
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		long before = threads.getCurrentThreadAllocatedBytes();
+		ExtensionSet union = ExtensionSet.union(List.of(highBase, lowBase));
+		long unionBytes = threads.getCurrentThreadAllocatedBytes() - before;
+
+		// rebasing to 0 would need a 900M bit (110 MB) bitset; the far extensions are kept as Strings instead
+		assertThat(lowBase.offsetOf("900000002")).isEqualTo(-1);
+		assertThat(union).containsExactlyInAnyOrder("5", "900000001", "900000002");
+		assertThat(union.contains("900000001")).isTrue();
+		assertThat(unionBytes).isLessThan(1024 * 1024);
+	}
+
+	@Test
+	void cursorTakesSmallChunksInLinearTime() {
+		ExtensionSet extensions = ExtensionSet.relativeTo(String.valueOf(SYNTHETIC_LOWERBOUND));
+		forEachSyntheticExtension(extensions::add);
+
+		long start = System.nanoTime();
+		int taken = 0;
+		ExtensionSet.Cursor cursor = extensions.cursor();
+		while (cursor.hasNext()) {
+			taken += cursor.next(10).size();
+		}
+		long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+		assertThat(taken).isEqualTo(1_000_000);
+		// counting the set on every chunk made this 100k chunks x 1.2M bits
+		assertThat(elapsedMs).isLessThan(2000);
+	}
+
+	@Test
+	void cursorTakesEncodedChunks() {
+		ExtensionSet set = ExtensionSet.of("0100", List.of("0150", "0100", "150", "A1"));
+
+		assertThat(set.offsetOf("0150")).isEqualTo(50);
+		assertThat(set.offsetOf("150")).isEqualTo(-1);
+		assertThat(set.containsOffset(50)).isTrue();
+		assertThat(set.formatOffset(7)).isEqualTo("0107");
+
+		ExtensionSet.Cursor cursor = set.cursor();
+		ExtensionSet.Chunk first = cursor.next(3);
+		ExtensionSet.Chunk second = cursor.next(3);
+		assertThat(List.of(first.get(0), first.get(1), first.get(2))).containsExactly("0100", "0150", "150");
+		assertThat(second.size()).isEqualTo(1);
+		assertThat(second.get(0)).isEqualTo("A1");
+		assertThat(cursor.hasNext()).isFalse();
+		assertThat(cursor.next(3).isEmpty()).isTrue();
+	}
+
+	@Test
+	void cursorChunksAllocateFractionOfStringChunks() {
+		ExtensionSet extensions = ExtensionSet.relativeTo(String.valueOf(SYNTHETIC_LOWERBOUND));
+		forEachSyntheticExtension(extensions::add);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		long before = threads.getCurrentThreadAllocatedBytes();
+		int taken = 0;
+		Iterator<String> iterator = extensions.iterator();
+		while (iterator.hasNext()) {
+			List<String> chunk = new ArrayList<>();
+			while (iterator.hasNext() && chunk.size() < 5000) {
+				chunk.add(iterator.next());
+			}
+			taken += chunk.size();
+		}
+		long stringBytes = threads.getCurrentThreadAllocatedBytes() - before;
+
+		before = threads.getCurrentThreadAllocatedBytes();
+		ExtensionSet.Cursor cursor = extensions.cursor();
+		while (cursor.hasNext()) {
+			taken -= cursor.next(5000).size();
+		}
+		long cursorBytes = threads.getCurrentThreadAllocatedBytes() - before;
+
+		System.out.println("=== RESERVED EXTENSION CHUNKS (1M extensions) ===");
+		System.out.printf("%-16s %12s%n", "chunk", "allocated KB");
+		System.out.printf("%-16s %12d%n", "List<String>", stringBytes / 1024);
+		System.out.printf("%-16s %12d%n", "offset Chunk", cursorBytes / 1024);
+
+		assertThat(taken).isZero();
+		assertThat(cursorBytes).isLessThan(stringBytes / 5);
+	}
+
+	@Test
+	void compactSetUsesFractionOfListMemory() {
+		long listBytes = retainedBytes(() -> {
+			List<String> extensions = new ArrayList<>();
+			forEachSyntheticExtension(extensions::add);
+			return extensions;
+		});
+		long setBytes = retainedBytes(() -> {
+			ExtensionSet extensions = ExtensionSet.relativeTo(String.valueOf(SYNTHETIC_LOWERBOUND));
+			forEachSyntheticExtension(extensions::add);
+			return extensions;
+		});
+
+		System.out.println("=== AVAILABLE EXTENSIONS MEMORY (1M extensions) ===");
+		System.out.printf("%-16s %12s%n", "representation", "retained KB");
+		System.out.printf("%-16s %12d%n", "List<String>", listBytes / 1024);
+		System.out.printf("%-16s %12d%n", "ExtensionSet", setBytes / 1024);
+
+		assertThat(setBytes).isLessThan(listBytes / 20);
+	}
+
+	/**
+	 * One million extensions spread over a 1.2M number range, as Strings parsed one by one
+	 */
+	private static void forEachSyntheticExtension(Consumer<String> consumer) {
+		int count = 0;
+		for (int offset = 0; offset < SYNTHETIC_RANGE && count < 1_000_000; offset++) {
+			if (offset % 6 != 5) {
+				consumer.accept(String.valueOf(SYNTHETIC_LOWERBOUND + offset));
+				count++;
+			}
+		}
+	}
+
+	private static long retainedBytes(Supplier<Object> build) {
+		long before = usedHeapAfterGc();
+		Object retained = build.get();
+		long after = usedHeapAfterGc();
+		assertThat(retained).isNotNull();
+		return Math.max(0, after - before);
+	}
+
+	private static long usedHeapAfterGc() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,146 @@
+package com.amfk.starfish.sync.dto;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SiteDetailTest {
+
+	private static final int BENCHMARK_ENTRIES = 200;
+	private static final int BENCHMARK_RANGES = 10;
+	private static final int BENCHMARK_ITERATIONS = 300;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Test
+	void bindsBothBoundSpellings() throws IOException {
+		SiteDetail detail = objectMapper.readValue("""
+			{"Results":[{"Site":"wa-avapoc2001","CM":"CM1","Unknown":{"x":1},"Ranges":[
+			  {"Type":"internal","LowerBound":1000,"UpperBound":"1099","AvailableExtensions":["1001"]},
+			  {"Type":"external","Lowerbound":"2000","Upperbound":"2099","Prefix":"9"}
+			]},{"Site":"wa-avapoc2002"}]}
+			""", SiteDetail.class);
+
+		assertThat(detail.results()).hasSize(2);
+		CmEntry entry = detail.results().get(0);
+		assertThat(entry.site()).isEqualTo("wa-avapoc2001");
+		assertThat(entry.cm()).isEqualTo("CM1");
+		assertThat(entry.ranges()).containsExactly(
+			new NumberRange("internal", "1000", "1099", null, List.of("1001")),
+			new NumberRange("external", "2000", "2099", "9", List.of()));
+		assertThat(detail.results().get(1).ranges()).isEmpty();
+		assertThat(objectMapper.readValue("{}", SiteDetail.class).results()).isEmpty();
+	}
+
+	@Test
+	void typedBindingAllocatesLessThanMapPath() throws IOException {
+		byte[] payload = syntheticPayload();
+
+		// warm up both paths before measuring
+		for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+			typedChecksum(payload);
+			mapChecksum(payload);
+		}
+		assertThat(typedChecksum(payload)).isEqualTo(mapChecksum(payload));
+
+		long[] map = measure(() -> mapChecksum(payload));
+		long[] typed = measure(() -> typedChecksum(payload));
+
+		System.out.println("=== SITE DETAIL BINDING (" + payload.length / 1024 + " KB payload) ===");
+		System.out.printf("%-16s %14s %12s%n", "binding", "KB allocated", "us per op");
+		System.out.printf("%-16s %14d %12d%n", "Map<String,?>", map[0] / 1024, map[1] / 1000);
+		System.out.printf("%-16s %14d %12d%n", "SiteDetail", typed[0] / 1024, typed[1] / 1000);
+
+		assertThat(typed[0]).isLessThan(map[0]);
+	}
+
+	/**
+	 * Binds to records and reads every field
+	 */
+	private long typedChecksum(byte[] payload) throws IOException {
+		long checksum = 0;
+		for (CmEntry entry : objectMapper.readValue(payload, SiteDetail.class).results()) {
+			checksum += entry.site().length() + entry.cm().length();
+			for (NumberRange range : entry.ranges()) {
+				checksum += range.type().length() + range.lowerbound().length() + range.upperbound().length();
+				checksum += range.availableExtensions().size();
+			}
+		}
+		return checksum;
+	}
+
+	/**
+	 * Binds to Maps and reads every field the way DatabaseUpdateService used to, including the
+	 * LowerBound/Lowerbound fallbacks and unchecked casts
+	 */
+	@SuppressWarnings("unchecked")
+	private long mapChecksum(byte[] payload) throws IOException {
+		Map<String, Object> siteData = objectMapper.readValue(payload, new TypeReference<Map<String, Object>>() { });
+		long checksum = 0;
+		Object resultsObj = siteData.get("Results");
+		if (resultsObj instanceof List) {
+			for (Map<String, Object> result : (List<Map<String, Object>>) resultsObj) {
+				checksum += String.valueOf(result.get("Site")).length() + String.valueOf(result.get("CM")).length();
+				Object rangesObj = result.get("Ranges");
+				if (!(rangesObj instanceof List)) {
+					continue;
+				}
+				for (Map<String, Object> range : (List<Map<String, Object>>) rangesObj) {
+					Object lowerbound = range.get("LowerBound") != null ? range.get("LowerBound") : range.get("Lowerbound");
+					Object upperbound = range.get("UpperBound") != null ? range.get("UpperBound") : range.get("Upperbound");
+					checksum += String.valueOf(range.get("Type")).length() + lowerbound.toString().length()
+						+ upperbound.toString().length();
+					Object extensions = range.get("AvailableExtensions");
+					checksum += extensions instanceof List ? ((List<String>) extensions).size() : 0;
+				}
+			}
+		}
+		return checksum;
+	}
+
+	/**
+	 * Bytes allocated by this thread and wall time over all iterations
+	 */
+	private static long[] measure(Checksum operation) throws IOException {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+			operation.run();
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+		return new long[] {allocated / BENCHMARK_ITERATIONS, elapsed / BENCHMARK_ITERATIONS};
+	}
+
+	/**
+	 * Site-detail response shaped like MockApiController output: many ranges with few extensions
+	 */
+	private static byte[] syntheticPayload() {
+		StringBuilder json = new StringBuilder("{\"Results\":[");
+		for (int entry = 0; entry < BENCHMARK_ENTRIES; entry++) {
+			json.append(entry > 0 ? "," : "").append("{\"Site\":\"site-").append(entry).append("\",\"CM\":\"CM1\",\"Ranges\":[");
+			for (int range = 0; range < BENCHMARK_RANGES; range++) {
+				int lowerbound = 1000 + range * 100;
+				json.append(range > 0 ? "," : "").append("{\"Type\":\"").append(range % 2 == 0 ? "internal" : "external")
+					.append("\",\"Lowerbound\":\"").append(lowerbound).append("\",\"Upperbound\":\"").append(lowerbound + 99)
+					.append("\",\"Prefix\":\"\",\"AvailableExtensions\":[\"").append(lowerbound + 1).append("\"]}");
+			}
+			json.append("]}");
+		}
+		return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private interface Checksum {
+		long run() throws IOException;
+	}
+
+}
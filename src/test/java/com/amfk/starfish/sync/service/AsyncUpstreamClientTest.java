@@ -0,0 +1,86 @@
+package com.amfk.starfish.sync.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AsyncUpstreamClientTest {
+
+	private final AsyncUpstreamClient client = new AsyncUpstreamClient();
+	private HttpServer server;
+	private String baseUrl;
+
+	@BeforeEach
+	void startServer() throws IOException {
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/sites", exchange -> respond(exchange, 200, "[{\"name\":\"site-1\"},{\"name\":\"site-2\"}]"));
+		server.createContext("/echo", exchange -> respond(exchange, 200,
+			new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)));
+		server.createContext("/missing", exchange -> respond(exchange, 404, "{}"));
+		server.createContext("/busy", exchange -> respond(exchange, 503, "{}"));
+		server.start();
+		baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@AfterEach
+	void stopServer() {
+		client.shutdown();
+		server.stop(0);
+	}
+
+	@Test
+	void bindsJsonBodies() {
+		AsyncUpstreamClient.Response sites = AsyncUpstreamClient.join(client.get(baseUrl + "/sites", new HttpHeaders()));
+		assertThat(sites.status().value()).isEqualTo(200);
+		assertThat(client.readList(sites)).extracting(site -> site.get("name")).containsExactly("site-1", "site-2");
+
+		AsyncUpstreamClient.Response echo = AsyncUpstreamClient.join(client.post(baseUrl + "/echo", new HttpHeaders(),
+			Map.of("ResourceIds", List.of("1000", "1001"))));
+		assertThat(client.readMap(echo)).isEqualTo(Map.of("ResourceIds", List.of("1000", "1001")));
+	}
+
+	@Test
+	void failsWithTheExceptionsOfRestTemplate() throws IOException {
+		assertThatThrownBy(() -> AsyncUpstreamClient.join(client.get(baseUrl + "/missing", new HttpHeaders())))
+			.isInstanceOf(HttpClientErrorException.NotFound.class);
+		assertThatThrownBy(() -> AsyncUpstreamClient.join(client.get(baseUrl + "/busy", new HttpHeaders())))
+			.isInstanceOfSatisfying(HttpServerErrorException.class,
+				e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE));
+
+		int closedPort;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			closedPort = socket.getLocalPort();
+		}
+		assertThatThrownBy(() -> AsyncUpstreamClient.join(client.get("http://127.0.0.1:" + closedPort + "/sites", new HttpHeaders())))
+			.isInstanceOf(ResourceAccessException.class);
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+package com.amfk.starfish.sync.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+import java.util.function.IntToLongFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CmConcurrencyLimiterTest {
+
+	private static final long RTT = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final CmConcurrencyLimiter limiter = new CmConcurrencyLimiter(meterRegistry);
+
+	@Test
+	void healthyUpstreamGrowsWhileOverloadedOneIsHeldBack() throws InterruptedException {
+		for (int round = 0; round < 200; round++) {
+			runRound("CM-healthy", n -> RTT, n -> false);
+			// above 4 calls in flight the CM slows down, above 6 it fails
+			runRound("CM-overloaded", n -> n <= 4 ? RTT : RTT * n / 2, n -> n > 6);
+		}
+
+		assertThat(limiter.getLimit("CM-healthy")).isEqualTo(64);
+		assertThat(limiter.getLimit("CM-overloaded")).isBetween(1, 5);
+		assertThat(meterRegistry.get("upstream.concurrency.limit").tag("upstream", "CM-overloaded").gauge().value())
+			.isEqualTo(limiter.getLimit("CM-overloaded"));
+		assertThat(meterRegistry.get("upstream.concurrency.inflight").tag("upstream", "CM-healthy").gauge().value()).isZero();
+		assertThat(meterRegistry.get("upstream.rtt.baseline").tag("upstream", "CM-healthy").gauge().value()).isEqualTo(10.0);
+		assertThat(meterRegistry.get("upstream.call.rtt").tag("upstream", "CM-healthy").timer().count()).isGreaterThan(200);
+	}
+
+	@Test
+	void overloadErrorsHalveTheLimitButClientErrorsDoNot() throws InterruptedException {
+		limiter.acquire("CM1").fail(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not Found", null, null, null));
+		assertThat(limiter.getLimit("CM1")).isEqualTo(8);
+
+		limiter.acquire("CM1").fail(HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE, "Unavailable", null, null, null));
+		assertThat(limiter.getLimit("CM1")).isEqualTo(4);
+		limiter.acquire("CM1").fail(new ResourceAccessException("Read timed out"));
+		limiter.acquire("CM1").complete(HttpStatus.TOO_MANY_REQUESTS);
+		limiter.acquire("CM1").complete(HttpStatus.INTERNAL_SERVER_ERROR);
+		assertThat(limiter.getLimit("CM1")).isEqualTo(1);
+		assertThat(limiter.getLimit("CM2")).isEqualTo(8);
+	}
+
+	@Test
+	void callersWaitForAFreeSlotUntilTheTimeout() throws Exception {
+		ReflectionTestUtils.setField(limiter, "initialLimit", 2);
+		ReflectionTestUtils.setField(limiter, "acquireTimeoutMs", 100L);
+		CmConcurrencyLimiter.Permit first = limiter.acquire("CM1");
+		limiter.acquire("CM1");
+
+		assertThatThrownBy(() -> limiter.acquire("CM1")).isInstanceOf(CmConcurrencyLimiter.LimitExceededException.class);
+
+		CompletableFuture<CmConcurrencyLimiter.Permit> waiting = CompletableFuture.supplyAsync(() -> {
+			try {
+				return limiter.acquire("CM1");
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		Thread.sleep(20);
+		assertThat(waiting).isNotDone();
+		first.success();
+		assertThat(waiting.get(1, TimeUnit.SECONDS)).isNotNull();
+	}
+
+	/**
+	 * Starts as many calls as the limit allows, then completes them with the simulated outcome
+	 * @param rtt RTT of a call by the number of calls in flight
+	 * @param overloaded Whether a call fails by the number of calls in flight
+	 */
+	private void runRound(String upstream, IntToLongFunction rtt, IntPredicate overloaded) throws InterruptedException {
+		int inFlight = limiter.getLimit(upstream);
+		List<CmConcurrencyLimiter.Permit> permits = new ArrayList<>();
+		for (int i = 0; i < inFlight; i++) {
+			permits.add(limiter.acquire(upstream));
+		}
+		for (CmConcurrencyLimiter.Permit permit : permits) {
+			permit.release(rtt.applyAsLong(inFlight), overloaded.test(inFlight));
+		}
+	}
+
+}
@@ -0,0 +1,235 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.ExtensionSet;
+import com.amfk.starfish.sync.dto.SiteWriteCommand;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class DatabaseUpdateServiceTest {
+
+	private final JdbcTemplate jdbcTemplate = new EmbeddedSyncDatabase().withPbxTables().jdbcTemplate();
+
+	@Test
+	void batchedWriteInsertsOnceAndSkipsOnRepeat() {
+		DatabaseUpdateService service = newService(jdbcTemplate, true);
+		SiteWriteCommand command = command("wa-avapoc2001", "CM1", 20);
+
+		assertThat(service.applyWriteCommand(command)).isTrue();
+		assertThat(service.applyWriteCommand(command)).isTrue();
+
+		assertThat(count("pbx_system")).isEqualTo(1);
+		assertThat(count("pbx_number_range")).isEqualTo(20);
+		assertThat(jdbcTemplate.queryForObject("SELECT COUNT(DISTINCT phone_number_type) FROM pbx_number_range",
+			Integer.class)).isEqualTo(2);
+	}
+
+	@Test
+	void batchedWriteMatchesRowByRowWrite() {
+		JdbcTemplate legacyJdbcTemplate = new EmbeddedSyncDatabase().withPbxTables().jdbcTemplate();
+		SiteWriteCommand command = command("wa-avapoc2001", "CM2", 10);
+
+		newService(jdbcTemplate, true).applyWriteCommand(command);
+		newService(legacyJdbcTemplate, false).applyWriteCommand(command);
+
+		String rangesSql = "SELECT range_from, range_to, phone_number_type FROM pbx_number_range ORDER BY range_from";
+		assertThat(jdbcTemplate.queryForList(rangesSql)).isEqualTo(legacyJdbcTemplate.queryForList(rangesSql));
+		String systemSql = "SELECT physical_pbx, remark, aem_pbx FROM pbx_system";
+		assertThat(jdbcTemplate.queryForList(systemSql)).isEqualTo(legacyJdbcTemplate.queryForList(systemSql));
+	}
+
+	@Test
+	void batchedWriteRoundTripsDoNotGrowWithRangeCount() {
+		assertThat(jdbcCalls(true, "site-a", 5)).isEqualTo(jdbcCalls(true, "site-b", 100));
+		assertThat(jdbcCalls(false, "site-c", 100)).isGreaterThan(jdbcCalls(false, "site-d", 5));
+	}
+
+	@Test
+	void onlyMissingRangesAreInserted() {
+		PbxBatchWriter writer = new PbxBatchWriter(jdbcTemplate);
+		writer.writePbxSystem("wa-avapoc2001", "CM1", "2026-01-01 00:00:00");
+		int systemId = jdbcTemplate.queryForObject("SELECT id FROM pbx_system", Integer.class);
+		List<PbxBatchWriter.RangeRow> first = List.of(new PbxBatchWriter.RangeRow("1000", "1099", 1));
+		List<PbxBatchWriter.RangeRow> second = List.of(new PbxBatchWriter.RangeRow("1000", "1099", 1),
+			new PbxBatchWriter.RangeRow("2000", "2099", 1));
+
+		assertThat(writer.writeNumberRanges(systemId, first, "2026-01-01 00:00:00"))
+			.isEqualTo(new PbxBatchWriter.RangeCounts(1, 0, 0));
+		assertThat(writer.writeNumberRanges(systemId, second, "2026-01-02 00:00:00"))
+			.isEqualTo(new PbxBatchWriter.RangeCounts(1, 1, 0));
+		assertThat(jdbcTemplate.queryForList("SELECT log_updated_on FROM pbx_number_range ORDER BY range_from", String.class))
+			.containsExactly("2026-01-01 00:00:00", "2026-01-02 00:00:00");
+	}
+
+	@Test
+	void pbxSystemIsUpdatedOnlyWhenAemPbxDiffers() {
+		PbxBatchWriter writer = new PbxBatchWriter(jdbcTemplate);
+
+		assertThat(writer.writePbxSystem("wa-avapoc2001", "CM1", "2026-01-01 00:00:00")).isEqualTo(PbxBatchWriter.RowChange.INSERTED);
+		assertThat(writer.writePbxSystem("wa-avapoc2001", "CM1", "2026-01-02 00:00:00")).isEqualTo(PbxBatchWriter.RowChange.UNCHANGED);
+		jdbcTemplate.update("UPDATE pbx_system SET aem_pbx = 'renamed'");
+		assertThat(writer.writePbxSystems(List.of(new PbxBatchWriter.SystemRow("wa-avapoc2001", "CM1"),
+			new PbxBatchWriter.SystemRow("wa-avapoc2002", "CM1")), "2026-01-03 00:00:00"))
+			.containsExactly(PbxBatchWriter.RowChange.UPDATED, PbxBatchWriter.RowChange.INSERTED);
+
+		assertThat(jdbcTemplate.queryForList("SELECT aem_pbx, log_updated_on FROM pbx_system ORDER BY physical_pbx"))
+			.extracting(row -> row.get("aem_pbx") + " " + row.get("log_updated_on"))
+			.containsExactly("wa-avapoc2001 2026-01-03 00:00:00.0", "wa-avapoc2002 2026-01-03 00:00:00.0");
+	}
+
+	@Test
+	void reservedExtensionsAreDiffedAgainstStoredSet() {
+		PbxBatchWriter writer = new PbxBatchWriter(jdbcTemplate);
+		writer.writePbxSystem("wa-avapoc2001", "CM1", "2026-01-01 00:00:00");
+		int systemId = jdbcTemplate.queryForObject("SELECT id FROM pbx_system", Integer.class);
+
+		assertThat(writer.syncReservedExtensions(systemId, ExtensionSet.of("1000", List.of("1001", "1002", "1002", "1003")), "2026-01-01 00:00:00"))
+			.isEqualTo(new PbxBatchWriter.ReservedCounts(3, 0));
+		assertThat(writer.syncReservedExtensions(systemId, ExtensionSet.of("1000", List.of("1002", "1003", "1004")), "2026-01-02 00:00:00"))
+			.isEqualTo(new PbxBatchWriter.ReservedCounts(1, 2));
+
+		assertThat(jdbcTemplate.queryForList("SELECT extensions FROM pbx_number_reserved ORDER BY extensions", String.class))
+			.containsExactly("1001", "1002", "1003", "1004");
+		// kept extensions keep their reservation times
+		assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM pbx_number_reserved WHERE reserve_start_time = '2026-01-02 00:00:00'",
+			Integer.class)).isEqualTo(1);
+	}
+
+	@Test
+	void unchangedEntryIsOnlyMarkedSeen() {
+		for (boolean batched : new boolean[] {true, false}) {
+			JdbcTemplate database = new EmbeddedSyncDatabase().withPbxTables().jdbcTemplate();
+			DatabaseUpdateService service = newService(database, batched);
+			RowWriteStats stats = (RowWriteStats) ReflectionTestUtils.getField(service, "rowWriteStats");
+			SiteWriteCommand command = command("wa-avapoc2001", "CM1", 4, 25);
+
+			assertThat(service.applyWriteCommand(command)).isTrue();
+			database.update("UPDATE pbx_system SET log_updated_on = '2000-01-01 00:00:00'");
+			database.update("UPDATE pbx_number_range SET log_updated_on = '2000-01-01 00:00:00'");
+			database.update("UPDATE pbx_number_reserved SET reserve_start_time = '2000-01-01 00:00:00'");
+			database.update("UPDATE sync_pbx_system_seen SET last_seen_on = '2000-01-01 00:00:00'");
+			RowWriteStats.Snapshot first = stats.snapshot();
+			assertThat(first).isEqualTo(new RowWriteStats.Snapshot(1 + 4 + 100, 0));
+
+			assertThat(service.applyWriteCommand(command)).isTrue();
+
+			assertThat(stats.snapshot().since(first)).isEqualTo(new RowWriteStats.Snapshot(0, 1 + 4 + 100));
+			for (String sql : List.of("SELECT COUNT(*) FROM pbx_system WHERE log_updated_on > '2000-01-01 00:00:00'",
+				"SELECT COUNT(*) FROM pbx_number_range WHERE log_updated_on > '2000-01-01 00:00:00'",
+				"SELECT COUNT(*) FROM pbx_number_reserved WHERE reserve_start_time > '2000-01-01 00:00:00'")) {
+				assertThat(database.queryForObject(sql, Integer.class)).isZero();
+			}
+			assertThat(database.queryForObject("SELECT COUNT(*) FROM sync_pbx_system_seen WHERE last_seen_on > '2000-01-01 00:00:00'",
+				Integer.class)).isEqualTo(1);
+		}
+	}
+
+	@Test
+	void reservedExtensionRoundTripsDoNotGrowWithExtensionCount() {
+		assertThat(jdbcCalls(command("site-a", "CM1", 2, 10))).isEqualTo(jdbcCalls(command("site-b", "CM1", 2, 1000)));
+	}
+
+	private int jdbcCalls(SiteWriteCommand command) {
+		JdbcTemplate counting = spy(jdbcTemplate);
+		DatabaseUpdateService service = newService(counting, true);
+		service.applyWriteCommand(command);
+		service.applyWriteCommand(command);
+		return mockingDetails(counting).getInvocations().size();
+	}
+
+	private int jdbcCalls(boolean batched, String siteName, int ranges) {
+		JdbcTemplate counting = spy(jdbcTemplate);
+		newService(counting, batched).applyWriteCommand(command(siteName, "CM1", ranges));
+		return mockingDetails(counting).getInvocations().size();
+	}
+
+	private int count(String table) {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+	}
+
+	@Test
+	void failedSiteIsRolledBackCompletely() {
+		DatabaseUpdateService service = newService(jdbcTemplate, true);
+		SiteWriteCommand command = new SiteWriteCommand("wa-avapoc2001", "CM1", List.of(new SiteWriteCommand.Range(
+			"internal", "1000", "1099", List.of("1001", "1002", "x".repeat(100)))));
+
+		assertThat(service.applyWriteCommand(command)).isFalse();
+
+		assertThat(count("pbx_system")).isZero();
+		assertThat(count("pbx_number_range")).isZero();
+		assertThat(count("pbx_number_reserved")).isZero();
+	}
+
+	@Test
+	void largeReservedSetsCommitInChunks() {
+		DataSourceTransactionManager transactionManager = spy(new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+		DatabaseUpdateService service = newService(jdbcTemplate, true);
+		ReflectionTestUtils.setField(service, "transactionTemplate", new TransactionTemplate(transactionManager));
+		ReflectionTestUtils.setField(service, "commitChunkSize", 400);
+
+		assertThat(service.applyWriteCommand(command("wa-avapoc2001", "CM1", 2, 500))).isTrue();
+
+		verify(transactionManager, times(3)).commit(any());
+		assertThat(count("pbx_number_reserved")).isEqualTo(1000);
+	}
+
+	@Test
+	void failedLaterChunkKeepsEarlierCommits() {
+		DatabaseUpdateService service = newService(jdbcTemplate, true);
+		ReflectionTestUtils.setField(service, "commitChunkSize", 2);
+		SiteWriteCommand command = new SiteWriteCommand("wa-avapoc2001", "CM1", List.of(new SiteWriteCommand.Range(
+			"internal", "1000", "1099", List.of("1001", "1002", "1003", "x".repeat(100)))));
+
+		assertThat(service.applyWriteCommand(command)).isFalse();
+
+		assertThat(count("pbx_system")).isEqualTo(1);
+		assertThat(count("pbx_number_range")).isEqualTo(1);
+		assertThat(count("pbx_number_reserved")).isEqualTo(2);
+	}
+
+	static DatabaseUpdateService newService(JdbcTemplate jdbcTemplate, boolean batched) {
+		DatabaseUpdateService service = new DatabaseUpdateService();
+		ReflectionTestUtils.setField(service, "transactionTemplate",
+			new TransactionTemplate(new DataSourceTransactionManager(jdbcTemplate.getDataSource())));
+		ReflectionTestUtils.setField(service, "jdbcTemplate", jdbcTemplate);
+		ReflectionTestUtils.setField(service, "pbxBatchWriter", new PbxBatchWriter(jdbcTemplate));
+		ReflectionTestUtils.setField(service, "staleRowReconciler", new StaleRowReconciler(jdbcTemplate));
+		ReflectionTestUtils.setField(service, "reservedBulkLoader", new ReservedBulkLoader(jdbcTemplate));
+		ReflectionTestUtils.setField(service, "rowWriteStats", new RowWriteStats());
+		ReflectionTestUtils.setField(service, "referenceDataCache", new ReferenceDataCache(jdbcTemplate, new SimpleMeterRegistry(), 100));
+		ReflectionTestUtils.setField(service, "batchWriteEnabled", batched);
+		return service;
+	}
+
+	static SiteWriteCommand command(String siteName, String cmName, int ranges) {
+		return command(siteName, cmName, ranges, 0);
+	}
+
+	static SiteWriteCommand command(String siteName, String cmName, int ranges, int extensionsPerRange) {
+		List<SiteWriteCommand.Range> converted = new ArrayList<>();
+		for (int i = 0; i < ranges; i++) {
+			int lower = 100_000 + i * 10_000;
+			List<String> extensions = new ArrayList<>();
+			for (int e = 0; e < extensionsPerRange; e++) {
+				extensions.add(String.valueOf(lower + e));
+			}
+			converted.add(new SiteWriteCommand.Range(i % 2 == 0 ? "internal" : "External",
+				String.valueOf(lower), String.valueOf(lower + 9_999), extensions));
+		}
+		return new SiteWriteCommand(siteName, cmName, converted);
+	}
+
+}
@@ -0,0 +1,43 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.config.SyncSchemaInitializer;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+import java.util.UUID;
+
+/**
+ * In-memory H2 database in MySQL mode with the sync bookkeeping tables, shared by everything
+ * created from the same instance (e.g. several simulated service replicas).
+ */
+final class EmbeddedSyncDatabase {
+
+	private final DataSource dataSource;
+
+	EmbeddedSyncDatabase() {
+		String url = "jdbc:h2:mem:sync-" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+		this.dataSource = new DriverManagerDataSource(url, "sa", "");
+		new SyncSchemaInitializer(dataSource).initializeSchema();
+	}
+
+	/**
+	 * Adds test copies of the pbx_* tables with the unique keys of db/pbx-upsert-keys.sql.
+	 */
+	EmbeddedSyncDatabase withPbxTables() {
+		new ResourceDatabasePopulator(new ClassPathResource("db/pbx-test-schema.sql"),
+			new ClassPathResource("db/pbx-upsert-keys.sql")).execute(dataSource);
+		return this;
+	}
+
+	DataSource dataSource() {
+		return dataSource;
+	}
+
+	JdbcTemplate jdbcTemplate() {
+		return new JdbcTemplate(dataSource);
+	}
+
+}
@@ -0,0 +1,160 @@
+package com.amfk.starfish.sync.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Simulates several service replicas competing for job leases in one embedded database.
+ */
+class JobLeaseServiceTest {
+
+	private JdbcTemplate jdbcTemplate;
+	private final List<JobLeaseService> replicas = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		jdbcTemplate = new EmbeddedSyncDatabase().jdbcTemplate();
+	}
+
+	@AfterEach
+	void tearDown() {
+		replicas.forEach(JobLeaseService::shutdown);
+	}
+
+	@Test
+	void jobRunsOnOneReplicaAtATime() throws Exception {
+		JobLeaseService nodeA = replica("node-a", 120, 30);
+		JobLeaseService nodeB = replica("node-b", 120, 30);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch finish = new CountDownLatch(1);
+
+		CompletableFuture<Boolean> runOnA = CompletableFuture.supplyAsync(() -> nodeA.runExclusively("site-sync", () -> {
+			started.countDown();
+			await(finish);
+		}));
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+		AtomicBoolean ranOnB = new AtomicBoolean();
+		assertThat(nodeB.runExclusively("site-sync", () -> ranOnB.set(true))).isFalse();
+		assertThat(nodeB.runExclusively("resource-sync", () -> { })).isTrue();
+
+		finish.countDown();
+		assertThat(runOnA.get(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(ranOnB).isFalse();
+	}
+
+	@Test
+	void completedPeriodIsNotRunAgain() {
+		JobLeaseService nodeA = replica("node-a", 120, 30);
+		JobLeaseService nodeB = replica("node-b", 120, 30);
+		AtomicInteger runs = new AtomicInteger();
+
+		assertThat(nodeA.runExclusively("site-sync", runs::incrementAndGet)).isTrue();
+		// node-b fires later in the same period, after node-a has finished and released the lease
+		assertThat(nodeB.runExclusively("site-sync", runs::incrementAndGet)).isFalse();
+		assertThat(nodeA.runExclusively("site-sync", runs::incrementAndGet)).isFalse();
+		assertThat(runs).hasValue(1);
+
+		// the next period is free again
+		jdbcTemplate.update("UPDATE sync_job_lease SET completed_period = completed_period - 1 WHERE job_name = 'site-sync'");
+		assertThat(nodeB.runExclusively("site-sync", runs::incrementAndGet)).isTrue();
+		assertThat(runs).hasValue(2);
+	}
+
+	@Test
+	void failedRunLeavesPeriodOpen() {
+		JobLeaseService nodeA = replica("node-a", 120, 30);
+		JobLeaseService nodeB = replica("node-b", 120, 30);
+
+		assertThatThrownBy(() -> nodeA.runExclusively("site-sync", () -> {
+			throw new IllegalStateException("simulated sync failure");
+		})).isInstanceOf(IllegalStateException.class);
+
+		assertThat(nodeB.runExclusively("site-sync", () -> { })).isTrue();
+		assertThat(jdbcTemplate.queryForObject("SELECT completed_on FROM sync_job_lease WHERE job_name = 'site-sync'",
+			Timestamp.class)).isNotNull();
+	}
+
+	@Test
+	void jobDoesNotOverlapWithItsOwnPreviousRun() {
+		JobLeaseService nodeA = replica("node-a", 120, 30);
+		AtomicBoolean nestedRan = new AtomicBoolean(true);
+
+		boolean ran = nodeA.runExclusively("site-sync",
+			() -> nestedRan.set(nodeA.runExclusively("site-sync", () -> { })));
+
+		assertThat(ran).isTrue();
+		assertThat(nestedRan).isFalse();
+	}
+
+	@Test
+	void expiredLeaseOfDeadReplicaFailsOver() {
+		JobLeaseService nodeB = replica("node-b", 120, 30);
+		Timestamp past = Timestamp.valueOf(LocalDateTime.now().minusMinutes(5));
+		jdbcTemplate.update("INSERT INTO sync_job_lease (job_name, owner_id, lease_until, heartbeat_on) VALUES (?, ?, ?, ?)",
+			"site-sync", "node-a", past, past);
+
+		assertThat(nodeB.runExclusively("site-sync", () -> { })).isTrue();
+		assertThat(jdbcTemplate.queryForObject("SELECT owner_id FROM sync_job_lease WHERE job_name = 'site-sync'",
+			String.class)).isNull();
+	}
+
+	@Test
+	void heartbeatKeepsLeaseAliveWhileJobRuns() {
+		JobLeaseService nodeA = replica("node-a", 2, 1);
+		JobLeaseService nodeB = replica("node-b", 2, 1);
+		AtomicBoolean takenOver = new AtomicBoolean();
+
+		// the job outlives the initial 2 second lease; the heartbeat must keep node-b out
+		nodeA.runExclusively("site-sync", () -> {
+			for (int i = 0; i < 4; i++) {
+				sleep(1000);
+				takenOver.compareAndSet(false, nodeB.runExclusively("site-sync", () -> { }));
+			}
+		});
+
+		assertThat(takenOver).isFalse();
+	}
+
+	private JobLeaseService replica(String instanceId, long leaseSeconds, long heartbeatSeconds) {
+		JobLeaseService service = new JobLeaseService(jdbcTemplate, new SyncInstanceIdentity(instanceId));
+		ReflectionTestUtils.setField(service, "leaseEnabled", true);
+		ReflectionTestUtils.setField(service, "leaseSeconds", leaseSeconds);
+		ReflectionTestUtils.setField(service, "heartbeatSeconds", heartbeatSeconds);
+		replicas.add(service);
+		return service;
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package com.amfk.starfish.sync.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NumberRangeIdSourceTest {
+
+	private final AtomicInteger queries = new AtomicInteger();
+	private final JdbcTemplate jdbcTemplate = new JdbcTemplate(new EmbeddedSyncDatabase().withPbxTables().dataSource()) {
+		@Override
+		public <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... args) {
+			queries.incrementAndGet();
+			return super.query(sql, rowMapper, args);
+		}
+	};
+	private final NumberRangeIdSource source = new NumberRangeIdSource(jdbcTemplate);
+
+	NumberRangeIdSourceTest() {
+		jdbcTemplate.update("INSERT INTO pbx_system (id, physical_pbx, remark) VALUES (1, 'site-1', 'CM1'), (2, 'site-2', 'CM1'), (3, 'site-3', 'CM2')");
+		// phone_number_type 1 is internal, 2 is external; site-2 repeats the 1000-1004 range of site-1
+		jdbcTemplate.update("INSERT INTO pbx_number_range (id_pbx_system, range_from, range_to, phone_number_type) VALUES "
+			+ "(1, '1000', '1004', 1), (2, '1000', '1004', 1), (1, '0098', '0101', 1), (1, 'A100', 'A199', 1), "
+			+ "(1, '2000', '9999999', 1), (1, '5000', '5001', 2), (3, '7000', '7001', 1)");
+		ReflectionTestUtils.setField(source, "pageSize", 2);
+		ReflectionTestUtils.setField(source, "maxIdsPerRange", 1000L);
+	}
+
+	@Test
+	void rangesAreCutIntoChunksOfDistinctIds() {
+		List<List<String>> chunks = source.chunks("CM1", List.of("INTERNAL"), 3)
+			.map(List::copyOf)
+			.collect(Collectors.toList());
+
+		// non-numeric and oversized ranges are skipped; lower bound width is kept
+		assertThat(chunks).containsExactly(List.of("0098", "0099", "0100"), List.of("0101"),
+			List.of("1000", "1001", "1002"), List.of("1003", "1004"));
+		assertThat(source.chunks("CM1", List.of("internal", "external"), 10).mapToInt(List::size).sum()).isEqualTo(11);
+		assertThat(source.chunks("CM3", List.of("internal"), 10)).isEmpty();
+	}
+
+	@Test
+	void rangePagesAreReadOnDemand() {
+		queries.set(0);
+
+		assertThat(source.chunks("CM1", List.of("internal"), 3).findFirst()).contains(List.of("0098", "0099", "0100"));
+		assertThat(queries.get()).isEqualTo(1);
+
+		queries.set(0);
+		assertThat(source.chunks("CM1", List.of("internal"), 3).count()).isEqualTo(4);
+		// four distinct internal ranges of CM1 at two per page, then an empty page
+		assertThat(queries.get()).isEqualTo(3);
+	}
+
+}
@@ -0,0 +1,144 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.SiteWriteCommand;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+class PbxWriteBehindBufferTest {
+
+	private final JdbcTemplate jdbcTemplate = new EmbeddedSyncDatabase().withPbxTables().jdbcTemplate();
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final DatabaseUpdateService converter = DatabaseUpdateServiceTest.newService(jdbcTemplate, true);
+
+	@Test
+	void coalescedFlushWritesSameRowsAsDirectWrite() throws InterruptedException {
+		JdbcTemplate directJdbcTemplate = new EmbeddedSyncDatabase().withPbxTables().jdbcTemplate();
+		DatabaseUpdateService direct = DatabaseUpdateServiceTest.newService(directJdbcTemplate, true);
+		List<SiteWriteCommand> commands = List.of(
+			DatabaseUpdateServiceTest.command("wa-avapoc2001", "CM1", 4, 5),
+			DatabaseUpdateServiceTest.command("wa-avapoc2001", "CM1", 4, 5),
+			DatabaseUpdateServiceTest.command("wa-avapoc2002", "CM1", 2, 3));
+		PbxWriteBehindBuffer buffer = newBuffer(new PbxBatchWriter(jdbcTemplate), 1000, 1000, 60_000);
+
+		List<CompletableFuture<Boolean>> flushes = new ArrayList<>();
+		for (SiteWriteCommand command : commands) {
+			flushes.add(buffer.submit(converter.toEntryRows(command)));
+			direct.applyWriteCommand(command);
+		}
+		buffer.flush();
+
+		assertThat(flushes).allMatch(CompletableFuture::join);
+		for (String sql : List.of(
+			"SELECT physical_pbx, remark, aem_pbx FROM pbx_system ORDER BY physical_pbx",
+			"SELECT s.physical_pbx, r.range_from, r.range_to, r.phone_number_type FROM pbx_number_range r"
+				+ " JOIN pbx_system s ON s.id = r.id_pbx_system ORDER BY s.physical_pbx, r.range_from",
+			"SELECT s.physical_pbx, r.extensions FROM pbx_number_reserved r"
+				+ " JOIN pbx_system s ON s.id = r.pbx_system_id ORDER BY s.physical_pbx, r.extensions")) {
+			assertThat(jdbcTemplate.queryForList(sql)).isEqualTo(directJdbcTemplate.queryForList(sql));
+		}
+		// the repeated entry is one pbx_system row, four ranges and twenty extensions
+		assertThat(meterRegistry.get("site.sync.write.behind.coalesced.rows").counter().count()).isEqualTo(25);
+		assertThat(meterRegistry.get("site.sync.write.behind.batch.rows").summary().totalAmount()).isEqualTo(34);
+		assertThat(buffer.getBufferedRows()).isZero();
+	}
+
+	@Test
+	void fullBufferBlocksSubmittersUntilFlushed() throws InterruptedException {
+		int capacity = 60;
+		PbxBatchWriter slowWriter = spy(new PbxBatchWriter(jdbcTemplate));
+		doAnswer(invocation -> {
+			Thread.sleep(20);
+			return invocation.callRealMethod();
+		}).when(slowWriter).writePbxSystems(any(), anyString());
+		PbxWriteBehindBuffer buffer = newBuffer(slowWriter, capacity, 20, 5);
+
+		AtomicInteger peakBuffered = new AtomicInteger();
+		List<CompletableFuture<Boolean>> flushes = new ArrayList<>();
+		long start = System.nanoTime();
+		for (int site = 0; site < 40; site++) {
+			// one pbx_system row, two ranges and eight extensions
+			flushes.add(buffer.submit(converter.toEntryRows(DatabaseUpdateServiceTest.command("site-" + site, "CM1", 2, 4))));
+			peakBuffered.accumulateAndGet(buffer.getBufferedRows(), Math::max);
+		}
+		long submitMs = (System.nanoTime() - start) / 1_000_000;
+		buffer.flush();
+
+		assertThat(flushes).allMatch(CompletableFuture::join);
+		assertThat(peakBuffered.get()).isLessThanOrEqualTo(capacity);
+		assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM pbx_number_reserved", Integer.class)).isEqualTo(40 * 8);
+		// 440 rows through a 60 row buffer need several 20 ms flushes before the last submit returns
+		assertThat(submitMs).isGreaterThanOrEqualTo(100);
+		assertThat(meterRegistry.get("site.sync.write.behind.flush").tag("result", "success").timer().count())
+			.isGreaterThanOrEqualTo(440 / capacity);
+	}
+
+	@Test
+	void closeFlushesBufferedRows() throws InterruptedException {
+		PbxWriteBehindBuffer buffer = newBuffer(new PbxBatchWriter(jdbcTemplate), 1000, 1000, 60_000);
+		CompletableFuture<Boolean> written = buffer.submit(converter.toEntryRows(
+			DatabaseUpdateServiceTest.command("wa-avapoc2001", "CM1", 3, 2)));
+
+		buffer.close();
+
+		assertThat(written).isCompletedWithValue(true);
+		assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM pbx_number_range", Integer.class)).isEqualTo(3);
+		assertThatThrownBy(() -> buffer.submit(converter.toEntryRows(
+			DatabaseUpdateServiceTest.command("wa-avapoc2002", "CM1", 1))))
+			.isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	void stoppedWriterFailsInFlightBatch() throws Exception {
+		PbxBatchWriter crashingWriter = spy(new PbxBatchWriter(jdbcTemplate));
+		doThrow(new AssertionError("simulated writer crash")).doCallRealMethod()
+			.when(crashingWriter).writePbxSystems(any(), anyString());
+		PbxWriteBehindBuffer buffer = newBuffer(crashingWriter, 1000, 1, 60_000);
+
+		CompletableFuture<Boolean> lost = buffer.submit(converter.toEntryRows(
+			DatabaseUpdateServiceTest.command("wa-avapoc2001", "CM1", 3, 2)));
+
+		// the batch dies with its writer thread instead of leaving the caller waiting
+		assertThatThrownBy(() -> lost.get(5, TimeUnit.SECONDS))
+			.isInstanceOf(ExecutionException.class)
+			.hasCauseInstanceOf(IllegalStateException.class);
+		assertThat(buffer.getBufferedRows()).isZero();
+
+		// the next submit starts a new writer
+		CompletableFuture<Boolean> written = buffer.submit(converter.toEntryRows(
+			DatabaseUpdateServiceTest.command("wa-avapoc2002", "CM1", 1)));
+		assertThat(written.get(5, TimeUnit.SECONDS)).isTrue();
+		buffer.close();
+	}
+
+	private PbxWriteBehindBuffer newBuffer(PbxBatchWriter writer, int capacityRows, int flushRows, long flushIntervalMs) {
+		PbxWriteBehindBuffer buffer = new PbxWriteBehindBuffer(writer,
+			new ReferenceDataCache(jdbcTemplate, new SimpleMeterRegistry(), 100),
+			new TransactionTemplate(new DataSourceTransactionManager(jdbcTemplate.getDataSource())), new RowWriteStats(),
+			meterRegistry);
+		ReflectionTestUtils.setField(buffer, "capacityRows", capacityRows);
+		ReflectionTestUtils.setField(buffer, "flushRows", flushRows);
+		ReflectionTestUtils.setField(buffer, "flushIntervalMs", flushIntervalMs);
+		return buffer;
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.amfk.starfish.sync.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReferenceDataCacheTest {
+
+	private JdbcTemplate jdbcTemplate;
+
+	@BeforeEach
+	void setUp() {
+		jdbcTemplate = new EmbeddedSyncDatabase().withPbxTables().jdbcTemplate();
+		for (int i = 1; i <= 5; i++) {
+			insertPbxSystem("site-" + i, "CM1");
+		}
+	}
+
+	@Test
+	void preloadedLookupsDoNotTouchTheDatabase() {
+		ReferenceDataCache cache = newCache(100);
+		cache.preload();
+
+		assertThat(cache.getPhoneNumberTypeId("internal")).isEqualTo(1);
+		assertThat(cache.getPhoneNumberTypeId("EXTERNAL")).isEqualTo(2);
+		assertThat(cache.getPbxSystemId("site-3", "CM1")).isNotNull();
+
+		assertThat(cache.getStats()).containsEntry("phone-number-type", Map.of("hit", 2L, "miss", 0L))
+			.containsEntry("pbx-system", Map.of("hit", 1L, "miss", 0L));
+	}
+
+	@Test
+	void missesAreLoadedOnceAndThenServedFromTheCache() {
+		ReferenceDataCache cache = newCache(100);
+
+		Integer first = cache.getPbxSystemId("site-1", "CM1");
+		assertThat(cache.getPbxSystemId("site-1", "CM1")).isEqualTo(first);
+		assertThat(cache.getPbxSystemId("site-1", "CM2")).isNull();
+		assertThat(cache.getPhoneNumberTypeId("Internal")).isEqualTo(1);
+		assertThat(cache.getPhoneNumberTypeId("internal")).isEqualTo(1);
+
+		assertThat(cache.getStats()).containsEntry("phone-number-type", Map.of("hit", 1L, "miss", 1L))
+			.containsEntry("pbx-system", Map.of("hit", 1L, "miss", 2L));
+	}
+
+	@Test
+	void invalidationPicksUpNewlyInsertedSystem() {
+		ReferenceDataCache cache = newCache(100);
+		assertThat(cache.getPbxSystemId("site-new", "CM1")).isNull();
+
+		insertPbxSystem("site-new", "CM1");
+		cache.invalidatePbxSystem("site-new", "CM1");
+
+		assertThat(cache.getPbxSystemId("site-new", "CM1")).isNotNull();
+	}
+
+	@Test
+	void pbxSystemCacheIsBounded() {
+		ReferenceDataCache cache = newCache(3);
+		cache.preload();
+		assertThat(cache.pbxSystemCount()).isEqualTo(3);
+
+		for (int i = 1; i <= 5; i++) {
+			cache.getPbxSystemId("site-" + i, "CM1");
+		}
+		assertThat(cache.pbxSystemCount()).isEqualTo(3);
+	}
+
+	private ReferenceDataCache newCache(int maxPbxSystems) {
+		return new ReferenceDataCache(jdbcTemplate, new SimpleMeterRegistry(), maxPbxSystems);
+	}
+
+	private void insertPbxSystem(String siteName, String cmName) {
+		jdbcTemplate.update("INSERT INTO pbx_system (physical_pbx, remark, aem_pbx) VALUES (?, ?, ?)", siteName, cmName, siteName);
+	}
+
+}
@@ -0,0 +1,188 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.ExtensionSet;
+import com.amfk.starfish.sync.dto.SiteWriteCommand;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReservedBulkLoaderTest {
+
+	private static final int BENCHMARK_RANGES = 3;
+	private static final int BENCHMARK_EXTENSIONS_PER_RANGE = 10_000;
+
+	@Test
+	void stagedMergeMatchesChunkedWrite() {
+		JdbcTemplate staged = new EmbeddedSyncDatabase().withPbxTables().jdbcTemplate();
+		JdbcTemplate chunked = new EmbeddedSyncDatabase().withPbxTables().jdbcTemplate();
+		DatabaseUpdateService bulkService = newService(staged, 1);
+		DatabaseUpdateService chunkedService = newService(chunked, 0);
+
+		// second write keeps 90, adds 10 and leaves 10 stale
+		for (SiteWriteCommand command : List.of(command(1000, 100), command(1010, 100))) {
+			assertThat(bulkService.applyWriteCommand(command)).isTrue();
+			assertThat(chunkedService.applyWriteCommand(command)).isTrue();
+		}
+
+		String sql = "SELECT extensions FROM pbx_number_reserved ORDER BY extensions";
+		assertThat(staged.queryForList(sql, String.class))
+			.hasSize(100)
+			.isEqualTo(chunked.queryForList(sql, String.class));
+		assertThat(staged.queryForObject("SELECT COUNT(*) FROM sync_reserved_staging", Integer.class)).isZero();
+	}
+
+	@Test
+	void mergeInsertsOnlyMissingRows() {
+		JdbcTemplate jdbcTemplate = new EmbeddedSyncDatabase().withPbxTables().jdbcTemplate();
+		ReservedBulkLoader loader = new ReservedBulkLoader(jdbcTemplate);
+		ReflectionTestUtils.setField(loader, "rowsPerStatement", 7);
+		jdbcTemplate.update("INSERT INTO pbx_number_reserved (pbx_system_id, extensions) VALUES (1, '1001'), (1, '1002'), (2, '1003')");
+
+		String loadId = loader.stage(ExtensionSet.of("1000", List.of("1001", "1002", "1003", "1004", "0999")));
+		assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM sync_reserved_staging", Integer.class)).isEqualTo(5);
+
+		assertThat(loader.merge(1, loadId, 5, "2026-01-01 00:00:00"))
+			.isEqualTo(new PbxBatchWriter.ReservedCounts(3, 2));
+		loader.discard(loadId);
+
+		assertThat(jdbcTemplate.queryForList("SELECT extensions FROM pbx_number_reserved WHERE pbx_system_id = 1 ORDER BY extensions",
+			String.class)).containsExactly("0999", "1001", "1002", "1003", "1004");
+		assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM sync_reserved_staging", Integer.class)).isZero();
+	}
+
+	@Test
+	void stagedMergeBenchmark() {
+		SiteWriteCommand command = DatabaseUpdateServiceTest.command("wa-avapoc2001", "CM1",
+			BENCHMARK_RANGES, BENCHMARK_EXTENSIONS_PER_RANGE);
+		int extensions = BENCHMARK_RANGES * BENCHMARK_EXTENSIONS_PER_RANGE;
+
+		long[] rowByRow = rowByRow(command);
+		long[] chunked = measure(command, 0);
+		long[] staged = measure(command, 1);
+
+		System.out.println("=== RESERVED EXTENSION WRITE (" + extensions + " extensions, H2) ===");
+		System.out.printf("%-24s %12s %12s %14s%n", "path", "first ms", "repeat ms", "round trips");
+		System.out.printf("%-24s %12d %12d %14d%n", "row by row", rowByRow[0], rowByRow[1], rowByRow[2]);
+		System.out.printf("%-24s %12d %12d %14d%n", "diff + JDBC batches", chunked[0], chunked[1], chunked[2]);
+		System.out.printf("%-24s %12d %12d %14d%n", "staging + set merge", staged[0], staged[1], staged[2]);
+
+		assertThat(staged[2]).isLessThan(chunked[2] / 100);
+		assertThat(staged[0] + staged[1]).isLessThan(rowByRow[0] + rowByRow[1]);
+	}
+
+	/**
+	 * Writes the command twice (inserts, then an unchanged repeat) through DatabaseUpdateService
+	 * @return First and repeat write in ms, round trips of both
+	 */
+	private static long[] measure(SiteWriteCommand command, int bulkThreshold) {
+		AtomicLong roundTrips = new AtomicLong();
+		JdbcTemplate counting = new JdbcTemplate(countingRoundTrips(
+			new EmbeddedSyncDatabase().withPbxTables().dataSource(), roundTrips));
+		DatabaseUpdateService service = newService(counting, bulkThreshold);
+
+		long start = System.nanoTime();
+		assertThat(service.applyWriteCommand(command)).isTrue();
+		long first = System.nanoTime();
+		assertThat(service.applyWriteCommand(command)).isTrue();
+		long repeat = System.nanoTime();
+
+		long trips = roundTrips.get();
+		assertThat(counting.queryForObject("SELECT COUNT(*) FROM pbx_number_reserved", Integer.class))
+			.isEqualTo(BENCHMARK_RANGES * BENCHMARK_EXTENSIONS_PER_RANGE);
+		return new long[] {(first - start) / 1_000_000, (repeat - first) / 1_000_000, trips};
+	}
+
+	/**
+	 * Counts statement executions, with every statement of a JDBC batch counted separately as
+	 * Connector/J sends them without rewriteBatchedStatements
+	 */
+	private static DataSource countingRoundTrips(DataSource dataSource, AtomicLong roundTrips) {
+		return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[] {DataSource.class},
+			(proxy, method, args) -> {
+				Object result = invoke(method, dataSource, args);
+				return result instanceof Connection connection ? proxy(Connection.class, connection, roundTrips) : result;
+			});
+	}
+
+	private static Object proxy(Class<?> type, Object target, AtomicLong roundTrips) {
+		return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "execute", "executeQuery", "executeUpdate", "addBatch" -> roundTrips.incrementAndGet();
+				default -> { }
+			}
+			Object result = invoke(method, target, args);
+			if (result instanceof PreparedStatement statement) {
+				return proxy(PreparedStatement.class, statement, roundTrips);
+			}
+			return result instanceof Statement statement ? proxy(Statement.class, statement, roundTrips) : result;
+		});
+	}
+
+	private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * The per-extension SELECT COUNT(*) followed by INSERT or UPDATE the service used to issue
+	 * @return First and repeat write in ms, round trips of both
+	 */
+	private static long[] rowByRow(SiteWriteCommand command) {
+		JdbcTemplate jdbcTemplate = new EmbeddedSyncDatabase().withPbxTables().jdbcTemplate();
+		long[] result = new long[3];
+		for (int pass = 0; pass < 2; pass++) {
+			String currentTime = "2026-01-0" + (pass + 1) + " 00:00:00";
+			long start = System.nanoTime();
+			for (SiteWriteCommand.Range range : command.getRanges()) {
+				for (String extension : range.getAvailableExtensions()) {
+					int count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM pbx_number_reserved WHERE pbx_system_id = ? AND extensions = ?",
+						Integer.class, 1, extension);
+					if (count > 0) {
+						jdbcTemplate.update("UPDATE pbx_number_reserved SET reserve_start_time = ?, reserve_end_time = ? WHERE pbx_system_id = ? AND extensions = ?",
+							currentTime, currentTime, 1, extension);
+					} else {
+						jdbcTemplate.update("INSERT INTO pbx_number_reserved (pbx_system_id, extensions, reserve_start_time, reserve_end_time) VALUES (?, ?, ?, ?)",
+							1, extension, currentTime, currentTime);
+					}
+					result[2] += 2;
+				}
+			}
+			result[pass] = (System.nanoTime() - start) / 1_000_000;
+		}
+		return result;
+	}
+
+	private static DatabaseUpdateService newService(JdbcTemplate jdbcTemplate, int bulkThreshold) {
+		DatabaseUpdateService service = DatabaseUpdateServiceTest.newService(jdbcTemplate, true);
+		ReflectionTestUtils.setField(service, "bulkThreshold", bulkThreshold);
+		StaleRowReconciler reconciler = new StaleRowReconciler(jdbcTemplate);
+		ReflectionTestUtils.setField(reconciler, "mode", StaleRowReconciler.MODE_DELETE);
+		ReflectionTestUtils.setField(service, "staleRowReconciler", reconciler);
+		return service;
+	}
+
+	private static SiteWriteCommand command(int firstExtension, int extensions) {
+		List<String> values = new ArrayList<>();
+		for (int i = 0; i < extensions; i++) {
+			values.add(String.valueOf(firstExtension + i));
+		}
+		return new SiteWriteCommand("wa-avapoc2001", "CM1", List.of(new SiteWriteCommand.Range("internal", "1000", "1999", values)));
+	}
+
+}
@@ -0,0 +1,370 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.config.RestClientConfig;
+import com.amfk.starfish.sync.controller.MockApiController;
+import com.amfk.starfish.sync.dto.CmEntry;
+import com.amfk.starfish.sync.dto.SiteDetail;
+import com.amfk.starfish.sync.dto.SiteDto;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ResourceApiServiceTest {
+
+	private final MasterServiceClient masterServiceClient = mock(MasterServiceClient.class);
+	private final MockApiService mockApiService = mock(MockApiService.class);
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final RestTemplate restTemplate = mock(RestTemplate.class);
+	private final JdbcTemplate jdbcTemplate = new EmbeddedSyncDatabase().withPbxTables().jdbcTemplate();
+
+	@Test
+	void allTypesShareOneTopologyDiscovery() {
+		ResourceApiService service = newService(List.of(ResourceType.of("station", "Station", "1000, 1001,1002,"),
+			ResourceType.of("huntgroup", "HuntGroup", "2000,2001,2002"),
+			ResourceType.of("pickupgroup", "PickupGroup", "3000,3001,3002")));
+
+		// sites 1, 2, 5 and 6 have two CMs each; site 3 fails and site 4 has no data; hunt group 2001 always fails
+		assertThat(service.syncAllResources()).isEqualTo("All resources sync completed. Station (Success: 24, Failed: 0), "
+			+ "HuntGroup (Success: 16, Failed: 8), PickupGroup (Success: 24, Failed: 0), Resumed CMs (already done): 0");
+
+		verify(masterServiceClient, times(1)).getSites();
+		verify(mockApiService, times(6)).getSiteDetails(anyString());
+		// one batch request per CM and type
+		verify(restTemplate, times(8 * 3)).exchange(anyString(), eq(HttpMethod.POST), any(HttpEntity.class), eq(Map.class));
+		assertThat(meterRegistry.get("resource.sync.requests").tag("type", "huntgroup").tag("result", "failure")
+			.counter().count()).isEqualTo(8);
+		// every site names its CMs CM1 and CM2, so there is one snapshot per type, CM and fetched ID
+		assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM sync_resource_snapshot", Integer.class)).isEqualTo(3 * 2 * 3 - 2);
+
+		// a repeated run finds every payload unchanged and writes no snapshot
+		double written = meterRegistry.get("resource.snapshot.rows").tag("result", "written").counter().count();
+		service.syncAllResources();
+		assertThat(meterRegistry.get("resource.snapshot.rows").tag("result", "written").counter().count()).isEqualTo(written);
+		assertThat(meterRegistry.get("resource.snapshot.rows").tag("result", "unchanged").counter().count()).isGreaterThanOrEqualTo(64);
+	}
+
+	@Test
+	void newTypeOnlyNeedsRegistration() {
+		ResourceApiService service = newService(List.of(ResourceType.of("station", "Station", "1000"),
+			ResourceType.of("announcement", "Announcement", "4000,4001")));
+
+		assertThat(service.syncAllResources()).isEqualTo("All resources sync completed. Station (Success: 8, Failed: 0), "
+			+ "Announcement (Success: 16, Failed: 0), Resumed CMs (already done): 0");
+		assertThat(service.syncStationResources()).isEqualTo("Station resource sync completed. Success: 8, Failed: 0");
+		// the second run finds the CM names of sites 1, 2, 5 and 6 in the topology cache
+		verify(mockApiService, times(6 + 2)).getSiteDetails(anyString());
+	}
+
+	@Test
+	void rangeTypesEnumerateStoredNumberRanges() {
+		jdbcTemplate.update("INSERT INTO pbx_system (id, physical_pbx, remark) VALUES (1, 'site-1', 'CM1')");
+		jdbcTemplate.update("INSERT INTO pbx_number_range (id_pbx_system, range_from, range_to, phone_number_type) VALUES (1, '1000', '1449', 1)");
+		ResourceApiService service = newService(List.of(ResourceType.of("station", "Station", "9999").withRangeTypes("internal")));
+
+		// sites 1, 2, 5 and 6 each list a CM1 with 450 stations, fetched in chunks of 200; CM2 has no ranges
+		assertThat(service.syncStationResources()).isEqualTo("Station resource sync completed. Success: 1800, Failed: 0");
+		verify(restTemplate, times(4 * 3)).exchange(anyString(), eq(HttpMethod.POST), any(HttpEntity.class), eq(Map.class));
+		assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM sync_resource_snapshot", Integer.class)).isEqualTo(450);
+	}
+
+	@Test
+	void clustersSeededBySiteSyncAreNotFetchedAgain() {
+		ResourceApiService service = newService(List.of(ResourceType.of("station", "Station", "1000")));
+		SiteTopologyCache cache = (SiteTopologyCache) ReflectionTestUtils.getField(service, "siteTopologyCache");
+		// the site sync caches the responses it fetched by cluster name
+		for (String clusterName : List.of("cluster-1", "cluster-2", "cluster-5", "cluster-6")) {
+			cache.remember(clusterName, List.of(new SiteDetail(List.of(new CmEntry(clusterName, "CM1", List.of()),
+				new CmEntry(clusterName, "CM2", List.of())))));
+		}
+
+		assertThat(service.syncStationResources()).isEqualTo("Station resource sync completed. Success: 8, Failed: 0");
+		// only the clusters without cached CM names cost a site-detail call
+		verify(mockApiService).getSiteDetails("cluster-3");
+		verify(mockApiService).getSiteDetails("cluster-4");
+		verify(mockApiService, times(2)).getSiteDetails(anyString());
+		assertThat(cache.getStats()).containsEntry("hit", 4L).containsEntry("miss", 2L);
+	}
+
+	@Test
+	void rangePagesAreReadAsItemsComplete() {
+		jdbcTemplate.update("INSERT INTO pbx_system (id, physical_pbx, remark) VALUES (1, 'site-1', 'CM1')");
+		for (int range = 0; range < 20; range++) {
+			jdbcTemplate.update("INSERT INTO pbx_number_range (id_pbx_system, range_from, range_to, phone_number_type) VALUES (1, ?, ?, 1)",
+				String.valueOf(1000 + 10 * range), String.valueOf(1009 + 10 * range));
+		}
+		ResourceApiService service = newService(List.of(ResourceType.of("station", "Station", "9999").withRangeTypes("internal")));
+		JdbcTemplate rangeJdbcTemplate = spy(jdbcTemplate);
+		NumberRangeIdSource idSource = new NumberRangeIdSource(rangeJdbcTemplate);
+		ReflectionTestUtils.setField(idSource, "pageSize", 1);
+		ReflectionTestUtils.setField(service, "numberRangeIdSource", idSource);
+		ReflectionTestUtils.setField(service, "batchSize", 0);
+		ReflectionTestUtils.setField(service, "parallelism", 1);
+		ReflectionTestUtils.setField(service, "maxPending", 4);
+
+		// the first call is slow; meanwhile the run may only enumerate the few IDs it is allowed to queue
+		AtomicInteger pagesReadDuringFirstCall = new AtomicInteger(-1);
+		when(restTemplate.exchange(anyString(), eq(HttpMethod.GET), any(HttpEntity.class), eq(Map.class))).thenAnswer(invocation -> {
+			if (pagesReadDuringFirstCall.get() < 0) {
+				Thread.sleep(300);
+				// the spy also records JdbcTemplate's calls to itself; count the page queries only
+				pagesReadDuringFirstCall.set((int) mockingDetails(rangeJdbcTemplate).getInvocations().stream()
+					.filter(read -> read.getMethod().getName().equals("query") && read.getArgument(1) instanceof RowMapper).count());
+			}
+			return ResponseEntity.ok(Map.of("url", invocation.getArgument(0)));
+		});
+
+		// sites 1, 2, 5 and 6 each list a CM1 with 20 ranges of 10 stations, one page of ranges per query
+		assertThat(service.syncStationResources()).isEqualTo("Station resource sync completed. Success: 800, Failed: 0");
+		assertThat(pagesReadDuringFirstCall.get()).isBetween(1, 2);
+	}
+
+	@Test
+	void fallsBackToOneCallPerResourceWithoutBatchEndpoint() {
+		ResourceApiService service = newService(List.of(ResourceType.of("huntgroup", "HuntGroup", "2000,2001,2002")
+			.withDisplayName("Hunt group")));
+		doThrow(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not Found", null, null, null))
+			.when(restTemplate).exchange(anyString(), eq(HttpMethod.POST), any(HttpEntity.class), eq(Map.class));
+		ReflectionTestUtils.setField(service, "parallelism", 1);
+
+		assertThat(service.syncHuntGroupResources()).isEqualTo("Hunt group resource sync completed. Success: 16, Failed: 8");
+		// the first CM finds out the endpoint is missing; everything after uses single calls
+		verify(restTemplate, times(1)).exchange(anyString(), eq(HttpMethod.POST), any(HttpEntity.class), eq(Map.class));
+		verify(restTemplate, times(8 * 3)).exchange(anyString(), eq(HttpMethod.GET), any(HttpEntity.class), eq(Map.class));
+	}
+
+	@Test
+	void runResultsKeepTheirWording() {
+		ResourceApiService service = newService(List.of(ResourceType.of("pickupgroup", "PickupGroup", "3000")
+			.withDisplayName("Pickup group")));
+		when(masterServiceClient.getSites()).thenThrow(new IllegalStateException("master service down"));
+
+		assertThat(service.syncAllResources()).isEqualTo("Complete resource sync failed: master service down");
+		assertThat(service.syncPickupGroupResources()).isEqualTo("Pickup group resource sync failed: master service down");
+	}
+
+	@Test
+	void batchRoundTripBenchmark() {
+		StringJoiner ids = new StringJoiner(",");
+		for (int i = 0; i < 100; i++) {
+			ids.add(String.valueOf(5000 + 2 * i));
+		}
+		List<ResourceType> types = List.of(ResourceType.of("station", "Station", ids.toString()),
+			ResourceType.of("huntgroup", "HuntGroup", ids.toString()),
+			ResourceType.of("pickupgroup", "PickupGroup", ids.toString()));
+
+		long[] perCall = measure(types, 0);
+		long[] batched = measure(types, 200);
+
+		System.out.println("=== RESOURCE SYNC (8 CMs x 3 types x 100 IDs, mocked HTTP) ===");
+		System.out.printf("%-24s %12s %14s%n", "path", "ms", "round trips");
+		System.out.printf("%-24s %12d %14d%n", "one call per resource", perCall[0], perCall[1]);
+		System.out.printf("%-24s %12d %14d%n", "batch endpoint", batched[0], batched[1]);
+
+		assertThat(perCall[1]).isEqualTo(8 * 3 * 100);
+		assertThat(batched[1]).isEqualTo(8 * 3);
+	}
+
+	@Test
+	void httpModeLoadBenchmark() throws IOException {
+		// upstream answering every resource call after 20 ms, on enough threads to never be the bottleneck
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger peakInFlight = new AtomicInteger();
+		ThreadPoolExecutor serverThreads = new ThreadPoolExecutor(256, 256, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+		serverThreads.prestartAllCoreThreads();
+		// without TCP_NODELAY delayed ACKs add about 40 ms to every call
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		server.setExecutor(serverThreads);
+		server.createContext("/", exchange -> {
+			peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(20);
+				byte[] body = ("{\"url\":\"" + exchange.getRequestURI() + "\"}").getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				inFlight.decrementAndGet();
+			}
+		});
+		server.start();
+
+		RestClientConfig restClientConfig = new RestClientConfig();
+		ReflectionTestUtils.setField(restClientConfig, "connectionTimeout", 5000);
+		ReflectionTestUtils.setField(restClientConfig, "readTimeout", 5000);
+		ReflectionTestUtils.setField(restClientConfig, "maxConnections", 256);
+		RestTemplate realRestTemplate = restClientConfig.restTemplate();
+		AsyncUpstreamClient asyncUpstreamClient = new AsyncUpstreamClient();
+		String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+		StringJoiner ids = new StringJoiner(",");
+		for (int i = 0; i < 125; i++) {
+			ids.add(String.valueOf(1000 + i));
+		}
+		List<ResourceType> types = List.of(ResourceType.of("station", "Station", ids.toString()));
+		try {
+			// the first pass warms up connections and JIT; the second is reported
+			measureLoad(types, "blocking", 8, baseUrl, realRestTemplate, asyncUpstreamClient, peakInFlight);
+			measureLoad(types, "async", 8, baseUrl, realRestTemplate, asyncUpstreamClient, peakInFlight);
+			long[] blocking = measureLoad(types, "blocking", 8, baseUrl, realRestTemplate, asyncUpstreamClient, peakInFlight);
+			long[] blockingWide = measureLoad(types, "blocking", 64, baseUrl, realRestTemplate, asyncUpstreamClient, peakInFlight);
+			long[] async = measureLoad(types, "async", 8, baseUrl, realRestTemplate, asyncUpstreamClient, peakInFlight);
+
+			System.out.println("=== RESOURCE SYNC (8 CMs x 125 stations, one call each, 20 ms upstream) ===");
+			System.out.printf("%-24s %10s %10s %12s %16s%n", "mode", "ms", "calls/s", "peak calls", "threads started");
+			print("blocking, 8 workers", blocking);
+			print("blocking, 64 workers", blockingWide);
+			print("async, 8 workers", async);
+
+			// blocking mode is capped by its workers, async mode only by the per-CM limits
+			assertThat(async[1]).isGreaterThan(2 * blocking[1]);
+			assertThat(async[0]).isLessThan(blocking[0]);
+			assertThat(async[2]).isLessThan(blockingWide[2]);
+		} finally {
+			asyncUpstreamClient.shutdown();
+			server.stop(0);
+			serverThreads.shutdownNow();
+		}
+	}
+
+	private static void print(String label, long[] result) {
+		System.out.printf("%-24s %10d %10d %12d %16d%n", label, result[0], 1000L * 1000 / Math.max(1, result[0]), result[1], result[2]);
+	}
+
+	/**
+	 * Runs one station sync against a real upstream
+	 * @return Run time in ms, peak calls in flight at the upstream and threads started during the run
+	 */
+	private long[] measureLoad(List<ResourceType> types, String mode, int parallelism, String baseUrl, RestTemplate realRestTemplate,
+			AsyncUpstreamClient asyncUpstreamClient, AtomicInteger peakInFlight) {
+		ResourceApiService service = newService(types);
+		CmConcurrencyLimiter limiter = new CmConcurrencyLimiter(meterRegistry);
+		ReflectionTestUtils.setField(limiter, "initialLimit", 32);
+		ReflectionTestUtils.setField(service, "cmConcurrencyLimiter", limiter);
+		ReflectionTestUtils.setField(service, "restTemplate", realRestTemplate);
+		ReflectionTestUtils.setField(service, "asyncUpstreamClient", asyncUpstreamClient);
+		ReflectionTestUtils.setField(service, "mockApiBaseUrl", baseUrl);
+		ReflectionTestUtils.setField(service, "batchSize", 0);
+		ReflectionTestUtils.setField(service, "httpMode", mode);
+		ReflectionTestUtils.setField(service, "parallelism", parallelism);
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long threadsBefore = threads.getTotalStartedThreadCount();
+		peakInFlight.set(0);
+		long start = System.nanoTime();
+		assertThat(service.syncStationResources()).isEqualTo("Station resource sync completed. Success: 1000, Failed: 0");
+		long elapsed = (System.nanoTime() - start) / 1_000_000;
+		return new long[] {elapsed, peakInFlight.get(), threads.getTotalStartedThreadCount() - threadsBefore};
+	}
+
+	/**
+	 * Runs one full resource sync
+	 * @return Run time in ms and resource requests made
+	 */
+	private long[] measure(List<ResourceType> types, int batchSize) {
+		ResourceApiService service = newService(types);
+		ReflectionTestUtils.setField(service, "batchSize", batchSize);
+		long start = System.nanoTime();
+		assertThat(service.syncAllResources()).contains("Station (Success: 800, Failed: 0)");
+		long elapsed = (System.nanoTime() - start) / 1_000_000;
+		long requests = mockingDetails(restTemplate).getInvocations().size();
+		clearInvocations(restTemplate);
+		return new long[] {elapsed, requests};
+	}
+
+	@SuppressWarnings("unchecked")
+	private ResourceApiService newService(List<ResourceType> types) {
+		List<SiteDto> sites = new ArrayList<>();
+		for (int i = 1; i <= 6; i++) {
+			sites.add(new SiteDto(String.valueOf(i), "site-" + i, "cluster-" + i, "cluster-" + i));
+		}
+		when(masterServiceClient.getSites()).thenReturn(sites);
+		when(mockApiService.getSiteDetails(anyString())).thenAnswer(invocation -> {
+			String clusterName = invocation.getArgument(0);
+			return switch (clusterName) {
+				case "cluster-3" -> throw new IllegalStateException("simulated site detail failure");
+				case "cluster-4" -> List.of();
+				default -> List.of(new SiteDetail(List.of(new CmEntry(clusterName, "CM1", List.of()),
+					new CmEntry(clusterName, "CM2", List.of()), new CmEntry(clusterName, " ", List.of()))));
+			};
+		});
+
+		when(restTemplate.exchange(anyString(), eq(HttpMethod.GET), any(HttpEntity.class), eq(Map.class))).thenAnswer(invocation -> {
+			String url = invocation.getArgument(0);
+			return url.contains("/huntgroup/2001?")
+				? ResponseEntity.status(HttpStatus.NOT_FOUND).build()
+				: ResponseEntity.ok(Map.of("url", url));
+		});
+		MockApiController controller = new MockApiController();
+		when(restTemplate.exchange(anyString(), eq(HttpMethod.POST), any(HttpEntity.class), eq(Map.class))).thenAnswer(invocation -> {
+			String url = invocation.getArgument(0);
+			String type = url.substring(url.indexOf("/resource/") + "/resource/".length(), url.lastIndexOf("/batch"));
+			HttpEntity<Map<String, Object>> request = invocation.getArgument(2);
+			ResponseEntity<Map<String, Object>> response = controller.getResources(type, request.getBody());
+			for (Map<String, Object> result : (List<Map<String, Object>>) response.getBody().get("Results")) {
+				if (type.equals("huntgroup") && result.get("ResourceId").equals("2001")) {
+					result.put("Status", "error");
+					result.put("Message", "simulated not found");
+				}
+			}
+			return response;
+		});
+
+		ResourceApiService service = new ResourceApiService();
+		ReflectionTestUtils.setField(service, "restTemplate", restTemplate);
+		ReflectionTestUtils.setField(service, "masterServiceClient", masterServiceClient);
+		ReflectionTestUtils.setField(service, "siteTopologyCache", new SiteTopologyCache(mockApiService, meterRegistry, 60, 60, 100));
+		// checkpointing stays disabled because @Value defaults are not applied outside Spring
+		ReflectionTestUtils.setField(service, "syncCheckpointService", new SyncCheckpointService(null));
+		ReflectionTestUtils.setField(service, "resourceTypes", types);
+		ReflectionTestUtils.setField(service, "meterRegistry", meterRegistry);
+		ReflectionTestUtils.setField(service, "resourceSnapshotStore", new ResourceSnapshotStore(jdbcTemplate, meterRegistry));
+		ReflectionTestUtils.setField(service, "numberRangeIdSource", new NumberRangeIdSource(jdbcTemplate));
+		ReflectionTestUtils.setField(service, "cmConcurrencyLimiter", new CmConcurrencyLimiter(meterRegistry));
+		ReflectionTestUtils.setField(service, "mockApiBaseUrl", "http://mock");
+		return service;
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.ResourceResult;
+import com.amfk.starfish.sync.dto.ResourceSnapshot;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResourceSnapshotStoreTest {
+
+	private final JdbcTemplate jdbcTemplate = new EmbeddedSyncDatabase().jdbcTemplate();
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final ResourceSnapshotStore store = new ResourceSnapshotStore(jdbcTemplate, meterRegistry);
+
+	@Test
+	void onlyNewAndChangedPayloadsAreWritten() {
+		ReflectionTestUtils.setField(store, "batchSize", 3);
+		List<ResourceResult> results = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			results.add(ResourceResult.success("station", String.valueOf(1000 + i), "CM1", Map.of("Name", "station-" + i)));
+		}
+		results.add(ResourceResult.error("station", "1010", "CM1", "simulated failure"));
+		results.add(ResourceResult.success("huntgroup", "1000", "CM1", Map.of("Name", "group")));
+
+		assertThat(store.save(results)).isEqualTo(11);
+		assertThat(store.save(results)).isZero();
+
+		Map<String, Object> reordered = new LinkedHashMap<>();
+		reordered.put("b", 2);
+		reordered.put("a", 1);
+		assertThat(store.save(List.of(ResourceResult.success("station", "1003", "CM1", Map.of("Name", "renamed")),
+			ResourceResult.success("station", "1004", "CM1", reordered)))).isEqualTo(2);
+		assertThat(store.save(List.of(ResourceResult.success("station", "1004", "CM1", Map.of("a", 1, "b", 2))))).isZero();
+
+		assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM sync_resource_snapshot", Integer.class)).isEqualTo(11);
+		assertThat(store.find("station", "CM1", "1003")).map(ResourceSnapshot::attributes).contains(Map.of("Name", "renamed"));
+		assertThat(store.find("station", "CM1", "1010")).isEmpty();
+		assertThat(meterRegistry.get("resource.snapshot.rows").tag("result", "unchanged").counter().count()).isEqualTo(12);
+	}
+
+	@Test
+	void listPagesByResourceId() {
+		List<ResourceResult> results = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			results.add(ResourceResult.success("station", String.valueOf(1000 + i), "CM1", Map.of("Name", "station-" + i)));
+			results.add(ResourceResult.success("station", String.valueOf(1000 + i), "CM2", Map.of("Name", "station-" + i)));
+		}
+		store.save(results);
+
+		List<ResourceSnapshot> first = store.list("station", "CM1", null, 3);
+		List<ResourceSnapshot> second = store.list("station", "CM1", first.get(2).resourceId(), 3);
+
+		assertThat(first).extracting(ResourceSnapshot::resourceId).containsExactly("1000", "1001", "1002");
+		assertThat(second).extracting(ResourceSnapshot::resourceId).containsExactly("1003", "1004");
+		assertThat(second.get(0).contentHash()).hasSize(64);
+	}
+
+}
@@ -0,0 +1,200 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.SiteDetail;
+import com.amfk.starfish.sync.dto.SiteWriteCommand;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SiteDetailStreamParserTest {
+
+	private static final int SYNTHETIC_ENTRIES = 16_000;
+	private static final int SYNTHETIC_EXTENSIONS_PER_RANGE = 2_000;
+
+	private final SiteDetailStreamParser parser = new SiteDetailStreamParser();
+
+	@Test
+	void emitsSameCommandsAsTypedBinding() throws IOException {
+		String json = """
+			{"Status":"OK","Meta":{"Page":[1,2]},"Results":[
+			  {"Site":"wa-avapoc2001","CM":"CM1","Extra":{"Nested":[{"Site":"ignored"}]},"Ranges":[
+			    {"Type":"internal","LowerBound":"1000","UpperBound":"1099","AvailableExtensions":["1001"," 1002 ","A7","1001"]},
+			    {"AvailableExtensions":["2005","2001"],"Type":"external","Lowerbound":"2000","Upperbound":"2099"},
+			    {"Type":null,"Lowerbound":3000,"Upperbound":3099}
+			  ]},
+			  {"Site":"","CM":"CM2","Ranges":[]},
+			  {"CM":"CM3","Site":"wa-avapoc2002"},
+			]}
+			""";
+
+		List<SiteWriteCommand> streamed = new ArrayList<>();
+		int emitted = parser.parse(stream(json), streamed::add);
+		SiteDetail detail = new ObjectMapper().readValue(json.replace(",\n]}", "\n]}"), SiteDetail.class);
+		List<SiteWriteCommand> bound = new DatabaseUpdateService().toWriteCommands(List.of(detail));
+
+		assertThat(emitted).isEqualTo(2);
+		assertThat(describe(streamed)).isEqualTo(describe(bound));
+		assertThat(streamed.get(0).getRanges().get(0).getAvailableExtensions()).containsExactly("1001", "1002", "A7");
+		assertThat(streamed.get(0).getRanges().get(1).getAvailableExtensions()).containsExactly("2001", "2005");
+	}
+
+	@Test
+	void spooledResponseHashesRawBytes() throws IOException {
+		String json = "{\"Results\":[{\"Site\":\"wa-avapoc2001\",\"CM\":\"CM1\"}]}";
+
+		try (SpooledResponse first = SpooledResponse.copyOf(stream(json));
+			 SpooledResponse second = SpooledResponse.copyOf(stream(json));
+			 SpooledResponse changed = SpooledResponse.copyOf(stream(json.replace("CM1", "CM2")))) {
+			assertThat(first.getSize()).isEqualTo(json.length());
+			assertThat(first.getContentHash()).isEqualTo(second.getContentHash()).isNotEqualTo(changed.getContentHash());
+			try (InputStream body = first.open()) {
+				assertThat(parser.parse(body, command -> { })).isEqualTo(1);
+			}
+		}
+	}
+
+	@Test
+	void peakHeapStaysFlatForMultiHundredMegabytePayload() throws IOException {
+		SyntheticSiteDetails payload = new SyntheticSiteDetails(SYNTHETIC_ENTRIES);
+		long baseline = usedHeapAfterGc();
+		long[] peak = {baseline};
+		long[] extensions = {0};
+
+		int emitted = parser.parse(payload, command -> {
+			extensions[0] += command.getRanges().get(0).getAvailableExtensions().cardinality();
+			if (command.getSiteName().endsWith("000")) {
+				peak[0] = Math.max(peak[0], usedHeapAfterGc());
+			}
+		});
+
+		long mapBytes = mapTreeBytes(SYNTHETIC_ENTRIES / 40);
+		long peakGrowth = Math.max(0, peak[0] - baseline);
+		System.out.println("=== SITE DETAIL PARSING PEAK HEAP ===");
+		System.out.printf("%-22s %10s %14s%n", "mode", "payload MB", "peak heap KB");
+		System.out.printf("%-22s %10d %14d%n", "Map tree", payload.bytesFor(SYNTHETIC_ENTRIES / 40) >> 20, mapBytes / 1024);
+		System.out.printf("%-22s %10d %14d%n", "token stream", payload.bytesRead() >> 20, peakGrowth / 1024);
+
+		assertThat(emitted).isEqualTo(SYNTHETIC_ENTRIES);
+		assertThat(extensions[0]).isEqualTo((long) SYNTHETIC_ENTRIES * SYNTHETIC_EXTENSIONS_PER_RANGE);
+		assertThat(payload.bytesRead()).isGreaterThan(300L << 20);
+		assertThat(peakGrowth).isLessThan(32L << 20);
+		assertThat(peakGrowth).isLessThan(mapBytes);
+	}
+
+	/**
+	 * Heap retained by the Map tree of a payload with the given number of entries, for comparison
+	 */
+	private static long mapTreeBytes(int entries) throws IOException {
+		long before = usedHeapAfterGc();
+		Map<String, Object> tree = new ObjectMapper().readValue(new SyntheticSiteDetails(entries),
+			new TypeReference<Map<String, Object>>() { });
+		long after = usedHeapAfterGc();
+		assertThat(tree).containsKey("Results");
+		return Math.max(0, after - before);
+	}
+
+	private static String describe(List<SiteWriteCommand> commands) {
+		StringBuilder description = new StringBuilder();
+		for (SiteWriteCommand command : commands) {
+			description.append(command.getSiteName()).append('/').append(command.getCmName()).append('\n');
+			for (SiteWriteCommand.Range range : command.getRanges()) {
+				description.append("  ").append(range.getType()).append(' ').append(range.getLowerbound())
+					.append('-').append(range.getUpperbound()).append(' ');
+				range.getAvailableExtensions().forEach(extension -> description.append(extension).append(','));
+				description.append('\n');
+			}
+		}
+		return description.toString();
+	}
+
+	private static InputStream stream(String json) {
+		return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static long usedHeapAfterGc() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Mock API response with one Results entry per site, generated while it is read so the payload
+	 * itself never sits on the heap
+	 */
+	private static final class SyntheticSiteDetails extends InputStream {
+
+		private final int entries;
+		private final byte[] rangesJson;
+		private int nextEntry;
+		private byte[] chunk = "{\"Status\":\"OK\",\"Results\":[".getBytes(StandardCharsets.US_ASCII);
+		private int position;
+		private long bytesRead;
+
+		SyntheticSiteDetails(int entries) {
+			this.entries = entries;
+			StringBuilder ranges = new StringBuilder("\"Ranges\":[{\"Type\":\"internal\",\"Lowerbound\":\"4900000\",")
+				.append("\"Upperbound\":\"4909999\",\"AvailableExtensions\":[");
+			for (int i = 0; i < SYNTHETIC_EXTENSIONS_PER_RANGE; i++) {
+				ranges.append(i > 0 ? "," : "").append('"').append(4_900_000 + i * 5).append('"');
+			}
+			this.rangesJson = ranges.append("]}]}").toString().getBytes(StandardCharsets.US_ASCII);
+		}
+
+		@Override
+		public int read() {
+			byte[] single = new byte[1];
+			return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) {
+			if (position == chunk.length && !nextChunk()) {
+				return -1;
+			}
+			int count = Math.min(length, chunk.length - position);
+			System.arraycopy(chunk, position, buffer, offset, count);
+			position += count;
+			bytesRead += count;
+			return count;
+		}
+
+		long bytesRead() {
+			return bytesRead;
+		}
+
+		long bytesFor(int entryCount) {
+			return (long) entryCount * rangesJson.length;
+		}
+
+		private boolean nextChunk() {
+			if (nextEntry > entries) {
+				return false;
+			}
+			if (nextEntry == entries) {
+				chunk = "]}".getBytes(StandardCharsets.US_ASCII);
+			} else {
+				String prefix = (nextEntry > 0 ? "," : "") + "{\"Site\":\"site-" + nextEntry + "\",\"CM\":\"CM1\",";
+				byte[] prefixBytes = prefix.getBytes(StandardCharsets.US_ASCII);
+				chunk = new byte[prefixBytes.length + rangesJson.length];
+				System.arraycopy(prefixBytes, 0, chunk, 0, prefixBytes.length);
+				System.arraycopy(rangesJson, 0, chunk, prefixBytes.length, rangesJson.length);
+			}
+			nextEntry++;
+			position = 0;
+			return true;
+		}
+	}
+
+}
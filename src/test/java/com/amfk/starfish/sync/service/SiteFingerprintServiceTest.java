@@ -0,0 +1,42 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.CmEntry;
+import com.amfk.starfish.sync.dto.SiteDetail;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SiteFingerprintServiceTest {
+
+	private final SiteFingerprintService service = new SiteFingerprintService(null);
+
+	@Test
+	void fingerprintIgnoresPropertyOrder() throws IOException {
+		ObjectMapper objectMapper = new ObjectMapper();
+		SiteDetail first = objectMapper.readValue("""
+			{"Results":[{"Site":"wa-avapoc2001","CM":"CM1",
+			  "Ranges":[{"Type":"internal","Lowerbound":"1000","Upperbound":"1999"}]}]}
+			""", SiteDetail.class);
+		SiteDetail second = objectMapper.readValue("""
+			{"Results":[{"Ranges":[{"UpperBound":"1999","LowerBound":"1000","Type":"internal"}],
+			  "CM":"CM1","Site":"wa-avapoc2001"}]}
+			""", SiteDetail.class);
+
+		assertThat(service.fingerprint(List.of(first)))
+			.isEqualTo(service.fingerprint(List.of(second)))
+			.hasSize(64);
+	}
+
+	@Test
+	void fingerprintChangesWithContent() {
+		SiteDetail before = new SiteDetail(List.of(new CmEntry("wa-avapoc2001", "CM1", List.of())));
+		SiteDetail after = new SiteDetail(List.of(new CmEntry("wa-avapoc2001", "CM2", List.of())));
+
+		assertThat(service.fingerprint(List.of(before))).isNotEqualTo(service.fingerprint(List.of(after)));
+	}
+
+}
@@ -0,0 +1,150 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.SiteDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Simulates several service replicas pointed at one embedded database.
+ */
+class SitePartitionServiceTest {
+
+	private static final int PARTITIONS = 16;
+
+	private JdbcTemplate jdbcTemplate;
+
+	@BeforeEach
+	void setUp() {
+		jdbcTemplate = new EmbeddedSyncDatabase().jdbcTemplate();
+	}
+
+	@Test
+	void replicasSplitPartitionsWithoutOverlap() {
+		List<SitePartitionService> replicas = List.of(replica("node-a"), replica("node-b"), replica("node-c"));
+
+		rebalanceRounds(replicas, 3);
+
+		Set<Integer> covered = new HashSet<>();
+		for (SitePartitionService replica : replicas) {
+			Set<Integer> owned = replica.getOwnedPartitions();
+			// fair share is ceil(16 / 3) = 6, so the split is 6/6/4
+			assertThat(owned).hasSizeBetween(4, 6);
+			assertThat(covered).doesNotContainAnyElementsOf(owned);
+			covered.addAll(owned);
+		}
+		assertThat(covered).hasSize(PARTITIONS);
+	}
+
+	@Test
+	void everySiteIsSelectedByExactlyOneReplica() {
+		List<SitePartitionService> replicas = List.of(replica("node-a"), replica("node-b"), replica("node-c"));
+		rebalanceRounds(replicas, 3);
+		List<SiteDto> sites = sites(3000);
+
+		List<String> selected = new ArrayList<>();
+		for (SitePartitionService replica : replicas) {
+			List<SiteDto> share = replica.selectOwnedSites(sites);
+			// roughly a third each
+			assertThat(share.size()).isBetween(700, 1300);
+			share.forEach(site -> selected.add(site.getSiteId()));
+		}
+		assertThat(selected).hasSize(sites.size()).doesNotHaveDuplicates();
+	}
+
+	@Test
+	void partitionsOfDeadReplicaAreRebalanced() {
+		SitePartitionService nodeA = replica("node-a");
+		SitePartitionService nodeB = replica("node-b");
+		SitePartitionService nodeC = replica("node-c");
+		rebalanceRounds(List.of(nodeA, nodeB, nodeC), 3);
+
+		// node-c stops heartbeating; its heartbeat and leases run out
+		Timestamp past = Timestamp.valueOf(LocalDateTime.now().minusMinutes(10));
+		jdbcTemplate.update("UPDATE sync_instance SET heartbeat_on = ? WHERE instance_id = 'node-c'", past);
+		jdbcTemplate.update("UPDATE sync_site_partition SET lease_until = ? WHERE owner_id = 'node-c'", past);
+		rebalanceRounds(List.of(nodeA, nodeB), 2);
+
+		assertThat(nodeA.getOwnedPartitions()).hasSize(8);
+		assertThat(nodeB.getOwnedPartitions()).hasSize(8).doesNotContainAnyElementsOf(nodeA.getOwnedPartitions());
+	}
+
+	@Test
+	void releasedPartitionsAreTakenOverImmediately() {
+		SitePartitionService nodeA = replica("node-a");
+		SitePartitionService nodeB = replica("node-b");
+		rebalanceRounds(List.of(nodeA, nodeB), 3);
+
+		nodeB.release();
+		nodeA.rebalance();
+
+		assertThat(nodeA.getOwnedPartitions()).hasSize(PARTITIONS);
+	}
+
+	@Test
+	void runningSyncKeepsItsPartitionsUntilItEnds() {
+		SitePartitionService nodeA = replica("node-a");
+		nodeA.rebalance();
+		nodeA.beginSync();
+
+		// node-b joins while node-a is syncing all partitions
+		SitePartitionService nodeB = replica("node-b");
+		rebalanceRounds(List.of(nodeB, nodeA), 2);
+		assertThat(nodeA.getOwnedPartitions()).hasSize(PARTITIONS);
+		assertThat(nodeB.getOwnedPartitions()).isEmpty();
+		SiteDto site = sites(1).get(0);
+		assertThat(nodeA.ownsSite(site)).isTrue();
+		assertThat(nodeB.ownsSite(site)).isFalse();
+
+		nodeA.endSync();
+		rebalanceRounds(List.of(nodeA, nodeB), 2);
+		assertThat(nodeA.getOwnedPartitions()).hasSize(8);
+		assertThat(nodeB.getOwnedPartitions()).hasSize(8);
+	}
+
+	@Test
+	void partitionOfIsStableAndInRange() {
+		SiteDto site = new SiteDto("42", "site-42", "7", "cluster-7");
+
+		assertThat(SitePartitionService.partitionOf(site, PARTITIONS))
+			.isEqualTo(SitePartitionService.partitionOf(new SiteDto("42", "other-name", "7", "other-cluster"), PARTITIONS))
+			.isBetween(0, PARTITIONS - 1);
+		assertThat(IntStream.range(0, 1000)
+			.map(i -> SitePartitionService.partitionOf(new SiteDto(String.valueOf(i), null, "1", null), PARTITIONS))
+			.distinct().count()).isEqualTo(PARTITIONS);
+	}
+
+	private SitePartitionService replica(String instanceId) {
+		SitePartitionService service = new SitePartitionService(jdbcTemplate, new SyncInstanceIdentity(instanceId));
+		ReflectionTestUtils.setField(service, "shardEnabled", true);
+		ReflectionTestUtils.setField(service, "partitionCount", PARTITIONS);
+		ReflectionTestUtils.setField(service, "leaseSeconds", 90L);
+		return service;
+	}
+
+	private static void rebalanceRounds(List<SitePartitionService> replicas, int rounds) {
+		for (int round = 0; round < rounds; round++) {
+			replicas.forEach(SitePartitionService::rebalance);
+		}
+	}
+
+	private static List<SiteDto> sites(int count) {
+		List<SiteDto> sites = new ArrayList<>(count);
+		for (int i = 1; i <= count; i++) {
+			sites.add(new SiteDto(String.valueOf(i), "site-" + i, String.valueOf(i % 40), "cluster-" + (i % 40)));
+		}
+		return sites;
+	}
+
+}
@@ -0,0 +1,172 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.CmEntry;
+import com.amfk.starfish.sync.dto.SiteDetail;
+import com.amfk.starfish.sync.dto.SiteDto;
+import com.amfk.starfish.sync.dto.SiteWriteCommand;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SiteSyncPipelineTest {
+
+	@Test
+	void slowWriterThrottlesFetching() throws InterruptedException {
+		int fetchWorkers = 4;
+		int transformWorkers = 1;
+		int writeWorkers = 1;
+		int queueCapacity = 2;
+
+		AtomicInteger fetched = new AtomicInteger();
+		AtomicInteger written = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+
+		MockApiService mockApiService = mock(MockApiService.class);
+		when(mockApiService.getSiteDetails(anyString())).thenAnswer(invocation -> {
+			int inFlight = fetched.incrementAndGet() - written.get();
+			maxInFlight.accumulateAndGet(inFlight, Math::max);
+			return List.of(new SiteDetail(List.of(new CmEntry(invocation.getArgument(0), "CM1", List.of()))));
+		});
+		DatabaseUpdateService databaseUpdateService = spy(new DatabaseUpdateService());
+		doAnswer(invocation -> {
+			Thread.sleep(5);
+			written.incrementAndGet();
+			return true;
+		}).when(databaseUpdateService).applyWriteCommand(any());
+
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		SiteSyncPipeline pipeline = new SiteSyncPipeline(mockApiService, databaseUpdateService,
+			mock(SiteFingerprintService.class), mock(PbxWriteBehindBuffer.class), mock(SiteTopologyCache.class), meterRegistry);
+		ReflectionTestUtils.setField(pipeline, "fetchWorkers", fetchWorkers);
+		ReflectionTestUtils.setField(pipeline, "transformWorkers", transformWorkers);
+		ReflectionTestUtils.setField(pipeline, "writeWorkers", writeWorkers);
+		ReflectionTestUtils.setField(pipeline, "queueCapacity", queueCapacity);
+
+		List<SiteDto> sites = new ArrayList<>();
+		for (int i = 1; i <= 100; i++) {
+			sites.add(new SiteDto(String.valueOf(i), "site-" + i, "cluster-" + i, "cluster-" + i));
+		}
+
+		List<SiteOutcome> outcomes = pipeline.run(sites, false, false, site -> true, (site, outcome) -> { });
+
+		assertThat(outcomes).hasSize(100).containsOnly(SiteOutcome.SUCCESS);
+		// two full queues plus at most one item held by every worker
+		assertThat(maxInFlight.get())
+			.isLessThanOrEqualTo(2 * queueCapacity + fetchWorkers + transformWorkers + writeWorkers);
+		assertThat(meterRegistry.get("site.sync.pipeline.queue.depth").tag("queue", "write").gauge().value())
+			.isZero();
+	}
+
+	@Test
+	void rejectedWriteBehindSubmitFailsOnlyItsSite() throws InterruptedException {
+		MockApiService mockApiService = mock(MockApiService.class);
+		when(mockApiService.getSiteDetails(anyString())).thenAnswer(invocation ->
+			List.of(new SiteDetail(List.of(new CmEntry(invocation.getArgument(0), "CM1", List.of())))));
+		PbxWriteBehindBuffer writeBehindBuffer = mock(PbxWriteBehindBuffer.class);
+		AtomicInteger submits = new AtomicInteger();
+		// the buffer rejects every other entry
+		when(writeBehindBuffer.submit(any())).thenAnswer(invocation -> {
+			if (submits.incrementAndGet() % 2 == 0) {
+				throw new IllegalStateException("simulated buffer failure");
+			}
+			return CompletableFuture.completedFuture(true);
+		});
+
+		SiteSyncPipeline pipeline = new SiteSyncPipeline(mockApiService, new DatabaseUpdateService(),
+			mock(SiteFingerprintService.class), writeBehindBuffer, mock(SiteTopologyCache.class), new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(pipeline, "fetchWorkers", 1);
+		ReflectionTestUtils.setField(pipeline, "transformWorkers", 1);
+		ReflectionTestUtils.setField(pipeline, "writeWorkers", 1);
+		ReflectionTestUtils.setField(pipeline, "queueCapacity", 1);
+		ReflectionTestUtils.setField(pipeline, "writeBehindEnabled", true);
+
+		List<SiteDto> sites = new ArrayList<>();
+		for (int i = 1; i <= 10; i++) {
+			sites.add(new SiteDto(String.valueOf(i), "site-" + i, "cluster-" + i, "cluster-" + i));
+		}
+
+		// the single writer must survive the rejections, or the transformer blocks on the full queue
+		List<SiteOutcome> outcomes = assertTimeoutPreemptively(Duration.ofSeconds(10),
+			() -> pipeline.run(sites, false, false, site -> true, (site, outcome) -> { }));
+
+		assertThat(outcomes).hasSize(10);
+		assertThat(outcomes).filteredOn(outcome -> outcome == SiteOutcome.FAILED).hasSize(5);
+	}
+
+	@Test
+	void largeResponseIsWrittenWhileItIsParsed() throws Exception {
+		int entries = 500;
+		int queueCapacity = 2;
+		StringJoiner results = new StringJoiner(",", "{\"Results\":[", "]}");
+		for (int i = 0; i < entries; i++) {
+			results.add("{\"Site\":\"site-1\",\"CM\":\"CM" + i + "\",\"Ranges\":[]}");
+		}
+		byte[] body = results.toString().getBytes(StandardCharsets.UTF_8);
+
+		MockApiService mockApiService = mock(MockApiService.class);
+		when(mockApiService.spoolSiteDetails(anyString())).thenAnswer(invocation -> SpooledResponse.copyOf(new ByteArrayInputStream(body)));
+
+		// count the commands the parser has handed on, and the most of them not yet written at any time
+		AtomicInteger parsed = new AtomicInteger();
+		AtomicInteger written = new AtomicInteger();
+		AtomicInteger maxUnwritten = new AtomicInteger();
+		SiteDetailStreamParser realParser = new SiteDetailStreamParser();
+		SiteDetailStreamParser parser = spy(realParser);
+		doAnswer(invocation -> {
+			Consumer<SiteWriteCommand> consumer = invocation.getArgument(1);
+			return realParser.parse(invocation.getArgument(0), command -> {
+				parsed.incrementAndGet();
+				consumer.accept(command);
+			});
+		}).when(parser).parse(any(), any());
+		DatabaseUpdateService databaseUpdateService = spy(new DatabaseUpdateService());
+		ReflectionTestUtils.setField(databaseUpdateService, "siteDetailStreamParser", parser);
+		doAnswer(invocation -> {
+			Thread.sleep(1);
+			maxUnwritten.accumulateAndGet(parsed.get() - written.incrementAndGet(), Math::max);
+			return true;
+		}).when(databaseUpdateService).applyWriteCommand(any());
+
+		SiteTopologyCache siteTopologyCache = mock(SiteTopologyCache.class);
+		SiteSyncPipeline pipeline = new SiteSyncPipeline(mockApiService, databaseUpdateService,
+			mock(SiteFingerprintService.class), mock(PbxWriteBehindBuffer.class), siteTopologyCache, new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(pipeline, "fetchWorkers", 1);
+		ReflectionTestUtils.setField(pipeline, "transformWorkers", 1);
+		ReflectionTestUtils.setField(pipeline, "writeWorkers", 1);
+		ReflectionTestUtils.setField(pipeline, "queueCapacity", queueCapacity);
+
+		List<SiteOutcome> outcomes = pipeline.run(List.of(new SiteDto("1", "site-1", "cluster-1", "cluster-1")),
+			false, true, site -> true, (site, outcome) -> { });
+
+		assertThat(outcomes).containsExactly(SiteOutcome.SUCCESS);
+		assertThat(written.get()).isEqualTo(entries);
+		// a full write queue plus the command held by the parser and the one being written
+		assertThat(maxUnwritten.get()).isLessThanOrEqualTo(queueCapacity + 2);
+		verify(siteTopologyCache).remember(eq("cluster-1"), argThat((Collection<String> cmNames) -> cmNames.size() == entries));
+	}
+
+}
@@ -0,0 +1,309 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.CmEntry;
+import com.amfk.starfish.sync.dto.SiteDetail;
+import com.amfk.starfish.sync.dto.SiteDto;
+import com.amfk.starfish.sync.dto.SiteWriteCommand;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SiteSyncServiceTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(SiteSyncServiceTest.class);
+
+	private static final long FETCH_LATENCY_MS = 4;
+	private static final long WRITE_LATENCY_MS = 2;
+
+	@Test
+	void concurrentModesProduceSameCountsAsSequential() {
+		List<SiteDto> sites = sites(60);
+
+		String sequential = newService(sites, "sequential", 1).syncSites();
+		String parallel = newService(sites, "parallel", 8).syncSites();
+		String pipeline = newService(sites, "pipeline", 8).syncSites();
+
+		// every 10th cluster returns no data and every 15th write fails
+		assertThat(sequential).contains("Processed: 60, Success: 52, Failed: 8");
+		assertThat(parallel).isEqualTo(sequential);
+		assertThat(pipeline).isEqualTo(sequential);
+	}
+
+	@Test
+	void deltaModeSkipsDatabaseForUnchangedClusters() {
+		List<SiteDto> sites = sites(20);
+		SiteFingerprintService fingerprintService = mock(SiteFingerprintService.class);
+		when(fingerprintService.fingerprint(anyList())).thenReturn("same-hash");
+		when(fingerprintService.isUnchanged(anyString(), eq("same-hash")))
+			.thenAnswer(invocation -> siteNumber(invocation.getArgument(0)) % 2 == 0);
+
+		for (String mode : new String[] {"parallel", "pipeline"}) {
+			SiteSyncService service = newService(sites, mode, 4, fingerprintService);
+			ReflectionTestUtils.setField(service, "deltaEnabled", true);
+
+			// odd clusters are written (site 15 fails), even clusters are unchanged (10 and 20 have no data)
+			assertThat(service.syncSites())
+				.contains("Processed: 20, Success: 17, Failed: 3, Unchanged (DB skipped): 8");
+		}
+		verify(fingerprintService, times(2)).recordFingerprint("cluster-1", "same-hash");
+		verify(fingerprintService, never()).recordFingerprint(eq("cluster-15"), anyString());
+	}
+
+	@Test
+	void deltaModeSeedsTopologyCacheForUnchangedClusters() {
+		List<SiteDto> sites = sites(20);
+		SiteFingerprintService fingerprintService = mock(SiteFingerprintService.class);
+		when(fingerprintService.fingerprint(anyList())).thenReturn("same-hash");
+		when(fingerprintService.isUnchanged(anyString(), anyString()))
+			.thenAnswer(invocation -> siteNumber(invocation.getArgument(0)) % 2 == 0);
+
+		for (String mode : new String[] {"sequential", "parallel", "pipeline"}) {
+			for (boolean streaming : new boolean[] {false, true}) {
+				SiteSyncService service = newService(sites, mode, 4, fingerprintService);
+				ReflectionTestUtils.setField(service, "deltaEnabled", true);
+				ReflectionTestUtils.setField(service, "streamingFetch", streaming);
+				service.syncSites();
+
+				SiteTopologyCache topologyCache = (SiteTopologyCache) ReflectionTestUtils.getField(service, "siteTopologyCache");
+				// cluster-2 is unchanged and cluster-1 is written; both are cached for the resource sync
+				List<Object> remembered = mockingDetails(topologyCache).getInvocations().stream()
+					.filter(invocation -> invocation.getMethod().getName().equals("remember"))
+					.map(invocation -> invocation.getArgument(0))
+					.toList();
+				assertThat(remembered).as(mode + (streaming ? " streaming" : "")).contains("cluster-1", "cluster-2");
+			}
+		}
+	}
+
+	@Test
+	void resumedRunProcessesOnlyRemainingSites() {
+		SyncCheckpointService checkpointService = new SyncCheckpointService(new EmbeddedSyncDatabase().jdbcTemplate());
+		ReflectionTestUtils.setField(checkpointService, "checkpointEnabled", true);
+		ReflectionTestUtils.setField(checkpointService, "maxAgeHours", 20L);
+
+		// an earlier attempt finished sites 1-40 (every 10th failed) before the pod restarted
+		SyncRun interrupted = checkpointService.startOrResume(SiteSyncService.SITE_SYNC_JOB);
+		for (int i = 1; i <= 40; i++) {
+			checkpointService.markItem(interrupted, String.valueOf(i), i % 10 == 0 ? "FAILED" : "SUCCESS");
+		}
+
+		List<SiteDto> sites = sites(60);
+		String resumed = newService(sites, "pipeline", 4, mock(SiteFingerprintService.class), checkpointService).syncSites();
+		String fresh = newService(sites, "pipeline", 4, mock(SiteFingerprintService.class), checkpointService).syncSites();
+
+		// sites 41-60 plus the four failed ones are retried; 10-60 step 10 still have no data and 45 fails to write
+		assertThat(resumed).contains("Processed: 24, Success: 17, Failed: 7", "Resumed (already done): 36");
+		assertThat(fresh).contains("Processed: 60", "Resumed (already done): 0");
+	}
+
+	@Test
+	void shardedRunCompletesOnceEveryPartitionIsDone() {
+		JdbcTemplate jdbcTemplate = new EmbeddedSyncDatabase().jdbcTemplate();
+		SyncCheckpointService checkpointService = new SyncCheckpointService(jdbcTemplate);
+		ReflectionTestUtils.setField(checkpointService, "checkpointEnabled", true);
+		ReflectionTestUtils.setField(checkpointService, "maxAgeHours", 20L);
+		SitePartitionService nodeA = shard(jdbcTemplate, "node-a");
+		SitePartitionService nodeB = shard(jdbcTemplate, "node-b");
+		for (int round = 0; round < 3; round++) {
+			nodeA.rebalance();
+			nodeB.rebalance();
+		}
+
+		List<SiteDto> sites = sites(60);
+		String resultA = newService(sites, "pipeline", 4, mock(SiteFingerprintService.class), checkpointService, nodeA).syncSites();
+		// node-b has not synced its partitions yet, so the shared run stays open
+		assertThat(jdbcTemplate.queryForList("SELECT status FROM sync_run", String.class)).containsExactly("RUNNING");
+
+		String resultB = newService(sites, "parallel", 4, mock(SiteFingerprintService.class), checkpointService, nodeB).syncSites();
+		assertThat(jdbcTemplate.queryForList("SELECT status FROM sync_run", String.class)).containsExactly("COMPLETED");
+		assertThat(processed(resultA) + processed(resultB)).isEqualTo(60);
+	}
+
+	@Test
+	void siteOfLostPartitionIsLeftToItsNewOwner() {
+		JdbcTemplate jdbcTemplate = new EmbeddedSyncDatabase().jdbcTemplate();
+		SitePartitionService nodeA = spy(shard(jdbcTemplate, "node-a"));
+		nodeA.rebalance();
+		// node-a misses its heartbeats right after selecting its sites, and node-b claims partition 0
+		doAnswer(invocation -> {
+			Object selected = invocation.callRealMethod();
+			jdbcTemplate.update("UPDATE sync_site_partition SET owner_id = 'node-b' WHERE partition_id = 0");
+			return selected;
+		}).when(nodeA).selectOwnedSites(anyList());
+		List<SiteDto> sites = sites(60);
+		SiteSyncService service = newService(sites, "sequential", 1, mock(SiteFingerprintService.class),
+			new SyncCheckpointService(null), nodeA);
+
+		long lostSites = sites.stream().filter(site -> nodeA.partitionIdOf(site) == 0).count();
+		assertThat(lostSites).isPositive();
+		assertThat(processed(service.syncSites())).isEqualTo(60 - lostSites);
+	}
+
+	@Test
+	void parallelModeSyncsUpToParallelismSitesAtOnce() {
+		int parallelism = 8;
+		SiteSyncService service = newService(sites(4 * parallelism), "parallel", parallelism);
+		MockApiService mockApiService = (MockApiService) ReflectionTestUtils.getField(service, "mockApiService");
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+		CountDownLatch allWorkersBusy = new CountDownLatch(parallelism);
+		doAnswer(invocation -> {
+			maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+			try {
+				// hold each fetch until every worker has a site, which only a concurrent run reaches
+				allWorkersBusy.countDown();
+				allWorkersBusy.await(5, TimeUnit.SECONDS);
+				return List.of(new SiteDetail(List.of(new CmEntry(invocation.getArgument(0), "CM1", List.of()))));
+			} finally {
+				inFlight.decrementAndGet();
+			}
+		}).when(mockApiService).getSiteDetails(anyString());
+
+		service.syncSites();
+
+		assertThat(allWorkersBusy.getCount()).isZero();
+		assertThat(maxInFlight).hasValue(parallelism);
+	}
+
+	/**
+	 * Wall-clock comparison of the sync modes with simulated latency. Excluded from the default
+	 * build; run with mvn test -Pbenchmark.
+	 */
+	@Test
+	@Tag("benchmark")
+	void benchmarkWallClockBySiteCount() {
+		int[] siteCounts = {50, 100, 200};
+		String[][] modes = {{"sequential", "1"}, {"parallel", "8"}, {"parallel", "32"}, {"pipeline", "8"}};
+
+		for (int siteCount : siteCounts) {
+			List<SiteDto> sites = sites(siteCount);
+			for (String[] mode : modes) {
+				SiteSyncService service = newService(sites, mode[0], Integer.parseInt(mode[1]));
+				long start = System.nanoTime();
+				service.syncSites();
+				logger.info("{} sites, {}-{}: {} ms (fetch {} ms, write {} ms per site)", siteCount, mode[0], mode[1],
+					(System.nanoTime() - start) / 1_000_000, FETCH_LATENCY_MS, WRITE_LATENCY_MS);
+			}
+		}
+	}
+
+	private SiteSyncService newService(List<SiteDto> sites, String mode, int parallelism) {
+		return newService(sites, mode, parallelism, mock(SiteFingerprintService.class));
+	}
+
+	private SiteSyncService newService(List<SiteDto> sites, String mode, int parallelism,
+			SiteFingerprintService fingerprintService) {
+		// checkpointing stays disabled because @Value defaults are not applied outside Spring
+		return newService(sites, mode, parallelism, fingerprintService, new SyncCheckpointService(null));
+	}
+
+	private SiteSyncService newService(List<SiteDto> sites, String mode, int parallelism,
+			SiteFingerprintService fingerprintService, SyncCheckpointService checkpointService) {
+		return newService(sites, mode, parallelism, fingerprintService, checkpointService,
+			new SitePartitionService(null, new SyncInstanceIdentity("test-node")));
+	}
+
+	private SiteSyncService newService(List<SiteDto> sites, String mode, int parallelism,
+			SiteFingerprintService fingerprintService, SyncCheckpointService checkpointService,
+			SitePartitionService partitionService) {
+		MasterServiceClient masterServiceClient = mock(MasterServiceClient.class);
+		MockApiService mockApiService = mock(MockApiService.class);
+		DatabaseUpdateService databaseUpdateService = spy(new DatabaseUpdateService());
+		ReflectionTestUtils.setField(databaseUpdateService, "siteDetailStreamParser", new SiteDetailStreamParser());
+
+		when(masterServiceClient.getSites()).thenReturn(sites);
+		when(mockApiService.getSiteDetails(anyString())).thenAnswer(invocation -> {
+			Thread.sleep(FETCH_LATENCY_MS);
+			String clusterName = invocation.getArgument(0);
+			if (siteNumber(clusterName) % 10 == 0) {
+				return List.of();
+			}
+			return List.of(new SiteDetail(List.of(new CmEntry(clusterName, "CM1", List.of()))));
+		});
+		when(mockApiService.spoolSiteDetails(anyString())).thenAnswer(invocation -> {
+			Thread.sleep(FETCH_LATENCY_MS);
+			String clusterName = invocation.getArgument(0);
+			String body = siteNumber(clusterName) % 10 == 0 ? "{\"Results\":[]}"
+				: "{\"Results\":[{\"Site\":\"" + clusterName + "\",\"CM\":\"CM1\",\"Ranges\":[]}]}";
+			return SpooledResponse.copyOf(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+		});
+		doAnswer(invocation -> {
+			Thread.sleep(WRITE_LATENCY_MS);
+			SiteWriteCommand command = invocation.getArgument(0);
+			if (siteNumber(command.getSiteName()) % 15 == 0) {
+				throw new RuntimeException("simulated write failure");
+			}
+			return true;
+		}).when(databaseUpdateService).applyWriteCommand(any());
+
+		SiteTopologyCache topologyCache = mock(SiteTopologyCache.class);
+		SiteSyncPipeline pipeline = new SiteSyncPipeline(mockApiService, databaseUpdateService, fingerprintService,
+			mock(PbxWriteBehindBuffer.class), topologyCache, new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(pipeline, "fetchWorkers", parallelism);
+		ReflectionTestUtils.setField(pipeline, "transformWorkers", 2);
+		ReflectionTestUtils.setField(pipeline, "writeWorkers", Math.max(1, parallelism / 2));
+		ReflectionTestUtils.setField(pipeline, "queueCapacity", 16);
+
+		SiteSyncService service = new SiteSyncService(masterServiceClient, mockApiService, databaseUpdateService,
+			fingerprintService, pipeline, checkpointService, partitionService, new RowWriteStats(), topologyCache);
+		ReflectionTestUtils.setField(service, "syncMode", mode);
+		ReflectionTestUtils.setField(service, "parallelism", parallelism);
+		ReflectionTestUtils.setField(service, "siteDelayMs", 0L);
+		return service;
+	}
+
+	private static List<SiteDto> sites(int count) {
+		List<SiteDto> sites = new ArrayList<>(count);
+		for (int i = 1; i <= count; i++) {
+			sites.add(new SiteDto(String.valueOf(i), "site-" + i, "cluster-" + i, "cluster-" + i));
+		}
+		return sites;
+	}
+
+	private static SitePartitionService shard(JdbcTemplate jdbcTemplate, String instanceId) {
+		SitePartitionService service = new SitePartitionService(jdbcTemplate, new SyncInstanceIdentity(instanceId));
+		ReflectionTestUtils.setField(service, "shardEnabled", true);
+		ReflectionTestUtils.setField(service, "partitionCount", 4);
+		ReflectionTestUtils.setField(service, "leaseSeconds", 90L);
+		return service;
+	}
+
+	private static int processed(String result) {
+		Matcher matcher = Pattern.compile("Processed: (\\d+)").matcher(result);
+		assertThat(matcher.find()).isTrue();
+		return Integer.parseInt(matcher.group(1));
+	}
+
+	private static int siteNumber(String clusterName) {
+		return Integer.parseInt(clusterName.substring(clusterName.lastIndexOf('-') + 1));
+	}
+
+}
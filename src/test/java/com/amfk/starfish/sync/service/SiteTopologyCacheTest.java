@@ -0,0 +1,115 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.CmEntry;
+import com.amfk.starfish.sync.dto.SiteDetail;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SiteTopologyCacheTest {
+
+	private final MockApiService mockApiService = mock(MockApiService.class);
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final AtomicInteger loads = new AtomicInteger();
+
+	SiteTopologyCacheTest() {
+		when(mockApiService.getSiteDetails(anyString())).thenAnswer(invocation -> {
+			int load = loads.incrementAndGet();
+			String clusterName = invocation.getArgument(0);
+			if (clusterName.startsWith("empty")) {
+				return List.of();
+			}
+			return List.of(new SiteDetail(List.of(new CmEntry(clusterName, "CM" + load, List.of()),
+				new CmEntry(clusterName, "CM" + load, List.of()), new CmEntry(clusterName, null, List.of()))));
+		});
+	}
+
+	@Test
+	void freshEntriesAreServedFromCacheUntilInvalidated() {
+		SiteTopologyCache cache = new SiteTopologyCache(mockApiService, meterRegistry, 60, 60, 100);
+
+		assertThat(cache.getCmNames("cluster-1")).containsExactly("CM1");
+		assertThat(cache.getCmNames("cluster-1")).containsExactly("CM1");
+		cache.invalidate("cluster-1");
+		assertThat(cache.getCmNames("cluster-1")).containsExactly("CM2");
+
+		assertThat(cache.getStats()).containsEntry("hit", 1L).containsEntry("miss", 2L).containsEntry("size", 1L);
+		assertThat(meterRegistry.get("sync.topology.cache.load").timer().count()).isEqualTo(2);
+	}
+
+	@Test
+	void staleEntriesAreServedWhileOneRefreshRuns() throws InterruptedException {
+		SiteTopologyCache cache = new SiteTopologyCache(mockApiService, meterRegistry, 0, 60, 100);
+		cache.remember("cluster-1", List.of("CM0"));
+
+		for (int i = 0; i < 20; i++) {
+			assertThat(cache.getCmNames("cluster-1")).isNotEmpty();
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!cache.getCmNames("cluster-1").contains("CM1") && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+
+		assertThat(cache.getCmNames("cluster-1")).doesNotContain("CM0");
+		assertThat(cache.getStats().get("stale")).isGreaterThanOrEqualTo(20);
+		assertThat(cache.getStats().get("miss")).isZero();
+		// a refresh is only started while none is in flight for the cluster
+		assertThat(loads.get()).isLessThan(20);
+	}
+
+	@Test
+	void expiredAndEmptyEntriesAreLoadedOnTheCallingThreadOnce() throws Exception {
+		SiteTopologyCache cache = new SiteTopologyCache(mockApiService, meterRegistry, 0, 0, 100);
+		CountDownLatch start = new CountDownLatch(1);
+		List<CompletableFuture<List<String>>> lookups = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			lookups.add(CompletableFuture.supplyAsync(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return cache.getCmNames("cluster-1");
+			}));
+		}
+		start.countDown();
+		for (CompletableFuture<List<String>> lookup : lookups) {
+			assertThat(lookup.get(5, TimeUnit.SECONDS)).hasSize(1);
+		}
+
+		assertThat(cache.getCmNames("empty-1")).isEmpty();
+		assertThat(cache.getCmNames("empty-1")).isEmpty();
+		verify(mockApiService, times(2)).getSiteDetails("empty-1");
+		assertThat(cache.getStats().get("size")).isEqualTo(1);
+	}
+
+	@Test
+	void leastRecentlyUsedClustersAreEvicted() {
+		SiteTopologyCache cache = new SiteTopologyCache(mockApiService, meterRegistry, 60, 60, 2);
+
+		cache.remember("cluster-1", List.of("CM1"));
+		cache.remember("cluster-2", List.of("CM1"));
+		cache.getCmNames("cluster-1");
+		cache.remember("cluster-3", List.of("CM1"));
+
+		assertThat(cache.getCmNames("cluster-1")).containsExactly("CM1");
+		assertThat(cache.getStats()).containsEntry("hit", 2L).containsEntry("size", 2L);
+		assertThat(cache.getCmNames("cluster-2")).containsExactly("CM1");
+		verify(mockApiService, times(1)).getSiteDetails("cluster-2");
+	}
+
+}
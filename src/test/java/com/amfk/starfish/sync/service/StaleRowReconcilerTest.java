@@ -0,0 +1,93 @@
+package com.amfk.starfish.sync.service;
+
+import com.amfk.starfish.sync.dto.SiteWriteCommand;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StaleRowReconcilerTest {
+
+	private final JdbcTemplate jdbcTemplate = new EmbeddedSyncDatabase().withPbxTables().jdbcTemplate();
+
+	@Test
+	void removedRangesAndExtensionsAreDeleted() {
+		DatabaseUpdateService service = newService(StaleRowReconciler.MODE_DELETE);
+		service.applyWriteCommand(command(range("1000", "1099", extensions(1000, 10)), range("2000", "2099", extensions(2000, 10))));
+
+		assertThat(service.applyWriteCommand(command(range("1000", "1099", extensions(1000, 8))))).isTrue();
+
+		assertThat(jdbcTemplate.queryForList("SELECT range_from FROM pbx_number_range", String.class)).containsExactly("1000");
+		assertThat(count("pbx_number_reserved")).isEqualTo(8);
+	}
+
+	@Test
+	void reportModeKeepsStaleRows() {
+		DatabaseUpdateService service = newService(StaleRowReconciler.MODE_REPORT);
+		service.applyWriteCommand(command(range("1000", "1099", extensions(1000, 10)), range("2000", "2099", extensions(2000, 10))));
+
+		service.applyWriteCommand(command(range("1000", "1099", extensions(1000, 8))));
+
+		assertThat(count("pbx_number_range")).isEqualTo(2);
+		assertThat(count("pbx_number_reserved")).isEqualTo(20);
+	}
+
+	@Test
+	void emptyResponseDoesNotWipeTheSystem() {
+		DatabaseUpdateService service = newService(StaleRowReconciler.MODE_DELETE);
+		service.applyWriteCommand(command(range("1000", "1099", extensions(1000, 10))));
+
+		service.applyWriteCommand(command());
+		service.applyWriteCommand(command(range("1000", "1099", List.of())));
+
+		assertThat(count("pbx_number_range")).isEqualTo(1);
+		assertThat(count("pbx_number_reserved")).isEqualTo(10);
+	}
+
+	@Test
+	void massDeletionAboveThresholdIsBlocked() {
+		DatabaseUpdateService service = newService(StaleRowReconciler.MODE_DELETE);
+		service.applyWriteCommand(command(range("1000", "1999", extensions(1000, 100))));
+
+		// 90 of 100 stored extensions would go: blocked
+		service.applyWriteCommand(command(range("1000", "1999", extensions(1000, 10))));
+		assertThat(count("pbx_number_reserved")).isEqualTo(100);
+
+		// 30 of 100 stays under the 50% ratio
+		service.applyWriteCommand(command(range("1000", "1999", extensions(1000, 70))));
+		assertThat(count("pbx_number_reserved")).isEqualTo(70);
+	}
+
+	private DatabaseUpdateService newService(String mode) {
+		DatabaseUpdateService service = DatabaseUpdateServiceTest.newService(jdbcTemplate, true);
+		StaleRowReconciler reconciler = new StaleRowReconciler(jdbcTemplate);
+		ReflectionTestUtils.setField(reconciler, "mode", mode);
+		ReflectionTestUtils.setField(service, "staleRowReconciler", reconciler);
+		return service;
+	}
+
+	private int count(String table) {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+	}
+
+	private static SiteWriteCommand command(SiteWriteCommand.Range... ranges) {
+		return new SiteWriteCommand("wa-avapoc2001", "CM1", List.of(ranges));
+	}
+
+	private static SiteWriteCommand.Range range(String lowerbound, String upperbound, List<String> extensions) {
+		return new SiteWriteCommand.Range("internal", lowerbound, upperbound, extensions);
+	}
+
+	private static List<String> extensions(int first, int count) {
+		List<String> extensions = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			extensions.add(String.valueOf(first + i));
+		}
+		return extensions;
+	}
+
+}
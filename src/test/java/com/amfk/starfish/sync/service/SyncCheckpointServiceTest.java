@@ -0,0 +1,107 @@
+package com.amfk.starfish.sync.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+
+class SyncCheckpointServiceTest {
+
+	private JdbcTemplate jdbcTemplate;
+	private SyncCheckpointService service;
+
+	@BeforeEach
+	void setUp() {
+		jdbcTemplate = new EmbeddedSyncDatabase().jdbcTemplate();
+		service = new SyncCheckpointService(jdbcTemplate);
+		ReflectionTestUtils.setField(service, "checkpointEnabled", true);
+		ReflectionTestUtils.setField(service, "maxAgeHours", 20L);
+	}
+
+	@Test
+	void unfinishedRunIsResumedWithoutItsFailedItems() {
+		SyncRun first = service.startOrResume("site-sync");
+		service.markItem(first, "site-1", "SUCCESS");
+		service.markItem(first, "site-2", "UNCHANGED");
+		service.markItem(first, "site-3", "FAILED");
+
+		SyncRun resumed = service.startOrResume("site-sync");
+
+		assertThat(first.isResumed()).isFalse();
+		assertThat(resumed.isResumed()).isTrue();
+		assertThat(resumed.getRunId()).isEqualTo(first.getRunId());
+		assertThat(resumed.isCompleted("site-1")).isTrue();
+		assertThat(resumed.isCompleted("site-2")).isTrue();
+		assertThat(resumed.isCompleted("site-3")).isFalse();
+	}
+
+	@Test
+	void completedRunIsNotResumed() {
+		SyncRun first = service.startOrResume("site-sync");
+		service.markItem(first, "site-1", "SUCCESS");
+		service.complete(first);
+
+		SyncRun next = service.startOrResume("site-sync");
+
+		assertThat(next.isResumed()).isFalse();
+		assertThat(next.getRunId()).isNotEqualTo(first.getRunId());
+		assertThat(next.getCompletedCount()).isZero();
+	}
+
+	@Test
+	void staleCheckpointForcesFullRun() {
+		SyncRun first = service.startOrResume("site-sync");
+		service.markItem(first, "site-1", "SUCCESS");
+		jdbcTemplate.update("UPDATE sync_run SET started_on = ? WHERE run_id = ?",
+			Timestamp.valueOf(LocalDateTime.now().minusHours(30)), first.getRunId());
+
+		SyncRun next = service.startOrResume("site-sync");
+
+		assertThat(next.isResumed()).isFalse();
+		assertThat(jdbcTemplate.queryForObject("SELECT status FROM sync_run WHERE run_id = ?", String.class,
+			first.getRunId())).isEqualTo(SyncCheckpointService.STATUS_ABANDONED);
+	}
+
+	@Test
+	void replicasStartingTogetherJoinOneRun() {
+		JdbcTemplate replicaJdbcTemplate = spy(jdbcTemplate);
+		SyncCheckpointService replica = new SyncCheckpointService(replicaJdbcTemplate);
+		ReflectionTestUtils.setField(replica, "checkpointEnabled", true);
+		ReflectionTestUtils.setField(replica, "maxAgeHours", 20L);
+		// the other instance starts its run right after the replica found no unfinished one
+		SyncRun[] other = new SyncRun[1];
+		doAnswer(invocation -> {
+			Object unfinished = invocation.callRealMethod();
+			other[0] = service.startOrResume("site-sync");
+			return unfinished;
+		}).when(replicaJdbcTemplate).queryForList(startsWith("SELECT run_id, started_on FROM sync_run"),
+			eq("site-sync"), eq(SyncCheckpointService.STATUS_RUNNING));
+
+		SyncRun joined = replica.startOrResume("site-sync");
+
+		assertThat(other[0].isResumed()).isFalse();
+		assertThat(joined.getRunId()).isEqualTo(other[0].getRunId());
+		assertThat(jdbcTemplate.queryForList("SELECT status FROM sync_run", String.class)).containsExactly("RUNNING");
+	}
+
+	@Test
+	void runsOfDifferentJobsAreIndependent() {
+		SyncRun siteRun = service.startOrResume("site-sync");
+		service.markItem(siteRun, "site-1", "SUCCESS");
+
+		SyncRun resourceRun = service.startOrResume("resource-sync");
+
+		assertThat(resourceRun.isResumed()).isFalse();
+		assertThat(resourceRun.isCompleted("site-1")).isFalse();
+	}
+
+}
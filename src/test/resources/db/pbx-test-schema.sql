@@ -0,0 +1,45 @@
+-- Minimal copies of the externally managed pbx_* tables, with only the columns the sync service touches.
+
+CREATE TABLE IF NOT EXISTS pbx_phone_number_type (
+    id INT NOT NULL AUTO_INCREMENT,
+    name VARCHAR(64) NOT NULL,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS pbx_system (
+    id INT NOT NULL AUTO_INCREMENT,
+    physical_pbx VARCHAR(255),
+    remark VARCHAR(255),
+    aem_pbx VARCHAR(255),
+    id_pbx_cluster INT,
+    log_created_by VARCHAR(64),
+    log_created_on DATETIME,
+    log_updated_by VARCHAR(64),
+    log_updated_on DATETIME,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS pbx_number_range (
+    id INT NOT NULL AUTO_INCREMENT,
+    id_pbx_system INT,
+    range_from VARCHAR(32),
+    range_to VARCHAR(32),
+    phone_number_type INT,
+    id_pbx_cluster INT,
+    log_created_by VARCHAR(64),
+    log_created_on DATETIME,
+    log_updated_by VARCHAR(64),
+    log_updated_on DATETIME,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS pbx_number_reserved (
+    id INT NOT NULL AUTO_INCREMENT,
+    pbx_system_id INT,
+    extensions VARCHAR(32),
+    reserve_start_time DATETIME,
+    reserve_end_time DATETIME,
+    PRIMARY KEY (id)
+);
+
+INSERT INTO pbx_phone_number_type (name) VALUES ('internal'), ('external');